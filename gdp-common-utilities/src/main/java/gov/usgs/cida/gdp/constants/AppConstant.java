@@ -19,6 +19,8 @@ public enum AppConstant {
     FILE_WIPE_CHECK_WORKSPACES("gdp.file.wipe.workspace.check"), // Which workspaces do we check for file wiping
     FILE_WIPE_MILLIS("gdp.file.age.limit"), // Age, in milliseconds, that a file can be before it gets wiped (Default: 48 hours)
     FILE_WIPE_CHECK_RATE("gdp.file.wipe.check.rate"), // Rate, in milliseconds, at which to run the file wipe timer
+    FILE_WIPE_SWEEP_RATE("gdp.file.wipe.sweep.rate"), // Rate, in milliseconds, at which to walk the work space for files missing from the wipe index (Default: 24 hours)
+    FILE_WIPE_DELETE_RATE("gdp.file.wipe.delete.rate"), // Most files deleted per second by the file wipe system
 
     WFS_ENDPOINT("gdp.geoserver.url"), // Default location where Geoserver can be found
     WFS_USER("gdp.geoserver.username"), // Username for Geoserver endpoint if needed
@@ -30,6 +32,8 @@ public enum AppConstant {
     EMAIL_ON_SYSERR("gdp.check.timer.email_on_syserr"), // Should the process checker email on system error (error code recv from server). Only used when BREAK_ON_SYSERR = true.
     CHECK_COMPLETE_MILLIS("gdp.communication.recheck"), // Time, in milliseconds, to recheck for process completion (Default: 1 min)
     CHECK_PROC_ERR_LIMIT("gdp.communication.recheck.err_limit"), // How many tries will the system attempt to check the process and get an error before giving up. Default is -1 (never give up)
+    CHECK_COMPLETE_MAX_MILLIS("gdp.communication.recheck.max"), // Longest time, in milliseconds, between checks of a process whose status is not changing (Default: 15 min)
+    CHECK_COMPLETE_THREADS("gdp.communication.recheck.threads"), // Threads shared by process completion checks
     FROM_EMAIL("gdp.communication.from.addr"), // Email address from which to send messages
     TRACK_EMAIL("gdp.communication.bcc.addr"), // Email address to track requests on
     EMAIL_HOST("gdp.communication.smtp.host"), // Email smtp server address
@@ -44,7 +48,24 @@ public enum AppConstant {
     HEURISTIC_GEOMETRY_MEMORY_MAX("gdp.heuristic.geometry.memory.max"), // Max bytes for process at single timestep
     HEURISTIC_GEOMETRY_FEATURE_EDGES("gdp.heuristic.geometry.feature.edges"), // Heuristic value for edges per feature
     HEURISTIC_SUMMARY_OUTPUT_MAX("gdp.heuristic.summary.output.max"), // Max size for csv/tsv file
-    HEURISTIC_TIME_TOTAL_MAX("gdp.heuristic.time.max"); // Total job time to allow before failing (actual processing)
+    HEURISTIC_TIME_TOTAL_MAX("gdp.heuristic.time.max"), // Total job time to allow before failing (actual processing)
+
+    NETCDF4_DEFLATE_LEVEL("gdp.netcdf4.deflate.level"), // Deflate level (0-9) for NetCDF-4 subset output
+    NETCDF4_SHUFFLE("gdp.netcdf4.shuffle"), // Apply the shuffle filter to NetCDF-4 subset output
+    NETCDF4_CHUNK_BYTES("gdp.netcdf4.chunk.bytes"), // Target chunk size, in bytes, for NetCDF-4 subset output
+    NETCDF4_CHUNK_SHAPE("gdp.netcdf4.chunk.shape"), // Fixed chunk shape (e.g. 365,16,16) for NetCDF-4 grids, empty for time series chunking
+
+    DATASET_POOL_SIZE("gdp.dataset.pool.size"), // Number of OPeNDAP datasets kept open for reuse, each used by one job at a time
+    DATASET_POOL_IDLE_MILLIS("gdp.dataset.pool.idle"), // Time, in milliseconds, an unused dataset is kept open (Default: 10 min)
+    DATASET_POOL_CHECK_MILLIS("gdp.dataset.pool.check"), // Time, in milliseconds, after which a pooled dataset is checked before reuse (Default: 1 min)
+
+    CACHE_TTL_MILLIS("gdp.cache.ttl"), // Time, in milliseconds, a cached dataset response is used before it is revalidated (Default: 24 hours)
+    CACHE_MEMORY_ENTRIES("gdp.cache.memory.entries"), // Number of dataset responses kept in memory
+    CACHE_DISK_BYTES("gdp.cache.disk.bytes"), // Max bytes of dataset responses kept in the cache directory
+    TILE_CACHE_BYTES("gdp.tile.cache.bytes"), // Max bytes of remote grid tiles kept on disk, 0 or less disables the tile cache
+    SCHEMA_CACHE_ENTRIES("gdp.schema.cache.entries"), // Max feature type schemas kept compiled in memory
+    SCHEMA_CACHE_TTL_MILLIS("gdp.schema.cache.ttl"), // How long a feature type schema is reused before it is fetched again
+    WCS_CACHE_BYTES("gdp.wcs.cache.bytes"); // Max bytes of WCS coverages and DescribeCoverage documents kept on disk, 0 or less disables the WCS cache
 
     private String input;
     private String value;
@@ -107,6 +128,14 @@ public enum AppConstant {
             if (input.equals("gdp.file.wipe.check.rate")) {
                 result = "3600000";
             }
+            // FILE_WIPE_SWEEP_RATE
+            if (input.equals("gdp.file.wipe.sweep.rate")) {
+                result = Long.valueOf(24 * 3600000l).toString();
+            }
+            // FILE_WIPE_DELETE_RATE
+            if (input.equals("gdp.file.wipe.delete.rate")) {
+                result = "100";
+            }
             ///////////////////// Endpoint constants
             // WFS_ENDPOINT
             if (input.equals("gdp.geoserver.url")) {
@@ -146,6 +175,14 @@ public enum AppConstant {
             if (input.equals("gdp.communication.recheck.err_limit")) {
                 result = "-1";
             }
+            // CHECK_COMPLETE_MAX_MILLIS
+            if (input.equals("gdp.communication.recheck.max")) {
+                result = Long.valueOf(15 * 60 * 1000l).toString();
+            }
+            // CHECK_COMPLETE_THREADS
+            if (input.equals("gdp.communication.recheck.threads")) {
+                result = "2";
+            }
             // FROM_EMAIL
             if (input.equals("gdp.communication.from.addr")) {
                 result = "gdp_data@usgs.gov";
@@ -200,6 +237,69 @@ public enum AppConstant {
             if (input.equals("gdp.heuristic.time.max")) {
                 result = String.valueOf(24l * 60l * 60l * 1000l); // 24 hours
             }
+
+            // NETCDF4_DEFLATE_LEVEL
+            if (input.equals("gdp.netcdf4.deflate.level")) {
+                result = "4";
+            }
+            // NETCDF4_SHUFFLE
+            if (input.equals("gdp.netcdf4.shuffle")) {
+                result = "true";
+            }
+            // NETCDF4_CHUNK_BYTES
+            if (input.equals("gdp.netcdf4.chunk.bytes")) {
+                result = String.valueOf(1024l * 1024l); // 1 MB
+            }
+            // NETCDF4_CHUNK_SHAPE
+            if (input.equals("gdp.netcdf4.chunk.shape")) {
+                result = "";
+            }
+
+            // DATASET_POOL_SIZE
+            if (input.equals("gdp.dataset.pool.size")) {
+                result = "16";
+            }
+            // DATASET_POOL_IDLE_MILLIS
+            if (input.equals("gdp.dataset.pool.idle")) {
+                result = String.valueOf(10l * 60l * 1000l); // 10 minutes
+            }
+            // DATASET_POOL_CHECK_MILLIS
+            if (input.equals("gdp.dataset.pool.check")) {
+                result = String.valueOf(60l * 1000l); // 1 minute
+            }
+
+            // CACHE_TTL_MILLIS
+            if (input.equals("gdp.cache.ttl")) {
+                result = String.valueOf(24l * 60l * 60l * 1000l); // 24 hours
+            }
+            // CACHE_MEMORY_ENTRIES
+            if (input.equals("gdp.cache.memory.entries")) {
+                result = "500";
+            }
+            // CACHE_DISK_BYTES
+            if (input.equals("gdp.cache.disk.bytes")) {
+                result = String.valueOf(1024l * 1024l * 100l); // 100 MB
+            }
+
+            // TILE_CACHE_BYTES
+            if (input.equals("gdp.tile.cache.bytes")) {
+                result = String.valueOf(1024l * 1024l * 1024l); // 1 GB
+            }
+
+            // SCHEMA_CACHE_ENTRIES
+            if (input.equals("gdp.schema.cache.entries")) {
+                result = "50";
+            }
+
+            // SCHEMA_CACHE_TTL_MILLIS
+            if (input.equals("gdp.schema.cache.ttl")) {
+                result = String.valueOf(1000l * 60l * 60l); // 1 hour
+            }
+
+            // WCS_CACHE_BYTES
+            if (input.equals("gdp.wcs.cache.bytes")) {
+                result = String.valueOf(1024l * 1024l * 1024l); // 1 GB
+            }
             System.setProperty(input, result);
         }
 
@@ -0,0 +1,267 @@
+package gov.usgs.cida.gdp.utilities;
+
+import gov.usgs.cida.gdp.constants.AppConstant;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records when work space files expire as they are created so they can be
+ * deleted without walking the work space.
+ * <p>
+ * The index is a directory of bucket files, one per hour of expiry times,
+ * each listing the paths expiring in that hour.  A bucket is read and deleted
+ * once its hour has passed, so a file is wiped at most one bucket late.  The
+ * index lives outside the work space and is shared by every application using
+ * the same cache location; files created without registering are left to
+ * {@link #sweep()}.  Both deletion passes are limited to a number of files per
+ * second so they do not compete with running jobs for the disk.
+ */
+public class FileLifecycleRegistry {
+    private static final Logger log = LoggerFactory.getLogger(FileLifecycleRegistry.class);
+    private static final String SUFFIX_BUCKET = ".expire";
+    private static final long DEFAULT_BUCKET_MILLIS = 3600000l;
+    private static FileLifecycleRegistry instance;
+
+    private final File indexDir;
+    private final File workspaceDir;
+    private final long fileAge;
+    private final long bucketMillis;
+    private final long deleteInterval;
+    private final Object throttleLock = new Object();
+    private long nextDelete;
+
+    /**
+     * @param indexDir directory holding the expiry index, must not be inside
+     * the work space
+     * @param workspaceDir directory temporary files are created in
+     * @param fileAge time, in milliseconds, a file is kept
+     * @param bucketMillis span of expiry times listed in one index file
+     * @param deletesPerSecond most files deleted per second, 0 for no limit
+     */
+    public FileLifecycleRegistry(File indexDir, File workspaceDir, long fileAge, long bucketMillis, int deletesPerSecond) {
+        this.indexDir = indexDir;
+        this.workspaceDir = workspaceDir;
+        this.fileAge = fileAge;
+        this.bucketMillis = bucketMillis;
+        this.deleteInterval = deletesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / deletesPerSecond : 0;
+    }
+
+    /**
+     * @return registry for {@link AppConstant#WORK_LOCATION}, indexed in
+     * {@link AppConstant#CACHE_LOCATION}
+     */
+    public static synchronized FileLifecycleRegistry getInstance() {
+        if (instance == null) {
+            instance = new FileLifecycleRegistry(
+                    new File(AppConstant.CACHE_LOCATION.getValue(), "lifecycle"),
+                    new File(AppConstant.WORK_LOCATION.getValue()),
+                    Long.parseLong(AppConstant.FILE_WIPE_MILLIS.getValue()),
+                    DEFAULT_BUCKET_MILLIS,
+                    Integer.parseInt(AppConstant.FILE_WIPE_DELETE_RATE.getValue()));
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a registered temporary file in the work space.
+     *
+     * @see File#createTempFile(String, String, File)
+     * @param prefix
+     * @param suffix
+     * @return the new, empty file
+     * @throws IOException
+     */
+    public File createTempFile(String prefix, String suffix) throws IOException {
+        return register(File.createTempFile(prefix, suffix, workspaceDir));
+    }
+
+    /**
+     * Registers a file or directory to be deleted once it is as old as the
+     * file age limit.
+     *
+     * @param file file or directory, null is ignored
+     * @return the file given
+     */
+    public File register(File file) {
+        if (file != null) {
+            register(file, System.currentTimeMillis() + fileAge);
+        }
+        return file;
+    }
+
+    /**
+     * @param file file or directory
+     * @param expires time, in milliseconds, after which the file is deleted
+     */
+    public synchronized void register(File file, long expires) {
+        File bucket = new File(indexDir, (expires / bucketMillis * bucketMillis) + SUFFIX_BUCKET);
+        OutputStream out = null;
+        try {
+            FileUtils.forceMkdir(indexDir);
+            // one write per line, appends from other applications do not interleave
+            out = new FileOutputStream(bucket, true);
+            out.write((file.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            log.warn("Unable to register " + file + ", leaving it to the work space sweep", ex);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Deletes the files of every bucket whose expiry times have all passed.
+     *
+     * @return files and directories deleted
+     */
+    public int deleteExpired() {
+        long now = System.currentTimeMillis();
+        File[] buckets = indexDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX_BUCKET);
+            }
+        });
+        if (buckets == null) {
+            return 0;
+        }
+        Arrays.sort(buckets);
+        int deleted = 0;
+        for (File bucket : buckets) {
+            long start;
+            try {
+                start = Long.parseLong(bucket.getName().substring(0, bucket.getName().length() - SUFFIX_BUCKET.length()));
+            } catch (NumberFormatException ex) {
+                log.warn("Unknown file in expiry index: " + bucket);
+                continue;
+            }
+            if (start + bucketMillis > now) {
+                continue;
+            }
+            List<String> paths;
+            try {
+                paths = FileUtils.readLines(bucket, "UTF-8");
+            } catch (IOException ex) {
+                log.warn("Unable to read " + bucket, ex);
+                continue;
+            }
+            for (String path : paths) {
+                File file = new File(path);
+                if (file.exists()) {
+                    if (!throttle()) {
+                        return deleted;
+                    }
+                    if (FileUtils.deleteQuietly(file)) {
+                        deleted++;
+                    } else {
+                        log.info("Deleting File: \"" + file + "\" ... FAILED!");
+                    }
+                }
+            }
+            FileUtils.deleteQuietly(bucket);
+        }
+        if (deleted > 0) {
+            log.info("Deleted " + deleted + " expired work space files.");
+        }
+        return deleted;
+    }
+
+    /**
+     * Walks the work space for files older than the file age limit that were
+     * never registered or whose entry was lost, deleting them and any
+     * directories they leave empty.
+     *
+     * @return files and directories deleted
+     */
+    public int sweep() {
+        if (!workspaceDir.exists()) {
+            return 0;
+        }
+        final Path root = workspaceDir.toPath();
+        final long cutoff = System.currentTimeMillis() - fileAge;
+        final int[] deleted = new int[1];
+        // deleting a file makes its directory look new
+        final Set<Path> emptied = new HashSet<Path>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.lastModifiedTime().toMillis() < cutoff) {
+                        if (!throttle()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        if (Files.deleteIfExists(file)) {
+                            deleted[0]++;
+                            emptied.add(file.getParent());
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // deleted while walking, or unreadable
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    String[] children = dir.toFile().list();
+                    boolean old = emptied.remove(dir) || dir.toFile().lastModified() < cutoff;
+                    if (!dir.equals(root) && children != null && children.length == 0
+                            && old && dir.toFile().delete()) {
+                        deleted[0]++;
+                        emptied.add(dir.getParent());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            log.warn("Unable to sweep " + workspaceDir, ex);
+        }
+        if (deleted[0] > 0) {
+            log.info("Sweep of " + workspaceDir + " deleted " + deleted[0] + " files.");
+        }
+        return deleted[0];
+    }
+
+    /**
+     * Waits for the next deletion allowed by the delete rate.
+     *
+     * @return false if interrupted, the caller should stop deleting
+     */
+    private boolean throttle() {
+        if (deleteInterval > 0) {
+            synchronized (throttleLock) {
+                long now = System.nanoTime();
+                if (nextDelete > now) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(nextDelete - now);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                nextDelete = Math.max(now, nextDelete) + deleteInterval;
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+}
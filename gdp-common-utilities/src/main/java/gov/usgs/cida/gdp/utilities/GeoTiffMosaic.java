@@ -0,0 +1,431 @@
+package gov.usgs.cida.gdp.utilities;
+
+import static gov.usgs.cida.gdp.utilities.GeoTiffTiler.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+import gov.usgs.cida.gdp.utilities.GeoTiffTiler.Entry;
+
+/**
+ * Joins GeoTIFFs covering neighbouring parts of one grid into a single
+ * uncompressed, strip organized GeoTIFF.  The parts must be uncompressed,
+ * strip or tile organized, and share their sample layout and byte order.  All
+ * tags of the upper left part other than the image layout tags (including the
+ * GeoTIFF keys and GDAL's NoData value) are carried over, so it has to be the
+ * part at the origin of the mosaic.
+ * <p>
+ * The parts are memory mapped and the mosaic is written a strip at a time, so
+ * memory use does not grow with the size of the mosaic.
+ */
+public class GeoTiffMosaic {
+
+    private static final int TAG_SAMPLE_FORMAT = 339;
+    private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+    private static final int TAG_MODEL_TIEPOINT = 33922;
+    private static final int TAG_GDAL_NODATA = 42113;
+
+    private static final int SAMPLE_FORMAT_UINT = 1;
+    private static final int SAMPLE_FORMAT_INT = 2;
+    private static final int SAMPLE_FORMAT_IEEEFP = 3;
+
+    // strips of about this size, as netCDF-Java writes them
+    private static final int STRIP_BYTES = 8 * 1024;
+    /**
+     * Most bytes of cells a mosaic can hold, it is written as a classic TIFF
+     * with 32 bit offsets.
+     */
+    public static final long CLASSIC_TIFF_MAX = 0xFFFFFFFFL - (1 << 20);
+
+    private GeoTiffMosaic() {
+    }
+
+    /**
+     * Parts are placed by their ModelTiepoint and ModelPixelScale tags when
+     * they all have them, otherwise on a grid of tileSize cells.  Cells no
+     * part covers are set to the NoData value of the upper left part, without
+     * one the parts must cover the whole mosaic.
+     *
+     * @param parts parts by row, then column, of the grid they were cut on
+     * @param tileSize width and height in cells of all but the last row and
+     * column of parts
+     * @param width width of the mosaic in cells
+     * @param height height of the mosaic in cells
+     * @param target file to write the mosaic to, replaced if it exists
+     * @throws IOException if a part can not be read or is not a layout this
+     * class understands, or if there is no NoData value for cells the parts
+     * do not cover
+     */
+    public static void mosaic(Path[][] parts, int tileSize, int width, int height, Path target) throws IOException {
+        if (parts.length == 0 || parts[0].length == 0) {
+            throw new IllegalArgumentException("No parts to join");
+        }
+        Part[][] grid = new Part[parts.length][];
+        for (int row = 0; row < parts.length; row++) {
+            grid[row] = new Part[parts[row].length];
+            for (int column = 0; column < parts[row].length; column++) {
+                grid[row][column] = new Part(parts[row][column]);
+            }
+        }
+        Part first = grid[0][0];
+        List<Part> placed = new ArrayList<>();
+        for (Part[] partRow : grid) {
+            for (Part part : partRow) {
+                if (part.in.order() != first.in.order() || part.pixelBytes != first.pixelBytes
+                        || !sameValue(first, part, TAG_BITS_PER_SAMPLE)
+                        || !sameValue(first, part, TAG_SAMPLES_PER_PIXEL)
+                        || !sameValue(first, part, TAG_SAMPLE_FORMAT)) {
+                    throw new IOException("Samples of " + part.path + " are not laid out as those of " + first.path);
+                }
+                placed.add(part);
+            }
+        }
+        if (!placeByTiepoints(grid, width, height)) {
+            for (int row = 0; row < grid.length; row++) {
+                for (int column = 0; column < grid[row].length; column++) {
+                    grid[row][column].row = row * tileSize;
+                    grid[row][column].column = column * tileSize;
+                }
+            }
+        }
+
+        int pixelBytes = first.pixelBytes;
+        long rowBytes = (long) width * pixelBytes;
+        if (rowBytes * height > CLASSIC_TIFF_MAX) {
+            throw new IOException("Mosaic of " + width + "x" + height + " cells is too large for a classic TIFF");
+        }
+        byte[] noData = first.noData();
+        if (noData == null) {
+            requireCovered(placed, width, height);
+        }
+        int rowsPerStrip = (int) Math.max(1, Math.min(height, STRIP_BYTES / rowBytes));
+        int stripCount = (height + rowsPerStrip - 1) / rowsPerStrip;
+        long[] stripOffsets = new long[stripCount];
+        long[] stripByteCounts = new long[stripCount];
+        byte[] strip = new byte[(int) (rowsPerStrip * rowBytes)];
+        // what a strip holds before the parts are copied in
+        byte[] blank = new byte[strip.length];
+        if (noData != null) {
+            for (int offset = 0; offset < blank.length; offset += pixelBytes) {
+                System.arraycopy(noData, 0, blank, offset, pixelBytes);
+            }
+        }
+
+        Files.deleteIfExists(target);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long position = HEADER_LENGTH;
+            for (int index = 0; index < stripCount; index++) {
+                int firstRow = index * rowsPerStrip;
+                int rows = Math.min(rowsPerStrip, height - firstRow);
+                System.arraycopy(blank, 0, strip, 0, strip.length);
+                for (Part part : placed) {
+                    int from = Math.max(firstRow, part.row);
+                    int to = Math.min(firstRow + rows, Math.min(height, part.row + part.height));
+                    int length = Math.min(part.width, width - part.column) * pixelBytes;
+                    for (int row = from; row < to && length > 0; row++) {
+                        part.readRow(row - part.row, strip,
+                                (int) ((row - firstRow) * rowBytes) + part.column * pixelBytes, length);
+                    }
+                }
+                stripOffsets[index] = position;
+                stripByteCounts[index] = rows * rowBytes;
+                position += writeFully(out, ByteBuffer.wrap(strip, 0, (int) (rows * rowBytes)), position);
+            }
+
+            List<Entry> entries = new ArrayList<>();
+            for (Entry entry : first.entries) {
+                switch (entry.tag) {
+                    case TAG_IMAGE_WIDTH:
+                    case TAG_IMAGE_LENGTH:
+                    case TAG_COMPRESSION:
+                    case TAG_STRIP_OFFSETS:
+                    case TAG_ROWS_PER_STRIP:
+                    case TAG_STRIP_BYTE_COUNTS:
+                    case TAG_TILE_WIDTH:
+                    case TAG_TILE_LENGTH:
+                    case TAG_TILE_OFFSETS:
+                    case TAG_TILE_BYTE_COUNTS:
+                        break;
+                    default:
+                        entries.add(entry);
+                }
+            }
+            ByteOrder order = first.in.order();
+            entries.add(Entry.of(TAG_IMAGE_WIDTH, TYPE_LONG, order, width));
+            entries.add(Entry.of(TAG_IMAGE_LENGTH, TYPE_LONG, order, height));
+            entries.add(Entry.of(TAG_COMPRESSION, TYPE_SHORT, order, COMPRESSION_NONE));
+            entries.add(Entry.of(TAG_STRIP_OFFSETS, TYPE_LONG, order, stripOffsets));
+            entries.add(Entry.of(TAG_ROWS_PER_STRIP, TYPE_LONG, order, rowsPerStrip));
+            entries.add(Entry.of(TAG_STRIP_BYTE_COUNTS, TYPE_LONG, order, stripByteCounts));
+            Collections.sort(entries, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry o1, Entry o2) {
+                    return Integer.compare(o1.tag, o2.tag);
+                }
+            });
+
+            long directoryOffset = position + (position & 1);
+            writeFully(out, directory(entries, directoryOffset, order), directoryOffset);
+            writeFully(out, header(order, directoryOffset), 0);
+        }
+    }
+
+    /**
+     * Places each part relative to the first from its tie point, as long as
+     * every part has one at the first part's scale and lands inside the
+     * mosaic.
+     */
+    private static boolean placeByTiepoints(Part[][] grid, int width, int height) {
+        double[] origin = grid[0][0].origin();
+        if (origin == null) {
+            return false;
+        }
+        for (Part[] partRow : grid) {
+            for (Part part : partRow) {
+                double[] partOrigin = part.origin();
+                if (partOrigin == null
+                        || Math.abs(partOrigin[2] - origin[2]) > Math.abs(origin[2]) * 1e-6
+                        || Math.abs(partOrigin[3] - origin[3]) > Math.abs(origin[3]) * 1e-6) {
+                    return false;
+                }
+                part.column = (int) Math.round((partOrigin[0] - origin[0]) / origin[2]);
+                part.row = (int) Math.round((origin[1] - partOrigin[1]) / origin[3]);
+                if (part.column < 0 || part.column >= width || part.row < 0 || part.row >= height) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks each band of rows between the parts' top and bottom edges is
+     * covered across the mosaic's width by the parts spanning it.
+     */
+    private static void requireCovered(List<Part> parts, int width, int height) throws IOException {
+        TreeSet<Integer> edges = new TreeSet<>();
+        edges.add(0);
+        edges.add(height);
+        for (Part part : parts) {
+            edges.add(Math.min(height, part.row));
+            edges.add(Math.min(height, part.row + part.height));
+        }
+        List<Part> spanning = new ArrayList<>();
+        Integer top = edges.first();
+        for (Integer bottom : edges.tailSet(top, false)) {
+            spanning.clear();
+            for (Part part : parts) {
+                if (part.row <= top && part.row + part.height >= bottom) {
+                    spanning.add(part);
+                }
+            }
+            Collections.sort(spanning, new Comparator<Part>() {
+                @Override
+                public int compare(Part o1, Part o2) {
+                    return Integer.compare(o1.column, o2.column);
+                }
+            });
+            int covered = 0;
+            for (Part part : spanning) {
+                if (part.column > covered) {
+                    break;
+                }
+                covered = Math.max(covered, part.column + part.width);
+            }
+            if (covered < width) {
+                throw new IOException("Parts leave cell " + covered + ", " + top
+                        + " of the mosaic uncovered and " + parts.get(0).path + " has no NoData value");
+            }
+            top = bottom;
+        }
+    }
+
+    private static boolean sameValue(Part first, Part part, int tag) {
+        Entry expected = find(first.entries, tag);
+        Entry actual = find(part.entries, tag);
+        if (expected == null || actual == null) {
+            return expected == actual;
+        }
+        return Arrays.equals(expected.value, actual.value);
+    }
+
+    /**
+     * One of the GeoTIFFs being joined and where it goes in the mosaic.
+     */
+    private static class Part {
+
+        private final Path path;
+        private final ByteBuffer in;
+        private final List<Entry> entries;
+        private final int width;
+        private final int height;
+        private final int pixelBytes;
+        private final Entry offsets;
+        private final int rowsPerStrip;
+        private final int tileWidth;
+        private final int tileLength;
+        private int row;
+        private int column;
+
+        private Part(Path path) throws IOException {
+            this.path = path;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("File " + path + " is too large to join");
+                }
+                in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            entries = readImageDirectory(in, path);
+            width = (int) requireValue(entries, TAG_IMAGE_WIDTH, path);
+            height = (int) requireValue(entries, TAG_IMAGE_LENGTH, path);
+            int samples = (int) value(entries, TAG_SAMPLES_PER_PIXEL, 1);
+            int bitsPerSample = (int) value(entries, TAG_BITS_PER_SAMPLE, 1);
+            if (value(entries, TAG_COMPRESSION, COMPRESSION_NONE) != COMPRESSION_NONE
+                    || value(entries, TAG_PLANAR_CONFIGURATION, 1) != 1
+                    || bitsPerSample % 8 != 0) {
+                throw new IOException("Only uncompressed, chunky, byte aligned TIFFs can be joined: " + path);
+            }
+            pixelBytes = samples * bitsPerSample / 8;
+            Entry tileOffsets = find(entries, TAG_TILE_OFFSETS);
+            if (tileOffsets != null) {
+                offsets = tileOffsets;
+                rowsPerStrip = 0;
+                tileWidth = (int) requireValue(entries, TAG_TILE_WIDTH, path);
+                tileLength = (int) requireValue(entries, TAG_TILE_LENGTH, path);
+            } else {
+                offsets = find(entries, TAG_STRIP_OFFSETS);
+                if (offsets == null) {
+                    throw new IOException("Missing strip layout in " + path);
+                }
+                rowsPerStrip = (int) Math.min(height, value(entries, TAG_ROWS_PER_STRIP, height));
+                tileWidth = 0;
+                tileLength = 0;
+            }
+        }
+
+        /**
+         * @return x and y of the corner of the first cell and the cell width
+         * and height, null if the part is not georeferenced by a tie point
+         */
+        private double[] origin() {
+            Entry tiepoint = find(entries, TAG_MODEL_TIEPOINT);
+            Entry scale = find(entries, TAG_MODEL_PIXEL_SCALE);
+            if (tiepoint == null || scale == null || tiepoint.count < 6 || scale.count < 2) {
+                return null;
+            }
+            double scaleX = scale.getDouble(0);
+            double scaleY = scale.getDouble(1);
+            if (scaleX == 0 || scaleY == 0) {
+                return null;
+            }
+            return new double[] {
+                tiepoint.getDouble(3) - tiepoint.getDouble(0) * scaleX,
+                tiepoint.getDouble(4) + tiepoint.getDouble(1) * scaleY,
+                scaleX,
+                scaleY
+            };
+        }
+
+        /**
+         * @return the bytes of a cell with every sample at the GDAL NoData
+         * value, null if the part has none
+         * @throws IOException if the value is not a number the samples can
+         * hold
+         */
+        private byte[] noData() throws IOException {
+            Entry entry = find(entries, TAG_GDAL_NODATA);
+            if (entry == null) {
+                return null;
+            }
+            String text = new String(entry.value, StandardCharsets.US_ASCII).replace("\0", "").trim();
+            double noData;
+            try {
+                switch (text.toLowerCase(Locale.ROOT)) {
+                    case "nan":
+                        noData = Double.NaN;
+                        break;
+                    case "inf":
+                    case "+inf":
+                        noData = Double.POSITIVE_INFINITY;
+                        break;
+                    case "-inf":
+                        noData = Double.NEGATIVE_INFINITY;
+                        break;
+                    default:
+                        noData = Double.parseDouble(text);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("NoData value \"" + text + "\" of " + path + " is not a number", e);
+            }
+            int sampleFormat = (int) value(entries, TAG_SAMPLE_FORMAT, SAMPLE_FORMAT_UINT);
+            int sampleBytes = (int) value(entries, TAG_BITS_PER_SAMPLE, 1) / 8;
+            ByteBuffer sample = ByteBuffer.allocate(sampleBytes).order(in.order());
+            if (sampleFormat == SAMPLE_FORMAT_IEEEFP && sampleBytes == 4) {
+                sample.putFloat((float) noData);
+            } else if (sampleFormat == SAMPLE_FORMAT_IEEEFP && sampleBytes == 8) {
+                sample.putDouble(noData);
+            } else if ((sampleFormat == SAMPLE_FORMAT_UINT || sampleFormat == SAMPLE_FORMAT_INT)
+                    && noData == Math.rint(noData) && sampleBytes < 8
+                    && noData >= (sampleFormat == SAMPLE_FORMAT_INT ? -Math.pow(2, 8 * sampleBytes - 1) : 0)
+                    && noData < Math.pow(2, sampleFormat == SAMPLE_FORMAT_INT ? 8 * sampleBytes - 1 : 8 * sampleBytes)) {
+                long bits = (long) noData;
+                for (int index = 0; index < sampleBytes; index++) {
+                    int shift = 8 * (in.order() == ByteOrder.BIG_ENDIAN ? sampleBytes - 1 - index : index);
+                    sample.put((byte) (bits >>> shift));
+                }
+            } else {
+                throw new IOException("NoData value " + text + " of " + path + " does not fit its samples");
+            }
+            byte[] cell = new byte[pixelBytes];
+            for (int offset = 0; offset < pixelBytes; offset += sampleBytes) {
+                System.arraycopy(sample.array(), 0, cell, offset, sampleBytes);
+            }
+            return cell;
+        }
+
+        private void readRow(int y, byte[] target, int targetOffset, int length) throws IOException {
+            if (rowsPerStrip > 0) {
+                int strip = y / rowsPerStrip;
+                copy(strip, (long) (y % rowsPerStrip) * width * pixelBytes, target, targetOffset, length);
+            } else {
+                int tilesAcross = (width + tileWidth - 1) / tileWidth;
+                int tileRowBytes = tileWidth * pixelBytes;
+                long within = (long) (y % tileLength) * tileRowBytes;
+                for (int tileColumn = 0; tileColumn < tilesAcross; tileColumn++) {
+                    int copied = tileColumn * tileRowBytes;
+                    if (copied >= length) {
+                        break;
+                    }
+                    copy((y / tileLength) * tilesAcross + tileColumn, within,
+                            target, targetOffset + copied, Math.min(tileRowBytes, length - copied));
+                }
+            }
+        }
+
+        private void copy(int index, long within, byte[] target, int targetOffset, int length) throws IOException {
+            if (index >= offsets.count) {
+                throw new IOException("Image data of " + path + " is incomplete");
+            }
+            long offset = offsets.get(index) + within;
+            if (offset < 0 || offset + length > in.limit()) {
+                throw new IOException("Image data lies outside of " + path);
+            }
+            ByteBuffer duplicate = in.duplicate();
+            duplicate.position((int) offset);
+            duplicate.get(target, targetOffset, length);
+        }
+    }
+}
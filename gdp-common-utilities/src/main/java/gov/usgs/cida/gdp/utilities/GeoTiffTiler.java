@@ -0,0 +1,368 @@
+package gov.usgs.cida.gdp.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Rewrites the strip organized, uncompressed GeoTIFF produced by the netCDF-Java
+ * GeotiffWriter as a tiled GeoTIFF with each tile deflate compressed.  All tags
+ * other than the image layout and compression tags (including the GeoTIFF keys)
+ * are carried over unchanged.
+ */
+public class GeoTiffTiler {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    static final int TAG_IMAGE_WIDTH = 256;
+    static final int TAG_IMAGE_LENGTH = 257;
+    static final int TAG_BITS_PER_SAMPLE = 258;
+    static final int TAG_COMPRESSION = 259;
+    static final int TAG_STRIP_OFFSETS = 273;
+    static final int TAG_SAMPLES_PER_PIXEL = 277;
+    static final int TAG_ROWS_PER_STRIP = 278;
+    static final int TAG_STRIP_BYTE_COUNTS = 279;
+    static final int TAG_PLANAR_CONFIGURATION = 284;
+    static final int TAG_TILE_WIDTH = 322;
+    static final int TAG_TILE_LENGTH = 323;
+    static final int TAG_TILE_OFFSETS = 324;
+    static final int TAG_TILE_BYTE_COUNTS = 325;
+
+    static final int TYPE_SHORT = 3;
+    static final int TYPE_LONG = 4;
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+    static final int COMPRESSION_NONE = 1;
+    private static final int COMPRESSION_DEFLATE = 8;
+    static final int HEADER_LENGTH = 8;
+
+    private GeoTiffTiler() {
+    }
+
+    /**
+     * @param source uncompressed, strip organized GeoTIFF
+     * @param target file to write the tiled GeoTIFF to, replaced if it exists
+     * @param tileSize width and height of the tiles, must be a multiple of 16
+     * @throws IOException if source can not be read or is not a layout this
+     * class understands
+     */
+    public static void retile(Path source, Path target, int tileSize) throws IOException {
+        if (tileSize <= 0 || tileSize % 16 != 0) {
+            throw new IllegalArgumentException("Tile size must be a positive multiple of 16, was " + tileSize);
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(source));
+        List<Entry> entries = readImageDirectory(in, source);
+        int width = (int) requireValue(entries, TAG_IMAGE_WIDTH, source);
+        int height = (int) requireValue(entries, TAG_IMAGE_LENGTH, source);
+        int samples = (int) value(entries, TAG_SAMPLES_PER_PIXEL, 1);
+        int bitsPerSample = (int) value(entries, TAG_BITS_PER_SAMPLE, 1);
+        if (value(entries, TAG_COMPRESSION, COMPRESSION_NONE) != COMPRESSION_NONE
+                || value(entries, TAG_PLANAR_CONFIGURATION, 1) != 1
+                || bitsPerSample % 8 != 0) {
+            throw new IOException("Only uncompressed, chunky, byte aligned TIFFs can be tiled: " + source);
+        }
+        int pixelBytes = samples * bitsPerSample / 8;
+        byte[] raster = readStrips(in, entries, (long) width * height * pixelBytes, source);
+
+        int tilesAcross = (width + tileSize - 1) / tileSize;
+        int tilesDown = (height + tileSize - 1) / tileSize;
+        int tileCount = tilesAcross * tilesDown;
+        long[] tileOffsets = new long[tileCount];
+        long[] tileByteCounts = new long[tileCount];
+
+        Files.deleteIfExists(target);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long position = HEADER_LENGTH;
+            int rowBytes = width * pixelBytes;
+            int tileRowBytes = tileSize * pixelBytes;
+            byte[] tile = new byte[tileRowBytes * tileSize];
+            byte[] compressed = new byte[tile.length + tile.length / 100 + 64];
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try {
+                for (int tileRow = 0; tileRow < tilesDown; tileRow++) {
+                    for (int tileColumn = 0; tileColumn < tilesAcross; tileColumn++) {
+                        copyTile(raster, rowBytes, height, tile, tileRowBytes, tileSize,
+                                tileRow * tileSize, tileColumn * tileRowBytes);
+                        deflater.reset();
+                        deflater.setInput(tile);
+                        deflater.finish();
+                        int length = 0;
+                        while (!deflater.finished()) {
+                            if (length == compressed.length) {
+                                byte[] grown = new byte[compressed.length * 2];
+                                System.arraycopy(compressed, 0, grown, 0, length);
+                                compressed = grown;
+                            }
+                            length += deflater.deflate(compressed, length, compressed.length - length);
+                        }
+                        int index = tileRow * tilesAcross + tileColumn;
+                        tileOffsets[index] = position;
+                        tileByteCounts[index] = length;
+                        position += writeFully(out, ByteBuffer.wrap(compressed, 0, length), position);
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+
+            List<Entry> tiledEntries = new ArrayList<>();
+            for (Entry entry : entries) {
+                switch (entry.tag) {
+                    case TAG_COMPRESSION:
+                    case TAG_STRIP_OFFSETS:
+                    case TAG_ROWS_PER_STRIP:
+                    case TAG_STRIP_BYTE_COUNTS:
+                        break;
+                    default:
+                        tiledEntries.add(entry);
+                }
+            }
+            ByteOrder order = in.order();
+            tiledEntries.add(Entry.of(TAG_COMPRESSION, TYPE_SHORT, order, COMPRESSION_DEFLATE));
+            tiledEntries.add(Entry.of(TAG_TILE_WIDTH, TYPE_LONG, order, tileSize));
+            tiledEntries.add(Entry.of(TAG_TILE_LENGTH, TYPE_LONG, order, tileSize));
+            tiledEntries.add(Entry.of(TAG_TILE_OFFSETS, TYPE_LONG, order, tileOffsets));
+            tiledEntries.add(Entry.of(TAG_TILE_BYTE_COUNTS, TYPE_LONG, order, tileByteCounts));
+            Collections.sort(tiledEntries, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry o1, Entry o2) {
+                    return Integer.compare(o1.tag, o2.tag);
+                }
+            });
+
+            long directoryOffset = position + (position & 1);
+            writeFully(out, directory(tiledEntries, directoryOffset, order), directoryOffset);
+
+            writeFully(out, header(order, directoryOffset), 0);
+        }
+    }
+
+    /**
+     * Reads the header, setting the byte order of in, and the first image file
+     * directory.
+     */
+    static List<Entry> readImageDirectory(ByteBuffer in, Path source) throws IOException {
+        if (in.limit() < HEADER_LENGTH) {
+            throw new IOException("File " + source + " is too short to be a TIFF");
+        }
+        byte first = in.get(0);
+        if (first == 'I' && in.get(1) == 'I') {
+            in.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (first == 'M' && in.get(1) == 'M') {
+            in.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IOException("File " + source + " is not a TIFF");
+        }
+        if (in.getShort(2) != 42) {
+            throw new IOException("File " + source + " is not a classic TIFF");
+        }
+        return readDirectory(in, in.getInt(4));
+    }
+
+    static ByteBuffer header(ByteOrder order, long directoryOffset) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(order);
+        header.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        header.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        header.putShort((short) 42);
+        header.putInt((int) directoryOffset);
+        header.flip();
+        return header;
+    }
+
+    private static List<Entry> readDirectory(ByteBuffer in, int offset) throws IOException {
+        if (offset < HEADER_LENGTH || offset + 2 > in.limit()) {
+            throw new IOException("Invalid image file directory offset " + offset);
+        }
+        int count = in.getShort(offset) & 0xFFFF;
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int entryOffset = offset + 2 + i * 12;
+            int tag = in.getShort(entryOffset) & 0xFFFF;
+            int type = in.getShort(entryOffset + 2) & 0xFFFF;
+            int valueCount = in.getInt(entryOffset + 4);
+            int typeSize = type < TYPE_SIZES.length ? TYPE_SIZES[type] : 0;
+            if (typeSize == 0 || valueCount < 0) {
+                throw new IOException("Unsupported field type " + type + " for tag " + tag);
+            }
+            byte[] value = new byte[typeSize * valueCount];
+            int valueOffset = value.length <= 4 ? entryOffset + 8 : in.getInt(entryOffset + 8);
+            if (valueOffset < 0 || valueOffset + value.length > in.limit()) {
+                throw new IOException("Value of tag " + tag + " lies outside of the file");
+            }
+            ByteBuffer duplicate = in.duplicate();
+            duplicate.position(valueOffset);
+            duplicate.get(value);
+            entries.add(new Entry(tag, type, valueCount, value, in.order()));
+        }
+        return entries;
+    }
+
+    private static byte[] readStrips(ByteBuffer in, List<Entry> entries, long size, Path source) throws IOException {
+        Entry offsets = find(entries, TAG_STRIP_OFFSETS);
+        Entry byteCounts = find(entries, TAG_STRIP_BYTE_COUNTS);
+        if (offsets == null || byteCounts == null || offsets.count != byteCounts.count) {
+            throw new IOException("Missing or inconsistent strip layout in " + source);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Image in " + source + " is too large to tile");
+        }
+        byte[] raster = new byte[(int) size];
+        int position = 0;
+        for (int i = 0; i < offsets.count && position < raster.length; i++) {
+            long offset = offsets.get(i);
+            int length = (int) Math.min(byteCounts.get(i), raster.length - position);
+            if (offset < 0 || offset + length > in.limit()) {
+                throw new IOException("Strip " + i + " lies outside of " + source);
+            }
+            ByteBuffer duplicate = in.duplicate();
+            duplicate.position((int) offset);
+            duplicate.get(raster, position, length);
+            position += length;
+        }
+        if (position < raster.length) {
+            throw new IOException("Strips in " + source + " do not cover the image");
+        }
+        return raster;
+    }
+
+    private static void copyTile(byte[] raster, int rowBytes, int height, byte[] tile, int tileRowBytes,
+            int tileSize, int firstRow, int firstByte) {
+        int copyBytes = Math.min(tileRowBytes, rowBytes - firstByte);
+        for (int row = 0; row < tileSize; row++) {
+            int tileOffset = row * tileRowBytes;
+            if (firstRow + row < height) {
+                System.arraycopy(raster, (firstRow + row) * rowBytes + firstByte, tile, tileOffset, copyBytes);
+                Arrays.fill(tile, tileOffset + copyBytes, tileOffset + tileRowBytes, (byte) 0);
+            } else {
+                Arrays.fill(tile, tileOffset, tileOffset + tileRowBytes, (byte) 0);
+            }
+        }
+    }
+
+    static ByteBuffer directory(List<Entry> entries, long directoryOffset, ByteOrder order) {
+        int directoryLength = 2 + entries.size() * 12 + 4;
+        int valuesLength = 0;
+        for (Entry entry : entries) {
+            if (entry.value.length > 4) {
+                valuesLength += entry.value.length + (entry.value.length & 1);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(directoryLength + valuesLength).order(order);
+        long valueOffset = directoryOffset + directoryLength;
+        buffer.putShort((short) entries.size());
+        for (Entry entry : entries) {
+            buffer.putShort((short) entry.tag);
+            buffer.putShort((short) entry.type);
+            buffer.putInt(entry.count);
+            if (entry.value.length > 4) {
+                buffer.putInt((int) valueOffset);
+                valueOffset += entry.value.length + (entry.value.length & 1);
+            } else {
+                buffer.put(entry.value);
+                for (int i = entry.value.length; i < 4; i++) {
+                    buffer.put((byte) 0);
+                }
+            }
+        }
+        buffer.putInt(0);
+        for (Entry entry : entries) {
+            if (entry.value.length > 4) {
+                buffer.put(entry.value);
+                if ((entry.value.length & 1) == 1) {
+                    buffer.put((byte) 0);
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static int writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    static Entry find(List<Entry> entries, int tag) {
+        for (Entry entry : entries) {
+            if (entry.tag == tag) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    static long value(List<Entry> entries, int tag, long defaultValue) {
+        Entry entry = find(entries, tag);
+        return entry == null || entry.count == 0 ? defaultValue : entry.get(0);
+    }
+
+    static long requireValue(List<Entry> entries, int tag, Path source) throws IOException {
+        Entry entry = find(entries, tag);
+        if (entry == null || entry.count == 0) {
+            throw new IOException("Required tag " + tag + " missing from " + source);
+        }
+        return entry.get(0);
+    }
+
+    /**
+     * A single field of the image file directory, the value is kept as the raw
+     * bytes so fields this class does not interpret are copied verbatim.
+     */
+    static class Entry {
+
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] value;
+        final ByteOrder order;
+
+        Entry(int tag, int type, int count, byte[] value, ByteOrder order) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+            this.order = order;
+        }
+
+        static Entry of(int tag, int type, ByteOrder order, long... values) {
+            ByteBuffer buffer = ByteBuffer.allocate(TYPE_SIZES[type] * values.length).order(order);
+            for (long v : values) {
+                if (type == TYPE_SHORT) {
+                    buffer.putShort((short) v);
+                } else {
+                    buffer.putInt((int) v);
+                }
+            }
+            return new Entry(tag, type, values.length, buffer.array(), order);
+        }
+
+        long get(int index) {
+            ByteBuffer buffer = ByteBuffer.wrap(value).order(order);
+            switch (type) {
+                case TYPE_SHORT:
+                    return buffer.getShort(index * 2) & 0xFFFF;
+                case TYPE_LONG:
+                    return buffer.getInt(index * 4) & 0xFFFFFFFFL;
+                default:
+                    return value[index] & 0xFF;
+            }
+        }
+
+        double getDouble(int index) {
+            return ByteBuffer.wrap(value).order(order).getDouble(index * 8);
+        }
+    }
+}
@@ -1,12 +1,28 @@
 package gov.usgs.cida.gdp.utilities;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.geotools.feature.FeatureCollection;
@@ -17,6 +33,8 @@ import ucar.ma2.Array;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
 import ucar.ma2.Range.Iterator;
+import ucar.nc2.dataset.CoordinateAxis;
+import ucar.nc2.dataset.CoordinateAxis1D;
 import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.GridDataset;
 import ucar.nc2.dt.GridDatatype;
@@ -33,9 +51,41 @@ public class GeoTiffUtils {
     public static final String FILE_TIFF_EXTENSION = ".tiff";
     public static final String FILE_ZIP_EXTENSION = ".zip";
     
+    private static final int SLICE_WRITER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int SLICES_IN_FLIGHT = 2 * SLICE_WRITER_THREADS;
+    private static final int ZIP_BUFFER_SIZE = 64 * 1024;
+    private static ExecutorService sliceWriterPool;
+    
+    public enum TiffProfile {
+        /** Uncompressed, strip organized, as written by netCDF-Java */
+        STRIPPED,
+        /** 256x256 tiles, each deflate compressed */
+        TILED_DEFLATE
+    }
+    
+	/**
+	 * Writes one uncompressed, strip organized GeoTIFF per time step of each
+	 * variable and returns them zipped.
+	 */
 	public static File generateGeoTiffZipFromGrid(GridDataset gridDataset, List<String> gridVariableList,
 			FeatureCollection<?, ?> featureCollection, boolean requireFullCoverage, Date dateTimeStart,
 			Date dateTimeEnd, String destination) throws GeoTiffUtilException {
+		return generateGeoTiffZipFromGrid(gridDataset, gridVariableList, featureCollection, requireFullCoverage,
+				dateTimeStart, dateTimeEnd, destination, TiffProfile.STRIPPED);
+	}
+
+	/**
+	 * Writes one GeoTIFF per time step of each variable and returns them zipped.
+	 * 
+	 * Time steps are encoded in parallel on a small shared pool and appended to
+	 * the zip in time order as soon as they are done, each GeoTIFF only lives
+	 * on disk until it has been copied into the zip.  A bounded number of slices
+	 * is in flight per request so memory and disk use do not grow with the
+	 * length of the time range.
+	 */
+	public static File generateGeoTiffZipFromGrid(GridDataset gridDataset, List<String> gridVariableList,
+			FeatureCollection<?, ?> featureCollection, boolean requireFullCoverage, Date dateTimeStart,
+			Date dateTimeEnd, String destination, TiffProfile profile) throws GeoTiffUtilException {
 		Path destinationDirectory = Paths.get(destination);
         
         CalendarDateFormatter dateFormatter = new CalendarDateFormatter(FILE_DATE_FORMAT);
@@ -50,163 +100,272 @@ public class GeoTiffUtils {
         dataId = dataId.replace("//", ""); // remove protocal //
         dataId = dataId.replace("/", "-");
         
-        /*
-         * Create a temp directory for this specific request as we could get name collisions
-         */
-        Path workingDirectory;
-        try {
-            workingDirectory = Files.createTempDirectory(destinationDirectory, GEOTIFF_DIRECTORY_PREFIX);
-        } catch (IOException e) {
-            throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
-                    "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to create GeoTiff working " +
-                    "directory at [" + destinationDirectory + "]  Exception: " + e.getMessage());
-        }
-        
-        File result = null;
-        String resultingZipFileName = "";
-        try {
-            for (String gridVariable : gridVariableList) {
-                GridDatatype parentGridDataType;
-                
-                try {
-                    /*
-                     * A null pointer exception can be thrown here due to errors in the
-                     * request such as incorrect dimensions (GridVariableList) associated
-                     * with a dataset that does not contain them.
-                     */
-                	parentGridDataType = gridDataset.findGridDatatype(gridVariable);
-                } catch (Exception e) {
-                    throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
-                            "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate Grid Data Type " +
-                            "for dataset [" + gridDataset.getLocationURI() + "] and variable [" + gridVariable +
-                            "].  Exception: " + e.getMessage());
-                }
-                
-                /*
-                 * Create the time range object for using in both a grid data type subset (with the feature collection)
-                 * as well as iteration of the geolocation
-                 */
-                Range timeRange = TimeRangeUtil.generateTimeRange(parentGridDataType, dateTimeStart, dateTimeEnd);
-                
-                /*
-            	 * Grab the grid coordinate system
-            	 */
-            	GridCoordSystem gridCoordSystem = parentGridDataType.getCoordinateSystem();
-                
-            	/*
-            	 * Create an XY range for the feature collection requested
-            	 */
-                Range[] xyRanges;
-				try {
-					xyRanges = GridUtils.getXYRangesFromBoundingBox(featureCollection.getBounds(), gridCoordSystem, requireFullCoverage);
-				} catch (Exception e) {
-					throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
-                            "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate XY Range set from Grid Data Type " +
-                            "for dataset [" + gridDataset.getLocationURI() + "] and variable [" + gridVariable +
-                            "].  Exception: " + e.getMessage());
-				}
-				
-				/*
-            	 * Now create a grid subset so we only get what the user requested with regards to geo locations
-            	 */
-                GridDatatype gridDataType;
-				try {
-					gridDataType = parentGridDataType.makeSubset(null, null, timeRange, null, xyRanges[1], xyRanges[0]);
-				} catch (Exception e) {
-					throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
-                            "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate Grid Subset " +
-                            "for dataset [" + gridDataset.getLocationURI() + "] and variable [" + gridVariable +
-                            "].  Exception: " + e.getMessage());
-				}
-                
+        List<GeoTiffSlice> slices = new ArrayList<>();
+        Set<String> entryNames = new HashSet<>();
+        for (String gridVariable : gridVariableList) {
+            GridDatatype parentGridDataType;
+            
+            try {
                 /*
-                 * We introduced an issue here when we created subsets via the feature collection.
-                 * 
-                 * What happens is the original parentGridDataType is the full gridded set for this
-                 * datastore with regards to time, x and y.  When we create the subset for the
-                 * requested feature collect, the TIME is reset to index 0.
-                 * 
-                 * While the start time requested for the parentGridDataType set might be at index 9000 
-                 * and the end time at index 9005, when we create the subset, the start time is set to
-                 * index 0 and the end time is set to 5. 
+                 * A null pointer exception can be thrown here due to errors in the
+                 * request such as incorrect dimensions (GridVariableList) associated
+                 * with a dataset that does not contain them.
                  */
-                int delta = timeRange.last() - timeRange.first();
-                Range deltaRange = null;
-                try {
-					deltaRange = new Range(0, delta);
-				} catch (InvalidRangeException e) {
-					throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
-                            "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate Subset time range " +
-                            "for dataset [" + gridDataset.getLocationURI() + "] and variable [" + gridVariable +
-                            "].  Exception: " + e.getMessage());
-				}
-                
-                Iterator iter = deltaRange.getIterator();
-                
-                while (iter.hasNext()) {
-                    int tRange = iter.next();
-                                    
-                    /*
-                     * Create the filename with the dataId and time of this iteration
-                     *      QUOTE (JIRA GDP-947)
-                     *          Each GeoTIFF file should be named with the time stamp converted to a string. 
-                     *          As long as its an unambiguous string that someone can parse later, the format
-                     *          isn't very important. It would be nice if it was a format that sorts nicely 
-                     *          like dataId-YYYY-MM-DD-hh-mm-ss.tiff
-                     */
-                    CalendarDate date = TimeRangeUtil.getTimeFromRangeIndex(gridDataType, tRange);
-                    String dateString = dateFormatter.toString(date);
-                    String datasetName = dataId + FILE_DELIMETER + dateString;
-                    String absoluteFilePath = workingDirectory + File.separator + datasetName + FILE_TIFF_EXTENSION;
+            	parentGridDataType = gridDataset.findGridDatatype(gridVariable);
+            } catch (Exception e) {
+                throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
+                        "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate Grid Data Type " +
+                        "for dataset [" + gridDataset.getLocationURI() + "] and variable [" + gridVariable +
+                        "].  Exception: " + e.getMessage());
+            }
             
-                    GeoTiffUtils.createGeoTiffForGrid(gridDataset, gridDataType, tRange, absoluteFilePath);
+            /*
+             * Create the time range object for using in both a grid data type subset (with the feature collection)
+             * as well as iteration of the geolocation
+             */
+            Range timeRange = TimeRangeUtil.generateTimeRange(parentGridDataType, dateTimeStart, dateTimeEnd);
             
-                    LOGGER.debug("testGeoTiffWriter(): Successfully wrote tiff file at: " + absoluteFilePath);
-                }
-            }
+            /*
+        	 * Grab the grid coordinate system
+        	 */
+        	GridCoordSystem gridCoordSystem = parentGridDataType.getCoordinateSystem();
+            
+        	/*
+        	 * Create an XY range for the feature collection requested
+        	 */
+            Range[] xyRanges;
+			try {
+				xyRanges = GridUtils.getXYRangesFromBoundingBox(featureCollection.getBounds(), gridCoordSystem, requireFullCoverage);
+			} catch (Exception e) {
+				throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
+                        "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate XY Range set from Grid Data Type " +
+                        "for dataset [" + gridDataset.getLocationURI() + "] and variable [" + gridVariable +
+                        "].  Exception: " + e.getMessage());
+			}
+			
+			/*
+        	 * Now create a grid subset so we only get what the user requested with regards to geo locations
+        	 */
+            GridDatatype gridDataType;
+			try {
+				gridDataType = parentGridDataType.makeSubset(null, null, timeRange, null, xyRanges[1], xyRanges[0]);
+			} catch (Exception e) {
+				throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
+                        "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate Grid Subset " +
+                        "for dataset [" + gridDataset.getLocationURI() + "] and variable [" + gridVariable +
+                        "].  Exception: " + e.getMessage());
+			}
             
             /*
-             * Now zip the contents of this geotiff directory
+             * We introduced an issue here when we created subsets via the feature collection.
+             * 
+             * What happens is the original parentGridDataType is the full gridded set for this
+             * datastore with regards to time, x and y.  When we create the subset for the
+             * requested feature collect, the TIME is reset to index 0.
+             * 
+             * While the start time requested for the parentGridDataType set might be at index 9000 
+             * and the end time at index 9005, when we create the subset, the start time is set to
+             * index 0 and the end time is set to 5. 
              */
-            resultingZipFileName = workingDirectory.toString() + FILE_ZIP_EXTENSION;
+            int delta = timeRange.last() - timeRange.first();
+            Range deltaRange = null;
             try {
-                FileHelper.zipDirectory(workingDirectory.toString(), resultingZipFileName);
-                LOGGER.debug("GeoTiffUtils.generateGeoTiffZipFromGrid(): Directory [" + workingDirectory.toString() + "] successfully zipped.");
-            } catch (Exception e) {
-                throw new GeoTiffUtilException(GeoTiffUtilExceptionID.ZIP_EXCEPTION,
-                        "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to zip GeoTiff generated files for directory [" +
-                        workingDirectory.toString() + "].  Exception: " + e.getMessage());
-            }
+				deltaRange = new Range(0, delta);
+			} catch (InvalidRangeException e) {
+				throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
+                        "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate Subset time range " +
+                        "for dataset [" + gridDataset.getLocationURI() + "] and variable [" + gridVariable +
+                        "].  Exception: " + e.getMessage());
+			}
             
-            result = new File(resultingZipFileName);
-        } finally {
             /*
-             * Now delete the temporary directory
+             * The coordinate axes load their values lazily, do that here so the
+             * writer threads only ever read them.
              */
-            try {
-                FileUtils.deleteDirectory(workingDirectory.toFile());
-            } catch (IOException e) {
-                LOGGER.error("Unable to delete GeoTiff directory [" + workingDirectory.toString() + "].");
+            loadHorizontalAxes(gridDataType);
+            
+            Iterator iter = deltaRange.getIterator();
+            
+            while (iter.hasNext()) {
+                int tRange = iter.next();
+                                
+                /*
+                 * Create the filename with the dataId and time of this iteration
+                 *      QUOTE (JIRA GDP-947)
+                 *          Each GeoTIFF file should be named with the time stamp converted to a string. 
+                 *          As long as its an unambiguous string that someone can parse later, the format
+                 *          isn't very important. It would be nice if it was a format that sorts nicely 
+                 *          like dataId-YYYY-MM-DD-hh-mm-ss.tiff
+                 * 
+                 * With more than one variable the names would collide, the variable
+                 * is added to the later ones.
+                 */
+                CalendarDate date = TimeRangeUtil.getTimeFromRangeIndex(gridDataType, tRange);
+                String dateString = dateFormatter.toString(date);
+                String entryName = dataId + FILE_DELIMETER + dateString + FILE_TIFF_EXTENSION;
+                if (!entryNames.add(entryName)) {
+                    entryName = dataId + FILE_DELIMETER + gridVariable + FILE_DELIMETER + dateString + FILE_TIFF_EXTENSION;
+                    entryNames.add(entryName);
+                }
+                slices.add(new GeoTiffSlice(gridDataType, tRange, entryName));
             }
         }
         
-        /*
-         * Final check to make sure that the zip file actually exists and then return the
-         * File handle to the caller.
-         */
-        if (result == null || !result.exists()) {
+        Path zipFile;
+        try {
+            zipFile = Files.createTempFile(destinationDirectory, GEOTIFF_DIRECTORY_PREFIX, FILE_ZIP_EXTENSION);
+        } catch (IOException e) {
             throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
-                    "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to find resulting GeoTiff zipped file " +
-                    resultingZipFileName + "].");
+                    "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to create GeoTiff zip file " +
+                    "in [" + destinationDirectory + "]  Exception: " + e.getMessage());
+        }
+        
+        boolean complete = false;
+        try {
+            writeGeoTiffZip(gridDataset, slices, profile, destinationDirectory, zipFile);
+            complete = true;
+            LOGGER.debug("GeoTiffUtils.generateGeoTiffZipFromGrid(): Wrote " + slices.size() + " GeoTiff files to [" + zipFile + "].");
+        } finally {
+            if (!complete) {
+                FileUtils.deleteQuietly(zipFile.toFile());
+            }
         }
         
-        return result;
+        return zipFile.toFile();
+    }
+    
+    private static void writeGeoTiffZip(final GridDataset gridDataset, List<GeoTiffSlice> slices,
+            final TiffProfile profile, Path directory, Path zipFile) throws GeoTiffUtilException {
+        Deque<GeoTiffSlice> pending = new ArrayDeque<>();
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zipFile), ZIP_BUFFER_SIZE))) {
+            if (profile == TiffProfile.TILED_DEFLATE) {
+                // tiles are already deflated, another pass would only cost time
+                zip.setLevel(Deflater.NO_COMPRESSION);
+            }
+            int next = 0;
+            while (next < slices.size() || !pending.isEmpty()) {
+                while (next < slices.size() && pending.size() < SLICES_IN_FLIGHT) {
+                    final GeoTiffSlice slice = slices.get(next++);
+                    slice.file = Files.createTempFile(directory, GEOTIFF_DIRECTORY_PREFIX, FILE_TIFF_EXTENSION);
+                    slice.future = getSliceWriterPool().submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws GeoTiffUtilException {
+                            writeGeoTiffSlice(gridDataset, slice, profile);
+                            return null;
+                        }
+                    });
+                    pending.addLast(slice);
+                }
+                
+                GeoTiffSlice slice = pending.peekFirst();
+                awaitSlice(gridDataset, slice);
+                zip.putNextEntry(new ZipEntry(slice.entryName));
+                Files.copy(slice.file, zip);
+                zip.closeEntry();
+                pending.removeFirst();
+                Files.deleteIfExists(slice.file);
+            }
+        } catch (IOException e) {
+            throw new GeoTiffUtilException(GeoTiffUtilExceptionID.ZIP_EXCEPTION,
+                    "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to zip GeoTiff generated files to [" +
+                    zipFile + "].  Exception: " + e.getMessage());
+        } finally {
+            for (GeoTiffSlice slice : pending) {
+                slice.future.cancel(true);
+            }
+            for (GeoTiffSlice slice : pending) {
+                FileUtils.deleteQuietly(slice.file.toFile());
+            }
+        }
+    }
+    
+    private static void awaitSlice(GridDataset gridDataset, GeoTiffSlice slice) throws GeoTiffUtilException {
+        try {
+            slice.future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeoTiffUtilException) {
+                throw (GeoTiffUtilException) e.getCause();
+            }
+            throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GEOTIFFWRITER_EXCEPTION,
+                    "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate Tiff image from grid [" +
+                    gridDataset.getLocationURI() + "].  Exception: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GENERAL_EXCEPTION,
+                    "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Interrupted while generating Tiff images from grid [" +
+                    gridDataset.getLocationURI() + "].");
+        }
+    }
+    
+    private static void writeGeoTiffSlice(GridDataset gridDataset, GeoTiffSlice slice, TiffProfile profile) throws GeoTiffUtilException {
+        Array data = readDataSlice(gridDataset, slice.grid, slice.timeIndex);
+        if (profile == TiffProfile.TILED_DEFLATE) {
+            Path stripped = slice.file.resolveSibling(slice.file.getFileName() + ".strip");
+            try {
+                writeGeoTiff(gridDataset, slice.grid, data, stripped.toString());
+                GeoTiffTiler.retile(stripped, slice.file, GeoTiffTiler.DEFAULT_TILE_SIZE);
+            } catch (IOException e) {
+                throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GEOTIFFWRITER_EXCEPTION,
+                        "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to tile Tiff image from grid [" +
+                        gridDataset.getLocationURI() + "].  Exception: " + e.getMessage());
+            } finally {
+                FileUtils.deleteQuietly(stripped.toFile());
+            }
+        } else {
+            writeGeoTiff(gridDataset, slice.grid, data, slice.file.toString());
+        }
+        LOGGER.debug("GeoTiffUtils.writeGeoTiffSlice(): Successfully wrote tiff file for: " + slice.entryName);
+    }
+    
+    private static void loadHorizontalAxes(GridDatatype grid) {
+        GridCoordSystem gridCoordSystem = grid.getCoordinateSystem();
+        gridCoordSystem.isRegularSpatial();
+        for (CoordinateAxis axis : new CoordinateAxis[] {gridCoordSystem.getXHorizAxis(), gridCoordSystem.getYHorizAxis()}) {
+            if (axis instanceof CoordinateAxis1D) {
+                ((CoordinateAxis1D) axis).getCoordValues();
+            }
+        }
+    }
+    
+    /*
+     * NetcdfFile is not safe for concurrent reads, slices are read one at a
+     * time per dataset and only the encoding runs in parallel.
+     */
+    private static Array readDataSlice(GridDataset gridDataset, GridDatatype grid, int timeIndex) throws GeoTiffUtilException {
+        try {
+            synchronized (gridDataset) {
+                return grid.readDataSlice(timeIndex, 0, -1, -1);
+            }
+        } catch (Exception e) {
+            throw new GeoTiffUtilException(GeoTiffUtilExceptionID.GEOTIFFWRITER_EXCEPTION,
+                    "GeoTiffUtils", "generateGeoTiffZipFromGrid", "Unable to generate Tiff image from grid [" +
+                    gridDataset.getLocationURI() + "].  Exception: " + e.getMessage());
+        }
+    }
+    
+    private static synchronized ExecutorService getSliceWriterPool() {
+        if (sliceWriterPool == null) {
+            sliceWriterPool = Executors.newFixedThreadPool(SLICE_WRITER_THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "geotiff-writer-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sliceWriterPool;
     }
     
     public static void createGeoTiffForGrid(GridDataset gridDataset, GridDatatype grid, int timeIndex, String filename) throws GeoTiffUtilException {
+        writeGeoTiff(gridDataset, grid, readDataSlice(gridDataset, grid, timeIndex), filename);
+    }
+    
+    private static void writeGeoTiff(GridDataset gridDataset, GridDatatype grid, Array data, String filename) throws GeoTiffUtilException {
         GeotiffWriter writer = null;
         try {
-            Array data = grid.readDataSlice(timeIndex, 0, -1, -1);
             writer = new GeotiffWriter(filename);
             writer.writeGrid(gridDataset, grid, data, false);
         } catch (Exception e) {
@@ -223,4 +382,18 @@ public class GeoTiffUtils {
             }
         }
     }
+    
+    private static class GeoTiffSlice {
+        private final GridDatatype grid;
+        private final int timeIndex;
+        private final String entryName;
+        private Path file;
+        private Future<Void> future;
+        
+        private GeoTiffSlice(GridDatatype grid, int timeIndex, String entryName) {
+            this.grid = grid;
+            this.timeIndex = timeIndex;
+            this.entryName = entryName;
+        }
+    }
 }
@@ -0,0 +1,96 @@
+package gov.usgs.cida.gdp.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FileLifecycleRegistryTest {
+
+    private static final long HOUR = 3600000l;
+
+    private File directory;
+    private File indexDir;
+    private File workspaceDir;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("FileLifecycleRegistryTest").toFile();
+        indexDir = new File(directory, "index");
+        workspaceDir = new File(directory, "work");
+        FileUtils.forceMkdir(workspaceDir);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testExpiredFilesDeleted() throws IOException {
+        FileLifecycleRegistry registry = new FileLifecycleRegistry(indexDir, workspaceDir, HOUR, 1000, 0);
+        File expired = File.createTempFile("expired", ".tmp", workspaceDir);
+        File expiredDir = new File(workspaceDir, "expired");
+        FileUtils.forceMkdir(expiredDir);
+        FileUtils.touch(new File(expiredDir, "child"));
+        File current = registry.createTempFile("current", ".tmp");
+        long now = System.currentTimeMillis();
+        registry.register(expired, now - 5000);
+        registry.register(expiredDir, now - 5000);
+
+        assertEquals(2, registry.deleteExpired());
+        assertFalse(expired.exists());
+        assertFalse(expiredDir.exists());
+        assertTrue(current.exists());
+        // only the current bucket is left
+        assertEquals(1, indexDir.list().length);
+        assertEquals(0, registry.deleteExpired());
+    }
+
+    @Test
+    public void testRegistrationsShared() throws IOException {
+        FileLifecycleRegistry registering = new FileLifecycleRegistry(indexDir, workspaceDir, HOUR, 1000, 0);
+        File expired = File.createTempFile("expired", ".tmp", workspaceDir);
+        registering.register(expired, System.currentTimeMillis() - 5000);
+
+        assertEquals(1, new FileLifecycleRegistry(indexDir, workspaceDir, HOUR, 1000, 0).deleteExpired());
+        assertFalse(expired.exists());
+    }
+
+    @Test
+    public void testSweep() throws IOException {
+        FileLifecycleRegistry registry = new FileLifecycleRegistry(indexDir, workspaceDir, HOUR, HOUR, 0);
+        long old = System.currentTimeMillis() - 2 * HOUR;
+        File orphan = File.createTempFile("orphan", ".tmp", workspaceDir);
+        orphan.setLastModified(old);
+        File orphanDir = new File(workspaceDir, "orphan");
+        File orphanChild = new File(orphanDir, "child");
+        FileUtils.touch(orphanChild);
+        orphanChild.setLastModified(old);
+        orphanDir.setLastModified(old);
+        File recent = File.createTempFile("recent", ".tmp", workspaceDir);
+
+        assertEquals(3, registry.sweep());
+        assertFalse(orphan.exists());
+        assertFalse(orphanDir.exists());
+        assertTrue(recent.exists());
+        assertTrue(workspaceDir.exists());
+    }
+
+    @Test
+    public void testDeleteRateLimited() throws IOException {
+        FileLifecycleRegistry registry = new FileLifecycleRegistry(indexDir, workspaceDir, HOUR, 1000, 50);
+        long expires = System.currentTimeMillis() - 5000;
+        for (int i = 0; i < 11; i++) {
+            registry.register(File.createTempFile("expired", ".tmp", workspaceDir), expires);
+        }
+        long start = System.currentTimeMillis();
+        assertEquals(11, registry.deleteExpired());
+        // 20 ms apart after the first
+        assertTrue(System.currentTimeMillis() - start >= 190);
+    }
+}
@@ -0,0 +1,313 @@
+package gov.usgs.cida.gdp.utilities;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeoTiffMosaicTest {
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 6;
+    private static final int TILE_SIZE = 4;
+    private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+    private static final int TAG_MODEL_TIEPOINT = 33922;
+    private static final int TAG_GDAL_NODATA = 42113;
+    private static final double CELL_SIZE = 0.5;
+    private static final double ORIGIN_X = -90.0;
+    private static final double ORIGIN_Y = 45.0;
+
+    private List<Path> files = new ArrayList<>();
+    private Path target;
+
+    @Before
+    public void setUp() throws IOException {
+        target = Files.createTempFile("mosaic", ".tiff");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(target.toFile());
+        for (Path file : files) {
+            FileUtils.deleteQuietly(file.toFile());
+        }
+    }
+
+    @Test
+    public void mosaicByTiepointsTest() throws Exception {
+        GeoTiffMosaic.mosaic(createParts(ByteOrder.LITTLE_ENDIAN, true, false), TILE_SIZE, WIDTH, HEIGHT, target);
+        assertMosaic(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void mosaicByGridTest() throws Exception {
+        GeoTiffMosaic.mosaic(createParts(ByteOrder.BIG_ENDIAN, false, false), TILE_SIZE, WIDTH, HEIGHT, target);
+        assertMosaic(ByteOrder.BIG_ENDIAN);
+    }
+
+    @Test
+    public void mosaicTiledPartsTest() throws Exception {
+        GeoTiffMosaic.mosaic(createParts(ByteOrder.LITTLE_ENDIAN, true, true), TILE_SIZE, WIDTH, HEIGHT, target);
+        assertMosaic(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void tiepointShiftedPartTest() throws Exception {
+        Path[][] parts = createParts(ByteOrder.LITTLE_ENDIAN, true, false, "-9999");
+        // the server returned the lower right part one row lower than asked
+        parts[1][1] = write(createTiff(ByteOrder.LITTLE_ENDIAN, TILE_SIZE, TILE_SIZE + 1, WIDTH - TILE_SIZE, HEIGHT - TILE_SIZE - 1, true, false, "-9999"));
+        GeoTiffMosaic.mosaic(parts, TILE_SIZE, WIDTH, HEIGHT, target);
+
+        ByteBuffer mosaic = ByteBuffer.wrap(Files.readAllBytes(target)).order(ByteOrder.LITTLE_ENDIAN);
+        Map<Integer, long[]> tags = readTags(mosaic);
+        long offset = tags.get(273)[0];
+        for (int x = TILE_SIZE; x < WIDTH; x++) {
+            assertThat(mosaic.getFloat((int) offset + (TILE_SIZE * WIDTH + x) * 4), is(-9999f));
+            assertThat(mosaic.getFloat((int) offset + ((TILE_SIZE + 1) * WIDTH + x) * 4), is(pixel(x, TILE_SIZE + 1)));
+        }
+        assertThat(ascii(tags.get(TAG_GDAL_NODATA)), is("-9999"));
+    }
+
+    @Test(expected = IOException.class)
+    public void tiepointShiftedPartWithoutNoDataTest() throws Exception {
+        Path[][] parts = createParts(ByteOrder.LITTLE_ENDIAN, true, false);
+        parts[1][1] = write(createTiff(ByteOrder.LITTLE_ENDIAN, TILE_SIZE, TILE_SIZE + 1, WIDTH - TILE_SIZE, HEIGHT - TILE_SIZE - 1, true, false));
+        GeoTiffMosaic.mosaic(parts, TILE_SIZE, WIDTH, HEIGHT, target);
+    }
+
+    @Test(expected = IOException.class)
+    public void missingPartWithoutNoDataTest() throws Exception {
+        Path[][] parts = createParts(ByteOrder.LITTLE_ENDIAN, true, false);
+        // the lower right part cut a column short
+        parts[1][1] = write(createTiff(ByteOrder.LITTLE_ENDIAN, TILE_SIZE, TILE_SIZE, WIDTH - TILE_SIZE - 1, HEIGHT - TILE_SIZE, true, false));
+        GeoTiffMosaic.mosaic(parts, TILE_SIZE, WIDTH, HEIGHT, target);
+    }
+
+    @Test(expected = IOException.class)
+    public void mismatchedPartsTest() throws Exception {
+        Path[][] parts = createParts(ByteOrder.LITTLE_ENDIAN, true, false);
+        parts[0][1] = write(createTiff(ByteOrder.BIG_ENDIAN, TILE_SIZE, 0, WIDTH - TILE_SIZE, TILE_SIZE, true, false));
+        GeoTiffMosaic.mosaic(parts, TILE_SIZE, WIDTH, HEIGHT, target);
+    }
+
+    private void assertMosaic(ByteOrder order) throws IOException {
+        ByteBuffer mosaic = ByteBuffer.wrap(Files.readAllBytes(target)).order(order);
+        Map<Integer, long[]> tags = readTags(mosaic);
+        assertThat(tags.get(256)[0], is((long) WIDTH));
+        assertThat(tags.get(257)[0], is((long) HEIGHT));
+        assertThat(tags.get(259)[0], is(1L));
+        assertThat(tags.containsKey(324), is(false));
+        assertThat(tags.get(339)[0], is(3L));
+
+        long[] offsets = tags.get(273);
+        long[] byteCounts = tags.get(279);
+        int rowsPerStrip = (int) tags.get(278)[0];
+        long total = 0;
+        for (long byteCount : byteCounts) {
+            total += byteCount;
+        }
+        assertThat(total, is((long) WIDTH * HEIGHT * 4));
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int position = (int) offsets[y / rowsPerStrip] + ((y % rowsPerStrip) * WIDTH + x) * 4;
+                assertThat(mosaic.getFloat(position), is(pixel(x, y)));
+            }
+        }
+        if (tags.containsKey(TAG_MODEL_TIEPOINT)) {
+            int tiepoint = (int) tags.get(TAG_MODEL_TIEPOINT)[0];
+            assertThat(mosaic.getDouble(tiepoint + 3 * 8), closeTo(ORIGIN_X, 1e-9));
+            assertThat(mosaic.getDouble(tiepoint + 4 * 8), closeTo(ORIGIN_Y, 1e-9));
+        }
+    }
+
+    private Path[][] createParts(ByteOrder order, boolean tiepoints, boolean tiled) throws IOException {
+        return createParts(order, tiepoints, tiled, null);
+    }
+
+    private Path[][] createParts(ByteOrder order, boolean tiepoints, boolean tiled, String noData) throws IOException {
+        Path[][] parts = new Path[2][2];
+        for (int row = 0; row < 2; row++) {
+            for (int column = 0; column < 2; column++) {
+                int x = column * TILE_SIZE;
+                int y = row * TILE_SIZE;
+                parts[row][column] = write(createTiff(order, x, y,
+                        Math.min(TILE_SIZE, WIDTH - x), Math.min(TILE_SIZE, HEIGHT - y), tiepoints, tiled && column == 1, noData));
+            }
+        }
+        return parts;
+    }
+
+    private Path write(byte[] tiff) throws IOException {
+        Path file = Files.createTempFile("part", ".tiff");
+        files.add(file);
+        Files.write(file, tiff);
+        return file;
+    }
+
+    private static float pixel(int x, int y) {
+        return y * 1000f + x;
+    }
+
+    private static byte[] createTiff(ByteOrder order, int x0, int y0, int width, int height, boolean tiepoints, boolean tiled) {
+        return createTiff(order, x0, y0, width, height, tiepoints, tiled, null);
+    }
+
+    /*
+     * Part of the mosaic starting at cell x, y as 32 bit floats, in one strip
+     * per row or in a single 16x16 tile, with a GDAL NoData value unless it
+     * is null.
+     */
+    private static byte[] createTiff(ByteOrder order, int x0, int y0, int width, int height, boolean tiepoints, boolean tiled, String noData) {
+        int rowLength = tiled ? 16 : width;
+        int rows = tiled ? 16 : height;
+        ByteBuffer pixels = ByteBuffer.allocate(rowLength * rows * 4).order(order);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels.putFloat((y * rowLength + x) * 4, pixel(x0 + x, y0 + y));
+            }
+        }
+
+        Map<Integer, ByteBuffer> entries = new TreeMap<>();
+        Map<Integer, Integer> types = new TreeMap<>();
+        putLongs(entries, types, order, 256, width);
+        putLongs(entries, types, order, 257, height);
+        putShorts(entries, types, order, 258, 32);
+        putShorts(entries, types, order, 259, 1);
+        putShorts(entries, types, order, 262, 1);
+        putShorts(entries, types, order, 339, 3);
+        int dataOffset = 8;
+        if (tiled) {
+            putLongs(entries, types, order, 322, 16);
+            putLongs(entries, types, order, 323, 16);
+            putLongs(entries, types, order, 324, dataOffset);
+            putLongs(entries, types, order, 325, pixels.capacity());
+        } else {
+            long[] offsets = new long[height];
+            long[] counts = new long[height];
+            for (int y = 0; y < height; y++) {
+                offsets[y] = dataOffset + y * width * 4;
+                counts[y] = width * 4;
+            }
+            putLongs(entries, types, order, 273, offsets);
+            putLongs(entries, types, order, 278, 1);
+            putLongs(entries, types, order, 279, counts);
+        }
+        if (tiepoints) {
+            putDoubles(entries, types, order, TAG_MODEL_PIXEL_SCALE, CELL_SIZE, CELL_SIZE, 0);
+            putDoubles(entries, types, order, TAG_MODEL_TIEPOINT,
+                    0, 0, 0, ORIGIN_X + x0 * CELL_SIZE, ORIGIN_Y - y0 * CELL_SIZE, 0);
+        }
+        if (noData != null) {
+            entries.put(TAG_GDAL_NODATA, ByteBuffer.wrap((noData + "\0").getBytes(StandardCharsets.US_ASCII)));
+            types.put(TAG_GDAL_NODATA, 2);
+        }
+
+        int directoryOffset = dataOffset + pixels.capacity();
+        int valuesOffset = directoryOffset + 2 + entries.size() * 12 + 4;
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        ByteBuffer directory = ByteBuffer.allocate(2 + entries.size() * 12 + 4).order(order);
+        directory.putShort((short) entries.size());
+        for (Map.Entry<Integer, ByteBuffer> entry : entries.entrySet()) {
+            byte[] value = entry.getValue().array();
+            int type = types.get(entry.getKey());
+            directory.putShort(entry.getKey().shortValue());
+            directory.putShort((short) type);
+            directory.putInt(value.length / (type == 2 ? 1 : type == 3 ? 2 : type == 4 ? 4 : 8));
+            if (value.length <= 4) {
+                directory.put(Arrays.copyOf(value, 4));
+            } else {
+                directory.putInt(valuesOffset + values.size());
+                values.write(value, 0, value.length);
+            }
+        }
+        directory.putInt(0);
+
+        ByteBuffer tiff = ByteBuffer.allocate(valuesOffset + values.size()).order(order);
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.putShort((short) 42);
+        tiff.putInt(directoryOffset);
+        tiff.put(pixels.array());
+        tiff.put(directory.array());
+        tiff.put(values.toByteArray());
+        return tiff.array();
+    }
+
+    private static void putShorts(Map<Integer, ByteBuffer> entries, Map<Integer, Integer> types, ByteOrder order, int tag, int value) {
+        entries.put(tag, ByteBuffer.allocate(2).order(order).putShort(0, (short) value));
+        types.put(tag, 3);
+    }
+
+    private static void putLongs(Map<Integer, ByteBuffer> entries, Map<Integer, Integer> types, ByteOrder order, int tag, long... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(order);
+        for (long value : values) {
+            buffer.putInt((int) value);
+        }
+        entries.put(tag, buffer);
+        types.put(tag, 4);
+    }
+
+    private static void putDoubles(Map<Integer, ByteBuffer> entries, Map<Integer, Integer> types, ByteOrder order, int tag, double... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8).order(order);
+        for (double value : values) {
+            buffer.putDouble(value);
+        }
+        entries.put(tag, buffer);
+        types.put(tag, 12);
+    }
+
+    private static Map<Integer, long[]> readTags(ByteBuffer tiff) {
+        Map<Integer, long[]> tags = new TreeMap<>();
+        int directoryOffset = tiff.getInt(4);
+        int count = tiff.getShort(directoryOffset);
+        for (int i = 0; i < count; i++) {
+            int entry = directoryOffset + 2 + i * 12;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            int type = tiff.getShort(entry + 2);
+            int valueCount = tiff.getInt(entry + 4);
+            if (type == 12) {
+                // doubles are looked up by their offset
+                tags.put(tag, new long[] {tiff.getInt(entry + 8)});
+                continue;
+            }
+            int size = type == 2 ? 1 : type == 3 ? 2 : 4;
+            int valueOffset = size * valueCount <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+            long[] values = new long[valueCount];
+            for (int v = 0; v < valueCount; v++) {
+                if (type == 2) {
+                    values[v] = tiff.get(valueOffset + v) & 0xFF;
+                } else {
+                    values[v] = type == 3 ? tiff.getShort(valueOffset + v * 2) & 0xFFFF : tiff.getInt(valueOffset + v * 4) & 0xFFFFFFFFL;
+                }
+            }
+            tags.put(tag, values);
+        }
+        return tags;
+    }
+
+    private static String ascii(long[] characters) {
+        StringBuilder text = new StringBuilder();
+        for (long character : characters) {
+            if (character != 0) {
+                text.append((char) character);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package gov.usgs.cida.gdp.utilities;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeoTiffTilerTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 20;
+    private static final int TILE_SIZE = 256;
+    private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+
+    private Path source;
+    private Path target;
+
+    @Before
+    public void setUp() throws IOException {
+        source = Files.createTempFile("strip", ".tiff");
+        target = Files.createTempFile("tiled", ".tiff");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(source.toFile());
+        FileUtils.deleteQuietly(target.toFile());
+    }
+
+    @Test
+    public void retileLittleEndianTest() throws Exception {
+        retileTest(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void retileBigEndianTest() throws Exception {
+        retileTest(ByteOrder.BIG_ENDIAN);
+    }
+
+    @Test(expected = IOException.class)
+    public void notATiffTest() throws Exception {
+        Files.write(source, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+        GeoTiffTiler.retile(source, target, TILE_SIZE);
+    }
+
+    private void retileTest(ByteOrder order) throws Exception {
+        Files.write(source, createStripTiff(order));
+
+        GeoTiffTiler.retile(source, target, TILE_SIZE);
+
+        ByteBuffer tiled = ByteBuffer.wrap(Files.readAllBytes(target)).order(order);
+        Map<Integer, long[]> tags = readTags(tiled);
+        assertThat(tags.get(259)[0], is(8L));
+        assertThat(tags.get(322)[0], is((long) TILE_SIZE));
+        assertThat(tags.get(323)[0], is((long) TILE_SIZE));
+        assertThat(tags.containsKey(273), is(false));
+        assertThat(tags.containsKey(TAG_MODEL_PIXEL_SCALE), is(true));
+
+        long[] offsets = tags.get(324);
+        long[] byteCounts = tags.get(325);
+        assertThat(offsets.length, is(2));
+        for (int tile = 0; tile < offsets.length; tile++) {
+            ByteBuffer pixels = inflate(tiled, (int) offsets[tile], (int) byteCounts[tile]).order(order);
+            for (int row = 0; row < TILE_SIZE; row++) {
+                for (int column = 0; column < TILE_SIZE; column++) {
+                    int x = tile * TILE_SIZE + column;
+                    float expected = (row < HEIGHT && x < WIDTH) ? pixel(x, row) : 0f;
+                    assertThat(pixels.getFloat((row * TILE_SIZE + column) * 4), is(expected));
+                }
+            }
+        }
+    }
+
+    private static float pixel(int x, int y) {
+        return y * 1000f + x;
+    }
+
+    /*
+     * Two strips of 32 bit floats and a ModelPixelScale tag, laid out like the
+     * files netCDF-Java writes.
+     */
+    private static byte[] createStripTiff(ByteOrder order) {
+        int rowsPerStrip = HEIGHT / 2;
+        int stripBytes = rowsPerStrip * WIDTH * 4;
+        int entries = 10;
+        int directoryOffset = 8 + 2 * stripBytes;
+        int valuesOffset = directoryOffset + 2 + entries * 12 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(valuesOffset + 24).order(order);
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        buffer.putShort((short) 42);
+        buffer.putInt(directoryOffset);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                buffer.putFloat(pixel(x, y));
+            }
+        }
+        buffer.putShort((short) entries);
+        putEntry(buffer, 256, 3, 1, WIDTH);
+        putEntry(buffer, 257, 3, 1, HEIGHT);
+        putEntry(buffer, 258, 3, 1, 32);
+        putEntry(buffer, 259, 3, 1, 1);
+        putEntry(buffer, 262, 3, 1, 1);
+        putEntry(buffer, 273, 4, 2, valuesOffset);
+        putEntry(buffer, 278, 3, 1, rowsPerStrip);
+        putEntry(buffer, 279, 4, 2, valuesOffset + 8);
+        putEntry(buffer, 339, 3, 1, 3);
+        putEntry(buffer, TAG_MODEL_PIXEL_SCALE, 4, 2, valuesOffset + 16);
+        buffer.putInt(0);
+        buffer.putInt(8).putInt(8 + stripBytes);
+        buffer.putInt(stripBytes).putInt(stripBytes);
+        buffer.putInt(1).putInt(1);
+        return buffer.array();
+    }
+
+    private static void putEntry(ByteBuffer buffer, int tag, int type, int count, int value) {
+        buffer.putShort((short) tag);
+        buffer.putShort((short) type);
+        buffer.putInt(count);
+        if (type == 3 && count == 1) {
+            buffer.putShort((short) value).putShort((short) 0);
+        } else {
+            buffer.putInt(value);
+        }
+    }
+
+    private static Map<Integer, long[]> readTags(ByteBuffer tiff) {
+        Map<Integer, long[]> tags = new HashMap<>();
+        int directoryOffset = tiff.getInt(4);
+        int count = tiff.getShort(directoryOffset);
+        for (int i = 0; i < count; i++) {
+            int entry = directoryOffset + 2 + i * 12;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            int type = tiff.getShort(entry + 2);
+            int valueCount = tiff.getInt(entry + 4);
+            int size = type == 3 ? 2 : 4;
+            int valueOffset = size * valueCount <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+            long[] values = new long[valueCount];
+            for (int v = 0; v < valueCount; v++) {
+                values[v] = type == 3 ? tiff.getShort(valueOffset + v * 2) & 0xFFFF : tiff.getInt(valueOffset + v * 4) & 0xFFFFFFFFL;
+            }
+            tags.put(tag, values);
+        }
+        return tags;
+    }
+
+    private static ByteBuffer inflate(ByteBuffer tiff, int offset, int length) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(tiff.array(), offset, length);
+        byte[] pixels = new byte[TILE_SIZE * TILE_SIZE * 4];
+        int inflated = 0;
+        while (!inflater.finished()) {
+            inflated += inflater.inflate(pixels, inflated, pixels.length - inflated);
+        }
+        inflater.end();
+        assertThat(inflated, is(pixels.length));
+        return ByteBuffer.wrap(pixels);
+    }
+}
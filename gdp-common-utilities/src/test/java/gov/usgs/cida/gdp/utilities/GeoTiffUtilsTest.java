@@ -15,9 +15,12 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.geotools.data.FileDataStore;
 import org.geotools.data.FileDataStoreFinder;
@@ -156,6 +159,31 @@ public class GeoTiffUtilsTest {
         testFile.delete();
     }
     
+    @Test
+    public void writePrismGridToTiledGeoTiffTest() throws Exception {
+        List<String> gridVariableList = Arrays.asList("ppt");   // PRISM SET
+        
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
+        Date startDate = format.parse("2000-02-01");   // PRISM TEST SET
+        Date endDate = format.parse("2013-02-01");   // PRISM SET
+        
+        File testFile = GeoTiffUtils.generateGeoTiffZipFromGrid(prismGridDataSet, gridVariableList, featureCollection,
+                true, startDate, endDate, ".", GeoTiffUtils.TiffProfile.TILED_DEFLATE);
+        try (ZipFile zipFile = new ZipFile(testFile)) {
+            String previous = "";
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            assertTrue(entries.hasMoreElements());
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                assertTrue(name.endsWith(GeoTiffUtils.FILE_TIFF_EXTENSION));
+                assertTrue(name.compareTo(previous) > 0);
+                previous = name;
+            }
+        } finally {
+            testFile.delete();
+        }
+    }
+    
     @Test
 	public void writeDaymetGridToGeoTiffTest() {
         List<String> gridVariableList = Arrays.asList("prcp", "srad", "swe");   // DAYMET SET
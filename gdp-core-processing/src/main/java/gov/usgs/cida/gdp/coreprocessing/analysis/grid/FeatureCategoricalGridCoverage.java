@@ -7,18 +7,27 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import gov.usgs.cida.gdp.coreprocessing.Delimiter;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageFactory.GridCellAttributeCoverage;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridUtility.IndexToCoordinateBuilder;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedSet;
+import java.util.TimeZone;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.SchemaException;
 import org.geotools.geometry.jts.JTS;
@@ -26,7 +35,6 @@ import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
-import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
@@ -35,11 +43,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
+import ucar.nc2.dataset.CoordinateAxis1DTime;
 import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.GridDataset;
 import ucar.nc2.dt.GridDatatype;
 
 /**
+ * Fraction of each category of a categorical grid, e.g. land cover, found in
+ * the features of each attribute value.  A cell belongs to a feature when its
+ * center is inside the feature, or, when area weighted, each cell counts for
+ * the fraction of its area inside the feature as found by
+ * {@link GridCellCoverageFactory}.  Area weighting gives accurate fractions
+ * for features only a few cells across without oversampling the grid.
+ * <p>
+ * The cells of every feature are found first, one feature per task on a
+ * shared pool, and kept as a cell to attribute index.  The grid is then read
+ * once and each cell counted for the attributes of its features.  For t-y-x
+ * grids the categories are counted per time step.
  *
  * @author tkunicki
  */
@@ -47,6 +67,9 @@ public class FeatureCategoricalGridCoverage {
 
     private static final Logger log = LoggerFactory.getLogger(FeatureCategoricalGridCoverage.class);
 
+    private static final int INDEX_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static ExecutorService indexPool;
+
     public static void execute(
             FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
             String attributeName,
@@ -60,7 +83,7 @@ public class FeatureCategoricalGridCoverage {
                         gridDataset.findGridDatatype(
                                 checkNotNull(variableName, "variableName argument may not be null")),
                         "Variable named %s not found in girdded dataset %s", variableName);
-        execute(featureCollection, attributeName, gridDatatype, writer, delimiter, true);
+        execute(featureCollection, attributeName, gridDatatype, writer, delimiter, true, false);
     }
 
     public static void execute(
@@ -71,11 +94,23 @@ public class FeatureCategoricalGridCoverage {
             Delimiter delimiter,
             boolean requireFullCoverage)
             throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+        execute(featureCollection, attributeName, gridDataType, writer, delimiter, requireFullCoverage, false);
+    }
+
+    public static void execute(
+            FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+            String attributeName,
+            GridDatatype gridDataType,
+            BufferedWriter writer,
+            Delimiter delimiter,
+            boolean requireFullCoverage,
+            boolean areaWeighted)
+            throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
 
         GridCoordSystem gcs = gridDataType.getCoordinateSystem();
         GridType gt = GridType.findGridType(gcs);
-        if (gt != GridType.YX) {
-            throw new IllegalStateException("Currently require y-x grid for this operation");
+        if (gt != GridType.YX && gt != GridType.TYX) {
+            throw new IllegalStateException("Currently require y-x or t-y-x grid for this operation");
         }
 
         // these two calls are used to test for coverage/intersection based on 'requireFullCoverage',
@@ -102,138 +137,603 @@ public class FeatureCategoricalGridCoverage {
         boolean attributeComparable = Comparable.class.isAssignableFrom(
                 attributeDescriptor.getType().getBinding());
 
-        Map<Object, Map<Integer, Integer>> attributeToCategoricalCoverageMap = attributeComparable
+        Map<Object, Integer> attributeOrdinalMap = attributeComparable
                 ? // rely on Comparable to sort
-                new TreeMap<Object, Map<Integer, Integer>>()
+                new TreeMap<Object, Integer>()
                 : // use order from FeatureCollection.iterator();
-                new LinkedHashMap<Object, Map<Integer, Integer>>();
-        SortedSet<Integer> categorySet = new TreeSet<Integer>();
+                new LinkedHashMap<Object, Integer>();
 
+        List<SimpleFeature> featureList = new ArrayList<SimpleFeature>();
         Iterator<SimpleFeature> featureIterator = featureCollection.iterator();
-
         try {
             while (featureIterator.hasNext()) {
-
                 SimpleFeature feature = featureIterator.next();
                 Object attribute = feature.getAttribute(attributeName);
-
                 if (attribute != null) {
+                    attributeOrdinalMap.put(attribute, null);
+                    featureList.add(feature);
+                }
+            }
+        } finally {
+            featureCollection.close(featureIterator);
+        }
 
-                    Map<Integer, Integer> categoricalCoverageMap
-                            = attributeToCategoricalCoverageMap.get(attribute);
-                    if (categoricalCoverageMap == null) {
-                        categoricalCoverageMap = new TreeMap<Integer, Integer>();
-                        attributeToCategoricalCoverageMap.put(attribute, categoricalCoverageMap);
-                    }
-
-                    BoundingBox featureBoundingBox = feature.getBounds();
+        List<Object> attributeList = new ArrayList<Object>(attributeOrdinalMap.keySet());
+        for (int ordinal = 0; ordinal < attributeList.size(); ++ordinal) {
+            attributeOrdinalMap.put(attributeList.get(ordinal), ordinal);
+        }
 
-                    Geometry featureGeometry = (Geometry) feature.getDefaultGeometry();
+        CellAttributeIndex cellAttributeIndex = areaWeighted
+                ? indexFeatureCoverage(featureList, attributeName, attributeOrdinalMap, gridDataType)
+                : indexFeatures(featureList, attributeName, attributeOrdinalMap, gridDataType, gridToFeatureTransform, requireFullCoverage);
 
-                    try {
-                        Range[] featureRanges = GridUtility.getXYRangesFromBoundingBox(
-                                featureBoundingBox, gridDataType.getCoordinateSystem(), requireFullCoverage);
+        CategoricalCoverageVisitor visitor = new CategoricalCoverageVisitor(cellAttributeIndex, attributeList.size());
+        new GridCellTraverser(gridDataType).traverse(visitor);
 
-                        GridDatatype featureGridDataType = gridDataType.makeSubset(null, null, null, null, featureRanges[1], featureRanges[0]);
+        visitor.write(attributeList, new SimpleDelimitedWriter(delimiter, writer));
+    }
 
-                        PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(featureGeometry);
+    /**
+     * Finds the cells of each feature in parallel.  Grid subsets are made on
+     * the calling thread, only the point in polygon tests are handed to the
+     * pool.
+     */
+    static CellAttributeIndex indexFeatures(
+            List<SimpleFeature> featureList,
+            String attributeName,
+            Map<Object, Integer> attributeOrdinalMap,
+            GridDatatype gridDataType,
+            MathTransform gridToFeatureTransform,
+            boolean requireFullCoverage) throws IOException, FactoryException, TransformException {
 
-                        GridCellTraverser traverser = new GridCellTraverser(featureGridDataType);
-                        traverser.traverse(new FeatureGridCellVisitor(
-                                preparedGeometry,
-                                gridToFeatureTransform,
-                                categoricalCoverageMap));
+        GridCoordSystem gcs = gridDataType.getCoordinateSystem();
+        int xCellCount = GridUtility.getXAxisLength(gcs);
+        int yCellCount = GridUtility.getYAxisLength(gcs);
 
-                        categorySet.addAll(categoricalCoverageMap.keySet());
-                    } catch (InvalidRangeException e) {
-                        log.warn("The feature doesn't intersect the grid", e);
-                    }
+        List<Future<FeatureCells>> futureList = new ArrayList<Future<FeatureCells>>(featureList.size());
+        int[] featureAttributes = new int[featureList.size()];
+        try {
+            for (int featureIndex = 0; featureIndex < featureList.size(); ++featureIndex) {
+                SimpleFeature feature = featureList.get(featureIndex);
+                featureAttributes[featureIndex] = attributeOrdinalMap.get(feature.getAttribute(attributeName));
+                Future<FeatureCells> future = null;
+                try {
+                    Range[] featureRanges = GridUtility.getXYRangesFromBoundingBox(
+                            feature.getBounds(), gcs, requireFullCoverage);
+                    // cell centers from the feature's own subset, as a traversal of it would see them
+                    GridDatatype featureGridDataType = gridDataType.makeSubset(null, null, null, null, featureRanges[1], featureRanges[0]);
+                    future = getIndexPool().submit(new FeatureCellTask(
+                            PreparedGeometryFactory.prepare((Geometry) feature.getDefaultGeometry()),
+                            GridUtility.generateIndexToCellCenterCoordinateBuilder(featureGridDataType.getCoordinateSystem()),
+                            gridToFeatureTransform,
+                            featureRanges[0].first(),
+                            featureRanges[1].first(),
+                            featureRanges[0].length(),
+                            featureRanges[1].length(),
+                            xCellCount));
+                } catch (InvalidRangeException e) {
+                    log.warn("The feature doesn't intersect the grid", e);
                 }
+                futureList.add(future);
             }
+            return buildIndex(futureList, featureAttributes, xCellCount * yCellCount, false);
         } finally {
-            featureCollection.close(featureIterator);
+            cancel(futureList);
         }
+    }
 
-        SimpleDelimitedWriter delimitedWriter = new SimpleDelimitedWriter(delimiter, writer);
-
-        Collection headerRow = new ArrayList<Object>();
-        for (Integer i : categorySet) {
-            headerRow.add("Category");
-        }
-        delimitedWriter.writeRow(null, headerRow);
-
-        headerRow.clear();
-        headerRow.addAll(categorySet);
-        headerRow.add("Sample Count");
+    /**
+     * Finds the fraction of each cell covered by each feature in parallel,
+     * with {@link GridCellCoverageFactory#calculateCoverage(GridCellGeometry, SimpleFeature, Range[])}.
+     * Features with the same attribute are added together per cell, up to the
+     * whole cell, as for area weighted statistics.
+     */
+    static CellAttributeIndex indexFeatureCoverage(
+            List<SimpleFeature> featureList,
+            String attributeName,
+            Map<Object, Integer> attributeOrdinalMap,
+            GridDatatype gridDataType) throws IOException, FactoryException, TransformException {
 
-        delimitedWriter.writeRow("Attribute", headerRow);
+        GridCellGeometry gridCellGeometry = new GridCellGeometry(gridDataType.getCoordinateSystem());
 
-        for (Map.Entry<Object, Map<Integer, Integer>> entry : attributeToCategoricalCoverageMap.entrySet()) {
-            Object attributeValue = entry.getKey();
-            Map<Integer, Integer> categoricalCoverageMap = entry.getValue();
+        List<Future<FeatureCells>> futureList = new ArrayList<Future<FeatureCells>>(featureList.size());
+        int[] featureAttributes = new int[featureList.size()];
+        try {
+            for (int featureIndex = 0; featureIndex < featureList.size(); ++featureIndex) {
+                SimpleFeature feature = featureList.get(featureIndex);
+                featureAttributes[featureIndex] = attributeOrdinalMap.get(feature.getAttribute(attributeName));
+                Future<FeatureCells> future = null;
+                try {
+                    Range[] featureRanges = GridUtility.getXYRangesFromBoundingBox(
+                            feature.getBounds(), gridCellGeometry.getGridCoordSystem(), false);
+                    future = getIndexPool().submit(new FeatureCoverageTask(gridCellGeometry, feature, featureRanges));
+                } catch (InvalidRangeException e) {
+                    log.warn("The feature doesn't intersect the grid", e);
+                }
+                futureList.add(future);
+            }
+            return buildIndex(futureList, featureAttributes, gridCellGeometry.getCellCount(), true);
+        } finally {
+            cancel(futureList);
+        }
+    }
 
-            List<Number> rowValues = new ArrayList<Number>();
-            int total = 0;
-            // gather total sample count for attribute
-            for (Integer count : categoricalCoverageMap.values()) {
-                if (count != null) {
-                    total += count;
+    private static CellAttributeIndex buildIndex(
+            List<Future<FeatureCells>> futureList,
+            int[] featureAttributes,
+            int cellCount,
+            boolean weighted) throws IOException, FactoryException, TransformException {
+        try {
+            CellAttributeIndex index = new CellAttributeIndex(cellCount, weighted);
+            for (int featureIndex = 0; featureIndex < futureList.size(); ++featureIndex) {
+                Future<FeatureCells> future = futureList.get(featureIndex);
+                if (future != null) {
+                    FeatureCells featureCells = future.get();
+                    index.add(featureCells.cells, featureCells.weights, featureAttributes[featureIndex]);
                 }
             }
-            // calculate and store fraction for each categorical type
-            for (Integer category : categorySet) {
-                Integer count = categoricalCoverageMap.get(category);
-                float fraction = count == null ? 0 : (float) count / (float) total;
-                rowValues.add(fraction);
+            index.build();
+            return index;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finding feature cells", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransformException) {
+                throw (TransformException) cause;
+            }
+            if (cause instanceof FactoryException) {
+                throw (FactoryException) cause;
             }
-            rowValues.add(total);
+            throw new IOException("Unable to find feature cells", cause);
+        }
+    }
 
-            delimitedWriter.writeRow(attributeValue.toString(), rowValues);
+    private static void cancel(List<Future<FeatureCells>> futureList) {
+        for (Future<FeatureCells> future : futureList) {
+            if (future != null) {
+                future.cancel(true);
+            }
         }
+    }
+
+    private static synchronized ExecutorService getIndexPool() {
+        if (indexPool == null) {
+            indexPool = Executors.newFixedThreadPool(INDEX_THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
 
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "categorical-coverage-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return indexPool;
     }
 
-    protected static class FeatureGridCellVisitor extends GridCellVisitor {
+    /**
+     * Cells of one feature as y-x indices of the feature collection's grid
+     * subset, with the fraction of each covered when area weighted.
+     */
+    static class FeatureCells {
+
+        final int[] cells;
+        final double[] weights;
+
+        FeatureCells(int[] cells, double[] weights) {
+            this.cells = cells;
+            this.weights = weights;
+        }
+    }
+
+    /**
+     * Cells whose center is inside one feature.
+     */
+    protected static class FeatureCellTask implements Callable<FeatureCells> {
 
         private final GeometryFactory geometryFactory = new GeometryFactory();
         private final PreparedGeometry preparedGeometry;
+        private final IndexToCoordinateBuilder coordinateBuilder;
         private final MathTransform gridToFeatureTransform;
-        private final Map<Integer, Integer> categoryMap;
+        private final int xOffset;
+        private final int yOffset;
+        private final int xCount;
+        private final int yCount;
+        private final int gridXCellCount;
 
-        private IndexToCoordinateBuilder coordinateBuilder;
-
-        protected FeatureGridCellVisitor(
+        protected FeatureCellTask(
                 PreparedGeometry preparedGeometry,
+                IndexToCoordinateBuilder coordinateBuilder,
                 MathTransform gridToFeatureTransform,
-                Map<Integer, Integer> categoryMap) {
+                int xOffset, int yOffset, int xCount, int yCount,
+                int gridXCellCount) {
             this.preparedGeometry = preparedGeometry;
+            this.coordinateBuilder = coordinateBuilder;
             this.gridToFeatureTransform = gridToFeatureTransform;
-            this.categoryMap = categoryMap;
+            this.xOffset = xOffset;
+            this.yOffset = yOffset;
+            this.xCount = xCount;
+            this.yCount = yCount;
+            this.gridXCellCount = gridXCellCount;
+        }
+
+        @Override
+        public FeatureCells call() {
+            int[] cells = new int[16];
+            int cellCount = 0;
+            for (int yCellIndex = 0; yCellIndex < yCount; ++yCellIndex) {
+                for (int xCellIndex = 0; xCellIndex < xCount; ++xCellIndex) {
+                    Coordinate coordinate
+                            = coordinateBuilder.getCoordinate(xCellIndex, yCellIndex);
+                    try {
+                        JTS.transform(coordinate, coordinate, gridToFeatureTransform);
+                    } catch (TransformException e) {
+                        log.warn("Exception transforming grid to feature", e);
+                    }
+                    if (preparedGeometry.contains(geometryFactory.createPoint(coordinate))) {
+                        if (cellCount == cells.length) {
+                            cells = Arrays.copyOf(cells, cellCount * 2);
+                        }
+                        cells[cellCount++] = (yOffset + yCellIndex) * gridXCellCount + xOffset + xCellIndex;
+                    }
+                }
+            }
+            return new FeatureCells(Arrays.copyOf(cells, cellCount), null);
+        }
+    }
+
+    /**
+     * Cells intersecting one feature and the fraction of each inside it.
+     */
+    protected static class FeatureCoverageTask implements Callable<FeatureCells> {
+
+        private final GridCellGeometry gridCellGeometry;
+        private final SimpleFeature feature;
+        private final Range[] featureRanges;
+
+        protected FeatureCoverageTask(GridCellGeometry gridCellGeometry, SimpleFeature feature, Range[] featureRanges) {
+            this.gridCellGeometry = gridCellGeometry;
+            this.feature = feature;
+            this.featureRanges = featureRanges;
+        }
+
+        @Override
+        public FeatureCells call() throws FactoryException, TransformException {
+            List<GridCellAttributeCoverage> coverageList
+                    = GridCellCoverageFactory.calculateCoverage(gridCellGeometry, feature, featureRanges);
+            int[] cells = new int[coverageList.size()];
+            double[] weights = new double[coverageList.size()];
+            for (int index = 0; index < cells.length; ++index) {
+                GridCellAttributeCoverage coverage = coverageList.get(index);
+                cells[index] = gridCellGeometry.calculateYXIndex(coverage.xCellIndex, coverage.yCellIndex);
+                weights[index] = coverage.coverage;
+            }
+            return new FeatureCells(cells, weights);
+        }
+    }
+
+    /**
+     * Attribute ordinals of the features covering each cell, compressed into
+     * one array with an offset per cell.  Without weights an attribute is
+     * listed once per feature, so a cell in two features with the same
+     * attribute is counted twice for it.  With weights the features of an
+     * attribute are merged and their weights added, up to 1.
+     */
+    static class CellAttributeIndex {
+
+        private final int[] offsets;
+        private final boolean weighted;
+        private final List<FeatureCells> featureCells = new ArrayList<FeatureCells>();
+        private final List<Integer> featureAttributes = new ArrayList<Integer>();
+        private int[] attributes;
+        private double[] weights;
+
+        CellAttributeIndex(int cellCount, boolean weighted) {
+            this.offsets = new int[cellCount + 1];
+            this.weighted = weighted;
+        }
+
+        void add(int[] cells, double[] cellWeights, int attribute) {
+            featureCells.add(new FeatureCells(cells, cellWeights));
+            featureAttributes.add(attribute);
+            for (int cell : cells) {
+                offsets[cell + 1]++;
+            }
+        }
+
+        void build() {
+            for (int cell = 1; cell < offsets.length; ++cell) {
+                offsets[cell] += offsets[cell - 1];
+            }
+            attributes = new int[offsets[offsets.length - 1]];
+            weights = weighted ? new double[attributes.length] : null;
+            int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+            for (int feature = 0; feature < featureCells.size(); ++feature) {
+                int attribute = featureAttributes.get(feature);
+                FeatureCells cells = featureCells.get(feature);
+                for (int index = 0; index < cells.cells.length; ++index) {
+                    int position = next[cells.cells[index]]++;
+                    attributes[position] = attribute;
+                    if (weighted) {
+                        weights[position] = cells.weights[index];
+                    }
+                }
+            }
+            featureCells.clear();
+            featureAttributes.clear();
+            if (weighted) {
+                merge();
+            }
+        }
+
+        /**
+         * Adds together the weights of each attribute within a cell, in
+         * place.  Cells rarely have more than a few entries.
+         */
+        private void merge() {
+            int write = 0;
+            int start = offsets[0];
+            for (int cell = 0; cell < offsets.length - 1; ++cell) {
+                int end = offsets[cell + 1];
+                int cellStart = write;
+                for (int read = start; read < end; ++read) {
+                    int found = -1;
+                    for (int index = cellStart; index < write && found < 0; ++index) {
+                        if (attributes[index] == attributes[read]) {
+                            found = index;
+                        }
+                    }
+                    if (found < 0) {
+                        attributes[write] = attributes[read];
+                        weights[write] = weights[read];
+                        write++;
+                    } else {
+                        weights[found] = Math.min(1, weights[found] + weights[read]);
+                    }
+                }
+                offsets[cell] = cellStart;
+                start = end;
+            }
+            offsets[offsets.length - 1] = write;
+        }
+
+        boolean isWeighted() {
+            return weighted;
+        }
+
+        int start(int cell) {
+            return offsets[cell];
+        }
+
+        int end(int cell) {
+            return offsets[cell + 1];
+        }
+
+        int attribute(int position) {
+            return attributes[position];
+        }
+
+        double weight(int position) {
+            return weighted ? weights[position] : 1;
+        }
+    }
+
+    /**
+     * Dense ordinals for category values, in the order they are first seen,
+     * kept in an open addressing table so counting needs no boxing.
+     */
+    static class CategoryOrdinals {
+
+        private int[] keys = new int[32];
+        // ordinal + 1, 0 for an empty slot
+        private int[] slots = new int[32];
+        private int[] categories = new int[16];
+        private int size;
+
+        int ordinal(int category) {
+            int mask = keys.length - 1;
+            int slot = mix(category) & mask;
+            while (slots[slot] != 0) {
+                if (keys[slot] == category) {
+                    return slots[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (2 * (size + 1) > keys.length) {
+                rehash();
+                return ordinal(category);
+            }
+            keys[slot] = category;
+            slots[slot] = size + 1;
+            if (size == categories.length) {
+                categories = Arrays.copyOf(categories, size * 2);
+            }
+            categories[size] = category;
+            return size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int category(int ordinal) {
+            return categories[ordinal];
+        }
+
+        private void rehash() {
+            int[] oldKeys = keys;
+            int[] oldSlots = slots;
+            keys = new int[oldKeys.length * 2];
+            slots = new int[oldSlots.length * 2];
+            int mask = keys.length - 1;
+            for (int index = 0; index < oldKeys.length; ++index) {
+                if (oldSlots[index] != 0) {
+                    int slot = mix(oldKeys[index]) & mask;
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[index];
+                    slots[slot] = oldSlots[index];
+                }
+            }
+        }
+
+        private static int mix(int value) {
+            int h = value * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Counts the category of each cell for the attributes of the features
+     * covering it, one set of histograms per time step.
+     */
+    protected static class CategoricalCoverageVisitor extends GridCellVisitor {
+
+        public final static String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+        public final static String TIMEZONE = "UTC";
+
+        private final CellAttributeIndex cellAttributeIndex;
+        private final int attributeCount;
+        private final CategoryOrdinals categoryOrdinals = new CategoryOrdinals();
+        private final List<int[][]> timestepCounts = new ArrayList<int[][]>();
+        private final List<String> timestepLabels = new ArrayList<String>();
+        private final SimpleDateFormat dateFormat;
+
+        private CoordinateAxis1DTime tAxis;
+        private int xCellCount;
+        private int[][] counts;
+        private double[][] weights;
+        private final List<double[][]> timestepWeights = new ArrayList<double[][]>();
+
+        protected CategoricalCoverageVisitor(CellAttributeIndex cellAttributeIndex, int attributeCount) {
+            this.cellAttributeIndex = cellAttributeIndex;
+            this.attributeCount = attributeCount;
+            dateFormat = new SimpleDateFormat(DATE_FORMAT);
+            dateFormat.setTimeZone(TimeZone.getTimeZone(TIMEZONE));
         }
 
         @Override
         public void traverseStart(GridDatatype gridDatatype) {
-            coordinateBuilder = GridUtility.generateIndexToCellCenterCoordinateBuilder(gridDatatype.getCoordinateSystem());
+            tAxis = gridDatatype.getCoordinateSystem().getTimeAxis1D();
+            xCellCount = GridUtility.getXAxisLength(gridDatatype.getCoordinateSystem());
+        }
+
+        @Override
+        public boolean tStart(int tIndex) {
+            // the time axis may not be one dimensional
+            timestepLabels.add(tAxis == null ? null : dateFormat.format(tAxis.getCalendarDate(tIndex).toDate()));
+            return true;
+        }
+
+        @Override
+        public void yxStart() {
+            counts = new int[attributeCount][Math.max(1, categoryOrdinals.size())];
+            timestepCounts.add(counts);
+            if (cellAttributeIndex.isWeighted()) {
+                weights = new double[attributeCount][Math.max(1, categoryOrdinals.size())];
+                timestepWeights.add(weights);
+            }
         }
 
         @Override
         public void processGridCell(int xCellIndex, int yCellIndex, double value) {
-            Coordinate coordinate
-                    = coordinateBuilder.getCoordinate(xCellIndex, yCellIndex);
-            try {
-                JTS.transform(coordinate, coordinate, gridToFeatureTransform);
-            } catch (TransformException e) {
-                log.warn("Exception transforming grid to feature", e);
+            int cell = yCellIndex * xCellCount + xCellIndex;
+            int start = cellAttributeIndex.start(cell);
+            int end = cellAttributeIndex.end(cell);
+            if (start < end) {
+                int category = categoryOrdinals.ordinal((int) value);
+                if (category >= counts[0].length) {
+                    for (int attribute = 0; attribute < attributeCount; ++attribute) {
+                        counts[attribute] = Arrays.copyOf(counts[attribute], 2 * category);
+                        if (weights != null) {
+                            weights[attribute] = Arrays.copyOf(weights[attribute], 2 * category);
+                        }
+                    }
+                }
+                for (int position = start; position < end; ++position) {
+                    int attribute = cellAttributeIndex.attribute(position);
+                    counts[attribute][category]++;
+                    if (weights != null) {
+                        weights[attribute][category] += cellAttributeIndex.weight(position);
+                    }
+                }
             }
-            if (preparedGeometry.contains(geometryFactory.createPoint(coordinate))) {
-                Integer key = (int) value;
-                Integer count = categoryMap.get(key);
-                count = count == null ? 1 : count + 1;
-                categoryMap.put(key, count);
+        }
+
+        protected void write(List<Object> attributeList, SimpleDelimitedWriter delimitedWriter) throws IOException {
+            // categories in ascending order
+            int categoryCount = categoryOrdinals.size();
+            long[] sortable = new long[categoryCount];
+            for (int ordinal = 0; ordinal < categoryCount; ++ordinal) {
+                sortable[ordinal] = ((long) categoryOrdinals.category(ordinal) << 32) | ordinal;
+            }
+            Arrays.sort(sortable);
+            int[] sortedOrdinals = new int[categoryCount];
+            List<Object> headerRow = new ArrayList<Object>();
+            if (tAxis != null) {
+                headerRow.add("");
             }
+            for (int index = 0; index < categoryCount; ++index) {
+                sortedOrdinals[index] = (int) sortable[index];
+                headerRow.add("Category");
+            }
+            delimitedWriter.writeRow(null, headerRow);
 
-        }
+            headerRow.clear();
+            if (tAxis != null) {
+                headerRow.add("Attribute");
+            }
+            for (int ordinal : sortedOrdinals) {
+                headerRow.add(categoryOrdinals.category(ordinal));
+            }
+            headerRow.add("Sample Count");
+            delimitedWriter.writeRow(tAxis == null ? "Attribute" : Statistics1DWriter.TIMESTEPS_LABEL, headerRow);
+
+            List<Object> rowValues = new ArrayList<Object>();
+            for (int timestep = 0; timestep < timestepCounts.size(); ++timestep) {
+                int[][] timestepCount = timestepCounts.get(timestep);
+                double[][] timestepWeight = cellAttributeIndex.isWeighted() ? timestepWeights.get(timestep) : null;
+                for (int attribute = 0; attribute < attributeCount; ++attribute) {
+                    int[] attributeCounts = timestepCount[attribute];
+                    double[] attributeWeights = timestepWeight == null ? null : timestepWeight[attribute];
+                    rowValues.clear();
+                    if (tAxis != null) {
+                        rowValues.add(attributeList.get(attribute).toString());
+                    }
+                    int total = 0;
+                    // gather total sample count for attribute
+                    for (int count : attributeCounts) {
+                        total += count;
+                    }
+                    double totalWeight = 0;
+                    if (attributeWeights != null) {
+                        for (double weight : attributeWeights) {
+                            totalWeight += weight;
+                        }
+                    }
+                    // calculate and store fraction for each categorical type
+                    for (int ordinal : sortedOrdinals) {
+                        float fraction;
+                        if (attributeWeights == null) {
+                            int count = ordinal < attributeCounts.length ? attributeCounts[ordinal] : 0;
+                            fraction = count == 0 ? 0 : (float) count / (float) total;
+                        } else {
+                            double weight = ordinal < attributeWeights.length ? attributeWeights[ordinal] : 0;
+                            fraction = weight == 0 ? 0 : (float) (weight / totalWeight);
+                        }
+                        rowValues.add(fraction);
+                    }
+                    rowValues.add(total);
 
+                    delimitedWriter.writeRow(
+                            tAxis == null ? attributeList.get(attribute).toString() : timestepLabels.get(timestep),
+                            rowValues);
+                }
+            }
+        }
     }
 
     protected static class SimpleDelimitedWriter {
@@ -33,6 +33,9 @@ public class GridCellTraverser {
 
     private final GridType gridType;
 
+    // null when the grid is read directly
+    private final GridTileCache.TiledGrid tiledGrid;
+
     protected final int xCellCount;
     protected final int yCellCount;
     protected final int zCellCount;
@@ -60,6 +63,9 @@ public class GridCellTraverser {
         yCellCount = GridUtility.getYAxisLength(gridCoordSystem);
         zCellCount = zAxis == null ? 0 : zAxis.getShape(0);
         tCellCount = tAxis == null ? 0 : tAxis.getShape(0);
+
+        GridTileCache tileCache = GridTileCache.getInstance();
+        tiledGrid = tileCache == null ? null : tileCache.open(gridDatatype);
     }
 
     public void traverse(GridCellVisitor visitor) throws IOException {
@@ -133,7 +139,9 @@ public class GridCellTraverser {
         Array slice = null;
         while (slice == null) {
             try {
-                slice = gridDataType.readDataSlice(t_index, z_index, -1, -1);
+                slice = tiledGrid == null ?
+                        gridDataType.readDataSlice(t_index, z_index, -1, -1) :
+                        tiledGrid.readDataSlice(t_index, z_index);
             } catch (IOException e) {
                 if (failures++ < 3) {
                     LOGGER.warn("Error reading slice [t={}, z={}] from {}: failure {}, reattempting.  Exception was {}",
@@ -0,0 +1,689 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import gov.usgs.cida.gdp.constants.AppConstant;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.CoordinateAxis;
+import ucar.nc2.dataset.CoordinateAxis1D;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.VariableDS;
+import ucar.nc2.dt.GridCoordSystem;
+import ucar.nc2.dt.GridDatatype;
+
+/**
+ * Disk backed cache of remote grid data, split into fixed size tiles.
+ *
+ * A tile is a square of cells over a block of consecutive time steps for a
+ * single level, in the coordinates of the full (unsubset) variable, so jobs
+ * over overlapping bounding boxes and periods share tiles.  Tiles are keyed by
+ * dataset location, variable, variable shape and tile index; a dataset that
+ * grows along time gets new keys.  A slice read fetches all of its missing
+ * tiles with one request, a tile already being fetched by another thread is
+ * waited on rather than fetched again.  Tiles are kept on disk up to a byte
+ * budget and evicted least recently used, recently used tiles are also kept
+ * in memory.  A tile older than the time to live is fetched again, as
+ * datasets may be updated in place.
+ *
+ * Tiles are read through the caller's own dataset, which must not be used by
+ * other threads at the same time.
+ */
+public class GridTileCache {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(GridTileCache.class);
+
+    public final static int DEFAULT_TILE_SIZE = 128;
+    public final static int DEFAULT_TIME_BLOCK = 8;
+    public final static long DEFAULT_MEMORY_BYTES = 64L * 1024L * 1024L;
+
+    private final static String TILE_SUFFIX = ".tile";
+
+    private static GridTileCache instance;
+    private static boolean configured = false;
+
+    private final File directory;
+    private final long diskBytes;
+    private final long memoryBytes;
+    private final int tileSize;
+    private final int timeBlock;
+    private final boolean remoteOnly;
+    private final long ttlMillis;
+
+    // access ordered, iteration starts at the least recently used tile
+    private final LinkedHashMap<String, Long> diskIndex = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private final LinkedHashMap<String, MemoryTile> memory = new LinkedHashMap<String, MemoryTile>(16, 0.75f, true);
+    private long diskTotal = 0;
+    private long memoryTotal = 0;
+    private final ConcurrentMap<String, PendingTile> pending = new ConcurrentHashMap<String, PendingTile>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+
+    /**
+     * @param directory where tiles are stored, existing tiles are reused
+     * @param diskBytes byte budget for tiles on disk
+     * @param memoryBytes byte budget for tiles in memory
+     * @param tileSize width and height of a tile in cells
+     * @param timeBlock time steps in a tile
+     * @param remoteOnly only cache OPeNDAP and other http datasets
+     */
+    public GridTileCache(File directory, long diskBytes, long memoryBytes, int tileSize, int timeBlock, boolean remoteOnly) throws IOException {
+        this(directory, diskBytes, memoryBytes, tileSize, timeBlock, remoteOnly, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param directory where tiles are stored, existing tiles are reused
+     * @param diskBytes byte budget for tiles on disk
+     * @param memoryBytes byte budget for tiles in memory
+     * @param tileSize width and height of a tile in cells
+     * @param timeBlock time steps in a tile
+     * @param remoteOnly only cache OPeNDAP and other http datasets
+     * @param ttlMillis age after which a tile is fetched again
+     */
+    public GridTileCache(File directory, long diskBytes, long memoryBytes, int tileSize, int timeBlock, boolean remoteOnly, long ttlMillis) throws IOException {
+        this.directory = directory;
+        this.diskBytes = diskBytes;
+        this.memoryBytes = memoryBytes;
+        this.tileSize = tileSize;
+        this.timeBlock = timeBlock;
+        this.remoteOnly = remoteOnly;
+        this.ttlMillis = ttlMillis;
+        FileUtils.forceMkdir(directory);
+        loadIndex();
+    }
+
+    /**
+     * @return the cache configured by gdp.tile.cache.bytes in the tiles
+     * directory under gdp.path.cache, tiles expiring after gdp.cache.ttl, null
+     * if disabled
+     */
+    public static synchronized GridTileCache getInstance() {
+        if (!configured) {
+            configured = true;
+            long bytes = Long.parseLong(AppConstant.TILE_CACHE_BYTES.getValue());
+            if (bytes > 0) {
+                try {
+                    instance = new GridTileCache(new File(AppConstant.CACHE_LOCATION.getValue(), "tiles"),
+                            bytes, DEFAULT_MEMORY_BYTES, DEFAULT_TILE_SIZE, DEFAULT_TIME_BLOCK, true,
+                            Long.parseLong(AppConstant.CACHE_TTL_MILLIS.getValue()));
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to create grid tile cache, reading grids directly", e);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param gridDatatype grid, possibly a subset, to read through the cache
+     * @return reader for the grid, null if it can not be cached
+     */
+    public TiledGrid open(GridDatatype gridDatatype) {
+        VariableDS section = gridDatatype.getVariable();
+        NetcdfFile netcdfFile = section.getParentGroup().getNetcdfFile();
+        if (!(netcdfFile instanceof NetcdfDataset)) {
+            return null;
+        }
+        String location = netcdfFile.getLocation();
+        if (location == null || (remoteOnly && !isRemote(location))) {
+            return null;
+        }
+        Variable full = netcdfFile.findVariable(section.getFullNameEscaped());
+        if (!(full instanceof VariableDS) || full.getRank() != section.getRank()) {
+            return null;
+        }
+        int[] dimensions = {
+            gridDatatype.getTimeDimensionIndex(),
+            gridDatatype.getZDimensionIndex(),
+            gridDatatype.getYDimensionIndex(),
+            gridDatatype.getXDimensionIndex()
+        };
+        int present = 0;
+        for (int dimension : dimensions) {
+            if (dimension >= 0) {
+                present++;
+            }
+        }
+        if (present != full.getRank() || dimensions[2] < 0 || dimensions[3] < 0) {
+            return null;
+        }
+
+        GridCoordSystem gridCoordSystem = gridDatatype.getCoordinateSystem();
+        NetcdfDataset netcdfDataset = (NetcdfDataset) netcdfFile;
+        CoordinateAxis[] axes = {
+            gridCoordSystem.getTimeAxis(),
+            gridCoordSystem.getVerticalAxis(),
+            gridCoordSystem.getYHorizAxis(),
+            gridCoordSystem.getXHorizAxis()
+        };
+        int[] offsets = new int[4];
+        for (int i = 0; i < 4; i++) {
+            if (dimensions[i] >= 0) {
+                offsets[i] = findOffset(axes[i], netcdfDataset, section.getShape(dimensions[i]));
+                if (offsets[i] < 0) {
+                    return null;
+                }
+            }
+        }
+        return new TiledGrid((VariableDS) full, location, dimensions, offsets,
+                section.getShape(dimensions[2]), section.getShape(dimensions[3]));
+    }
+
+    /**
+     * @return tiles served from memory or disk
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return tiles read from the dataset
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return reads from the dataset, each covering one or more tiles
+     */
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskTotal;
+    }
+
+    private static boolean isRemote(String location) {
+        return location.startsWith("dods:") || location.startsWith("http:") || location.startsWith("https:");
+    }
+
+    /*
+     * Index of the subset axis' first value in the full axis, -1 if the subset
+     * is not a contiguous run of the full axis.
+     */
+    private static int findOffset(CoordinateAxis subsetAxis, NetcdfDataset netcdfDataset, int length) {
+        if (!(subsetAxis instanceof CoordinateAxis1D)) {
+            return -1;
+        }
+        CoordinateAxis fullAxis = netcdfDataset.findCoordinateAxis(subsetAxis.getFullName());
+        if (!(fullAxis instanceof CoordinateAxis1D)) {
+            return -1;
+        }
+        double[] subsetValues = ((CoordinateAxis1D) subsetAxis).getCoordValues();
+        double[] fullValues = ((CoordinateAxis1D) fullAxis).getCoordValues();
+        if (subsetValues.length != length || length == 0) {
+            return -1;
+        }
+        for (int offset = 0; offset + length <= fullValues.length; offset++) {
+            if (fullValues[offset] == subsetValues[0]
+                    && fullValues[offset + length - 1] == subsetValues[length - 1]
+                    && (length < 2 || fullValues[offset + 1] == subsetValues[1])) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private Array getCachedTile(String key) {
+        synchronized (this) {
+            MemoryTile tile = memory.get(key);
+            if (tile != null) {
+                if (!isExpired(tile.written)) {
+                    return tile.data;
+                }
+                memory.remove(key);
+                memoryTotal -= sizeOf(tile.data);
+            }
+            if (diskIndex.get(key) == null) {
+                return null;
+            }
+        }
+        File file = getTileFile(key);
+        long written = file.lastModified();
+        if (isExpired(written)) {
+            discardTile(key);
+            return null;
+        }
+        Array tile = readTile(key);
+        if (tile != null) {
+            putMemory(key, tile, written);
+        }
+        return tile;
+    }
+
+    private void putTile(String key, Array tile) {
+        putMemory(key, tile, System.currentTimeMillis());
+        File file = getTileFile(key);
+        File temp = null;
+        DataOutputStream out = null;
+        try {
+            temp = File.createTempFile("tile", ".tmp", directory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            ByteBuffer bytes = tile.getDataAsByteBuffer();
+            out.writeUTF(DataType.getType(tile.getElementType()).toString());
+            int[] shape = tile.getShape();
+            out.writeInt(shape.length);
+            for (int length : shape) {
+                out.writeInt(length);
+            }
+            out.writeInt(bytes.remaining());
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            out.close();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to store tile " + key, e);
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(temp);
+            return;
+        }
+        List<File> evicted = new ArrayList<File>();
+        synchronized (this) {
+            Long previous = diskIndex.put(key, file.length());
+            diskTotal += file.length() - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> iterator = diskIndex.entrySet().iterator();
+            while (diskTotal > diskBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                iterator.remove();
+                diskTotal -= eldest.getValue();
+                evicted.add(getTileFile(eldest.getKey()));
+            }
+        }
+        for (File evict : evicted) {
+            FileUtils.deleteQuietly(evict);
+        }
+    }
+
+    private synchronized void putMemory(String key, Array tile, long written) {
+        MemoryTile previous = memory.put(key, new MemoryTile(tile, written));
+        memoryTotal += sizeOf(tile) - (previous == null ? 0 : sizeOf(previous.data));
+        Iterator<MemoryTile> iterator = memory.values().iterator();
+        while (memoryTotal > memoryBytes && iterator.hasNext()) {
+            memoryTotal -= sizeOf(iterator.next().data);
+            iterator.remove();
+        }
+    }
+
+    private boolean isExpired(long written) {
+        return System.currentTimeMillis() - written > ttlMillis;
+    }
+
+    private void discardTile(String key) {
+        synchronized (this) {
+            Long length = diskIndex.remove(key);
+            if (length != null) {
+                diskTotal -= length;
+            }
+        }
+        FileUtils.deleteQuietly(getTileFile(key));
+    }
+
+    private Array readTile(String key) {
+        File file = getTileFile(key);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            DataType dataType = DataType.getType(in.readUTF());
+            int[] shape = new int[in.readInt()];
+            for (int i = 0; i < shape.length; i++) {
+                shape[i] = in.readInt();
+            }
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return Array.factory(dataType, shape, ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read tile {}, discarding it", file.getName());
+            IOUtils.closeQuietly(in);
+            in = null;
+            discardTile(key);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void loadIndex() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> tiles = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().endsWith(TILE_SUFFIX)) {
+                tiles.add(file);
+            } else if (file.getName().endsWith(".tmp")) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+        Collections.sort(tiles, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+        synchronized (this) {
+            for (File tile : tiles) {
+                String name = tile.getName();
+                diskIndex.put(name.substring(0, name.length() - TILE_SUFFIX.length()), tile.length());
+                diskTotal += tile.length();
+            }
+        }
+    }
+
+    private File getTileFile(String name) {
+        return new File(directory, name + TILE_SUFFIX);
+    }
+
+    private static long sizeOf(Array array) {
+        return array.getSizeBytes();
+    }
+
+    /*
+     * Tile names are a digest of the key, the key itself holds a URL.
+     */
+    private static String digest(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class MemoryTile {
+
+        private final Array data;
+        private final long written;
+
+        private MemoryTile(Array data, long written) {
+            this.data = data;
+            this.written = written;
+        }
+    }
+
+    private static class PendingTile {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Array tile;
+        private IOException error;
+
+        private Array get() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for tile");
+            }
+            if (error != null) {
+                throw new IOException("Tile fetch failed", error);
+            }
+            return tile;
+        }
+
+        private void complete(Array tile, IOException error) {
+            this.tile = tile;
+            this.error = error;
+            done.countDown();
+        }
+    }
+
+    /**
+     * Reads slices of one grid through the cache.
+     */
+    public class TiledGrid {
+
+        private final VariableDS variable;
+        private final String keyPrefix;
+        // t, z, y, x dimension index in the variable, -1 if absent
+        private final int[] dimensions;
+        // t, z, y, x offset of the subset in the full variable
+        private final int[] offsets;
+        private final int yCount;
+        private final int xCount;
+        private final int tLength;
+        private final int yLength;
+        private final int xLength;
+
+        private TiledGrid(VariableDS variable, String location, int[] dimensions, int[] offsets, int yCount, int xCount) {
+            this.variable = variable;
+            this.keyPrefix = location + "|" + variable.getFullName() + "|" + Arrays.toString(variable.getShape())
+                    + "|" + tileSize + "x" + timeBlock;
+            this.dimensions = dimensions;
+            this.offsets = offsets;
+            this.yCount = yCount;
+            this.xCount = xCount;
+            this.tLength = dimensions[0] < 0 ? 1 : variable.getShape(dimensions[0]);
+            this.yLength = variable.getShape(dimensions[2]);
+            this.xLength = variable.getShape(dimensions[3]);
+        }
+
+        /**
+         * Same as {@link GridDatatype#readDataSlice(int, int, int, int)} with
+         * all of y and x.
+         *
+         * @param tIndex time index in the subset, ignored without a time
+         * dimension
+         * @param zIndex level index in the subset, ignored without levels
+         * @return y, x array of the slice
+         */
+        public Array readDataSlice(int tIndex, int zIndex) throws IOException {
+            int t = dimensions[0] < 0 ? 0 : offsets[0] + tIndex;
+            int z = dimensions[1] < 0 ? 0 : offsets[1] + zIndex;
+            int tBlock = t / timeBlock;
+            int yStart = offsets[2];
+            int xStart = offsets[3];
+            int tyFirst = yStart / tileSize;
+            int tyLast = (yStart + yCount - 1) / tileSize;
+            int txFirst = xStart / tileSize;
+            int txLast = (xStart + xCount - 1) / tileSize;
+
+            Map<Tile, Array> tiles = new LinkedHashMap<Tile, Array>();
+            Map<Tile, PendingTile> waiting = new LinkedHashMap<Tile, PendingTile>();
+            Map<Tile, PendingTile> claimed = new LinkedHashMap<Tile, PendingTile>();
+            for (int ty = tyFirst; ty <= tyLast; ty++) {
+                for (int tx = txFirst; tx <= txLast; tx++) {
+                    Tile tile = new Tile(z, tBlock, ty, tx);
+                    Array cached = getCachedTile(tile.key);
+                    if (cached != null) {
+                        hits.incrementAndGet();
+                        tiles.put(tile, cached);
+                        continue;
+                    }
+                    PendingTile mine = new PendingTile();
+                    PendingTile other = pending.putIfAbsent(tile.key, mine);
+                    if (other == null) {
+                        // another thread may have stored it since the lookup
+                        cached = getCachedTile(tile.key);
+                        if (cached != null) {
+                            pending.remove(tile.key, mine);
+                            mine.complete(cached, null);
+                            hits.incrementAndGet();
+                            tiles.put(tile, cached);
+                        } else {
+                            claimed.put(tile, mine);
+                        }
+                    } else {
+                        waiting.put(tile, other);
+                    }
+                }
+            }
+
+            if (!claimed.isEmpty()) {
+                try {
+                    tiles.putAll(fetch(claimed));
+                } finally {
+                    for (Map.Entry<Tile, PendingTile> entry : claimed.entrySet()) {
+                        pending.remove(entry.getKey().key, entry.getValue());
+                    }
+                }
+            }
+            for (Map.Entry<Tile, PendingTile> entry : waiting.entrySet()) {
+                tiles.put(entry.getKey(), entry.getValue().get());
+                hits.incrementAndGet();
+            }
+
+            Array slice = Array.factory(variable.getDataType(), new int[] { yCount, xCount });
+            int tInTile = t - tBlock * timeBlock;
+            for (Map.Entry<Tile, Array> entry : tiles.entrySet()) {
+                Tile tile = entry.getKey();
+                Array data = entry.getValue();
+                int[] shape = data.getShape();
+                int tileY = tile.ty * tileSize;
+                int tileX = tile.tx * tileSize;
+                int yFirst = Math.max(yStart, tileY);
+                int yLast = Math.min(yStart + yCount, tileY + shape[1]);
+                int xFirst = Math.max(xStart, tileX);
+                int length = Math.min(xStart + xCount, tileX + shape[2]) - xFirst;
+                for (int y = yFirst; y < yLast; y++) {
+                    int source = (tInTile * shape[1] + (y - tileY)) * shape[2] + (xFirst - tileX);
+                    int target = (y - yStart) * xCount + (xFirst - xStart);
+                    Array.arraycopy(data, source, slice, target, length);
+                }
+            }
+            return slice;
+        }
+
+        /*
+         * Reads the bounding region of the claimed tiles in one request and
+         * splits it into tiles.
+         */
+        private Map<Tile, Array> fetch(Map<Tile, PendingTile> claimed) throws IOException {
+            Map<Tile, Array> fetched = new LinkedHashMap<Tile, Array>();
+            IOException error = null;
+            try {
+                Tile first = claimed.keySet().iterator().next();
+                int tyFirst = Integer.MAX_VALUE;
+                int tyLast = 0;
+                int txFirst = Integer.MAX_VALUE;
+                int txLast = 0;
+                for (Tile tile : claimed.keySet()) {
+                    tyFirst = Math.min(tyFirst, tile.ty);
+                    tyLast = Math.max(tyLast, tile.ty);
+                    txFirst = Math.min(txFirst, tile.tx);
+                    txLast = Math.max(txLast, tile.tx);
+                }
+                int tFirst = first.tBlock * timeBlock;
+                int tCount = Math.min(timeBlock, tLength - tFirst);
+                int yFirst = tyFirst * tileSize;
+                int yCount = Math.min((tyLast + 1) * tileSize, yLength) - yFirst;
+                int xFirst = txFirst * tileSize;
+                int xCount = Math.min((txLast + 1) * tileSize, xLength) - xFirst;
+
+                Array region = readRegion(first.z, tFirst, tCount, yFirst, yCount, xFirst, xCount);
+                fetches.incrementAndGet();
+                for (Tile tile : claimed.keySet()) {
+                    int yOrigin = tile.ty * tileSize - yFirst;
+                    int xOrigin = tile.tx * tileSize - xFirst;
+                    int[] origin = { 0, yOrigin, xOrigin };
+                    int[] shape = {
+                        tCount,
+                        Math.min(tileSize, yCount - yOrigin),
+                        Math.min(tileSize, xCount - xOrigin)
+                    };
+                    Array data = region.sectionNoReduce(origin, shape, null).copy();
+                    putTile(tile.key, data);
+                    fetched.put(tile, data);
+                    misses.incrementAndGet();
+                }
+                return fetched;
+            } catch (InvalidRangeException e) {
+                error = new IOException(e);
+                throw error;
+            } catch (IOException e) {
+                error = e;
+                throw e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+                throw e;
+            } finally {
+                for (Map.Entry<Tile, PendingTile> entry : claimed.entrySet()) {
+                    entry.getValue().complete(fetched.get(entry.getKey()), error);
+                }
+            }
+        }
+
+        /*
+         * Reads [t][y][x] at level z in canonical order whatever the order of
+         * the variable's dimensions.
+         */
+        private Array readRegion(int z, int tFirst, int tCount, int yFirst, int yCount, int xFirst, int xCount)
+                throws IOException, InvalidRangeException {
+            Range[] ranges = new Range[variable.getRank()];
+            if (dimensions[0] >= 0) {
+                ranges[dimensions[0]] = new Range(tFirst, tFirst + tCount - 1);
+            }
+            if (dimensions[1] >= 0) {
+                ranges[dimensions[1]] = new Range(z, z);
+            }
+            ranges[dimensions[2]] = new Range(yFirst, yFirst + yCount - 1);
+            ranges[dimensions[3]] = new Range(xFirst, xFirst + xCount - 1);
+            Array data = variable.read(new Section(Arrays.asList(ranges)));
+
+            int[] order = new int[variable.getRank()];
+            int next = 0;
+            for (int dimension : dimensions) {
+                if (dimension >= 0) {
+                    order[next++] = dimension;
+                }
+            }
+            return data.permute(order).reshape(new int[] { tCount, yCount, xCount });
+        }
+
+        private class Tile {
+
+            private final int z;
+            private final int tBlock;
+            private final int ty;
+            private final int tx;
+            private final String key;
+
+            private Tile(int z, int tBlock, int ty, int tx) {
+                this.z = z;
+                this.tBlock = tBlock;
+                this.ty = ty;
+                this.tx = tx;
+                this.key = digest(keyPrefix + "|" + z + "|" + tBlock + "|" + ty + "|" + tx);
+            }
+        }
+    }
+}
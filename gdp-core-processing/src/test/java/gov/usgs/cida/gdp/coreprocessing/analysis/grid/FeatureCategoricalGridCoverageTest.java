@@ -0,0 +1,214 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import gov.usgs.cida.gdp.coreprocessing.Delimiter;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.FeatureCategoricalGridCoverage.CategoryOrdinals;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.FeatureCategoricalGridCoverage.CellAttributeIndex;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.List;
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.geotools.data.FileDataStore;
+import org.geotools.data.FileDataStoreFinder;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+import ucar.nc2.ft.FeatureDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+
+public class FeatureCategoricalGridCoverageTest {
+
+    static GridDataset GRID_DATASET;
+    static FileDataStore FEATURE_DATASTORE;
+    static File RESPONSES_DIRECTORY;
+
+    SimpleFeatureCollection featureCollection;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        FeatureDataset fd = FeatureDatasetFactoryManager.open(
+                FeatureType.GRID,
+                getResourceURL("Sample_files/Trout_Lake_HRUs_coverage.ncml").toString(),
+                null,
+                new Formatter(System.err));
+        if (fd instanceof GridDataset) {
+            GRID_DATASET = (GridDataset) fd;
+        }
+        FEATURE_DATASTORE = FileDataStoreFinder.getDataStore(getResourceURL("Sample_files/Trout_Lake_HRUs_rotated_geo_WGS84.shp"));
+
+        RESPONSES_DIRECTORY = new File(new File("src/test/resources"), "responses");
+        if (!RESPONSES_DIRECTORY.exists()) {
+            RESPONSES_DIRECTORY.mkdirs();
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        try { if (GRID_DATASET != null) { GRID_DATASET.close(); } } catch (IOException ignore) { }
+        if (FEATURE_DATASTORE != null) { FEATURE_DATASTORE.dispose(); }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        featureCollection = FEATURE_DATASTORE.getFeatureSource().getFeatures();
+    }
+
+    @Test
+    public void testCategoryOrdinals() {
+        CategoryOrdinals ordinals = new CategoryOrdinals();
+        // enough to rehash a few times
+        for (int category = 0; category < 1000; ++category) {
+            assertEquals(category, ordinals.ordinal(category * 31 - 500));
+        }
+        for (int category = 0; category < 1000; ++category) {
+            assertEquals(category, ordinals.ordinal(category * 31 - 500));
+            assertEquals(category * 31 - 500, ordinals.category(category));
+        }
+        assertEquals(1000, ordinals.size());
+    }
+
+    @Test
+    public void testCellAttributeIndex() {
+        CellAttributeIndex index = new CellAttributeIndex(4, false);
+        index.add(new int[] { 0, 1 }, null, 0);
+        index.add(new int[] { 1, 3 }, null, 1);
+        index.add(new int[] { 1 }, null, 0);
+        index.build();
+
+        assertEquals(Arrays.asList(0), attributes(index, 0));
+        assertEquals(Arrays.asList(0, 1, 0), attributes(index, 1));
+        assertEquals(Arrays.<Integer>asList(), attributes(index, 2));
+        assertEquals(Arrays.asList(1), attributes(index, 3));
+    }
+
+    @Test
+    public void testWeightedCellAttributeIndex() {
+        CellAttributeIndex index = new CellAttributeIndex(4, true);
+        index.add(new int[] { 0, 1 }, new double[] { 0.25, 0.5 }, 0);
+        index.add(new int[] { 1, 3 }, new double[] { 0.5, 1 }, 1);
+        index.add(new int[] { 1, 3 }, new double[] { 0.75, 0.5 }, 0);
+        index.build();
+
+        assertEquals(Arrays.asList(0), attributes(index, 0));
+        assertEquals(0.25, index.weight(index.start(0)), 0);
+        // the features of attribute 0 are merged, up to the whole cell
+        assertEquals(Arrays.asList(0, 1), attributes(index, 1));
+        assertEquals(1, index.weight(index.start(1)), 0);
+        assertEquals(0.5, index.weight(index.start(1) + 1), 0);
+        assertEquals(Arrays.<Integer>asList(), attributes(index, 2));
+        assertEquals(Arrays.asList(1, 0), attributes(index, 3));
+        assertEquals(1, index.weight(index.start(3)), 0);
+        assertEquals(0.5, index.weight(index.start(3) + 1), 0);
+    }
+
+    @Test
+    public void testYXCharacterization() throws Exception {
+        // the response was captured before the grid pass and feature indexing
+        // rewrite, counting cell centers must not change it
+        CharacterizationUtil.characterize(RESPONSES_DIRECTORY, getClass(), "yx", executeToString("yx", false), "csv");
+    }
+
+    @Test
+    public void testYXAreaWeighted() throws Exception {
+        List<String[]> centerRows = execute("yx");
+        List<String[]> rows = execute("yx", true);
+        assertEquals(centerRows.size(), rows.size());
+        String[] header = rows.get(1);
+        assertEquals("Attribute", header[0]);
+        for (String[] row : rows.subList(2, rows.size())) {
+            assertEquals(header.length, row.length);
+            assertFractions(row, 1);
+        }
+    }
+
+    @Test
+    public void testYX() throws Exception {
+        List<String[]> rows = execute("yx");
+        String[] header = rows.get(1);
+        assertEquals("Attribute", header[0]);
+        assertEquals("Sample Count", header[header.length - 1]);
+        assertTrue(rows.size() > 2);
+        for (String[] row : rows.subList(2, rows.size())) {
+            assertEquals(header.length, row.length);
+            assertFractions(row, 1);
+        }
+    }
+
+    @Test
+    public void testTYX() throws Exception {
+        List<String[]> yxRows = execute("yx");
+        List<String[]> tyxRows = execute("tyx");
+        String[] header = tyxRows.get(1);
+        assertEquals(Statistics1DWriter.TIMESTEPS_LABEL, header[0]);
+        assertEquals("Attribute", header[1]);
+
+        int attributeCount = yxRows.size() - 2;
+        // two time steps
+        assertEquals(2 + 2 * attributeCount, tyxRows.size());
+        for (int row = 2; row < tyxRows.size(); ++row) {
+            String[] tyxRow = tyxRows.get(row);
+            String[] yxRow = yxRows.get(2 + (row - 2) % attributeCount);
+            assertEquals(header.length, tyxRow.length);
+            assertEquals(yxRow[0], tyxRow[1]);
+            // the cells of each attribute do not change with time
+            assertEquals(yxRow[yxRow.length - 1], tyxRow[tyxRow.length - 1]);
+            assertFractions(tyxRow, 2);
+        }
+        assertEquals(tyxRows.get(2)[0], tyxRows.get(2 + attributeCount - 1)[0]);
+        assertFalse(tyxRows.get(2)[0].equals(tyxRows.get(2 + attributeCount)[0]));
+    }
+
+    private List<String[]> execute(String variableName) throws Exception {
+        return execute(variableName, false);
+    }
+
+    private List<String[]> execute(String variableName, boolean areaWeighted) throws Exception {
+        List<String[]> rows = new ArrayList<String[]>();
+        for (String line : executeToString(variableName, areaWeighted).split("\\r?\\n")) {
+            rows.add(line.split(",", -1));
+        }
+        return rows;
+    }
+
+    private String executeToString(String variableName, boolean areaWeighted) throws Exception {
+        StringBuilderWriter writer = new StringBuilderWriter();
+        BufferedWriter bufferedWriter = new BufferedWriter(writer);
+        GridDatatype gdt = GRID_DATASET.findGridDatatype(variableName);
+        FeatureCategoricalGridCoverage.execute(featureCollection, "GRIDCODE", gdt, bufferedWriter, Delimiter.COMMA, true, areaWeighted);
+        bufferedWriter.flush();
+        return writer.toString();
+    }
+
+    private static void assertFractions(String[] row, int first) {
+        int total = Integer.parseInt(row[row.length - 1]);
+        double sum = 0;
+        for (int column = first; column < row.length - 1; ++column) {
+            sum += Float.parseFloat(row[column]);
+        }
+        assertEquals(total == 0 ? 0 : 1, sum, 1e-4);
+    }
+
+    private static List<Integer> attributes(CellAttributeIndex index, int cell) {
+        List<Integer> attributes = new ArrayList<Integer>();
+        for (int position = index.start(cell); position < index.end(cell); ++position) {
+            attributes.add(index.attribute(position));
+        }
+        return attributes;
+    }
+
+    private static URL getResourceURL(String resource) {
+        return FeatureCategoricalGridCoverageTest.class.getClassLoader().getResource(resource);
+    }
+}
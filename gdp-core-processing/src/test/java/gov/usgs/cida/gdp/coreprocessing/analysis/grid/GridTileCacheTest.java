@@ -0,0 +1,122 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import static gov.usgs.cida.gdp.coreprocessing.GridCellHelper.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Formatter;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+
+public class GridTileCacheTest {
+
+    private File directory;
+    private GridDataset dataset;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("GridTileCacheTest").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (dataset != null) {
+            dataset.close();
+        }
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testTZYXSubsetMatchesDirectRead() throws Exception {
+        GridDatatype grid = openGrid("testSimpleTZYXGrid.ncml");
+        GridTileCache cache = new GridTileCache(directory, 1024 * 1024, 1024 * 1024, 2, 1, false);
+
+        GridDatatype subset = grid.makeSubset(null, null, null, new Range(1, 3), new Range(1, 2), new Range(1, 3));
+        assertSlicesMatch(subset, cache.open(subset));
+        // 2 time steps, 3 levels, 2 x 2 tiles each
+        assertEquals(24, cache.getMissCount());
+        assertEquals(6, cache.getFetchCount());
+    }
+
+    @Test
+    public void testOverlappingSubsetServedFromTiles() throws Exception {
+        GridDatatype grid = openGrid("testSimpleTYXGrid.ncml");
+        GridTileCache cache = new GridTileCache(directory, 1024 * 1024, 1024 * 1024, 2, 2, false);
+
+        assertSlicesMatch(grid, cache.open(grid));
+        long fetches = cache.getFetchCount();
+
+        GridDatatype subset = grid.makeSubset(null, null, new Range(1, 1), null, new Range(0, 1), new Range(2, 3));
+        assertSlicesMatch(subset, cache.open(subset));
+        assertEquals(fetches, cache.getFetchCount());
+        assertTrue(cache.getHitCount() > 0);
+    }
+
+    @Test
+    public void testTilesReusedFromDisk() throws Exception {
+        GridDatatype grid = openGrid("testSimpleTYXGrid.ncml");
+        assertSlicesMatch(grid, new GridTileCache(directory, 1024 * 1024, 1024 * 1024, 2, 1, false).open(grid));
+
+        GridTileCache restarted = new GridTileCache(directory, 1024 * 1024, 0, 2, 1, false);
+        assertSlicesMatch(grid, restarted.open(grid));
+        assertEquals(0, restarted.getFetchCount());
+    }
+
+    @Test
+    public void testExpiredTilesFetchedAgain() throws Exception {
+        GridDatatype grid = openGrid("testSimpleTYXGrid.ncml");
+        GridTileCache cache = new GridTileCache(directory, 1024 * 1024, 1024 * 1024, 2, 1, false, -1);
+        assertSlicesMatch(grid, cache.open(grid));
+        long fetches = cache.getFetchCount();
+
+        // neither the memory nor the disk copy is used once expired
+        assertSlicesMatch(grid, cache.open(grid));
+        assertEquals(2 * fetches, cache.getFetchCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testDiskBudget() throws Exception {
+        GridDatatype grid = openGrid("testSimpleTZYXGrid.ncml");
+        GridTileCache cache = new GridTileCache(directory, 512, 0, 2, 1, false);
+        assertSlicesMatch(grid, cache.open(grid));
+        assertTrue(cache.getDiskBytes() <= 512);
+        assertEquals(cache.getMissCount(), cache.getFetchCount() * 4);
+    }
+
+    @Test
+    public void testLocalGridNotCachedWhenRemoteOnly() throws Exception {
+        GridDatatype grid = openGrid("testSimpleYXGrid.ncml");
+        assertNull(new GridTileCache(directory, 1024 * 1024, 1024 * 1024, 2, 1, true).open(grid));
+    }
+
+    private GridDatatype openGrid(String name) throws IOException {
+        String datasetUrl = getResourceDir() + File.separator + name;
+        dataset = (GridDataset) FeatureDatasetFactoryManager.open(null, datasetUrl, null, new Formatter(System.err));
+        return dataset.findGridDatatype(GridTypeTest.DATATYPE_RH);
+    }
+
+    private static void assertSlicesMatch(GridDatatype grid, GridTileCache.TiledGrid tiled) throws IOException, InvalidRangeException {
+        assertNotNull(tiled);
+        int tCount = grid.getTimeDimension() == null ? 1 : grid.getTimeDimension().getLength();
+        int zCount = grid.getZDimension() == null ? 1 : grid.getZDimension().getLength();
+        for (int t = 0; t < tCount; t++) {
+            for (int z = 0; z < zCount; z++) {
+                Array expected = grid.readDataSlice(t, z, -1, -1);
+                Array actual = tiled.readDataSlice(t, z);
+                assertArrayEquals(expected.getShape(), actual.getShape());
+                assertArrayEquals((int[]) expected.copyTo1DJavaArray(), (int[]) actual.copyTo1DJavaArray());
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package gov.usgs.cida.gdp.dataaccess;
 
+import gov.usgs.cida.gdp.dataaccess.helper.ShapefileSummary;
 import gov.usgs.cida.gdp.utilities.XMLUtils;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -24,6 +25,7 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.NodeList;
 
@@ -89,7 +91,14 @@ public class GeoserverManager {
 
         if (!layerExists(workspace, layer, layer)) {
             // create featuretype based on the datastore
-            String featureTypeXML = createFeatureTypeXML(layer, workspace, nativeCRS, declaredCRS);
+            // bounds kept with the upload save GeoServer reading the shapefile for them
+            ShapefileSummary summary = null;
+            try {
+                summary = ShapefileSummary.read(new File(shapefilePath));
+            } catch (IOException ex) {
+                LOG.debug("Unable to read summary of " + shapefilePath, ex);
+            }
+            String featureTypeXML = createFeatureTypeXML(layer, workspace, nativeCRS, declaredCRS, summary);
             String featureTypesPath = dataStoresPath + layer + "/featuretypes.xml";
             sendRequest(featureTypesPath, PARAM_POST, PARAM_TEXT_XML, featureTypeXML);
         }
@@ -449,6 +458,18 @@ public class GeoserverManager {
     }
 
     static String createFeatureTypeXML(String name, String workspace, String nativeCRS, String declaredCRS) {
+        return createFeatureTypeXML(name, workspace, nativeCRS, declaredCRS, null);
+    }
+
+    static String createFeatureTypeXML(String name, String workspace, String nativeCRS, String declaredCRS,
+            ShapefileSummary summary) {
+
+        String bounds = "";
+        ReferencedEnvelope latLonBounds = summary == null ? null : summary.getLatLonBounds();
+        if (latLonBounds != null) {
+            bounds = createBoundingBoxXML("nativeBoundingBox", summary.getBounds(), null) +
+                    createBoundingBoxXML("latLonBoundingBox", latLonBounds, "EPSG:4326");
+        }
 
         return  "<featureType>" +
                 "  <name>" + name + "</name>" +
@@ -461,6 +482,7 @@ public class GeoserverManager {
                 "  <nativeCRS><![CDATA[" + nativeCRS + "]]></nativeCRS>" +
                 "  <srs>" + declaredCRS + "</srs>" +
                 "  <projectionPolicy>REPROJECT_TO_DECLARED</projectionPolicy>" +
+                bounds +
                 "  <enabled>true</enabled>" +
                 "  <metadata>"+
                 "    <entry key=\"cachingEnabled\">true</entry>" +
@@ -470,6 +492,16 @@ public class GeoserverManager {
                 "  </store>" +
                 "</featureType>";
 }
+
+    static String createBoundingBoxXML(String element, ReferencedEnvelope envelope, String crs) {
+        return  "  <" + element + ">" +
+                "    <minx>" + envelope.getMinX() + "</minx>" +
+                "    <maxx>" + envelope.getMaxX() + "</maxx>" +
+                "    <miny>" + envelope.getMinY() + "</miny>" +
+                "    <maxy>" + envelope.getMaxY() + "</maxy>" +
+                (crs == null ? "" : "    <crs>" + crs + "</crs>") +
+                "  </" + element + ">";
+    }
     
     /**
      *  Ensure url ends with a '/'
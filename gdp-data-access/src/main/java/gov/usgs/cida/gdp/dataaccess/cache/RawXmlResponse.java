@@ -2,49 +2,43 @@ package gov.usgs.cida.gdp.dataaccess.cache;
 
 import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache;
 import gov.usgs.cida.gdp.dataaccess.bean.Response;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import org.apache.commons.io.IOUtils;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * XML read from a cache file.  The file is read once, on first use, and line
+ * breaks are dropped.
  *
  * @author Jordan Walker <jiwalker@usgs.gov>
  */
 public class RawXmlResponse extends Response {
 
-    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+    private static final Logger log = LoggerFactory.getLogger(RawXmlResponse.class);
 	private static final long serialVersionUID = 23423L;
     private File file = null;
+    private transient String xml = null;
 
     public RawXmlResponse(File location) {
         file = location;
     }
 
     @Override
-    public String toXML() {
-        BufferedReader buf = null;
-        StringBuilder output = new StringBuilder();
-        try {
-            buf = new BufferedReader(new FileReader(file));
-            String line = null;
-            while ((line = buf.readLine()) != null) {
-                output.append(line);
+    public synchronized String toXML() {
+        if (xml == null) {
+            try {
+                String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                xml = content.replace("\r", "").replace("\n", "");
+            }
+            catch (IOException ex) {
+                log.error("Problem reading cache file: {}", file, ex);
+                return "";
             }
         }
-        catch (IOException ex) {
-            log.error("Problem reading cache file: {}", file, ex);
-        }
-        finally {
-            IOUtils.closeQuietly(buf);
-        }
-        return output.toString();
+        return xml;
     }
 
 	public static Response buildFromCache(ResponseCache.CacheIdentifier ci) {
@@ -1,14 +1,46 @@
 package gov.usgs.cida.gdp.dataaccess.cache;
 
 import gov.usgs.cida.gdp.constants.AppConstant;
+import gov.usgs.cida.gdp.dataaccess.bean.Response;
 import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache.CacheIdentifier.CacheType;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Two tier cache for dataset metadata responses (variable lists, time ranges).
+ *
+ * Responses are kept in a bounded in-memory LRU and serialized to the cache
+ * directory so they survive restarts.  Entries are fresh for the configured
+ * time to live, after that the dataset's DDS is requested with
+ * If-Modified-Since and a 304 renews the entry without fetching and parsing
+ * the metadata again.  Concurrent misses for the same identifier share a
+ * single load.  The disk tier is trimmed, oldest first, to the configured
+ * size.
  *
  * @author Jordan Walker <jiwalker@usgs.gov>
  */
@@ -16,14 +48,350 @@ public class ResponseCache {
 
 	private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
 
-	public static synchronized boolean hasCachedResponse(CacheIdentifier ci) {
-		File cacheFile;
+	private static final int REVALIDATE_TIMEOUT_MILLIS = 10000;
+
+	private static ResponseCache instance;
+
+	/**
+	 * Fetches a response on a cache miss.
+	 */
+	public interface ResponseLoader<T extends Response> {
+
+		T load() throws IOException;
+
+		/**
+		 * @return false for responses that should not be kept (e.g. empty
+		 * results from a failed fetch)
+		 */
+		boolean isCacheable(T response);
+	}
+
+	private final File directory;
+	private final long ttlMillis;
+	private final int memoryEntries;
+	private final long diskBytes;
+	private final Map<CacheIdentifier, Entry> memory;
+	private final ConcurrentMap<CacheIdentifier, FutureTask<Response>> loading = new ConcurrentHashMap<>();
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param directory root of the disk tier
+	 * @param ttlMillis time a response is used without revalidation
+	 * @param memoryEntries number of responses kept in memory
+	 * @param diskBytes size the disk tier is trimmed to
+	 */
+	public ResponseCache(File directory, long ttlMillis, int memoryEntries, long diskBytes) {
+		this.directory = directory;
+		this.ttlMillis = ttlMillis;
+		this.memoryEntries = memoryEntries;
+		this.diskBytes = diskBytes;
+		this.memory = new LinkedHashMap<CacheIdentifier, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CacheIdentifier, Entry> eldest) {
+				return size() > ResponseCache.this.memoryEntries;
+			}
+		};
+	}
+
+	/**
+	 * @return cache configured from the gdp.cache.* properties in the
+	 * gdp.path.cache directory
+	 */
+	public static synchronized ResponseCache getInstance() {
+		if (instance == null) {
+			instance = new ResponseCache(new File(AppConstant.CACHE_LOCATION.getValue()),
+					Long.parseLong(AppConstant.CACHE_TTL_MILLIS.getValue()),
+					Integer.parseInt(AppConstant.CACHE_MEMORY_ENTRIES.getValue()),
+					Long.parseLong(AppConstant.CACHE_DISK_BYTES.getValue()));
+		}
+		return instance;
+	}
+
+	/**
+	 * @return true if a fresh response is cached in memory or on disk
+	 */
+	public static boolean hasCachedResponse(CacheIdentifier ci) {
+		return getInstance().contains(ci);
+	}
+
+	public boolean contains(CacheIdentifier ci) {
+		Entry entry = getMemoryEntry(ci);
+		if (entry != null && isFresh(entry.fetched)) {
+			return true;
+		}
+		File file = ci.getFile(directory);
+		return file.exists() && isFresh(file.lastModified());
+	}
+
+	/**
+	 * Gets the response from memory, disk or the loader, in that order.  An
+	 * expired response is revalidated against the dataset before it is
+	 * loaded again.
+	 *
+	 * @param ci identifies the response
+	 * @param type expected response type, anything else on disk is ignored
+	 * @param loader fetches the response on a miss
+	 * @return the response, null if the loader returned null
+	 * @throws IOException if the loader fails
+	 */
+	public <T extends Response> T get(final CacheIdentifier ci, final Class<T> type, final ResponseLoader<T> loader) throws IOException {
+		Entry entry = getMemoryEntry(ci);
+		if (entry != null && isFresh(entry.fetched) && type.isInstance(entry.response)) {
+			memoryHits.incrementAndGet();
+			return type.cast(entry.response);
+		}
+
+		FutureTask<Response> task = new FutureTask<>(new Callable<Response>() {
+			@Override
+			public Response call() throws IOException {
+				return load(ci, type, loader);
+			}
+		});
+		FutureTask<Response> running = loading.putIfAbsent(ci, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				loading.remove(ci, task);
+			}
+		}
+		try {
+			return type.cast(running.get());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for " + ci.datasetUri, ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Stores a response in both tiers.
+	 */
+	public void put(CacheIdentifier ci, Response response) {
+		long now = System.currentTimeMillis();
+		putMemoryEntry(ci, new Entry(response, now));
+		File file = ci.getFile(directory);
+		File temp = null;
+		ObjectOutputStream out = null;
 		try {
-			cacheFile = ci.getFile();
+			FileUtils.forceMkdir(file.getParentFile());
+			temp = File.createTempFile("response", ".tmp", file.getParentFile());
+			out = new ObjectOutputStream(new FileOutputStream(temp));
+			out.writeObject(response);
+			out.close();
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
 		} catch (IOException ex) {
+			log.warn("Could not write cache file {}", file.getPath(), ex);
+			IOUtils.closeQuietly(out);
+			FileUtils.deleteQuietly(temp);
+			return;
+		}
+		trimDisk();
+	}
+
+	/**
+	 * Removes a response from both tiers.
+	 */
+	public void invalidate(CacheIdentifier ci) {
+		synchronized (memory) {
+			memory.remove(ci);
+		}
+		FileUtils.deleteQuietly(ci.getFile(directory));
+	}
+
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	/**
+	 * @return number of expired responses renewed without a reload
+	 */
+	public long getRevalidations() {
+		return revalidations.get();
+	}
+
+	/**
+	 * @return number of responses fetched with a loader
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return fraction of requests answered without calling a loader
+	 */
+	public double getHitRate() {
+		long hits = memoryHits.get() + diskHits.get() + revalidations.get();
+		long total = hits + misses.get();
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+	private <T extends Response> T load(CacheIdentifier ci, Class<T> type, ResponseLoader<T> loader) throws IOException {
+		// another thread may have finished loading while this one missed
+		Entry stale = getMemoryEntry(ci);
+		if (stale == null || !type.isInstance(stale.response)) {
+			stale = readFromDisk(ci, type);
+		}
+		if (stale != null && isFresh(stale.fetched)) {
+			diskHits.incrementAndGet();
+			putMemoryEntry(ci, stale);
+			return type.cast(stale.response);
+		}
+		if (stale != null && isUnmodifiedSince(ci.datasetUri, stale.fetched)) {
+			log.debug("{} {} unchanged, renewing cached response", ci.cacheType.getType(), ci.datasetUri);
+			revalidations.incrementAndGet();
+			putMemoryEntry(ci, new Entry(stale.response, System.currentTimeMillis()));
+			if (!ci.getFile(directory).setLastModified(System.currentTimeMillis())) {
+				put(ci, stale.response);
+			}
+			return type.cast(stale.response);
+		}
+
+		misses.incrementAndGet();
+		T response = loader.load();
+		if (response != null && loader.isCacheable(response)) {
+			put(ci, response);
+		}
+		log.debug("Response cache hit rate {}", getHitRate());
+		return response;
+	}
+
+	private Entry readFromDisk(CacheIdentifier ci, Class<? extends Response> type) {
+		File file = ci.getFile(directory);
+		if (!file.exists()) {
+			return null;
+		}
+		long fetched = file.lastModified();
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new FileInputStream(file));
+			Object response = in.readObject();
+			if (type.isInstance(response)) {
+				return new Entry((Response) response, fetched);
+			}
+			log.debug("Ignoring cache file {} holding a {}", file.getPath(), response.getClass());
+		} catch (IOException | ClassNotFoundException ex) {
+			log.warn("Could not read cache file {}, discarding it", file.getPath(), ex);
+			IOUtils.closeQuietly(in);
+			in = null;
+			FileUtils.deleteQuietly(file);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return null;
+	}
+
+	/*
+	 * Asks the server whether the dataset changed since the response was
+	 * fetched.  Anything but a 304 (including errors) means reload.
+	 */
+	private boolean isUnmodifiedSince(String datasetUri, long fetched) {
+		HttpURLConnection connection = null;
+		try {
+			URI uri = URI.create(datasetUri);
+			String scheme = uri.getScheme();
+			if ("dods".equals(scheme)) {
+				scheme = "https";
+			} else if (!"http".equals(scheme) && !"https".equals(scheme)) {
+				return false;
+			}
+			URI dds = new URI(scheme, uri.getUserInfo(), uri.getHost(), uri.getPort(), uri.getPath() + ".dds", null, null);
+			connection = (HttpURLConnection) dds.toURL().openConnection();
+			connection.setConnectTimeout(REVALIDATE_TIMEOUT_MILLIS);
+			connection.setReadTimeout(REVALIDATE_TIMEOUT_MILLIS);
+			connection.setIfModifiedSince(fetched);
+			return connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+		} catch (Exception ex) {
+			log.debug("Could not revalidate {}: {}", datasetUri, ex.getMessage());
 			return false;
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	private boolean isFresh(long fetched) {
+		return System.currentTimeMillis() - fetched < ttlMillis;
+	}
+
+	private Entry getMemoryEntry(CacheIdentifier ci) {
+		synchronized (memory) {
+			return memory.get(ci);
+		}
+	}
+
+	private void putMemoryEntry(CacheIdentifier ci, Entry entry) {
+		synchronized (memory) {
+			memory.put(ci, entry);
+		}
+	}
+
+	/*
+	 * Deletes the least recently written files until the disk tier fits.
+	 */
+	private synchronized void trimDisk() {
+		List<File> files = new ArrayList<>();
+		long total = 0;
+		for (CacheType cacheType : CacheType.values()) {
+			File[] cached = new File(cacheType.getCacheDir(directory)).listFiles();
+			if (cached != null) {
+				for (File file : cached) {
+					if (file.getName().endsWith(".cache")) {
+						files.add(file);
+						total += file.length();
+					}
+				}
+			}
+		}
+		if (total <= diskBytes) {
+			return;
+		}
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (File file : files) {
+			if (total <= diskBytes) {
+				break;
+			}
+			long length = file.length();
+			if (file.delete()) {
+				total -= length;
+				log.debug("Evicted {} from the response cache", file.getName());
+			}
+		}
+	}
+
+	private static class Entry {
+
+		private final Response response;
+		private final long fetched;
+
+		private Entry(Response response, long fetched) {
+			this.response = response;
+			this.fetched = fetched;
 		}
-		return cacheFile.exists();
 	}
 
 	public static class CacheIdentifier {
@@ -34,7 +402,11 @@ public class ResponseCache {
 			TIME_RANGE;
 
 			public String getCacheDir() {
-				String cacheDir = AppConstant.CACHE_LOCATION.getValue();
+				return getCacheDir(new File(AppConstant.CACHE_LOCATION.getValue()));
+			}
+
+			public String getCacheDir(File cacheRoot) {
+				String cacheDir = cacheRoot.getPath();
 				switch (this) {
 					case DATA_TYPE:
 						return cacheDir + File.separator + "data_types";
@@ -67,16 +439,35 @@ public class ResponseCache {
 		}
 
 		public File getFile() throws IOException {
+			File cacheDir = new File(cacheType.getCacheDir());
+			if (!cacheDir.exists()) {
+				FileUtils.forceMkdir(cacheDir);
+			}
+			return getFile(new File(AppConstant.CACHE_LOCATION.getValue()));
+		}
+
+		File getFile(File cacheRoot) {
 			String replaced = datasetUri.replaceAll("[\\:/]", "-");
 			if (grid != null && !grid.isEmpty()) {
 				replaced += "-" + grid;
 			}
-			File cacheDir = new File(cacheType.getCacheDir());
-			if (!cacheDir.exists()) {
-				FileUtils.forceMkdir(new File(cacheType.getCacheDir()));
+			return new File(cacheType.getCacheDir(cacheRoot), replaced + ".cache");
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheIdentifier)) {
+				return false;
 			}
+			CacheIdentifier other = (CacheIdentifier) obj;
+			return cacheType == other.cacheType
+					&& (datasetUri == null ? other.datasetUri == null : datasetUri.equals(other.datasetUri))
+					&& (grid == null ? other.grid == null : grid.equals(other.grid));
+		}
 
-			return new File(cacheDir, replaced + ".cache");
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(new Object[] {datasetUri, cacheType, grid});
 		}
 	}
-}
\ No newline at end of file
+}
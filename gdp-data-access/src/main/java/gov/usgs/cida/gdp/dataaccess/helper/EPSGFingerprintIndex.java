@@ -0,0 +1,328 @@
+package gov.usgs.cida.gdp.dataaccess.helper;
+
+import com.google.common.base.Joiner;
+import gov.usgs.cida.gdp.constants.AppConstant;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.measure.quantity.Length;
+import javax.measure.unit.NonSI;
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.geotools.factory.FactoryRegistryException;
+import org.geotools.factory.GeoTools;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.ReferencingFactoryFinder;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
+import org.opengis.referencing.crs.ProjectedCRS;
+import org.opengis.referencing.datum.Ellipsoid;
+import org.opengis.referencing.datum.GeodeticDatum;
+import org.opengis.referencing.datum.PrimeMeridian;
+import org.opengis.util.InternationalString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * EPSG coordinate reference systems grouped by a fingerprint of the numbers
+ * that define them: ellipsoid, prime meridian, projection parameters and
+ * linear unit.  Names and axis order are left out since ArcGIS and EPSG
+ * disagree on both.  Identifying a parsed WKT then means comparing it with
+ * the few definitions sharing its fingerprint rather than with every
+ * definition in the database, as {@link CRS#lookupIdentifier} does with a
+ * full scan.
+ * <p>
+ * Building the index creates every definition once, so it is done on a low
+ * priority thread and kept in the cache directory along with the GeoTools and
+ * EPSG database versions it was built from, a stored index of other versions
+ * is rebuilt.  Until it is ready lookups have to fall back to the full scan.
+ * A definition the index could not fingerprint is never found in it, so a
+ * miss should be confirmed with the full scan too.
+ */
+public class EPSGFingerprintIndex {
+    private static final Logger log = LoggerFactory.getLogger(EPSGFingerprintIndex.class);
+    private static final String AUTHORITY = "EPSG";
+    // not a fingerprint, those start with G
+    private static final String VERSION = "version";
+    private static EPSGFingerprintIndex instance;
+
+    private final File file;
+    private final String version;
+    private volatile Map<String, List<String>> index;
+    private Thread builder;
+
+    /**
+     * @param file properties file the index is stored in, read if it exists
+     * and was built from the same version
+     * @param version GeoTools and EPSG database version the index is built
+     * from
+     */
+    public EPSGFingerprintIndex(File file, String version) {
+        this.file = file;
+        this.version = version;
+        if (file.exists()) {
+            index = load(file, version);
+        }
+    }
+
+    /**
+     * @return index stored in the cache directory, being built if it was not
+     * there
+     */
+    public static synchronized EPSGFingerprintIndex getInstance() {
+        if (instance == null) {
+            instance = new EPSGFingerprintIndex(new File(AppConstant.CACHE_LOCATION.getValue(), "epsg-fingerprints.properties"),
+                    getDatabaseVersion());
+            instance.buildInBackground();
+        }
+        return instance;
+    }
+
+    /**
+     * @return GeoTools version and, if the EPSG factory reports it, EPSG
+     * database version
+     */
+    static String getDatabaseVersion() {
+        StringBuilder version = new StringBuilder("GeoTools ").append(GeoTools.getVersion());
+        try {
+            InternationalString edition = ReferencingFactoryFinder.getCRSAuthorityFactory(AUTHORITY, null).getAuthority().getEdition();
+            if (edition != null) {
+                version.append(", EPSG ").append(edition);
+            }
+        } catch (FactoryRegistryException ex) {
+            log.debug("Unable to get EPSG database version: " + ex.getMessage());
+        }
+        return version.toString();
+    }
+
+    /**
+     * @return true once {@link #lookup(CoordinateReferenceSystem)} can be
+     * used
+     */
+    public boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * Starts building the index unless it is built or being built.
+     */
+    public synchronized void buildInBackground() {
+        if (index != null || builder != null) {
+            return;
+        }
+        builder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    build(CRS.getSupportedCodes(AUTHORITY));
+                } catch (RuntimeException ex) {
+                    log.warn("Unable to build EPSG fingerprint index", ex);
+                } finally {
+                    synchronized (EPSGFingerprintIndex.this) {
+                        builder = null;
+                    }
+                }
+            }
+        }, "EPSGFingerprintIndex");
+        builder.setDaemon(true);
+        builder.setPriority(Thread.MIN_PRIORITY);
+        builder.start();
+    }
+
+    /**
+     * Indexes the given codes, replacing the current index, and stores it.
+     *
+     * @param codes EPSG codes, with or without the authority prefix
+     */
+    void build(Collection<String> codes) {
+        long start = System.currentTimeMillis();
+        Map<String, List<String>> built = new HashMap<String, List<String>>();
+        for (String code : codes) {
+            String identifier = code.indexOf(':') < 0 ? AUTHORITY + ":" + code : code;
+            String fingerprint;
+            try {
+                fingerprint = fingerprint(CRS.decode(identifier));
+            } catch (Exception ex) {
+                // not every code is a CRS the referencing module can create
+                log.trace("Skipping " + identifier + ": " + ex.getMessage());
+                continue;
+            }
+            if (fingerprint != null) {
+                List<String> matches = built.get(fingerprint);
+                if (matches == null) {
+                    matches = new ArrayList<String>(1);
+                    built.put(fingerprint, matches);
+                }
+                matches.add(identifier);
+            }
+        }
+        index = built;
+        log.info("Indexed " + codes.size() + " EPSG codes in " + (System.currentTimeMillis() - start) + " ms");
+        store(built);
+    }
+
+    /**
+     * @param crs parsed CRS
+     * @return identifier of the first EPSG definition equal to the CRS, null
+     * if there is none
+     * @throws IllegalStateException if the index is not ready
+     */
+    public String lookup(CoordinateReferenceSystem crs) {
+        Map<String, List<String>> current = index;
+        if (current == null) {
+            throw new IllegalStateException("EPSG fingerprint index is not built");
+        }
+        String fingerprint = fingerprint(crs);
+        List<String> candidates = fingerprint == null ? null : current.get(fingerprint);
+        if (candidates == null) {
+            return null;
+        }
+        for (String candidate : candidates) {
+            try {
+                if (CRS.equalsIgnoreMetadata(CRS.decode(candidate, true), crs)
+                        || CRS.equalsIgnoreMetadata(CRS.decode(candidate), crs)) {
+                    return candidate;
+                }
+            } catch (FactoryException ex) {
+                log.debug("Unable to decode " + candidate + ": " + ex.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param crs any CRS
+     * @return fingerprint of a geographic or projected CRS, null for any other
+     */
+    static String fingerprint(CoordinateReferenceSystem crs) {
+        StringBuilder fingerprint = new StringBuilder();
+        if (crs instanceof ProjectedCRS) {
+            ProjectedCRS projected = (ProjectedCRS) crs;
+            appendGeographic(fingerprint, projected.getBaseCRS());
+            List<Double> values = new ArrayList<Double>();
+            for (GeneralParameterValue value : projected.getConversionFromBase().getParameterValues().values()) {
+                if (value instanceof ParameterValue) {
+                    ParameterValue<?> parameter = (ParameterValue<?>) value;
+                    String name = parameter.getDescriptor().getName().getCode();
+                    // repeats the ellipsoid
+                    if (!"semi_major".equals(name) && !"semi_minor".equals(name)
+                            && parameter.getValue() instanceof Number) {
+                        values.add(round(toStandardUnit(parameter)));
+                    }
+                }
+            }
+            Collections.sort(values);
+            fingerprint.append("|P").append(Joiner.on(',').join(values));
+            Unit<?> unit = projected.getCoordinateSystem().getAxis(0).getUnit();
+            if (unit != null && unit.isCompatible(SI.METER)) {
+                @SuppressWarnings("unchecked")
+                Unit<Length> length = (Unit<Length>) unit;
+                fingerprint.append("|U").append(round(length.getConverterTo(SI.METER).convert(1.0)));
+            }
+        } else if (crs instanceof GeographicCRS) {
+            appendGeographic(fingerprint, (GeographicCRS) crs);
+        } else {
+            return null;
+        }
+        return fingerprint.toString();
+    }
+
+    private static void appendGeographic(StringBuilder fingerprint, GeographicCRS crs) {
+        GeodeticDatum datum = crs.getDatum();
+        Ellipsoid ellipsoid = datum.getEllipsoid();
+        PrimeMeridian meridian = datum.getPrimeMeridian();
+        fingerprint.append("G")
+                .append(round(ellipsoid.getAxisUnit().getConverterTo(SI.METER).convert(ellipsoid.getSemiMajorAxis())))
+                .append(',')
+                .append(ellipsoid.isSphere() ? "sphere" : Double.toString(round(ellipsoid.getInverseFlattening())))
+                .append(',')
+                .append(round(meridian.getAngularUnit().getConverterTo(NonSI.DEGREE_ANGLE).convert(meridian.getGreenwichLongitude())));
+    }
+
+    private static double toStandardUnit(ParameterValue<?> parameter) {
+        Unit<?> unit = parameter.getUnit();
+        if (unit != null && unit.isCompatible(SI.METER)) {
+            return parameter.doubleValue(SI.METER);
+        }
+        if (unit != null && unit.isCompatible(SI.RADIAN)) {
+            return parameter.doubleValue(NonSI.DEGREE_ANGLE);
+        }
+        return parameter.doubleValue();
+    }
+
+    /**
+     * To a tenth of a millimetre or a ten thousandth of a degree, so rounding
+     * differences between ArcGIS and EPSG do not split a fingerprint.  The
+     * candidates are compared exactly afterwards.
+     */
+    private static double round(double value) {
+        return Math.round(value * 1e4) / 1e4;
+    }
+
+    private static Map<String, List<String>> load(File file, String version) {
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException ex) {
+            log.warn("Unable to read EPSG fingerprint index from " + file, ex);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (!version.equals(properties.getProperty(VERSION))) {
+            log.info("EPSG fingerprint index in " + file + " is from " + properties.getProperty(VERSION) + ", rebuilding for " + version);
+            return null;
+        }
+        Map<String, List<String>> loaded = new HashMap<String, List<String>>();
+        for (String fingerprint : properties.stringPropertyNames()) {
+            if (VERSION.equals(fingerprint)) {
+                continue;
+            }
+            loaded.put(fingerprint, Arrays.asList(properties.getProperty(fingerprint).split(",")));
+        }
+        return loaded;
+    }
+
+    private void store(Map<String, List<String>> built) {
+        Properties properties = new Properties();
+        for (Map.Entry<String, List<String>> entry : built.entrySet()) {
+            properties.setProperty(entry.getKey(), Joiner.on(',').join(entry.getValue()));
+        }
+        properties.setProperty(VERSION, version);
+        File temp = null;
+        OutputStream out = null;
+        try {
+            FileUtils.forceMkdir(file.getParentFile());
+            temp = File.createTempFile("epsg", ".tmp", file.getParentFile());
+            out = new FileOutputStream(temp);
+            properties.store(out, "EPSG codes by parameter fingerprint, delete to rebuild");
+            out.close();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            log.warn("Unable to store EPSG fingerprint index in " + file, ex);
+        } finally {
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+}
@@ -4,6 +4,9 @@ import gov.usgs.cida.gdp.dataaccess.bean.DataTypeCollection;
 import gov.usgs.cida.gdp.dataaccess.bean.DataTypeCollection.DataTypeBean;
 import gov.usgs.cida.gdp.dataaccess.bean.Response;
 import gov.usgs.cida.gdp.dataaccess.bean.Time;
+import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache;
+import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache.CacheIdentifier;
+import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache.CacheIdentifier.CacheType;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
@@ -12,6 +15,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedList;
@@ -44,6 +48,11 @@ public class OpendapServerHelper {
 
     private final static org.slf4j.Logger log = LoggerFactory.getLogger(OpendapServerHelper.class);
 
+    /*
+     * Number of time values sampled to check that an axis is monotonic.
+     */
+    private static final int TIME_SAMPLES = 32;
+
     public static Time getTimeBean(String datasetUrl, String gridSelection) throws IOException, ParseException {
 
         List<String> dateRange = getOPeNDAPTimeRange(datasetUrl, gridSelection);
@@ -62,6 +71,31 @@ public class OpendapServerHelper {
         return timeBean;
     }
 
+    /**
+     * Time range of a grid from the response cache, fetched and cached on a
+     * miss.  Empty ranges are not cached.
+     */
+    public static Time getCachedTimeBean(final String datasetUrl, final String gridSelection) throws IOException {
+        return ResponseCache.getInstance().get(
+                new CacheIdentifier(datasetUrl, CacheType.TIME_RANGE, gridSelection),
+                Time.class,
+                new ResponseCache.ResponseLoader<Time>() {
+                    @Override
+                    public Time load() throws IOException {
+                        try {
+                            return getTimeBean(datasetUrl, gridSelection);
+                        } catch (ParseException ex) {
+                            throw new IOException("Unable to parse time range of " + datasetUrl, ex);
+                        }
+                    }
+
+                    @Override
+                    public boolean isCacheable(Time response) {
+                        return response.getTime().length > 0 && response.getTime()[0] != null;
+                    }
+                });
+    }
+
     public static List<String> getOPeNDAPTimeRange(String datasetUrl, String gridSelection) throws IOException {
         try {
             DConnect2 dodsConnection = createDODSConnection(datasetUrl);
@@ -84,9 +118,7 @@ public class OpendapServerHelper {
             String timeDim = getTimeDim(das, array);
             try {
                 AttributeTable attributeTable = das.getAttributeTable(timeDim);
-                DataDDS datadds = dodsConnection.getData("?" + timeDim); // time dimension
-                DArray variable = (DArray) datadds.getVariable(timeDim);
-                return getDatesFromTimeVariable(variable, attributeTable);
+                return getTimeRange(dodsConnection, timeDim, getDimensionLength(array, timeDim), attributeTable);
             } catch (Exception e) {
                 log.warn("Not a time unit", e);
             }
@@ -99,43 +131,116 @@ public class OpendapServerHelper {
         }
         return Collections.EMPTY_LIST;  // Could not get time, fall through
     }
-    
+
+    /*
+     * Reads the earliest and latest time without downloading the whole axis.
+     * An evenly spaced sample of at most TIME_SAMPLES values (always including
+     * the first) is requested with a strided constraint, plus the last value
+     * when the stride skips it.  For a monotonic sample the range is taken
+     * from the ends; an out of order axis (e.g. a badly aggregated one) is
+     * read in full and its minimum and maximum used.  Disorder that falls
+     * entirely between two samples is not detected.
+     */
+    private static List<String> getTimeRange(DConnect2 dodsConnection, String timeDim, int length, AttributeTable attributeTable)
+            throws IOException, DAP2Exception, NoSuchAttributeException {
+        if (length < 1) {
+            // length unknown, read the whole axis
+            return getDatesFromTimeVariable(readTimeVariable(dodsConnection, timeDim, ""), attributeTable);
+        }
+        int last = length - 1;
+        int stride = Math.max(1, (last + TIME_SAMPLES - 2) / (TIME_SAMPLES - 1));
+        PrimitiveVector sample = readTimeVariable(dodsConnection, timeDim, "[0:" + stride + ":" + last + "]").getPrimitiveVector();
+        PrimitiveVector end = null;
+        if (last % stride != 0) {
+            end = readTimeVariable(dodsConnection, timeDim, "[" + last + ":1:" + last + "]").getPrimitiveVector();
+        }
+
+        if (sample instanceof BaseTypePrimitiveVector) {
+            List<String> dateList = new ArrayList<String>();
+            dateList.add(((DString) ((BaseTypePrimitiveVector) sample).getValue(0)).getValue());
+            BaseTypePrimitiveVector lastVector = (BaseTypePrimitiveVector) (end == null ? sample : end);
+            dateList.add(((DString) lastVector.getValue(lastVector.getLength() - 1)).getValue());
+            return dateList;
+        }
+
+        double[] values = getValues(sample);
+        if (end != null) {
+            values = Arrays.copyOf(values, values.length + 1);
+            values[values.length - 1] = getValues(end)[0];
+        }
+        if (stride > 1 && !isMonotonic(values)) {
+            log.info("Time axis {} is not monotonic, reading all {} values", timeDim, length);
+            values = getValues(readTimeVariable(dodsConnection, timeDim, "").getPrimitiveVector());
+        }
+        double first = Double.NaN;
+        double latest = Double.NaN;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                first = Double.isNaN(first) ? value : Math.min(first, value);
+                latest = Double.isNaN(latest) ? value : Math.max(latest, value);
+            }
+        }
+        if (Double.isNaN(first)) {
+            return new ArrayList<String>();
+        }
+        return makeDates(attributeTable, first, latest);
+    }
+
+    private static DArray readTimeVariable(DConnect2 dodsConnection, String timeDim, String constraint) throws IOException, DAP2Exception {
+        DataDDS datadds = dodsConnection.getData("?" + timeDim + constraint);
+        return (DArray) datadds.getVariable(timeDim);
+    }
+
+    private static int getDimensionLength(DArray array, String dimensionName) {
+        Enumeration<DArrayDimension> dimensions = array.getDimensions();
+        while (dimensions.hasMoreElements()) {
+            DArrayDimension dimension = dimensions.nextElement();
+            if (dimension.getEncodedName().equals(dimensionName)) {
+                return dimension.getSize();
+            }
+        }
+        return -1;
+    }
+
+    static boolean isMonotonic(double[] values) {
+        boolean increasing = true;
+        boolean decreasing = true;
+        for (int i = 1; i < values.length; i++) {
+            increasing &= values[i] > values[i - 1];
+            decreasing &= values[i] < values[i - 1];
+        }
+        return increasing || decreasing;
+    }
+
+    private static double[] getValues(PrimitiveVector pVector) {
+        double[] values = new double[pVector.getLength()];
+        for (int i = 0; i < values.length; i++) {
+            if (pVector instanceof Int32PrimitiveVector) {
+                values[i] = ((Int32PrimitiveVector) pVector).getValue(i);
+            } else if (pVector instanceof Int16PrimitiveVector) {
+                values[i] = ((Int16PrimitiveVector) pVector).getValue(i);
+            } else if (pVector instanceof Float32PrimitiveVector) {
+                values[i] = ((Float32PrimitiveVector) pVector).getValue(i);
+            } else if (pVector instanceof Float64PrimitiveVector) {
+                values[i] = ((Float64PrimitiveVector) pVector).getValue(i);
+            } else {
+                throw new UnsupportedOperationException("This primitive type for time is not yet supported");
+            }
+        }
+        return values;
+    }
+
     private static List<String> getDatesFromTimeVariable(DArray variable, AttributeTable attributeTable) throws NoSuchAttributeException {
-        // TODO make utility to cast this stuff for me
-        List<String> dateList = new ArrayList<String>();
         PrimitiveVector pVector = variable.getPrimitiveVector();
-        double first = 0.0;
-        double last = 0.0;
-        if (pVector instanceof Int32PrimitiveVector) {
-            Int32PrimitiveVector i32Vector = (Int32PrimitiveVector) pVector;
-            first = i32Vector.getValue(0);
-            last = i32Vector.getValue(i32Vector.getLength() - 1);
-        } else if (pVector instanceof Int16PrimitiveVector) {
-            Int16PrimitiveVector i16Vector = (Int16PrimitiveVector) pVector;
-            first = i16Vector.getValue(0);
-            last = i16Vector.getValue(i16Vector.getLength() - 1);
-        } else if (pVector instanceof Float32PrimitiveVector) {
-            Float32PrimitiveVector f32Vector = (Float32PrimitiveVector) pVector;
-            first = f32Vector.getValue(0);
-            last = f32Vector.getValue(f32Vector.getLength() - 1);
-        } else if (pVector instanceof Float64PrimitiveVector) {
-            Float64PrimitiveVector f64Vector = (Float64PrimitiveVector) pVector;
-            first = f64Vector.getValue(0);
-            last = f64Vector.getValue(f64Vector.getLength() - 1);
-        } else if (pVector instanceof BaseTypePrimitiveVector) {
+        if (pVector instanceof BaseTypePrimitiveVector) {
             BaseTypePrimitiveVector btVector = (BaseTypePrimitiveVector) pVector;
-            BaseType firstBt = btVector.getValue(0);
-            BaseType lastBt = btVector.getValue(pVector.getLength() - 1);
-            String firstString = ((DString) firstBt).getValue();
-            String lastString = ((DString) lastBt).getValue();
-            dateList.add(firstString);
-            dateList.add(lastString);
+            List<String> dateList = new ArrayList<String>();
+            dateList.add(((DString) btVector.getValue(0)).getValue());
+            dateList.add(((DString) btVector.getValue(pVector.getLength() - 1)).getValue());
             return dateList;
-        } else {
-            throw new UnsupportedOperationException("This primitive type for time is not yet supported");
         }
-
-        return makeDates(attributeTable, first, last);
+        double[] values = getValues(pVector);
+        return makeDates(attributeTable, values[0], values[values.length - 1]);
     }
 
     private static List<String> makeDates(AttributeTable attributeTable, double first, double last) throws NoSuchAttributeException {
@@ -185,6 +290,27 @@ public class OpendapServerHelper {
         return result;
     }
 
+    /**
+     * Variables of a dataset from the response cache, fetched and cached on a
+     * miss.  Empty collections are not cached.
+     */
+    public static DataTypeCollection getCachedDataTypeCollection(final String datasetUrl) throws IOException {
+        return ResponseCache.getInstance().get(
+                new CacheIdentifier(datasetUrl, CacheType.DATA_TYPE, null),
+                DataTypeCollection.class,
+                new ResponseCache.ResponseLoader<DataTypeCollection>() {
+                    @Override
+                    public DataTypeCollection load() throws IOException {
+                        return callDDSandDAS(datasetUrl);
+                    }
+
+                    @Override
+                    public boolean isCacheable(DataTypeCollection response) {
+                        return !response.getDataTypeCollection().isEmpty();
+                    }
+                });
+    }
+
     public static DataTypeCollection callDDSandDAS(String datasetUrl) throws IOException {
         DConnect2 dodsConnection;
         try {
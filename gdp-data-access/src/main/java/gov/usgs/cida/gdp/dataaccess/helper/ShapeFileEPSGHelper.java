@@ -17,11 +17,25 @@ import org.slf4j.LoggerFactory;
 public class ShapeFileEPSGHelper {
     private static Logger log = LoggerFactory.getLogger(ShapeFileEPSGHelper.class);
 
+    /**
+     * The code kept in the shapefile's {@link ShapefileSummary} is used when
+     * there is one, the PRJ is only looked up otherwise.
+     *
+     * @param prjFile
+     * @return
+     * @throws IOException
+     * @throws FactoryException 
+     */
     public static String getDeclaredEPSGFromPrj(final File prjFile) throws IOException, FactoryException {
         String result = null;
         if (prjFile == null || !prjFile.exists()) {
             return result;
         }
+        ShapefileSummary summary = ShapefileSummary.read(prjFile);
+        if (summary != null && summary.getDeclaredCRS() != null) {
+            log.debug("Found " + summary.getDeclaredCRS() + " in shapefile summary");
+            return summary.getDeclaredCRS();
+        }
         log.debug(new StringBuilder("Attempting to get EPSG from file: ").append(prjFile.getPath()).toString());
 
         byte[] wktByteArray = FileHelper.getByteArrayFromFile(prjFile);
@@ -40,7 +54,11 @@ public class ShapeFileEPSGHelper {
     }
     
     /**
-     * 
+     * Lookups are cached, see {@link WKTEPSGCache}.  Misses are resolved with
+     * the {@link EPSGFingerprintIndex} once it is built, with a full scan of
+     * the EPSG database before that or when the index has no match, so only
+     * the full scan decides a WKT has no code.
+     *
      * @param wkt
      * @param useBaseCRSFailover Use base CRS to do a lookup
      * @return
@@ -53,6 +71,13 @@ public class ShapeFileEPSGHelper {
             return result;
         }
 
+        WKTEPSGCache cache = WKTEPSGCache.getInstance();
+        if (cache.contains(wkt, useBaseCRSFailover)) {
+            result = cache.get(wkt, useBaseCRSFailover);
+            log.debug("Found " + result + " in lookup cache");
+            return result;
+        }
+
         CoordinateReferenceSystem crs = null;
         try {
             crs = CRS.parseWKT(wkt);
@@ -61,13 +86,26 @@ public class ShapeFileEPSGHelper {
             throw ex;
         }
 
-        result = CRS.lookupIdentifier(crs, true);
+        result = lookupIdentifier(crs);
 
         if (result == null && crs instanceof ProjectedCRS && useBaseCRSFailover) {
-            result = CRS.lookupIdentifier(((ProjectedCRS)crs).getBaseCRS(), true);
+            result = lookupIdentifier(((ProjectedCRS)crs).getBaseCRS());
         }
         log.debug("Found " + result);
+        cache.put(wkt, useBaseCRSFailover, result);
         return result;
     }
 
+    private static String lookupIdentifier(CoordinateReferenceSystem crs) throws FactoryException {
+        EPSGFingerprintIndex index = EPSGFingerprintIndex.getInstance();
+        if (index.isReady()) {
+            String code = index.lookup(crs);
+            if (code != null) {
+                return code;
+            }
+            // definitions the index could not fingerprint are only found by the scan
+        }
+        return CRS.lookupIdentifier(crs, true);
+    }
+
 }
@@ -0,0 +1,216 @@
+package gov.usgs.cida.gdp.dataaccess.helper;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import org.apache.commons.io.IOUtils;
+import org.geotools.data.Query;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.TransformException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feature count, bounds and declared EPSG code of a shapefile, found with one
+ * pass over its geometries and kept beside it so the shapefile need not be
+ * read again for them.
+ */
+public class ShapefileSummary {
+    private static final Logger log = LoggerFactory.getLogger(ShapefileSummary.class);
+    private static final String SUFFIX_SUMMARY = ".summary";
+
+    private final int featureCount;
+    private final int emptyCount;
+    private final ReferencedEnvelope bounds;
+    private String declaredCRS;
+
+    public ShapefileSummary(int featureCount, int emptyCount, ReferencedEnvelope bounds) {
+        this.featureCount = featureCount;
+        this.emptyCount = emptyCount;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Reads every geometry of the shapefile once, attributes are not read and
+     * geometries are not validated.
+     *
+     * @param shapefile the .shp file
+     * @return summary of the shapefile's geometries
+     * @throws IOException
+     */
+    public static ShapefileSummary scan(File shapefile) throws IOException {
+        ShapefileDataStore store = new ShapefileDataStore(shapefile.toURI().toURL());
+        try {
+            SimpleFeatureType schema = store.getSchema();
+            Query query = new Query(schema.getTypeName(), Filter.INCLUDE,
+                    new String[] { schema.getGeometryDescriptor().getLocalName() });
+            int featureCount = 0;
+            int emptyCount = 0;
+            Envelope envelope = new Envelope();
+            SimpleFeatureIterator features = store.getFeatureSource().getFeatures(query).features();
+            try {
+                while (features.hasNext()) {
+                    Geometry geometry = (Geometry) features.next().getDefaultGeometry();
+                    featureCount++;
+                    if (geometry == null || geometry.isEmpty()) {
+                        emptyCount++;
+                    } else {
+                        envelope.expandToInclude(geometry.getEnvelopeInternal());
+                    }
+                }
+            } finally {
+                features.close();
+            }
+            return new ShapefileSummary(featureCount, emptyCount,
+                    new ReferencedEnvelope(envelope, schema.getCoordinateReferenceSystem()));
+        } finally {
+            store.dispose();
+        }
+    }
+
+    /**
+     * @param shapefile the .shp file
+     * @return where the summary of the shapefile is kept
+     */
+    public static File getSummaryFile(File shapefile) {
+        String name = shapefile.getName();
+        int extension = name.lastIndexOf('.');
+        return new File(shapefile.getParentFile(), (extension < 0 ? name : name.substring(0, extension)) + SUFFIX_SUMMARY);
+    }
+
+    /**
+     * @param shapefile the .shp file
+     * @return the summary kept beside the shapefile, null if there is none
+     * @throws IOException
+     */
+    public static ShapefileSummary read(File shapefile) throws IOException {
+        File file = getSummaryFile(shapefile);
+        if (!file.exists()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        CoordinateReferenceSystem crs = null;
+        String wkt = properties.getProperty("crs");
+        if (wkt != null) {
+            try {
+                crs = CRS.parseWKT(wkt);
+            } catch (FactoryException ex) {
+                log.debug("Unable to parse summary CRS: " + ex.getMessage());
+            }
+        }
+        Envelope envelope = new Envelope();
+        if (properties.getProperty("minx") != null) {
+            envelope = new Envelope(
+                    Double.parseDouble(properties.getProperty("minx")),
+                    Double.parseDouble(properties.getProperty("maxx")),
+                    Double.parseDouble(properties.getProperty("miny")),
+                    Double.parseDouble(properties.getProperty("maxy")));
+        }
+        ShapefileSummary summary = new ShapefileSummary(
+                Integer.parseInt(properties.getProperty("features")),
+                Integer.parseInt(properties.getProperty("empty")),
+                new ReferencedEnvelope(envelope, crs));
+        summary.setDeclaredCRS(properties.getProperty("declared"));
+        return summary;
+    }
+
+    /**
+     * Keeps the summary beside the shapefile.
+     *
+     * @param shapefile the .shp file
+     * @throws IOException
+     */
+    public void write(File shapefile) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("features", Integer.toString(featureCount));
+        properties.setProperty("empty", Integer.toString(emptyCount));
+        if (!bounds.isNull()) {
+            properties.setProperty("minx", Double.toString(bounds.getMinX()));
+            properties.setProperty("maxx", Double.toString(bounds.getMaxX()));
+            properties.setProperty("miny", Double.toString(bounds.getMinY()));
+            properties.setProperty("maxy", Double.toString(bounds.getMaxY()));
+        }
+        if (bounds.getCoordinateReferenceSystem() != null) {
+            properties.setProperty("crs", bounds.getCoordinateReferenceSystem().toWKT());
+        }
+        if (declaredCRS != null) {
+            properties.setProperty("declared", declaredCRS);
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(getSummaryFile(shapefile));
+            properties.store(out, "Summary of " + shapefile.getName());
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * @return features without a geometry or with an empty one
+     */
+    public int getEmptyCount() {
+        return emptyCount;
+    }
+
+    /**
+     * @return bounds of the geometries in the shapefile's CRS
+     */
+    public ReferencedEnvelope getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return bounds of the geometries in WGS84, null if they are empty or
+     * the shapefile's CRS is unknown
+     */
+    public ReferencedEnvelope getLatLonBounds() {
+        if (bounds.isNull() || bounds.getCoordinateReferenceSystem() == null) {
+            return null;
+        }
+        try {
+            return bounds.transform(DefaultGeographicCRS.WGS84, true);
+        } catch (TransformException ex) {
+            log.debug("Unable to transform summary bounds: " + ex.getMessage());
+        } catch (FactoryException ex) {
+            log.debug("Unable to transform summary bounds: " + ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @return EPSG code the shapefile was declared with, null if it has not
+     * been looked up
+     */
+    public String getDeclaredCRS() {
+        return declaredCRS;
+    }
+
+    public void setDeclaredCRS(String declaredCRS) {
+        this.declaredCRS = declaredCRS;
+    }
+}
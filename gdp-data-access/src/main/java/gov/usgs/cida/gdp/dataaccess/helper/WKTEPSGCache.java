@@ -0,0 +1,175 @@
+package gov.usgs.cida.gdp.dataaccess.helper;
+
+import gov.usgs.cida.gdp.constants.AppConstant;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * EPSG codes found for projection WKT, kept in a properties file so the
+ * lookup against the EPSG database is done once per projection rather than
+ * once per upload.  A WKT with no EPSG code is remembered as well.
+ * <p>
+ * The common ArcGIS and GDAL variants of NAD83, WGS84, Conus Albers and the
+ * CONUS UTM zones are known up front from wkt-epsg-seed.txt.
+ */
+public class WKTEPSGCache {
+    private static final Logger log = LoggerFactory.getLogger(WKTEPSGCache.class);
+    private static final String NO_CODE = "";
+    private static final String SEED = "wkt-epsg-seed.txt";
+    private static WKTEPSGCache instance;
+
+    private final File file;
+    private final Map<String, String> codes = new ConcurrentHashMap<String, String>();
+    private final Map<String, String> seeds = new ConcurrentHashMap<String, String>();
+
+    /**
+     * @param file properties file the lookups are stored in, read if it
+     * exists
+     */
+    public WKTEPSGCache(File file) {
+        this.file = file;
+        loadSeeds();
+        if (file.exists()) {
+            Properties properties = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                properties.load(in);
+                for (String key : properties.stringPropertyNames()) {
+                    codes.put(key, properties.getProperty(key));
+                }
+            } catch (IOException ex) {
+                log.warn("Unable to read EPSG lookups from " + file, ex);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * @return lookups stored in the cache directory
+     */
+    public static synchronized WKTEPSGCache getInstance() {
+        if (instance == null) {
+            instance = new WKTEPSGCache(new File(AppConstant.CACHE_LOCATION.getValue(), "epsg-lookup.properties"));
+        }
+        return instance;
+    }
+
+    /**
+     * @param wkt projection WKT
+     * @param useBaseCRSFailover whether the lookup fell back to the base CRS
+     * @return true if the lookup has been done before
+     */
+    public boolean contains(String wkt, boolean useBaseCRSFailover) {
+        return codes.containsKey(getKey(wkt, useBaseCRSFailover)) || seeds.containsKey(normalize(wkt));
+    }
+
+    /**
+     * @param wkt projection WKT
+     * @param useBaseCRSFailover whether the lookup fell back to the base CRS
+     * @return code found by an earlier lookup, null if there was none or the
+     * lookup has not been done
+     */
+    public String get(String wkt, boolean useBaseCRSFailover) {
+        String code = codes.get(getKey(wkt, useBaseCRSFailover));
+        if (code == null) {
+            code = seeds.get(normalize(wkt));
+        }
+        return NO_CODE.equals(code) ? null : code;
+    }
+
+    /**
+     * @param wkt projection WKT
+     * @param useBaseCRSFailover whether the lookup fell back to the base CRS
+     * @param code code found, null if none
+     */
+    public void put(String wkt, boolean useBaseCRSFailover, String code) {
+        String previous = codes.put(getKey(wkt, useBaseCRSFailover), code == null ? NO_CODE : code);
+        if (!(code == null ? NO_CODE : code).equals(previous)) {
+            store();
+        }
+    }
+
+    private void loadSeeds() {
+        InputStream in = WKTEPSGCache.class.getResourceAsStream(SEED);
+        if (in == null) {
+            log.warn("Unable to find " + SEED);
+            return;
+        }
+        try {
+            List<String> lines = IOUtils.readLines(in, "UTF-8");
+            for (String line : lines) {
+                line = line.trim();
+                int split = line.indexOf(' ');
+                if (line.isEmpty() || line.startsWith("#") || split < 0) {
+                    continue;
+                }
+                // a seeded code also answers the base CRS lookup, which is
+                // only tried when the exact one finds nothing
+                seeds.put(normalize(line.substring(split + 1)), line.substring(0, split));
+            }
+        } catch (IOException ex) {
+            log.warn("Unable to read " + SEED, ex);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private synchronized void store() {
+        Properties properties = new Properties();
+        properties.putAll(codes);
+        File temp = null;
+        OutputStream out = null;
+        try {
+            FileUtils.forceMkdir(file.getParentFile());
+            temp = File.createTempFile("epsg", ".tmp", file.getParentFile());
+            out = new FileOutputStream(temp);
+            properties.store(out, "EPSG codes by projection WKT");
+            out.close();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            log.warn("Unable to store EPSG lookups in " + file, ex);
+        } finally {
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    private static String getKey(String wkt, boolean useBaseCRSFailover) {
+        return (useBaseCRSFailover ? "base:" : "exact:") + normalize(wkt);
+    }
+
+    /**
+     * Drops whitespace outside quoted names so the same projection written
+     * with different line breaks and indentation has one key.
+     */
+    static String normalize(String wkt) {
+        StringBuilder normalized = new StringBuilder(wkt.length());
+        boolean quoted = false;
+        for (int i = 0; i < wkt.length(); i++) {
+            char c = wkt.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            if (quoted || !Character.isWhitespace(c)) {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package gov.usgs.cida.gdp.dataaccess.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal OPeNDAP server for tests, serves fixed DDS, DAS and data responses
+ * under /dods/ and answers If-Modified-Since with 304.
+ */
+public class FakeDodsServer {
+
+	private final HttpServer server;
+	private final Map<String, byte[]> documents = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+	private final List<String> queries = new CopyOnWriteArrayList<>();
+	private volatile long lastModified = System.currentTimeMillis() - 60000;
+
+	public FakeDodsServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/dods/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * @param name dataset name, served at {@link #getDatasetUrl(String)}
+	 * @param dds DDS text
+	 * @param das DAS text
+	 */
+	public void addDataset(String name, String dds, String das) {
+		documents.put(name + ".dds", dds.getBytes(StandardCharsets.UTF_8));
+		documents.put(name + ".das", das.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Serves a data response for a constrained request, query is the
+	 * constraint expression without the leading question mark.
+	 */
+	public void addData(String name, String query, byte[] dods) {
+		documents.put(name + ".dods?" + query, dods);
+	}
+
+	public String getDatasetUrl(String name) {
+		return "http://localhost:" + server.getAddress().getPort() + "/dods/" + name;
+	}
+
+	/**
+	 * Marks every dataset as modified now.
+	 */
+	public void touch() {
+		lastModified = System.currentTimeMillis() + 1000;
+	}
+
+	/**
+	 * @param suffix e.g. ".dds"
+	 * @return number of requests whose path ends with the suffix
+	 */
+	public int getRequestCount(String suffix) {
+		int count = 0;
+		for (Map.Entry<String, AtomicInteger> entry : requests.entrySet()) {
+			if (entry.getKey().endsWith(suffix)) {
+				count += entry.getValue().get();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return requests made so far as name and decoded query
+	 */
+	public List<String> getRequests() {
+		return queries;
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		String query = exchange.getRequestURI().getQuery();
+		String key = query == null ? name : name + "?" + query;
+		requests.putIfAbsent(name, new AtomicInteger());
+		requests.get(name).incrementAndGet();
+		queries.add(key);
+		if (!name.endsWith(".dods")) {
+			// DDS and DAS are served whole whatever the constraint
+			key = name;
+		}
+
+		try {
+			SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			String since = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+			if (since != null && format.parse(since).getTime() >= lastModified / 1000 * 1000) {
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			byte[] document = documents.get(key);
+			if (document == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			exchange.getResponseHeaders().add("Last-Modified", format.format(new Date(lastModified)));
+			exchange.getResponseHeaders().add("XDODS-Server", "dods/2.0");
+			exchange.getResponseHeaders().add("Content-Description",
+					name.endsWith(".dods") ? "dods-data" : name.endsWith(".das") ? "dods-das" : "dods-dds");
+			exchange.sendResponseHeaders(200, document.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(document);
+			out.close();
+		} catch (java.text.ParseException ex) {
+			exchange.sendResponseHeaders(400, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+}
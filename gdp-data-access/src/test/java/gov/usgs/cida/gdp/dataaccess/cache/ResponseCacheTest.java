@@ -0,0 +1,230 @@
+package gov.usgs.cida.gdp.dataaccess.cache;
+
+import gov.usgs.cida.gdp.dataaccess.bean.DataTypeCollection;
+import gov.usgs.cida.gdp.dataaccess.bean.DataTypeCollection.DataTypeBean;
+import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache.CacheIdentifier;
+import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache.CacheIdentifier.CacheType;
+import gov.usgs.cida.gdp.dataaccess.helper.OpendapServerHelper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+	private static final String DDS = "Dataset {\n"
+			+ "    Float64 time[time = 3];\n"
+			+ "    Grid {\n"
+			+ "     ARRAY:\n"
+			+ "        Float32 tmax[time = 3][lat = 2][lon = 2];\n"
+			+ "     MAPS:\n"
+			+ "        Float64 time[time = 3];\n"
+			+ "        Float32 lat[lat = 2];\n"
+			+ "        Float32 lon[lon = 2];\n"
+			+ "    } tmax;\n"
+			+ "} test;\n";
+	private static final String DAS = "Attributes {\n"
+			+ "    time {\n"
+			+ "        String units \"days since 2000-01-01\";\n"
+			+ "    }\n"
+			+ "    tmax {\n"
+			+ "        String units \"degC\";\n"
+			+ "        String long_name \"Maximum temperature\";\n"
+			+ "    }\n"
+			+ "}\n";
+
+	private File directory;
+	private FakeDodsServer server;
+	private CacheIdentifier identifier;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("ResponseCacheTest").toFile();
+		server = new FakeDodsServer();
+		server.addDataset("test", DDS, DAS);
+		identifier = new CacheIdentifier(server.getDatasetUrl("test"), CacheType.DATA_TYPE, null);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void testMemoryHit() throws IOException {
+		ResponseCache cache = new ResponseCache(directory, 60000, 10, 1024 * 1024);
+		CountingLoader loader = new CountingLoader("first");
+		DataTypeCollection first = cache.get(identifier, DataTypeCollection.class, loader);
+		DataTypeCollection second = cache.get(identifier, DataTypeCollection.class, loader);
+		assertSame(first, second);
+		assertEquals(1, loader.loads.get());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getMemoryHits());
+		assertEquals(0.5, cache.getHitRate(), 0.0);
+		assertTrue(cache.contains(identifier));
+	}
+
+	@Test
+	public void testDiskHit() throws IOException {
+		new ResponseCache(directory, 60000, 10, 1024 * 1024).get(identifier, DataTypeCollection.class, new CountingLoader("first"));
+
+		ResponseCache restarted = new ResponseCache(directory, 60000, 10, 1024 * 1024);
+		CountingLoader loader = new CountingLoader("second");
+		DataTypeCollection result = restarted.get(identifier, DataTypeCollection.class, loader);
+		assertEquals("first", result.getDataTypeCollection().get(0).getName());
+		assertEquals(0, loader.loads.get());
+		assertEquals(1, restarted.getDiskHits());
+	}
+
+	@Test
+	public void testUncacheableResponse() throws IOException {
+		ResponseCache cache = new ResponseCache(directory, 60000, 10, 1024 * 1024);
+		CountingLoader loader = new CountingLoader(null);
+		cache.get(identifier, DataTypeCollection.class, loader);
+		cache.get(identifier, DataTypeCollection.class, loader);
+		assertEquals(2, loader.loads.get());
+		assertFalse(cache.contains(identifier));
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final ResponseCache cache = new ResponseCache(directory, 60000, 10, 1024 * 1024);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountingLoader loader = new CountingLoader("slow") {
+			@Override
+			public DataTypeCollection load() throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					throw new IOException(ex);
+				}
+				return super.load();
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<DataTypeCollection>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<DataTypeCollection>() {
+					@Override
+					public DataTypeCollection call() throws Exception {
+						return cache.get(identifier, DataTypeCollection.class, loader);
+					}
+				}));
+			}
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<DataTypeCollection> result : results) {
+				assertEquals("slow", result.get().getDataTypeCollection().get(0).getName());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, loader.loads.get());
+	}
+
+	@Test
+	public void testRevalidateUnmodified() throws Exception {
+		ResponseCache cache = new ResponseCache(directory, 50, 10, 1024 * 1024);
+		CountingLoader loader = new CountingLoader("first");
+		cache.get(identifier, DataTypeCollection.class, loader);
+		Thread.sleep(100);
+		assertFalse(cache.contains(identifier));
+
+		cache.get(identifier, DataTypeCollection.class, loader);
+		assertEquals(1, loader.loads.get());
+		assertEquals(1, cache.getRevalidations());
+		assertEquals(1, server.getRequestCount(".dds"));
+		assertTrue(cache.contains(identifier));
+	}
+
+	@Test
+	public void testRevalidateModified() throws Exception {
+		ResponseCache cache = new ResponseCache(directory, 50, 10, 1024 * 1024);
+		cache.get(identifier, DataTypeCollection.class, new CountingLoader("first"));
+		Thread.sleep(100);
+		server.touch();
+
+		DataTypeCollection result = cache.get(identifier, DataTypeCollection.class, new CountingLoader("second"));
+		assertEquals("second", result.getDataTypeCollection().get(0).getName());
+		assertEquals(0, cache.getRevalidations());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testMemoryLimit() throws IOException {
+		ResponseCache cache = new ResponseCache(directory, 60000, 1, 1024 * 1024);
+		CacheIdentifier other = new CacheIdentifier(server.getDatasetUrl("other"), CacheType.DATA_TYPE, null);
+		cache.get(identifier, DataTypeCollection.class, new CountingLoader("first"));
+		cache.get(other, DataTypeCollection.class, new CountingLoader("other"));
+		cache.get(identifier, DataTypeCollection.class, new CountingLoader("second"));
+		assertEquals(0, cache.getMemoryHits());
+		assertEquals(1, cache.getDiskHits());
+	}
+
+	@Test
+	public void testDiskLimit() throws IOException {
+		ResponseCache cache = new ResponseCache(directory, 60000, 10, 1);
+		cache.get(identifier, DataTypeCollection.class, new CountingLoader("first"));
+		assertFalse(identifier.getFile(directory).exists());
+		// still served from memory
+		assertTrue(cache.contains(identifier));
+	}
+
+	@Test
+	public void testDataTypeCollectionFromServer() throws IOException {
+		CacheIdentifier cached = new CacheIdentifier(server.getDatasetUrl("test"), CacheType.DATA_TYPE, null);
+		ResponseCache.getInstance().invalidate(cached);
+		try {
+			DataTypeCollection first = OpendapServerHelper.getCachedDataTypeCollection(server.getDatasetUrl("test"));
+			DataTypeCollection second = OpendapServerHelper.getCachedDataTypeCollection(server.getDatasetUrl("test"));
+			assertEquals(1, first.getDataTypeCollection().size());
+			assertEquals("tmax", first.getDataTypeCollection().get(0).getName());
+			assertEquals("degC", first.getDataTypeCollection().get(0).getUnitsstring());
+			assertSame(first, second);
+			assertEquals(1, server.getRequestCount(".dds"));
+			assertEquals(1, server.getRequestCount(".das"));
+		} finally {
+			ResponseCache.getInstance().invalidate(cached);
+		}
+	}
+
+	private static class CountingLoader implements ResponseCache.ResponseLoader<DataTypeCollection> {
+
+		private final String name;
+		private final AtomicInteger loads = new AtomicInteger();
+
+		private CountingLoader(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public DataTypeCollection load() throws IOException {
+			loads.incrementAndGet();
+			if (name == null) {
+				return new DataTypeCollection("GRID", new DataTypeBean[0]);
+			}
+			DataTypeBean bean = new DataTypeBean();
+			bean.setName(name);
+			return new DataTypeCollection("GRID", bean);
+		}
+
+		@Override
+		public boolean isCacheable(DataTypeCollection response) {
+			return !response.getDataTypeCollection().isEmpty();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package gov.usgs.cida.gdp.dataaccess.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.geotools.referencing.CRS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.ProjectedCRS;
+
+public class EPSGFingerprintIndexTest {
+
+    private static final String NAD83 = "GEOGCS[\"GCS_North_American_1983\",DATUM[\"D_North_American_1983\",SPHEROID[\"GRS_1980\",6378137.0,298.257222101]],PRIMEM[\"Greenwich\",0.0],UNIT[\"Degree\",0.0174532925199433]]";
+    private static final String ALBERS = "PROJCS[\"NAD_1983_Albers\"," + NAD83 + ",PROJECTION[\"Albers\"],PARAMETER[\"False_Easting\",0.0],PARAMETER[\"False_Northing\",0.0],PARAMETER[\"Central_Meridian\",-96.0],PARAMETER[\"Standard_Parallel_1\",29.5],PARAMETER[\"Standard_Parallel_2\",45.5],PARAMETER[\"Latitude_Of_Origin\",23.0],UNIT[\"Meter\",1.0]]";
+    private static final String UNKNOWN_ALBERS = ALBERS.replace("29.5", "29.3").replace("45.5", "45.3");
+
+    private static final String VERSION = EPSGFingerprintIndex.getDatabaseVersion();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("EPSGFingerprintIndexTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testFingerprintIgnoresNamesAndAxisOrder() throws Exception {
+        assertEquals(EPSGFingerprintIndex.fingerprint(CRS.decode("EPSG:4269")),
+                EPSGFingerprintIndex.fingerprint(CRS.parseWKT(NAD83)));
+        assertEquals(EPSGFingerprintIndex.fingerprint(CRS.decode("EPSG:4269", true)),
+                EPSGFingerprintIndex.fingerprint(CRS.decode("EPSG:4269")));
+        assertEquals(EPSGFingerprintIndex.fingerprint(CRS.decode("EPSG:5070")),
+                EPSGFingerprintIndex.fingerprint(CRS.parseWKT(ALBERS)));
+        assertFalse(EPSGFingerprintIndex.fingerprint(CRS.parseWKT(ALBERS)).equals(
+                EPSGFingerprintIndex.fingerprint(CRS.parseWKT(UNKNOWN_ALBERS))));
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        File file = new File(directory, "fingerprints.properties");
+        EPSGFingerprintIndex index = new EPSGFingerprintIndex(file, VERSION);
+        assertFalse(index.isReady());
+        index.build(Arrays.asList("4326", "4269", "4267", "EPSG:5070", "EPSG:26915"));
+        assertTrue(index.isReady());
+        assertTrue(file.exists());
+
+        EPSGFingerprintIndex stored = new EPSGFingerprintIndex(file, VERSION);
+        assertTrue(stored.isReady());
+        assertEquals("EPSG:4269", stored.lookup(CRS.parseWKT(NAD83)));
+        assertEquals("EPSG:5070", stored.lookup(CRS.parseWKT(ALBERS)));
+
+        CoordinateReferenceSystem unknown = CRS.parseWKT(UNKNOWN_ALBERS);
+        assertNull(stored.lookup(unknown));
+        assertEquals("EPSG:4269", stored.lookup(((ProjectedCRS) unknown).getBaseCRS()));
+    }
+
+    @Test
+    public void testIndexOfOtherVersionRebuilt() {
+        File file = new File(directory, "fingerprints.properties");
+        new EPSGFingerprintIndex(file, VERSION).build(Arrays.asList("4326", "4269"));
+        assertTrue(new EPSGFingerprintIndex(file, VERSION).isReady());
+        assertFalse(new EPSGFingerprintIndex(file, "GeoTools 0.0").isReady());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLookupBeforeBuild() throws Exception {
+        new EPSGFingerprintIndex(new File(directory, "fingerprints.properties"), VERSION).lookup(CRS.parseWKT(NAD83));
+    }
+}
@@ -0,0 +1,140 @@
+package gov.usgs.cida.gdp.dataaccess.helper;
+
+import gov.usgs.cida.gdp.dataaccess.cache.FakeDodsServer;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Time range reads against a local fake DODS server.
+ */
+public class OpendapServerHelperTest {
+
+	private static final int LENGTH = 1000;
+
+	private FakeDodsServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new FakeDodsServer();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testTimeRangeReadsEndpointsOnly() throws IOException {
+		double[] hours = new double[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			hours[i] = i;
+		}
+		addTimeDataset("hourly", "hours since 2000-01-01 00:00:00", null, hours);
+
+		List<String> result = OpendapServerHelper.getOPeNDAPTimeRange(server.getDatasetUrl("hourly"), "tmax");
+		assertEquals(2, result.size());
+		assertEquals("2000-01-01T00:00:00Z", result.get(0));
+		assertEquals("2000-02-11T15:00:00Z", result.get(1));
+		assertEquals(2, server.getRequestCount(".dods"));
+		assertFalse(server.getRequests().contains("hourly.dods?time"));
+	}
+
+	@Test
+	public void testTimeRangeOfUnorderedAxis() throws IOException {
+		double[] days = new double[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			days[i] = i;
+		}
+		// second half of an aggregation listed before the first
+		days[33] = 5000;
+		days[500] = -10;
+		addTimeDataset("unordered", "days since 2000-01-01", null, days);
+
+		List<String> result = OpendapServerHelper.getOPeNDAPTimeRange(server.getDatasetUrl("unordered"), "tmax");
+		assertEquals("1999-12-22T00:00:00Z", result.get(0));
+		assertEquals("2013-09-09T00:00:00Z", result.get(1));
+		assertTrue(server.getRequests().contains("unordered.dods?time"));
+	}
+
+	@Test
+	public void testTimeRangeWithCalendar() throws IOException {
+		addTimeDataset("noleap", "days since 2000-01-01", "noleap", new double[] {0, 365});
+
+		List<String> result = OpendapServerHelper.getOPeNDAPTimeRange(server.getDatasetUrl("noleap"), "tmax");
+		assertEquals("2000-01-01T00:00:00Z", result.get(0));
+		assertEquals("2001-01-01T00:00:00Z", result.get(1));
+		assertEquals(1, server.getRequestCount(".dods"));
+	}
+
+	@Test
+	public void testIsMonotonic() {
+		assertTrue(OpendapServerHelper.isMonotonic(new double[] {1}));
+		assertTrue(OpendapServerHelper.isMonotonic(new double[] {1, 2, 3}));
+		assertTrue(OpendapServerHelper.isMonotonic(new double[] {3, 2, 1}));
+		assertFalse(OpendapServerHelper.isMonotonic(new double[] {1, 3, 2}));
+		assertFalse(OpendapServerHelper.isMonotonic(new double[] {1, 1}));
+	}
+
+	/*
+	 * Serves a gridded dataset and the constrained time requests the helper
+	 * makes: the strided sample, the last value and the whole axis.
+	 */
+	private void addTimeDataset(String name, String units, String calendar, double[] time) throws IOException {
+		int length = time.length;
+		server.addDataset(name,
+				"Dataset {\n"
+				+ "    Float64 time[time = " + length + "];\n"
+				+ "    Grid {\n"
+				+ "     ARRAY:\n"
+				+ "        Float32 tmax[time = " + length + "][lat = 2][lon = 2];\n"
+				+ "     MAPS:\n"
+				+ "        Float64 time[time = " + length + "];\n"
+				+ "        Float32 lat[lat = 2];\n"
+				+ "        Float32 lon[lon = 2];\n"
+				+ "    } tmax;\n"
+				+ "} " + name + ";\n",
+				"Attributes {\n"
+				+ "    time {\n"
+				+ "        String units \"" + units + "\";\n"
+				+ (calendar == null ? "" : "        String calendar \"" + calendar + "\";\n")
+				+ "    }\n"
+				+ "    tmax {\n"
+				+ "        String units \"degC\";\n"
+				+ "    }\n"
+				+ "}\n");
+
+		int last = length - 1;
+		int stride = Math.max(1, (last + 30) / 31);
+		int samples = last / stride + 1;
+		double[] sample = new double[samples];
+		for (int i = 0; i < samples; i++) {
+			sample[i] = time[i * stride];
+		}
+		server.addData(name, "time[0:" + stride + ":" + last + "]", createData(name, sample));
+		server.addData(name, "time[" + last + ":1:" + last + "]", createData(name, new double[] {time[last]}));
+		server.addData(name, "time", createData(name, time));
+	}
+
+	private static byte[] createData(String name, double[] values) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(("Dataset {\n"
+				+ "    Float64 time[time = " + values.length + "];\n"
+				+ "} " + name + ";\n"
+				+ "Data:\n").getBytes(StandardCharsets.UTF_8));
+		DataOutputStream xdr = new DataOutputStream(bytes);
+		xdr.writeInt(values.length);
+		xdr.writeInt(values.length);
+		for (double value : values) {
+			xdr.writeDouble(value);
+		}
+		xdr.flush();
+		return bytes.toByteArray();
+	}
+}
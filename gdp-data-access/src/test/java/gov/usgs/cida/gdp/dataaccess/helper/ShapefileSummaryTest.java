@@ -0,0 +1,102 @@
+package gov.usgs.cida.gdp.dataaccess.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import org.apache.commons.io.FileUtils;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ShapefileSummaryTest {
+
+    private static final String SHAPEFILE = "demo_HUCs";
+
+    private File directory;
+    private File shapefile;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("ShapefileSummaryTest").toFile();
+        URL shapefiles = Thread.currentThread().getContextClassLoader().getResource("Sample_Files/Shapefiles/");
+        for (String extension : new String[] { ".shp", ".shx", ".dbf", ".prj" }) {
+            FileUtils.copyFileToDirectory(new File(new File(shapefiles.toURI()), SHAPEFILE + extension), directory);
+        }
+        shapefile = new File(directory, SHAPEFILE + ".shp");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testScan() throws IOException {
+        ShapefileSummary summary = ShapefileSummary.scan(shapefile);
+        // 100 byte header then 8 bytes per record
+        assertEquals((new File(directory, SHAPEFILE + ".shx").length() - 100) / 8, summary.getFeatureCount());
+        assertEquals(0, summary.getEmptyCount());
+
+        double[] header = readHeaderBounds();
+        assertEquals(header[0], summary.getBounds().getMinX(), 1e-9);
+        assertEquals(header[1], summary.getBounds().getMinY(), 1e-9);
+        assertEquals(header[2], summary.getBounds().getMaxX(), 1e-9);
+        assertEquals(header[3], summary.getBounds().getMaxY(), 1e-9);
+        assertNotNull(summary.getBounds().getCoordinateReferenceSystem());
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        assertNull(ShapefileSummary.read(shapefile));
+        ShapefileSummary summary = ShapefileSummary.scan(shapefile);
+        assertNull(summary.getDeclaredCRS());
+        summary.setDeclaredCRS("EPSG:4326");
+        summary.write(shapefile);
+        assertTrue(new File(directory, SHAPEFILE + ".summary").exists());
+
+        ShapefileSummary read = ShapefileSummary.read(shapefile);
+        assertEquals(summary.getFeatureCount(), read.getFeatureCount());
+        assertEquals(summary.getEmptyCount(), read.getEmptyCount());
+        assertEquals("EPSG:4326", read.getDeclaredCRS());
+        assertEquals(summary.getBounds().getMinX(), read.getBounds().getMinX(), 0.0);
+        assertEquals(summary.getBounds().getMaxY(), read.getBounds().getMaxY(), 0.0);
+        assertNotNull(read.getBounds().getCoordinateReferenceSystem());
+    }
+
+    @Test
+    public void testDeclaredCodeUsedForPrj() throws Exception {
+        ShapefileSummary summary = ShapefileSummary.scan(shapefile);
+        summary.setDeclaredCRS("EPSG:900913");
+        summary.write(shapefile);
+        // the summary's code is returned without looking the PRJ up
+        assertEquals("EPSG:900913", ShapeFileEPSGHelper.getDeclaredEPSGFromPrj(new File(directory, SHAPEFILE + ".prj")));
+    }
+
+    @Test
+    public void testLatLonBounds() throws IOException {
+        ReferencedEnvelope latLon = ShapefileSummary.scan(shapefile).getLatLonBounds();
+        assertNotNull(latLon);
+        assertTrue(latLon.getMinX() >= -180 && latLon.getMaxX() <= 180);
+        assertTrue(latLon.getMinY() >= -90 && latLon.getMaxY() <= 90);
+        assertNull(new ShapefileSummary(0, 0, new ReferencedEnvelope()).getLatLonBounds());
+    }
+
+    private double[] readHeaderBounds() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(shapefile, "r");
+        try {
+            byte[] bytes = new byte[32];
+            file.seek(36);
+            file.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            return new double[] { buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble() };
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package gov.usgs.cida.gdp.dataaccess.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WKTEPSGCacheTest {
+
+    private static final String WKT = "PROJCS[\"NAD_1983_Albers\",GEOGCS[\"GCS_North_American_1983\",DATUM[\"D_North_American_1983\",SPHEROID[\"GRS_1980\",6378137.0,298.257222101]],PRIMEM[\"Greenwich\",0.0],UNIT[\"Degree\",0.0174532925199433]],PROJECTION[\"Albers\"],PARAMETER[\"False_Easting\",0.0],PARAMETER[\"False_Northing\",0.0],PARAMETER[\"Central_Meridian\",-96.0],PARAMETER[\"Standard_Parallel_1\",29.3],PARAMETER[\"Standard_Parallel_2\",45.3],PARAMETER[\"Latitude_Of_Origin\",23.0],UNIT[\"Meter\",1.0]]";
+    private static final String WKT_FORMATTED = "PROJCS[\"NAD_1983_Albers\",\n"
+            + "    GEOGCS[\"GCS_North_American_1983\",\n"
+            + "        DATUM[\"D_North_American_1983\",\n"
+            + "            SPHEROID[\"GRS_1980\", 6378137.0, 298.257222101]],\n"
+            + "        PRIMEM[\"Greenwich\", 0.0],\n"
+            + "        UNIT[\"Degree\", 0.0174532925199433]],\n"
+            + "    PROJECTION[\"Albers\"],\n"
+            + "    PARAMETER[\"False_Easting\", 0.0],\n"
+            + "    PARAMETER[\"False_Northing\", 0.0],\n"
+            + "    PARAMETER[\"Central_Meridian\", -96.0],\n"
+            + "    PARAMETER[\"Standard_Parallel_1\", 29.3],\n"
+            + "    PARAMETER[\"Standard_Parallel_2\", 45.3],\n"
+            + "    PARAMETER[\"Latitude_Of_Origin\", 23.0],\n"
+            + "    UNIT[\"Meter\", 1.0]]\n";
+    private static final String NAD83 = "GEOGCS[\"GCS_North_American_1983\",DATUM[\"D_North_American_1983\",SPHEROID[\"GRS_1980\",6378137.0,298.257222101]],PRIMEM[\"Greenwich\",0.0],UNIT[\"Degree\",0.0174532925199433]]";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("WKTEPSGCacheTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testLookupStored() {
+        File file = new File(directory, "epsg.properties");
+        WKTEPSGCache cache = new WKTEPSGCache(file);
+        assertFalse(cache.contains(WKT, false));
+        cache.put(WKT, false, "EPSG:5070");
+        assertTrue(file.exists());
+
+        WKTEPSGCache restarted = new WKTEPSGCache(file);
+        assertTrue(restarted.contains(WKT, false));
+        assertEquals("EPSG:5070", restarted.get(WKT, false));
+        assertFalse(restarted.contains(WKT, true));
+    }
+
+    @Test
+    public void testMissingCodeRemembered() {
+        WKTEPSGCache cache = new WKTEPSGCache(new File(directory, "epsg.properties"));
+        cache.put(WKT, true, null);
+        assertTrue(cache.contains(WKT, true));
+        assertNull(cache.get(WKT, true));
+    }
+
+    @Test
+    public void testFormattingIgnored() {
+        WKTEPSGCache cache = new WKTEPSGCache(new File(directory, "epsg.properties"));
+        cache.put(WKT, false, "EPSG:5070");
+        assertEquals("EPSG:5070", cache.get(WKT_FORMATTED, false));
+        assertEquals(WKTEPSGCache.normalize(WKT), WKTEPSGCache.normalize(WKT_FORMATTED));
+        // names are kept as written
+        assertFalse(WKTEPSGCache.normalize("GEOGCS[\"A B\"]").equals(WKTEPSGCache.normalize("GEOGCS[\"AB\"]")));
+    }
+
+    @Test
+    public void testSeeded() {
+        File file = new File(directory, "epsg.properties");
+        WKTEPSGCache cache = new WKTEPSGCache(file);
+        assertTrue(cache.contains(NAD83, false));
+        assertTrue(cache.contains(NAD83, true));
+        assertEquals("EPSG:4269", cache.get(NAD83, false));
+        // seeds are not copied to the store
+        assertFalse(file.exists());
+    }
+}
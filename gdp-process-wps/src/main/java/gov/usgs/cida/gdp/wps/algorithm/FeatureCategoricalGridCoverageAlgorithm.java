@@ -21,11 +21,12 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.operation.TransformException;
 
-import gov.usgs.cida.gdp.constants.AppConstant;
+import gov.usgs.cida.gdp.utilities.FileLifecycleRegistry;
 import gov.usgs.cida.gdp.coreprocessing.Delimiter;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.FeatureCategoricalGridCoverage;
 import gov.usgs.cida.gdp.wps.binding.CSVFileBinding;
 import gov.usgs.cida.gdp.wps.binding.GMLStreamingFeatureCollectionBinding;
+import gov.usgs.cida.gdp.wps.util.GridDatasetPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ucar.ma2.InvalidRangeException;
@@ -38,7 +39,7 @@ import ucar.nc2.dt.GridDatatype;
 @Algorithm(
     version="1.0.0",
     title="Categorical Coverage Fraction",
-    abstrakt="This processing service is used with categorical gridded data to assess the percent coverage of each category for a set of features. This service does not process gridded time series. Using the feature dataset bounding-box, a subset of the gridded dataset is requested from the remote gridded data server. The location of each grid-cell center is then projected to the feature dataset coordinate reference system. For each grid-cell in the subsetted grid, the grid-cell center is tested for inclusion in each feature in the feature dataset. If the grid-cell center is in a given feature, the count for that cell's category is incremented for that feature. After all the grid-cell centers are processed the coverage fraction for each category is calculated for each feature.")
+    abstrakt="This processing service is used with categorical gridded data to assess the percent coverage of each category for a set of features. Gridded time series are processed one time step at a time. Using the feature dataset bounding-box, a subset of the gridded dataset is requested from the remote gridded data server. The location of each grid-cell center is then projected to the feature dataset coordinate reference system. For each grid-cell in the subsetted grid, the grid-cell center is tested for inclusion in each feature in the feature dataset. If the grid-cell center is in a given feature, the count for that cell's category is incremented for that feature. If area weighting is turned on, each grid-cell intersecting a feature instead adds the fraction of its area inside the feature to its category. After all the grid-cell centers are processed the coverage fraction for each category is calculated for each feature.")
 public class FeatureCategoricalGridCoverageAlgorithm extends AbstractAnnotatedAlgorithm {
     private static final Logger log = LoggerFactory.getLogger(FeatureCategoricalGridCoverageAlgorithm.class);
     private FeatureCollection<SimpleFeatureType,SimpleFeature> featureCollection;
@@ -46,6 +47,7 @@ public class FeatureCategoricalGridCoverageAlgorithm extends AbstractAnnotatedAl
     private URI datasetURI;
     private List<String> datasetId;
     private boolean requireFullCoverage = true;
+    private boolean areaWeighted = false;
     private Delimiter delimiter;
 
     private File output;
@@ -101,6 +103,15 @@ public class FeatureCategoricalGridCoverageAlgorithm extends AbstractAnnotatedAl
         this.requireFullCoverage = requireFullCoverage;
     }
 
+    @LiteralDataInput(
+            identifier=GDPAlgorithmConstants.AREA_WEIGHTED_IDENTIFIER,
+            title=GDPAlgorithmConstants.AREA_WEIGHTED_TITLE,
+            abstrakt=GDPAlgorithmConstants.AREA_WEIGHTED_ABSTRACT,
+            defaultValue="false")
+    public void setAreaWeighted(boolean areaWeighted) {
+        this.areaWeighted = areaWeighted;
+    }
+
     @LiteralDataInput(
         identifier=GDPAlgorithmConstants.DELIMITER_IDENTIFIER,
         title=GDPAlgorithmConstants.DELIMITER_TITLE,
@@ -122,14 +133,17 @@ public class FeatureCategoricalGridCoverageAlgorithm extends AbstractAnnotatedAl
     public void process() {
 //        FeatureDataset featureDataset = null;
         BufferedWriter writer = null;
+        GridDatasetPool.Handle gridDatasetHandle = null;
 
         try {
             String extension = (delimiter == null) ? Delimiter.getDefault().extension : delimiter.extension;
-            output = File.createTempFile(getClass().getSimpleName(), extension, new File(AppConstant.WORK_LOCATION.getValue()));
+            output = FileLifecycleRegistry.getInstance().createTempFile(getClass().getSimpleName(), extension);
             writer = new BufferedWriter(new FileWriter(output));
 
+            gridDatasetHandle = GDPAlgorithmUtil.acquireGridDataSet(datasetURI);
             for (String currentDatasetId : datasetId) {
                 GridDatatype gridDatatype = GDPAlgorithmUtil.generateGridDataType(
+                        gridDatasetHandle,
                         datasetURI,
                         currentDatasetId,
                         featureCollection.getBounds(), requireFullCoverage);
@@ -142,12 +156,17 @@ public class FeatureCategoricalGridCoverageAlgorithm extends AbstractAnnotatedAl
                         gridDatatype,
                         writer,
                         delimiter == null ? Delimiter.getDefault() : delimiter,
-                        requireFullCoverage);
+                        requireFullCoverage,
+                        areaWeighted);
             }
 
         } catch (InvalidRangeException e) {
             throw new RuntimeException(e);
         } catch (IOException e) {
+            // a read error may have broken the dataset, it is not pooled again
+            if (gridDatasetHandle != null) {
+                gridDatasetHandle.invalidate();
+            }
             throw new RuntimeException(e);
         } catch (FactoryException e) {
             throw new RuntimeException(e);
@@ -158,6 +177,7 @@ public class FeatureCategoricalGridCoverageAlgorithm extends AbstractAnnotatedAl
         } finally {
 //            if (featureDataset != null) try { featureDataset.close(); } catch (IOException e) { }
             IOUtils.closeQuietly(writer);
+            IOUtils.closeQuietly(gridDatasetHandle);
         }
     }
     
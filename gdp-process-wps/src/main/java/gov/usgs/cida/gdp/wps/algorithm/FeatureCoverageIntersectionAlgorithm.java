@@ -14,6 +14,7 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
 import gov.usgs.cida.gdp.constants.AppConstant;
+import gov.usgs.cida.gdp.utilities.FileLifecycleRegistry;
 import gov.usgs.cida.gdp.wps.binding.GMLStreamingFeatureCollectionBinding;
 import gov.usgs.cida.gdp.wps.binding.GeoTIFFFileBinding;
 import gov.usgs.cida.gdp.wps.util.WCSUtil;
@@ -32,6 +33,7 @@ public class FeatureCoverageIntersectionAlgorithm extends AbstractAnnotatedAlgor
     private URI datasetURI;
     private String datasetId;
     private boolean requireFullCoverage = true;
+    private double targetResolution = Double.NaN;
 
     private File output;
 
@@ -69,6 +71,15 @@ public class FeatureCoverageIntersectionAlgorithm extends AbstractAnnotatedAlgor
         this.requireFullCoverage = requireFullCoverage;
     }
 
+    @LiteralDataInput(
+            identifier=GDPAlgorithmConstants.TARGET_RESOLUTION_IDENTIFIER,
+            title=GDPAlgorithmConstants.TARGET_RESOLUTION_TITLE,
+            abstrakt=GDPAlgorithmConstants.TARGET_RESOLUTION_ABSTRACT,
+            minOccurs=0)
+    public void setTargetResolution(double targetResolution) {
+        this.targetResolution = targetResolution;
+    }
+
     @ComplexDataOutput(identifier="OUTPUT",
             title="Output File",
             abstrakt="A GeoTIFF file containing the requested data.",
@@ -79,7 +90,8 @@ public class FeatureCoverageIntersectionAlgorithm extends AbstractAnnotatedAlgor
 
     @Execute
     public void process() {
-        output = WCSUtil.generateTIFFFile(datasetURI, datasetId, featureCollection.getBounds(), requireFullCoverage, AppConstant.WORK_LOCATION.getValue());
+        output = FileLifecycleRegistry.getInstance().register(
+                WCSUtil.generateTIFFFile(datasetURI, datasetId, featureCollection.getBounds(), requireFullCoverage, targetResolution, AppConstant.WORK_LOCATION.getValue()));
     }
 
 
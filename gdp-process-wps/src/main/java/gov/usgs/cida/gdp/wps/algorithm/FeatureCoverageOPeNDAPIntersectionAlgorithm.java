@@ -7,6 +7,7 @@ import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.apache.commons.io.IOUtils;
 import org.geotools.feature.FeatureCollection;
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.algorithm.annotation.ComplexDataInput;
@@ -23,13 +24,16 @@ import org.slf4j.LoggerFactory;
 
 import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellVisitor;
+import gov.usgs.cida.gdp.utilities.FileLifecycleRegistry;
 import gov.usgs.cida.gdp.utilities.GeoTiffUtils;
 import gov.usgs.cida.gdp.utilities.exception.GeoTiffUtilException;
 import gov.usgs.cida.gdp.wps.algorithm.heuristic.CoverageSizeAlgorithmHeuristic;
 import gov.usgs.cida.gdp.wps.algorithm.heuristic.exception.AlgorithmHeuristicException;
 import gov.usgs.cida.gdp.wps.binding.CoverageFileBinding;
 import gov.usgs.cida.gdp.wps.binding.GMLStreamingFeatureCollectionBinding;
+import gov.usgs.cida.gdp.wps.util.GridDatasetPool;
 import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFileWriter;
 import ucar.nc2.dt.GridDataset;
 
 /**
@@ -47,6 +51,7 @@ public class FeatureCoverageOPeNDAPIntersectionAlgorithm extends AbstractAnnotat
 	public enum OutputType {
 
 		netcdf,
+		netcdf4,
 		geotiff;
 	}
 
@@ -57,6 +62,7 @@ public class FeatureCoverageOPeNDAPIntersectionAlgorithm extends AbstractAnnotat
 	private Date timeStart;
 	private Date timeEnd;
 	private OutputType outputType;
+	private boolean tiledGeoTiff;
 
 	private File output;
 
@@ -127,6 +133,16 @@ public class FeatureCoverageOPeNDAPIntersectionAlgorithm extends AbstractAnnotat
 		}
 	}
 
+	@LiteralDataInput(
+			identifier = GDPAlgorithmConstants.TILED_GEOTIFF_IDENTIFIER,
+			title = GDPAlgorithmConstants.TILED_GEOTIFF_TITLE,
+			abstrakt = GDPAlgorithmConstants.TILED_GEOTIFF_ABSTRACT,
+			defaultValue = "false",
+			minOccurs = 0)
+	public void setTiledGeoTiff(boolean tiledGeoTiff) {
+		this.tiledGeoTiff = tiledGeoTiff;
+	}
+
 	/*
 	 *  This is a bit confusing, but similar to FeatureWeightedGridStatistics
 	 *  if OUTPUT_TYPE is geotiff, the mimeType of the output should be
@@ -143,9 +159,13 @@ public class FeatureCoverageOPeNDAPIntersectionAlgorithm extends AbstractAnnotat
 
 	@Execute
 	public void process() {
-		GridDataset gridDataSet = null;
+		GridDatasetPool.Handle gridDatasetHandle = null;
 		try {
-			gridDataSet = GDPAlgorithmUtil.generateGridDataSet(datasetURI);
+			gridDatasetHandle = GDPAlgorithmUtil.acquireGridDataSet(datasetURI);
+			if (gridDatasetHandle == null) {
+				throw new RuntimeException("Unable to open gridded dataset at " + datasetURI);
+			}
+			GridDataset gridDataSet = gridDatasetHandle.getGridDataset();
 			List<GridCellVisitor> heuristics = setupHeuristics(gridDataSet);
 			// Pretend that we are starting traversal using visitor
 			for (GridCellVisitor visitor : heuristics) {
@@ -159,10 +179,12 @@ public class FeatureCoverageOPeNDAPIntersectionAlgorithm extends AbstractAnnotat
 			 */
 			if (OutputType.geotiff == outputType) {
 				// TODO refactor GeoTiff collection builder to use visitor pattern
-				output = GeoTiffUtils.generateGeoTiffZipFromGrid(gridDataSet, datasetId, featureCollection, requireFullCoverage, timeStart, timeEnd, AppConstant.WORK_LOCATION.getValue());
+				GeoTiffUtils.TiffProfile profile = tiledGeoTiff ? GeoTiffUtils.TiffProfile.TILED_DEFLATE : GeoTiffUtils.TiffProfile.STRIPPED;
+				output = FileLifecycleRegistry.getInstance().register(
+						GeoTiffUtils.generateGeoTiffZipFromGrid(gridDataSet, datasetId, featureCollection, requireFullCoverage, timeStart, timeEnd, AppConstant.WORK_LOCATION.getValue(), profile));
 			} else {
 				// TODO refactor NetCDF grid writer to use visitor pattern
-				output = File.createTempFile(getClass().getSimpleName(), ".nc", new File(AppConstant.WORK_LOCATION.getValue()));
+				output = FileLifecycleRegistry.getInstance().createTempFile(getClass().getSimpleName(), ".nc");
 				NetCDFGridWriter.makeFile(
 						output.getAbsolutePath(),
 						gridDataSet,
@@ -171,12 +193,19 @@ public class FeatureCoverageOPeNDAPIntersectionAlgorithm extends AbstractAnnotat
 						timeStart,
 						timeEnd,
 						requireFullCoverage,
-						"Grid sub-setted by USGS/CIDA Geo Data Portal");
+						"Grid sub-setted by USGS/CIDA Geo Data Portal",
+						OutputType.netcdf4 == outputType ? NetcdfFileWriter.Version.netcdf4 : NetcdfFileWriter.Version.netcdf3,
+						// chunking properties only apply to, and can only fail, netcdf4 output
+						OutputType.netcdf4 == outputType ? createChunking() : null);
 			}
 		} catch (InvalidRangeException e) {
 			log.error("Error subsetting gridded data: ", e);
 			addError("Error subsetting gridded data: " + e.getMessage());
 		} catch (IOException e) {
+			// a read error may have broken the dataset, it is not pooled again
+			if (gridDatasetHandle != null) {
+				gridDatasetHandle.invalidate();
+			}
 			log.error("IO Error :", e);
 			addError("IO Error :" + e.getMessage());
 		} catch (FactoryException e) {
@@ -195,15 +224,18 @@ public class FeatureCoverageOPeNDAPIntersectionAlgorithm extends AbstractAnnotat
 			log.error("General Error: ", e);
 			addError("General Error: " + e.getMessage());
 		} finally {
-			if (gridDataSet != null) {
-				try {
-					gridDataSet.close();
-				} catch (IOException e) {
-				}
-			}
+			IOUtils.closeQuietly(gridDatasetHandle);
 		}
 	}
 
+	private GridChunking createChunking() {
+		return new GridChunking(
+				Integer.parseInt(AppConstant.NETCDF4_DEFLATE_LEVEL.getValue()),
+				Boolean.parseBoolean(AppConstant.NETCDF4_SHUFFLE.getValue()),
+				Long.parseLong(AppConstant.NETCDF4_CHUNK_BYTES.getValue()),
+				GridChunking.parseChunkShape(AppConstant.NETCDF4_CHUNK_SHAPE.getValue()));
+	}
+
 	private List<GridCellVisitor> setupHeuristics(GridDataset gridDataset) {
 		List<GridCellVisitor> heuristics = new LinkedList<>();
 		CoverageSizeAlgorithmHeuristic coverageSize = new CoverageSizeAlgorithmHeuristic(gridDataset, datasetId, featureCollection, timeStart, timeEnd, requireFullCoverage);
@@ -2,7 +2,7 @@ package gov.usgs.cida.gdp.wps.algorithm;
 
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import gov.usgs.cida.gdp.constants.AppConstant;
+import gov.usgs.cida.gdp.utilities.FileLifecycleRegistry;
 import gov.usgs.cida.gdp.coreprocessing.Delimiter;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.FeatureCoverageGridStatistics;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellVisitor;
@@ -13,6 +13,7 @@ import gov.usgs.cida.gdp.wps.algorithm.heuristic.SummaryOutputSizeAlgorithmHeuri
 import gov.usgs.cida.gdp.wps.algorithm.heuristic.TotalTimeAlgorithmHeuristic;
 import gov.usgs.cida.gdp.wps.binding.CSVFileBinding;
 import gov.usgs.cida.gdp.wps.binding.GMLStreamingFeatureCollectionBinding;
+import gov.usgs.cida.gdp.wps.util.GridDatasetPool;
 
 import static org.n52.wps.algorithm.annotation.LiteralDataInput.ENUM_COUNT;
 
@@ -186,20 +187,23 @@ public class FeatureGridStatisticsAlgorithm extends AbstractAnnotatedAlgorithm {
 	@Execute
 	public void process() {
 		BufferedWriter writer = null;
+		GridDatasetPool.Handle gridDatasetHandle = null;
 		try {
 			if (featureCollection.getSchema().getDescriptor(featureAttributeName) == null) {
 				addError("Attribute " + featureAttributeName + " not found in feature collection");
 				return;
 			}
 
-			output = File.createTempFile(getClass().getSimpleName(), delimiter.extension, new File(AppConstant.WORK_LOCATION.getValue()));
+			output = FileLifecycleRegistry.getInstance().createTempFile(getClass().getSimpleName(), delimiter.extension);
 			CountingOutputStream cos = new CountingOutputStream(new FileOutputStream(output));
 			writer = new BufferedWriter(new OutputStreamWriter(cos));
 
 			List<GridCellVisitor> heuristics = setupHeuristics(cos);
 			
+			gridDatasetHandle = GDPAlgorithmUtil.acquireGridDataSet(datasetURI);
 			for (String currentDatasetId : datasetId) {
 				GridDatatype gridDatatype = GDPAlgorithmUtil.generateGridDataType(
+						gridDatasetHandle,
 						datasetURI,
 						currentDatasetId,
 						featureCollection.getBounds(),
@@ -228,6 +232,10 @@ public class FeatureGridStatisticsAlgorithm extends AbstractAnnotatedAlgorithm {
 		} catch (InvalidRangeException e) {
 			addError("Error subsetting gridded data: " + e.getMessage());
 		} catch (IOException e) {
+			// a read error may have broken the dataset, it is not pooled again
+			if (gridDatasetHandle != null) {
+				gridDatasetHandle.invalidate();
+			}
 			addError("IO Error :" + e.getMessage());
 		} catch (FactoryException e) {
 			addError("Error initializing CRS factory: " + e.getMessage());
@@ -240,6 +248,7 @@ public class FeatureGridStatisticsAlgorithm extends AbstractAnnotatedAlgorithm {
 		} finally {
 //            if (featureDataset != null) try { featureDataset.close(); } catch (IOException e) { }
 			IOUtils.closeQuietly(writer);
+			IOUtils.closeQuietly(gridDatasetHandle);
 		}
 	}
 
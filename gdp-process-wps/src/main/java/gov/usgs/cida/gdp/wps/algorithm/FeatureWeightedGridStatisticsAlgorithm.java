@@ -30,7 +30,7 @@ import org.opengis.referencing.operation.TransformException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import gov.usgs.cida.gdp.constants.AppConstant;
+import gov.usgs.cida.gdp.utilities.FileLifecycleRegistry;
 import gov.usgs.cida.gdp.coreprocessing.Delimiter;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.FeatureCoverageWeightedGridStatistics;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellVisitor;
@@ -41,6 +41,7 @@ import gov.usgs.cida.gdp.wps.algorithm.heuristic.SummaryOutputSizeAlgorithmHeuri
 import gov.usgs.cida.gdp.wps.algorithm.heuristic.TotalTimeAlgorithmHeuristic;
 import gov.usgs.cida.gdp.wps.binding.CSVFileBinding;
 import gov.usgs.cida.gdp.wps.binding.GMLStreamingFeatureCollectionBinding;
+import gov.usgs.cida.gdp.wps.util.GridDatasetPool;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
 import ucar.nc2.dt.GridDatatype;
@@ -208,20 +209,23 @@ public class FeatureWeightedGridStatisticsAlgorithm extends AbstractAnnotatedAlg
 		}
 
 		BufferedWriter writer = null;
+		GridDatasetPool.Handle gridDatasetHandle = null;
 
 		try {
 			if (featureCollection.getSchema().getDescriptor(featureAttributeName) == null) {
 				addError("Attribute " + featureAttributeName + " not found in feature collection");
 				return;
 			}
-			output = File.createTempFile(getClass().getSimpleName(), delimiter.extension, new File(AppConstant.WORK_LOCATION.getValue()));
+			output = FileLifecycleRegistry.getInstance().createTempFile(getClass().getSimpleName(), delimiter.extension);
 			CountingOutputStream cos = new CountingOutputStream(new FileOutputStream(output));
 			writer = new BufferedWriter(new OutputStreamWriter(cos));
 
 			List<GridCellVisitor> heuristics = setupHeuristics(cos);
 			
+			gridDatasetHandle = GDPAlgorithmUtil.acquireGridDataSet(datasetURI);
 			for (String currentDatasetId : datasetId) {
 				GridDatatype gridDatatype = GDPAlgorithmUtil.generateGridDataType(
+						gridDatasetHandle,
 						datasetURI,
 						currentDatasetId,
 						featureCollection.getBounds(),
@@ -250,6 +254,10 @@ public class FeatureWeightedGridStatisticsAlgorithm extends AbstractAnnotatedAlg
 		} catch (InvalidRangeException e) {
 			addError("Error subsetting gridded data: " + e.getMessage());
 		} catch (IOException e) {
+			// a read error may have broken the dataset, it is not pooled again
+			if (gridDatasetHandle != null) {
+				gridDatasetHandle.invalidate();
+			}
 			addError("IO Error :" + e.getMessage());
 		} catch (FactoryException e) {
 			addError("Error initializing CRS factory: " + e.getMessage());
@@ -261,6 +269,7 @@ public class FeatureWeightedGridStatisticsAlgorithm extends AbstractAnnotatedAlg
 			addError("General Error: " + e.getMessage());
 		} finally {
 			IOUtils.closeQuietly(writer);
+			IOUtils.closeQuietly(gridDatasetHandle);
 		}
 	}
 
@@ -41,6 +41,14 @@ public class GDPAlgorithmConstants {
     public final static String REQUIRE_FULL_COVERAGE_TITLE = "Require Full Coverage";
     public final static String REQUIRE_FULL_COVERAGE_ABSTRACT = "If turned on, the service will require that the dataset of interest fully cover the polygon analysis zone data.";
     
+    public final static String TARGET_RESOLUTION_IDENTIFIER = "TARGET_RESOLUTION";
+    public final static String TARGET_RESOLUTION_TITLE = "Target Resolution";
+    public final static String TARGET_RESOLUTION_ABSTRACT = "Cell size, in units of the dataset's coordinate reference system, to resample the dataset to.  Only used when coarser than the dataset, the dataset's own cell size is used if not given.";
+    
+    public final static String AREA_WEIGHTED_IDENTIFIER = "AREA_WEIGHTED";
+    public final static String AREA_WEIGHTED_TITLE = "Area Weighted";
+    public final static String AREA_WEIGHTED_ABSTRACT = "If turned on, each grid cell counts for the fraction of its area inside a feature rather than only when its center is inside.";
+    
     public final static String TIME_START_IDENTIFIER = "TIME_START";
     public final static String TIME_START_TITLE = "Time Start";
     public final static String TIME_START_ABSTRACT = "The date to begin analysis.";
@@ -52,7 +60,11 @@ public class GDPAlgorithmConstants {
     
     public final static String OUTPUT_TYPE_IDENTIFIER = "OUTPUT_TYPE";
     public final static String OUTPUT_TYPE_TITLE = "Output Format Type";
-    public final static String OUTPUT_TYPE_ABSTRACT = "The output type format for this request.  Current implementations: \"netcdf\" and \"geotiff\".";
+    public final static String OUTPUT_TYPE_ABSTRACT = "The output type format for this request.  Current implementations: \"netcdf\", \"netcdf4\" (chunked and compressed) and \"geotiff\".";
+    
+    public final static String TILED_GEOTIFF_IDENTIFIER = "TILED_GEOTIFF";
+    public final static String TILED_GEOTIFF_TITLE = "Tiled GeoTIFF";
+    public final static String TILED_GEOTIFF_ABSTRACT = "If turned on, \"geotiff\" output is written as tiled, deflate compressed GeoTIFF files.";
     
     
     public final static String DELIMITER_IDENTIFIER = "DELIMITER";
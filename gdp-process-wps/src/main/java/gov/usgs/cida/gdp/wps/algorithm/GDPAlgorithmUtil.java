@@ -2,6 +2,8 @@ package gov.usgs.cida.gdp.wps.algorithm;
 
 import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridUtility;
+import gov.usgs.cida.gdp.utilities.FileLifecycleRegistry;
+import gov.usgs.cida.gdp.wps.util.GridDatasetPool;
 import gov.usgs.cida.gdp.wps.util.WCSUtil;
 
 import java.io.File;
@@ -33,8 +35,46 @@ public abstract class GDPAlgorithmUtil {
 
     private static final Logger log = LoggerFactory.getLogger(GDPAlgorithmUtil.class);
 
+    private static GridDatasetPool gridDatasetPool;
+
     private GDPAlgorithmUtil() { }
 
+    private static synchronized GridDatasetPool getGridDatasetPool() {
+        if (gridDatasetPool == null) {
+            gridDatasetPool = GridDatasetPool.createFromConfiguration(new GridDatasetPool.GridDatasetSource() {
+                @Override
+                public GridDataset open(URI datasetURI) {
+                    return generateGridDataSet(datasetURI);
+                }
+
+                @Override
+                public boolean isHealthy(GridDataset gridDataset) {
+                    return GridDatasetPool.readsFirstElement(gridDataset);
+                }
+            });
+        }
+        return gridDatasetPool;
+    }
+
+    /**
+     * Gets a handle on a pooled OPeNDAP dataset for the job's exclusive use,
+     * the handle must be closed once the job is done with the dataset.  Do not
+     * close the dataset itself.
+     *
+     * @param datasetURI dataset to open
+     * @return handle on the pooled dataset, null if datasetURI is not an
+     * OPeNDAP endpoint
+     */
+    public static GridDatasetPool.Handle acquireGridDataSet(URI datasetURI) throws IOException {
+        if (!"dods".equals(datasetURI.getScheme())) {
+            return null;
+        }
+        return getGridDatasetPool().acquire(datasetURI);
+    }
+
+    /**
+     * Opens a new dataset, the caller is responsible for closing it.
+     */
     public static GridDataset generateGridDataSet(URI datasetURI) {
         int tries = 0;
         GridDataset gridDataset = null;
@@ -67,6 +107,17 @@ public abstract class GDPAlgorithmUtil {
         return gridDataset;
     }
 
+    /**
+     * @param gridDatasetHandle pooled dataset from {@link #acquireGridDataSet(URI)},
+     * null to use datasetURI directly
+     */
+    public static GridDatatype generateGridDataType(GridDatasetPool.Handle gridDatasetHandle, URI datasetURI, String datasetId, ReferencedEnvelope featureBounds, boolean requireFullCoverage) {
+        if (gridDatasetHandle == null) {
+            return generateGridDataType(datasetURI, datasetId, featureBounds, requireFullCoverage);
+        }
+        return generateGridDataType(gridDatasetHandle.getGridDataset(), datasetURI, datasetId, featureBounds, requireFullCoverage);
+    }
+
     public static GridDatatype generateGridDataType(URI datasetURI, String datasetId, ReferencedEnvelope featureBounds, boolean requireFullCoverage) {
         int tries = 0;
         GridDatatype gridDatatype = null;
@@ -75,29 +126,10 @@ public abstract class GDPAlgorithmUtil {
                 FeatureDataset featureDataset = null;
                 String featureDatasetScheme = datasetURI.getScheme();
                 if ("dods".equals(featureDatasetScheme)) {
-                    GridDataset gridDataSet = generateGridDataSet(datasetURI);
-                    gridDatatype = gridDataSet.findGridDatatype(datasetId);
-                    if (gridDatatype == null) {
-                        throw new RuntimeException("Unable to open dataset at " + datasetURI + " with identifier " + datasetId);
-                    }
-                    try {
-                        Range[] ranges = GridUtility.getXYRangesFromBoundingBox(featureBounds, gridDatatype.getCoordinateSystem(), requireFullCoverage);
-                        gridDatatype = gridDatatype.makeSubset(
-                            null,       /* runtime */
-                            null,       /* ensemble */
-                            null,       /* time */
-                            null,       /* z */
-                            ranges[1]   /* y */ ,
-                            ranges[0]   /* x */);
-                    } catch (InvalidRangeException ex) {
-                        log.error("Error generating grid data type", ex);
-                    } catch (TransformException ex) {
-                        log.error("Error generating grid data type", ex);
-                    } catch (FactoryException ex) {
-                        log.error("Error generating grid data type", ex);
-                    }
+                    gridDatatype = generateGridDataType(generateGridDataSet(datasetURI), datasetURI, datasetId, featureBounds, requireFullCoverage);
                 } else if ("http".equals(featureDatasetScheme)) {
-                    File tiffFile = WCSUtil.generateTIFFFile(datasetURI, datasetId, featureBounds, requireFullCoverage, AppConstant.WORK_LOCATION.getValue());
+                    File tiffFile = FileLifecycleRegistry.getInstance().register(
+                            WCSUtil.generateTIFFFile(datasetURI, datasetId, featureBounds, requireFullCoverage, AppConstant.WORK_LOCATION.getValue()));
                     featureDataset = FeatureDatasetFactoryManager.open(
                             FeatureType.GRID,
                             tiffFile.getCanonicalPath(),
@@ -123,6 +155,30 @@ public abstract class GDPAlgorithmUtil {
         return gridDatatype;
     }
 
+    private static GridDatatype generateGridDataType(GridDataset gridDataSet, URI datasetURI, String datasetId, ReferencedEnvelope featureBounds, boolean requireFullCoverage) {
+        GridDatatype gridDatatype = gridDataSet.findGridDatatype(datasetId);
+        if (gridDatatype == null) {
+            throw new RuntimeException("Unable to open dataset at " + datasetURI + " with identifier " + datasetId);
+        }
+        try {
+            Range[] ranges = GridUtility.getXYRangesFromBoundingBox(featureBounds, gridDatatype.getCoordinateSystem(), requireFullCoverage);
+            gridDatatype = gridDatatype.makeSubset(
+                null,       /* runtime */
+                null,       /* ensemble */
+                null,       /* time */
+                null,       /* z */
+                ranges[1]   /* y */ ,
+                ranges[0]   /* x */);
+        } catch (InvalidRangeException ex) {
+            log.error("Error generating grid data type", ex);
+        } catch (TransformException ex) {
+            log.error("Error generating grid data type", ex);
+        } catch (FactoryException ex) {
+            log.error("Error generating grid data type", ex);
+        }
+        return gridDatatype;
+    }
+
     public static Range generateTimeRange(GridDatatype GridDatatype, Date timeStart, Date timeEnd) {
         CoordinateAxis1DTime timeAxis = GridDatatype.getCoordinateSystem().getTimeAxis1D();
         Range timeRange = null;
@@ -0,0 +1,140 @@
+package gov.usgs.cida.gdp.wps.algorithm;
+
+import ucar.nc2.Variable;
+import ucar.nc2.jni.netcdf.Nc4Chunking;
+
+/**
+ * Chunking for NetCDF-4 grid subsets that are mostly read along the time
+ * axis.  Variables of rank 3 or more are taken to be (time, [z,] y, x): a
+ * chunk holds as many time steps as fit next to a small square of cells, and
+ * the square grows when the time axis is short.  Chunks are kept near the
+ * target size so map (single time step) reads stay reasonable as well.
+ *
+ * A fixed chunk shape can be given instead, it is used for every variable of
+ * the same rank and clipped to the variable's shape.
+ */
+public class GridChunking implements Nc4Chunking {
+
+    public static final int DEFAULT_DEFLATE_LEVEL = 4;
+    public static final long DEFAULT_CHUNK_BYTES = 1024 * 1024;
+
+    /*
+     * Smallest square of cells a time series chunk covers, a single cell
+     * would make reading a whole time step touch every chunk in the file.
+     */
+    private static final int MIN_SPATIAL_EDGE = 16;
+
+    /*
+     * Variables smaller than this are stored contiguous and uncompressed.
+     */
+    private static final long MIN_CHUNKED_BYTES = 64 * 1024;
+
+    private final int deflateLevel;
+    private final boolean shuffle;
+    private final long chunkBytes;
+    private final int[] chunkShape;
+
+    public GridChunking() {
+        this(DEFAULT_DEFLATE_LEVEL, true, DEFAULT_CHUNK_BYTES, null);
+    }
+
+    /**
+     * @param deflateLevel 0 (no compression) to 9
+     * @param shuffle true to apply the shuffle filter before deflate
+     * @param chunkBytes target size of a chunk in bytes
+     * @param chunkShape fixed chunk shape, null to compute time series
+     * friendly chunks
+     */
+    public GridChunking(int deflateLevel, boolean shuffle, long chunkBytes, int[] chunkShape) {
+        if (deflateLevel < 0 || deflateLevel > 9) {
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9, was " + deflateLevel);
+        }
+        if (chunkBytes <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive, was " + chunkBytes);
+        }
+        this.deflateLevel = deflateLevel;
+        this.shuffle = shuffle;
+        this.chunkBytes = chunkBytes;
+        this.chunkShape = chunkShape == null ? null : chunkShape.clone();
+    }
+
+    /**
+     * Parses a comma separated chunk shape such as "365,16,16".
+     *
+     * @param chunkShape shape to parse, null or empty for none
+     * @return the shape, null if none was given
+     */
+    public static int[] parseChunkShape(String chunkShape) {
+        if (chunkShape == null || chunkShape.trim().isEmpty()) {
+            return null;
+        }
+        String[] parts = chunkShape.split(",");
+        int[] shape = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            shape[i] = Integer.parseInt(parts[i].trim());
+            if (shape[i] <= 0) {
+                throw new IllegalArgumentException("Chunk lengths must be positive: " + chunkShape);
+            }
+        }
+        return shape;
+    }
+
+    @Override
+    public boolean isChunked(Variable v) {
+        if (v.getRank() == 0) {
+            return false;
+        }
+        return v.isUnlimited() || v.getSize() * v.getElementSize() >= MIN_CHUNKED_BYTES;
+    }
+
+    @Override
+    public long[] computeChunking(Variable v) {
+        int[] shape = v.getShape();
+        int rank = shape.length;
+        long[] chunk = new long[rank];
+
+        if (chunkShape != null && chunkShape.length == rank) {
+            for (int d = 0; d < rank; d++) {
+                chunk[d] = Math.min(chunkShape[d], length(shape[d]));
+            }
+            return chunk;
+        }
+
+        long elements = Math.max(1, chunkBytes / Math.max(1, v.getElementSize()));
+        if (rank == 1) {
+            chunk[0] = Math.min(length(shape[0]), elements);
+            return chunk;
+        }
+
+        long spatial = elements;
+        if (rank >= 3) {
+            long timeSteps = Math.max(1, elements / (MIN_SPATIAL_EDGE * MIN_SPATIAL_EDGE));
+            chunk[0] = Math.min(length(shape[0]), timeSteps);
+            for (int d = 1; d < rank - 2; d++) {
+                chunk[d] = 1;
+            }
+            spatial = Math.max(1, elements / chunk[0]);
+        }
+        long edge = Math.max(1, (long) Math.sqrt(spatial));
+        chunk[rank - 2] = Math.min(length(shape[rank - 2]), edge);
+        chunk[rank - 1] = Math.min(length(shape[rank - 1]), Math.max(1, spatial / chunk[rank - 2]));
+        return chunk;
+    }
+
+    @Override
+    public int getDeflateLevel(Variable v) {
+        return deflateLevel;
+    }
+
+    @Override
+    public boolean isShuffle(Variable v) {
+        return shuffle;
+    }
+
+    /*
+     * Unlimited dimensions may still be empty while the file is defined.
+     */
+    private static long length(int length) {
+        return length > 0 ? length : Integer.MAX_VALUE;
+    }
+}
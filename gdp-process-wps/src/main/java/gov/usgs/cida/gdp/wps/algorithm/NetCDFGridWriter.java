@@ -6,17 +6,21 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.geotools.feature.FeatureCollection;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.operation.TransformException;
 
+import ucar.ma2.Array;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
 import ucar.nc2.Attribute;
-import ucar.nc2.FileWriter;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFileWriter;
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.CoordinateAxis;
 import ucar.nc2.dataset.CoordinateTransform;
@@ -24,12 +28,28 @@ import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.GridDataset;
 import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.jni.netcdf.Nc4Chunking;
+import ucar.nc2.jni.netcdf.Nc4Iosp;
 
 public class NetCDFGridWriter {
 
     static private org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(NetCDFGridWriter.class);
 
-    @SuppressWarnings("deprecation")
+    /*
+     * Upper bound on the data read from the source and held in memory at once
+     * while copying a variable.
+     */
+    private static final long WRITE_BLOCK_BYTES = 64L * 1024L * 1024L;
+
+    /*
+     * Beyond this classic format offsets overflow and the 64-bit offset
+     * variant has to be used.
+     */
+    private static final long CLASSIC_FORMAT_MAX_BYTES = Integer.MAX_VALUE;
+
+    /**
+     * Writes a classic (NetCDF-3) file.
+     */
 	public static void makeFile(
             String location,
             GridDataset gridDataset,
@@ -40,31 +60,41 @@ public class NetCDFGridWriter {
             boolean requireFullCoverage,
             String metaDataString)
             throws IOException, InvalidRangeException, TransformException, FactoryException {
+        makeFile(location, gridDataset, gridVariableList, featureCollection, dateTimeStart, dateTimeEnd,
+                requireFullCoverage, metaDataString, NetcdfFileWriter.Version.netcdf3, null);
+    }
 
-        FileWriter writer = new FileWriter(location, false);
-        NetcdfDataset netcdfDataset = (NetcdfDataset) gridDataset.getNetcdfFile();
-
-        // global attributes
-        Attribute historyAttribute = null;
-        for (Attribute att : gridDataset.getGlobalAttributes()) {
-            String attributeName = att.getName();
-            if ("history".equalsIgnoreCase(attributeName)) {
-                // defer write as we want to concatenate to existing attribute.
-                historyAttribute = att;  
-            } else {
-                writer.writeGlobalAttribute(att);
-            }
-        }
+    /**
+     * Writes the subset of each grid variable, along with its coordinate axes
+     * and transforms, to a new file.  Data is copied in blocks of at most
+     * 64 MB, aligned with the chunks when writing NetCDF-4 so each chunk is
+     * compressed only once.
+     *
+     * NetCDF-4 needs the netCDF C library, when it can not be loaded a
+     * NetCDF-3 (64-bit offset if needed) file is written instead.
+     *
+     * @param version format to write
+     * @param chunking chunking and compression for NetCDF-4, null for the
+     * defaults of {@link GridChunking}
+     * @return format actually written
+     */
+    public static NetcdfFileWriter.Version makeFile(
+            String location,
+            GridDataset gridDataset,
+            List<String> gridVariableList,
+            FeatureCollection<?, ?> featureCollection,
+            Date dateTimeStart,
+            Date dateTimeEnd,
+            boolean requireFullCoverage,
+            String metaDataString,
+            NetcdfFileWriter.Version version,
+            Nc4Chunking chunking)
+            throws IOException, InvalidRangeException, TransformException, FactoryException {
 
-        historyAttribute = historyAttribute == null ?  
-            new Attribute("history", metaDataString) :  
-            new Attribute(historyAttribute.getName(),
-                    historyAttribute.getStringValue() + "/n" + metaDataString);
-        writer.writeGlobalAttribute(historyAttribute);
+        NetcdfDataset netcdfDataset = (NetcdfDataset) gridDataset.getNetcdfFile();
 
         List<Variable> variableList = new ArrayList<Variable>();
         Set<String> variableNameSet = new HashSet<String>();
-        List<CoordinateAxis> coordinateAxisList = new ArrayList<CoordinateAxis>();
 
         // add each desired Grid to the new file
         long total_size = 0;
@@ -76,7 +106,7 @@ public class NetCDFGridWriter {
 
                 // generate sub-set
                 Range tRange = GDPAlgorithmUtil.generateTimeRange(gridDataType, dateTimeStart, dateTimeEnd);
-                Range[] xyRanges = GridUtility.getXYRangesFromBoundingBox(featureCollection.getBounds(), gridCoordSystem, requireFullCoverage); 
+                Range[] xyRanges = GridUtility.getXYRangesFromBoundingBox(featureCollection.getBounds(), gridCoordSystem, requireFullCoverage);
                 gridDataType = gridDataType.makeSubset(null, null, tRange, null, xyRanges[1], xyRanges[0]);
 
                 Variable gridV = (Variable) gridDataType.getVariable();
@@ -86,9 +116,9 @@ public class NetCDFGridWriter {
                 // add coordinate axes
                 gridCoordSystem = gridDataType.getCoordinateSystem();
                 for (CoordinateAxis axis : gridCoordSystem.getCoordinateAxes()) {
-                    if (variableNameSet.add(axis.getName())) {
+                    if (variableNameSet.add(axis.getShortName())) {
                         variableList.add(axis);
-                        coordinateAxisList.add(axis);
+                        total_size += axis.getSize() * axis.getElementSize();
                     }
                 }
 
@@ -102,9 +132,137 @@ public class NetCDFGridWriter {
             }
         }
 
-        writer.writeVariables(variableList);
+        if (version.useJniIosp() && !Nc4Iosp.isClibraryPresent()) {
+            LOGGER.warn("NetCDF-4 requested but the netCDF C library is not available, writing NetCDF-3 to " + location);
+            version = NetcdfFileWriter.Version.netcdf3;
+        }
+        if (chunking == null) {
+            chunking = new GridChunking();
+        }
+
+        NetcdfFileWriter writer = version.isNetdf4format() ?
+                NetcdfFileWriter.createNew(version, location, chunking) :
+                NetcdfFileWriter.createNew(version, location);
+        boolean complete = false;
+        try {
+            writer.setFill(false);
+            if (!version.isNetdf4format() && total_size > CLASSIC_FORMAT_MAX_BYTES) {
+                writer.setLargeFile(true);
+            }
+
+            // global attributes
+            Attribute historyAttribute = null;
+            for (Attribute att : gridDataset.getGlobalAttributes()) {
+                String attributeName = att.getName();
+                if ("history".equalsIgnoreCase(attributeName)) {
+                    // defer write as we want to concatenate to existing attribute.
+                    historyAttribute = att;
+                } else {
+                    writer.addGroupAttribute(null, att);
+                }
+            }
+
+            historyAttribute = historyAttribute == null ?
+                new Attribute("history", metaDataString) :
+                new Attribute(historyAttribute.getName(),
+                        historyAttribute.getStringValue() + "/n" + metaDataString);
+            writer.addGroupAttribute(null, historyAttribute);
+
+            // dimensions are shared by name, the first variable using one defines it
+            Map<String, Dimension> dimensionMap = new LinkedHashMap<String, Dimension>();
+            Map<Variable, Variable> targetMap = new LinkedHashMap<Variable, Variable>();
+            for (Variable source : variableList) {
+                List<Dimension> dimensions = new ArrayList<Dimension>();
+                for (Dimension sourceDimension : source.getDimensions()) {
+                    Dimension dimension = dimensionMap.get(sourceDimension.getShortName());
+                    if (dimension == null) {
+                        dimension = writer.addDimension(null, sourceDimension.getShortName(), sourceDimension.getLength(),
+                                true, sourceDimension.isUnlimited(), false);
+                        dimensionMap.put(sourceDimension.getShortName(), dimension);
+                    }
+                    dimensions.add(dimension);
+                }
+                Variable target = writer.addVariable(null, source.getShortName(), source.getDataType(), dimensions);
+                for (Attribute att : source.getAttributes()) {
+                    writer.addVariableAttribute(target, att);
+                }
+                targetMap.put(source, target);
+            }
+
+            writer.create();
+
+            for (Map.Entry<Variable, Variable> entry : targetMap.entrySet()) {
+                long[] chunk = null;
+                if (version.isNetdf4format() && chunking.isChunked(entry.getValue())) {
+                    chunk = chunking.computeChunking(entry.getValue());
+                }
+                copyVariable(writer, entry.getKey(), entry.getValue(), chunk);
+            }
+            complete = true;
+        } finally {
+            if (complete) {
+                writer.close();
+            } else {
+                writer.abort();
+            }
+        }
+        return version;
+    }
+
+    /*
+     * Copies the variable in blocks, shrinking the outermost dimensions first
+     * and keeping block edges on chunk boundaries when there are chunks.
+     */
+    private static void copyVariable(NetcdfFileWriter writer, Variable source, Variable target, long[] chunk)
+            throws IOException, InvalidRangeException {
+        int[] shape = source.getShape();
+        int rank = shape.length;
+        if (rank == 0 || source.getSize() == 0) {
+            if (rank == 0) {
+                writer.write(target, source.read());
+            }
+            return;
+        }
+
+        int[] block = blockShape(shape, source.getElementSize(), chunk);
+        int[] origin = new int[rank];
+        int[] size = new int[rank];
+        while (true) {
+            for (int d = 0; d < rank; d++) {
+                size[d] = Math.min(block[d], shape[d] - origin[d]);
+            }
+            Array data = source.read(origin, size);
+            writer.write(target, origin, data);
 
-        writer.finish();
+            int d = rank - 1;
+            while (d >= 0) {
+                origin[d] += block[d];
+                if (origin[d] < shape[d]) {
+                    break;
+                }
+                origin[d] = 0;
+                d--;
+            }
+            if (d < 0) {
+                break;
+            }
+        }
+    }
+
+    static int[] blockShape(int[] shape, int elementSize, long[] chunk) {
+        int[] block = shape.clone();
+        long bytes = elementSize;
+        for (int length : shape) {
+            bytes *= length;
+        }
+        for (int d = 0; d < block.length && bytes > WRITE_BLOCK_BYTES; d++) {
+            long innerBytes = bytes / block[d];
+            int step = chunk == null ? 1 : (int) Math.min(chunk[d], block[d]);
+            int fit = (int) Math.min(block[d], WRITE_BLOCK_BYTES / innerBytes);
+            block[d] = Math.max(step, fit - fit % step);
+            bytes = innerBytes * block[d];
+        }
+        return block;
     }
-    
+
 }
@@ -12,7 +12,7 @@ import org.n52.wps.io.datahandler.generator.AbstractGenerator;
  *
  * @author tkunicki
  */
-public class CSVGenerator extends AbstractGenerator {
+public class CSVGenerator extends AbstractGenerator implements FileGenerator {
     
     public CSVGenerator() {
         supportedIDataTypes.add(CSVFileBinding.class);
@@ -29,4 +29,15 @@ public class CSVGenerator extends AbstractGenerator {
         }
         return null;
     }
+
+    @Override
+    public File generateFile(IData data, String mimeType, String schema) throws IOException {
+        if (data instanceof CSVFileBinding) {
+            Object payload = data.getPayload();
+            if (payload instanceof File) {
+                return (File) payload;
+            }
+        }
+        return null;
+    }
 }
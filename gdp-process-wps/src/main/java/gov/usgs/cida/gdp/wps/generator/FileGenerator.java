@@ -0,0 +1,23 @@
+package gov.usgs.cida.gdp.wps.generator;
+
+import java.io.File;
+import java.io.IOException;
+import org.n52.wps.io.data.IData;
+
+/**
+ * Implemented by generators whose output already exists as a file on disk so
+ * the result store can take over the file instead of copying it through
+ * {@link org.n52.wps.io.IGenerator#generateStream(IData, String, String)}.
+ */
+public interface FileGenerator {
+
+    /**
+     * @param data output of the algorithm
+     * @param mimeType requested mime-type
+     * @param schema requested schema
+     * @return file holding the generated output, null if the data is not
+     * backed by a file and must be streamed
+     * @throws IOException
+     */
+    public File generateFile(IData data, String mimeType, String schema) throws IOException;
+}
@@ -12,7 +12,7 @@ import org.n52.wps.io.datahandler.generator.AbstractGenerator;
  *
  * @author tkunicki
  */
-public class GeoTIFFGenerator extends AbstractGenerator {
+public class GeoTIFFGenerator extends AbstractGenerator implements FileGenerator {
 
     public GeoTIFFGenerator() {
         supportedIDataTypes.add(GeoTIFFFileBinding.class);
@@ -29,4 +29,15 @@ public class GeoTIFFGenerator extends AbstractGenerator {
         }
         return null;
     }
+
+    @Override
+    public File generateFile(IData data, String mimeType, String schema) throws IOException {
+        if (data instanceof GeoTIFFFileBinding) {
+            Object payload = data.getPayload();
+            if (payload instanceof File) {
+                return (File) payload;
+            }
+        }
+        return null;
+    }
 }
@@ -13,7 +13,7 @@ import org.n52.wps.io.datahandler.generator.AbstractGenerator;
  *
  * @author tkunicki
  */
-public class NetCDFGenerator extends AbstractGenerator {
+public class NetCDFGenerator extends AbstractGenerator implements FileGenerator {
 
     public NetCDFGenerator() {
         supportedIDataTypes.add(NetCDFFileBinding.class);
@@ -32,4 +32,15 @@ public class NetCDFGenerator extends AbstractGenerator {
         return null;
     }
 
+    @Override
+    public File generateFile(IData data, String mimeType, String schema) throws IOException {
+        if (data instanceof NetCDFFileBinding || data instanceof CoverageFileBinding) {
+            Object payload = data.getPayload();
+            if (payload instanceof File) {
+                return (File) payload;
+            }
+        }
+        return null;
+    }
+
 }
@@ -15,7 +15,7 @@ import org.n52.wps.io.datahandler.generator.AbstractGenerator;
  *
  * @author tkunicki
  */
-public class ZipGenerator extends AbstractGenerator {
+public class ZipGenerator extends AbstractGenerator implements FileGenerator {
 
     public ZipGenerator() {
         supportedIDataTypes.add(ZipFileBinding.class);
@@ -42,4 +42,17 @@ public class ZipGenerator extends AbstractGenerator {
         return null;
     }
 
+    @Override
+    public File generateFile(IData data, String mimeType, String schema) throws IOException {
+        if (data instanceof ZipFileBinding ||
+            data instanceof GenericFileDataBinding ||
+            data instanceof CoverageFileBinding) {
+            Object payload = data.getPayload();
+            if (payload instanceof File) {
+                return (File) payload;
+            }
+        }
+        return null;
+    }
+
 }
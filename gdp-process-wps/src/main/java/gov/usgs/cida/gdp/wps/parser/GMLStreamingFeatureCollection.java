@@ -108,7 +108,8 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
     
     public void dispose() {
         FileUtils.deleteQuietly(file);
-        configuration.getXSD().dispose();
+        // the configuration may be shared with other collections of the same schema
+        GMLUtil.releaseGMLConfiguration(configuration);
     }
 
 	@Override
@@ -293,10 +294,8 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 					fileInputStream,
 					16 << 10);
 			
-			Configuration newConfiguration = GMLUtil.generateGMLConfiguration(file);
-			
 			parser = new PullParser(
-					newConfiguration,
+					configuration,
 					bufferedInputStream,
 					SimpleFeature.class);
 			
@@ -1,21 +1,20 @@
 package gov.usgs.cida.gdp.wps.parser;
 
-import gov.usgs.cida.gdp.constants.AppConstant;
+import gov.usgs.cida.gdp.utilities.FileLifecycleRegistry;
 import gov.usgs.cida.gdp.wps.binding.GeoTIFFFileBinding;
 import gov.usgs.cida.gdp.wps.util.GeoTIFFUtil;
 import gov.usgs.cida.gdp.wps.util.MIMEMultipartStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
 import java.util.Map;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.n52.wps.io.datahandler.parser.AbstractParser;
 
 public class GeoTIFFParser extends AbstractParser {
@@ -25,26 +24,35 @@ public class GeoTIFFParser extends AbstractParser {
 	public final static short TIFF_MAGIC_42 = 42;
 	public final static short MIME_MAGIC = 0x2D2D;	  // "--"
 
+	// magic number, or "--" and a boundary line
+	private final static int HEADER_LENGTH = 4 + MIMEMultipartStream.MAX_BOUNDARY_LENGTH;
+
     public GeoTIFFParser() {
         supportedIDataTypes.add(GeoTIFFFileBinding.class);
     }
 
 	@Override
 	public GeoTIFFFileBinding parse(InputStream inputStream, String mimeType, String schema) {
-		File tempFile = null;
-		FileChannel tempChannel = null;
+		File tiffFile = null;
+		boolean complete = false;
 
 		try {
 
-            tempFile = File.createTempFile(getClass().getSimpleName(), ".tmp", new File(AppConstant.WORK_LOCATION.getValue()));
-            FileUtils.copyInputStreamToFile(inputStream, tempFile);
-
-			ByteBuffer buffer = ByteBuffer.allocate(4 + MIMEMultipartStream.MAX_BOUNDARY_LENGTH);
-			tempChannel = new FileInputStream(tempFile).getChannel();
-			tempChannel.read(buffer);
-			tempChannel.close();
-			tempChannel = null;
+			// peek at the start of the stream, the rest is written out as it is read
+			PushbackInputStream pushbackStream = new PushbackInputStream(inputStream, HEADER_LENGTH);
+			byte[] header = new byte[HEADER_LENGTH];
+			int headerLength = 0;
+			int read;
+			while (headerLength < header.length && (read = pushbackStream.read(header, headerLength, header.length - headerLength)) > 0) {
+				headerLength += read;
+			}
+			pushbackStream.unread(header, 0, headerLength);
+			ByteBuffer buffer = ByteBuffer.wrap(header, 0, headerLength);
+			if (buffer.remaining() < 4) {
+				throw new RuntimeException("unknown content");
+			}
 
+			tiffFile = FileLifecycleRegistry.getInstance().createTempFile(getClass().getSimpleName(), ".tiff");
 			short magic01 = buffer.getShort();
 			if (magic01 == TIFF_MAGIC_LE || magic01 == TIFF_MAGIC_BE) {
                 // InputStream references a GeoTIFF image
@@ -52,14 +60,7 @@ public class GeoTIFFParser extends AbstractParser {
 						? buffer.order(ByteOrder.LITTLE_ENDIAN).getShort()
 						: buffer.getShort();
 				if (magic23 == TIFF_MAGIC_42) {
-					String tiffFileName = tempFile.getAbsolutePath().concat(".tiff");
-					File tiffFile = new File(tempFile.getAbsolutePath());
-					boolean status = tiffFile.renameTo(new File(tiffFileName));
-					if (status) {
-						return new GeoTIFFFileBinding(tiffFile);
-					} else {
-						throw new RuntimeException("Error generating temporary tiff file.");
-					}
+					FileUtils.copyInputStreamToFile(pushbackStream, tiffFile);
 				} else {
 					throw new RuntimeException("Unexpected value parsing tiff file.");
 				}
@@ -73,10 +74,7 @@ public class GeoTIFFParser extends AbstractParser {
                 // expect a full mime response header...
 				byte[] boundary = extractBoundaryFromBuffer(buffer);
 				if (boundary != null) {
-					File tiffFile = extractFromMIMEMultipartStream(tempFile, boundary);
-					if (tiffFile != null) {
-						return new GeoTIFFFileBinding(tiffFile);
-					} else {
+					if (!extractFromMIMEMultipartStream(pushbackStream, boundary, tiffFile)) {
 						throw new RuntimeException("unable to extract tiff file from mime-multipart stream");
 					}
 				} else {
@@ -85,15 +83,14 @@ public class GeoTIFFParser extends AbstractParser {
 			} else {
 				throw new RuntimeException("unknown content");
 			}
+			complete = true;
+			return new GeoTIFFFileBinding(tiffFile);
 
 		} catch (IOException e) {
 			throw new RuntimeException("Error extracting GeoTIFF", e);
 		} finally {
-			if (tempChannel != null) {
-				try { tempChannel.close(); } catch (IOException ex) { }
-			}
-			if (tempFile != null && tempFile.exists()) {
-				tempFile.delete();
+			if (!complete) {
+				FileUtils.deleteQuietly(tiffFile);
 			}
 		}
 
@@ -118,31 +115,30 @@ public class GeoTIFFParser extends AbstractParser {
 				: null;
 	}
 
-	private File extractFromMIMEMultipartStream(File tempFile, byte[] boundary) throws IOException {
-		File extractedFile = null;
-		FileInputStream tempFileInputStream = null;
-		try {
-			MIMEMultipartStream mimeMultipartStream = new MIMEMultipartStream(
-					new FileInputStream(tempFile), boundary);
-			mimeMultipartStream.skipPreamble();
-			boolean hasNext = true;
-			while (hasNext && extractedFile == null) {
-				Map<String, String> headerMap = mimeMultipartStream.readHeaders();
-				String contentType = headerMap.get("Content-Type");
-				if (GeoTIFFUtil.isAllowedMimeType(contentType)) {
-					String extractedFileName = tempFile.getAbsolutePath().concat(".tiff");
-					extractedFile = new File(extractedFileName);
-                    String contentTransferEncoding = headerMap.get("Content-Transfer-Encoding");
-					mimeMultipartStream.readBodyData(new FileOutputStream(extractedFile), contentTransferEncoding);
-				} else {
-					mimeMultipartStream.discardBodyData();
+	private boolean extractFromMIMEMultipartStream(InputStream inputStream, byte[] boundary, File tiffFile) throws IOException {
+		boolean extracted = false;
+		MIMEMultipartStream mimeMultipartStream = new MIMEMultipartStream(inputStream, boundary);
+		mimeMultipartStream.skipPreamble();
+		boolean hasNext = true;
+		while (hasNext && !extracted) {
+			Map<String, String> headerMap = mimeMultipartStream.readHeaders();
+			String contentType = headerMap.get("Content-Type");
+			if (GeoTIFFUtil.isAllowedMimeType(contentType)) {
+                String contentTransferEncoding = headerMap.get("Content-Transfer-Encoding");
+				// unbuffered, body data is written as it arrives
+				OutputStream tiffOutputStream = new FileOutputStream(tiffFile);
+				try {
+					mimeMultipartStream.readBodyData(tiffOutputStream, contentTransferEncoding);
+				} finally {
+					tiffOutputStream.close();
 				}
-				hasNext = mimeMultipartStream.readBoundary();
+				extracted = true;
+			} else {
+				mimeMultipartStream.discardBodyData();
 			}
-		} finally {
-			IOUtils.closeQuietly(tempFileInputStream);
+			hasNext = mimeMultipartStream.readBoundary();
 		}
-		return extractedFile;
+		return extracted;
 	}
     
 }
@@ -1,12 +1,19 @@
 package gov.usgs.cida.gdp.wps.util;
 
 import com.ctc.wstx.stax.WstxInputFactory;
+import gov.usgs.cida.gdp.constants.AppConstant;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
@@ -35,6 +42,14 @@ public class GMLUtil {
 	 private static final WstxInputFactory INPUTFACTORY_XML;
 	 private static final String MSG_ERR_DETERMINE_ENVELOPE = "Error determining envelope";
 	 private static final String MSG_ERR_DETERMINE_CRS = "Error determining CRS";
+	private static final int SCHEMA_CACHE_ENTRIES = Integer.parseInt(AppConstant.SCHEMA_CACHE_ENTRIES.getValue());
+	private static final long SCHEMA_CACHE_TTL = Long.parseLong(AppConstant.SCHEMA_CACHE_TTL_MILLIS.getValue());
+	private static final SchemaCatalog SCHEMA_CATALOG = new SchemaCatalog(
+			new File(AppConstant.CACHE_LOCATION.getValue(), "schemas"), SCHEMA_CACHE_TTL);
+	// access ordered, the least recently used configuration is dropped first
+	private static final Map<String, CachedConfiguration> CONFIGURATIONS = new LinkedHashMap<String, CachedConfiguration>(16, 0.75f, true);
+	// cached configurations handed out, including dropped ones still in use
+	private static final Map<Configuration, CachedConfiguration> IN_USE = new IdentityHashMap<Configuration, CachedConfiguration>();
 	static {
 		INPUTFACTORY_XML = new WstxInputFactory();
 		INPUTFACTORY_XML.configureForSpeed();
@@ -303,6 +318,12 @@ public class GMLUtil {
 		return qName;
 	}
 
+	/**
+	 * @param file GML document
+	 * @return configuration to parse the document with, possibly shared, to
+	 * be released with {@link #releaseGMLConfiguration(Configuration)} rather
+	 * than disposed
+	 */
 	public static Configuration generateGMLConfiguration(File file) {
 		Configuration configuration = null;
 		InputStream inputStream = null;
@@ -328,7 +349,7 @@ public class GMLUtil {
 		Configuration configuration;
 		if (schemaLocation != null && featureTypeSchema.getNamespaceURI() != null) {
 			SchemaRepository.registerSchemaLocation(featureTypeSchema.getNamespaceURI(), schemaLocation);
-			configuration = new ApplicationSchemaConfiguration(featureTypeSchema.getNamespaceURI(), schemaLocation);
+			configuration = getApplicationSchemaConfiguration(featureTypeSchema.getNamespaceURI(), schemaLocation);
 		} else {
 			configuration = new GMLConfiguration();
 			configuration.getProperties().add(Parser.Properties.IGNORE_SCHEMA_LOCATION);
@@ -336,4 +357,116 @@ public class GMLUtil {
 		}
 		return configuration;
 	}
+
+	/**
+	 * The feature type schema is compiled by the configuration the first time
+	 * it is parsed with, configurations are kept so documents of the same
+	 * feature type share the compiled schema.  The schema itself is read from
+	 * a local copy.  A configuration dropped from the cache is disposed once
+	 * every user has released it.
+	 *
+	 * @param namespace feature type namespace
+	 * @param schemaLocation feature type schema location, usually a WFS
+	 * DescribeFeatureType request
+	 * @return configuration shared by every document of the feature type, to
+	 * be released with {@link #releaseGMLConfiguration(Configuration)}
+	 */
+	static Configuration getApplicationSchemaConfiguration(String namespace, String schemaLocation) {
+		String key = namespace + " " + schemaLocation;
+		synchronized (CONFIGURATIONS) {
+			CachedConfiguration cached = CONFIGURATIONS.get(key);
+			if (cached != null && System.currentTimeMillis() - cached.created <= SCHEMA_CACHE_TTL) {
+				return cached.acquire();
+			}
+		}
+		CachedConfiguration created = new CachedConfiguration(
+				new ApplicationSchemaConfiguration(namespace, SCHEMA_CATALOG.resolve(schemaLocation)));
+		List<CachedConfiguration> dropped = new ArrayList<CachedConfiguration>();
+		Configuration configuration;
+		synchronized (CONFIGURATIONS) {
+			CachedConfiguration cached = CONFIGURATIONS.get(key);
+			// another thread may have created one meanwhile, use the same one
+			if (cached != null && System.currentTimeMillis() - cached.created <= SCHEMA_CACHE_TTL) {
+				return cached.acquire();
+			}
+			if (cached != null) {
+				drop(cached, dropped);
+			}
+			CONFIGURATIONS.put(key, created);
+			Iterator<CachedConfiguration> eldest = CONFIGURATIONS.values().iterator();
+			while (CONFIGURATIONS.size() > SCHEMA_CACHE_ENTRIES && eldest.hasNext()) {
+				CachedConfiguration evicted = eldest.next();
+				eldest.remove();
+				drop(evicted, dropped);
+			}
+			configuration = created.acquire();
+		}
+		disposeAll(dropped);
+		return configuration;
+	}
+
+	/**
+	 * Releases a configuration from {@link #generateGMLConfiguration(File)},
+	 * a cached one is disposed if it has been dropped from the cache and this
+	 * was its last user.
+	 *
+	 * @param configuration configuration no longer used, null is ignored
+	 */
+	public static void releaseGMLConfiguration(Configuration configuration) {
+		List<CachedConfiguration> dropped = new ArrayList<CachedConfiguration>();
+		synchronized (CONFIGURATIONS) {
+			CachedConfiguration cached = IN_USE.get(configuration);
+			if (cached == null) {
+				// not cached, e.g. plain GML sharing the GML schema singleton
+				return;
+			}
+			cached.users--;
+			if (cached.users == 0) {
+				IN_USE.remove(configuration);
+				if (cached.dropped) {
+					dropped.add(cached);
+				}
+			}
+		}
+		disposeAll(dropped);
+	}
+
+	/*
+	 * Called holding the CONFIGURATIONS lock.
+	 */
+	private static void drop(CachedConfiguration cached, List<CachedConfiguration> dropped) {
+		cached.dropped = true;
+		if (cached.users == 0) {
+			dropped.add(cached);
+		}
+	}
+
+	private static void disposeAll(List<CachedConfiguration> dropped) {
+		for (CachedConfiguration cached : dropped) {
+			cached.configuration.getXSD().dispose();
+		}
+	}
+
+	private static class CachedConfiguration {
+
+		private final Configuration configuration;
+		private final long created = System.currentTimeMillis();
+		// guarded by CONFIGURATIONS
+		private int users = 0;
+		private boolean dropped = false;
+
+		private CachedConfiguration(Configuration configuration) {
+			this.configuration = configuration;
+		}
+
+		/*
+		 * Called holding the CONFIGURATIONS lock.
+		 */
+		private Configuration acquire() {
+			if (users++ == 0) {
+				IN_USE.put(configuration, this);
+			}
+			return configuration;
+		}
+	}
 }
@@ -0,0 +1,359 @@
+package gov.usgs.cida.gdp.wps.util;
+
+import gov.usgs.cida.gdp.constants.AppConstant;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Variable;
+import ucar.nc2.dt.GridDataset;
+import ucar.nc2.dt.GridDatatype;
+
+/**
+ * Keeps GridDatasets open between jobs so the DDS/DAS fetch and coordinate
+ * system setup is paid once per dataset rather than once per variable per job.
+ *
+ * A dataset (NetcdfFile) is not thread safe, so {@link #acquire(URI)} hands
+ * out a {@link Handle} with exclusive use of an open dataset: an idle one for
+ * the URI if there is one, otherwise a newly opened one.  Closing the handle
+ * returns the dataset to the pool.  Idle datasets are closed once idle for
+ * longer than the idle timeout or when room is needed for another dataset.  A
+ * dataset that has not been used for a while is checked with a single element
+ * read before it is handed out again and closed if that fails.  When the pool
+ * holds as many datasets as it may, all in use, the caller gets a dataset of
+ * its own which is closed with the handle.
+ */
+public class GridDatasetPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GridDatasetPool.class);
+
+	/**
+	 * Opens and checks datasets for the pool.
+	 */
+	public interface GridDatasetSource {
+
+		GridDataset open(URI datasetURI) throws IOException;
+
+		/**
+		 * @return false if the dataset can no longer be read and should be
+		 * reopened
+		 */
+		boolean isHealthy(GridDataset gridDataset);
+	}
+
+	private final GridDatasetSource source;
+	private final int maxSize;
+	private final long idleMillis;
+	private final long healthCheckMillis;
+	// ordered by release, iteration starts at the least recently used dataset
+	private final LinkedList<Entry> idle = new LinkedList<>();
+	// datasets held by the pool, idle or in use
+	private int size = 0;
+	// datasets in use when the pool was cleared are closed on release
+	private int generation = 0;
+	private long opens = 0;
+	private long reuses = 0;
+
+	/**
+	 * @param source opens and checks datasets
+	 * @param maxSize number of datasets kept open
+	 * @param idleMillis time an unused dataset is kept open
+	 * @param healthCheckMillis time after which a dataset is checked before it
+	 * is handed out again
+	 */
+	public GridDatasetPool(GridDatasetSource source, int maxSize, long idleMillis, long healthCheckMillis) {
+		this.source = source;
+		this.maxSize = maxSize;
+		this.idleMillis = idleMillis;
+		this.healthCheckMillis = healthCheckMillis;
+	}
+
+	/**
+	 * @param source opens and checks datasets
+	 * @return pool configured from the gdp.dataset.pool.* properties, idle
+	 * datasets are closed by a background timer
+	 */
+	public static GridDatasetPool createFromConfiguration(GridDatasetSource source) {
+		final GridDatasetPool pool = new GridDatasetPool(source,
+				Integer.parseInt(AppConstant.DATASET_POOL_SIZE.getValue()),
+				Long.parseLong(AppConstant.DATASET_POOL_IDLE_MILLIS.getValue()),
+				Long.parseLong(AppConstant.DATASET_POOL_CHECK_MILLIS.getValue()));
+		long sweepMillis = Math.max(1000, Math.min(pool.idleMillis / 2, 60000));
+		new Timer("GridDataset-Pool-Sweeper", true).schedule(new TimerTask() {
+			@Override
+			public void run() {
+				pool.evictIdle();
+			}
+		}, sweepMillis, sweepMillis);
+		return pool;
+	}
+
+	/**
+	 * @param datasetURI dataset to open
+	 * @return handle with exclusive use of an open dataset, must be closed
+	 * when done
+	 * @throws IOException if the dataset can not be opened
+	 */
+	public Handle acquire(URI datasetURI) throws IOException {
+		while (true) {
+			Entry entry = reserve(datasetURI);
+			if (entry == null) {
+				LOGGER.debug("Dataset pool full, opening unpooled dataset for {}", datasetURI);
+				return new Handle(this, null, source.open(datasetURI));
+			}
+			if (entry.gridDataset == null) {
+				try {
+					entry.gridDataset = source.open(datasetURI);
+				} catch (IOException | RuntimeException e) {
+					release(entry, true);
+					throw e;
+				}
+				entry.lastChecked = System.currentTimeMillis();
+				countOpen(true);
+				return new Handle(this, entry, entry.gridDataset);
+			}
+			// the entry is ours alone, checking it can not disturb a job
+			long now = System.currentTimeMillis();
+			if (now - entry.lastChecked > healthCheckMillis) {
+				if (!source.isHealthy(entry.gridDataset)) {
+					LOGGER.info("Dataset {} failed its health check, closing it", datasetURI);
+					release(entry, true);
+					continue;
+				}
+				entry.lastChecked = now;
+			}
+			countOpen(false);
+			return new Handle(this, entry, entry.gridDataset);
+		}
+	}
+
+	/**
+	 * Closes datasets that have been unused for longer than the idle timeout.
+	 */
+	public void evictIdle() {
+		List<Entry> evicted = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Iterator<Entry> iterator = idle.iterator();
+			while (iterator.hasNext()) {
+				Entry entry = iterator.next();
+				if (now - entry.lastUsed > idleMillis) {
+					iterator.remove();
+					size--;
+					evicted.add(entry);
+				}
+			}
+		}
+		closeAll(evicted);
+	}
+
+	/**
+	 * Closes every idle dataset, datasets in use are closed once their handle
+	 * is.
+	 */
+	public void clear() {
+		List<Entry> evicted;
+		synchronized (this) {
+			evicted = new ArrayList<>(idle);
+			idle.clear();
+			size = 0;
+			generation++;
+		}
+		closeAll(evicted);
+	}
+
+	/**
+	 * @return number of datasets held by the pool, idle or in use
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of times a dataset was opened by the pool
+	 */
+	public synchronized long getOpenCount() {
+		return opens;
+	}
+
+	/**
+	 * @return number of times an already open dataset was handed out
+	 */
+	public synchronized long getReuseCount() {
+		return reuses;
+	}
+
+	/*
+	 * Takes the most recently used idle dataset for the URI, or a slot for a
+	 * new one, making room by closing the least recently used idle dataset.
+	 * Null if every slot is in use.
+	 */
+	private Entry reserve(URI datasetURI) {
+		Entry reserved = null;
+		Entry evicted = null;
+		synchronized (this) {
+			Iterator<Entry> iterator = idle.descendingIterator();
+			while (iterator.hasNext() && reserved == null) {
+				Entry entry = iterator.next();
+				if (entry.datasetURI.equals(datasetURI)) {
+					iterator.remove();
+					reserved = entry;
+				}
+			}
+			if (reserved == null) {
+				if (size >= maxSize) {
+					if (idle.isEmpty()) {
+						return null;
+					}
+					evicted = idle.removeFirst();
+					size--;
+				}
+				reserved = new Entry(datasetURI, generation);
+				size++;
+			}
+		}
+		if (evicted != null) {
+			evicted.close();
+		}
+		return reserved;
+	}
+
+	private void release(Entry entry, boolean invalidate) {
+		boolean close = false;
+		synchronized (this) {
+			entry.lastUsed = System.currentTimeMillis();
+			if (entry.generation != generation) {
+				close = true;
+			} else if (invalidate || entry.gridDataset == null) {
+				size--;
+				close = true;
+			} else {
+				idle.addLast(entry);
+			}
+		}
+		if (close) {
+			entry.close();
+		}
+	}
+
+	private synchronized void countOpen(boolean opened) {
+		if (opened) {
+			opens++;
+		} else {
+			reuses++;
+		}
+	}
+
+	private static void closeAll(List<Entry> evicted) {
+		for (Entry entry : evicted) {
+			entry.close();
+		}
+	}
+
+	/**
+	 * Reads the first element of the first grid, which goes to the server for
+	 * remote datasets.  Only call on a dataset no one else is using.
+	 */
+	public static boolean readsFirstElement(GridDataset gridDataset) {
+		try {
+			List<GridDatatype> grids = gridDataset.getGrids();
+			if (grids.isEmpty()) {
+				return true;
+			}
+			Variable variable = (Variable) grids.get(0).getVariable();
+			int[] origin = new int[variable.getRank()];
+			int[] shape = new int[variable.getRank()];
+			Arrays.fill(shape, 1);
+			variable.read(origin, shape);
+			return true;
+		} catch (IOException | InvalidRangeException | RuntimeException e) {
+			LOGGER.debug("Health check of {} failed: {}", gridDataset.getLocationURI(), e.getMessage());
+			return false;
+		}
+	}
+
+	/*
+	 * An open dataset, only touched by the pool while idle and by its handle
+	 * while in use.
+	 */
+	private class Entry {
+
+		private final URI datasetURI;
+		private final int generation;
+		private GridDataset gridDataset;
+		private long lastUsed = System.currentTimeMillis();
+		private long lastChecked = 0;
+
+		private Entry(URI datasetURI, int generation) {
+			this.datasetURI = datasetURI;
+			this.generation = generation;
+		}
+
+		private void close() {
+			if (gridDataset != null) {
+				try {
+					gridDataset.close();
+				} catch (IOException e) {
+					LOGGER.warn("Unable to close dataset " + datasetURI, e);
+				}
+				gridDataset = null;
+			}
+		}
+	}
+
+	/**
+	 * Exclusive use of a dataset, closing the handle returns a pooled dataset
+	 * to the pool rather than closing it.
+	 */
+	public static class Handle implements Closeable {
+
+		private final GridDatasetPool pool;
+		private final Entry entry;
+		private final GridDataset gridDataset;
+		private boolean invalid = false;
+		private boolean closed = false;
+
+		private Handle(GridDatasetPool pool, Entry entry, GridDataset gridDataset) {
+			this.pool = pool;
+			this.entry = entry;
+			this.gridDataset = gridDataset;
+		}
+
+		public GridDataset getGridDataset() {
+			return gridDataset;
+		}
+
+		/**
+		 * Marks the dataset as broken (e.g. after read errors), it is closed
+		 * rather than returned to the pool.
+		 */
+		public void invalidate() {
+			invalid = true;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (entry == null) {
+				gridDataset.close();
+			} else {
+				pool.release(entry, invalid);
+			}
+		}
+	}
+}
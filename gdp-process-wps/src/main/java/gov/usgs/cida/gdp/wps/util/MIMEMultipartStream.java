@@ -8,8 +8,13 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.mail.MessagingException;
@@ -107,9 +112,21 @@ public final class MIMEMultipartStream {
     public static final byte[] DASH_DASH = new byte[] { DASH, DASH };
 
     /**
-     * The default length of the buffer used for processing a request.
+     * The default length of the buffer used for processing a request.  Body
+     * data is written out of this buffer directly, it bounds the size of
+     * each write.
      */
-    public static final int DEFAULT_BUFFERSIZE = 8192;
+    public static final int DEFAULT_BUFFERSIZE = 65536;
+
+    /**
+     * Content-Transfer-Encodings of body data that is written as is.
+     */
+    public static final Set<String> IDENTITY_ENCODINGS;
+    static {
+        Set<String> encodings = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        encodings.addAll(Arrays.asList("binary", "8bit", "7bit"));
+        IDENTITY_ENCODINGS = Collections.unmodifiableSet(encodings);
+    }
 
     private final ReadableByteChannel channel;
     private ByteBuffer channelBuffer;
@@ -133,7 +150,7 @@ public final class MIMEMultipartStream {
      * @param bufSize  The size of the buffer to be used, in bytes.
      *
      */
-    MIMEMultipartStream(InputStream inputStream, byte[] boundary, int bufferSize) {
+    public MIMEMultipartStream(InputStream inputStream, byte[] boundary, int bufferSize) {
 
 		this.channel = Channels.newChannel(inputStream);
 
@@ -170,15 +187,16 @@ public final class MIMEMultipartStream {
         return channelBuffer.get();
     }
 
-	private void fill() throws IOException {
+	private int fill() throws IOException {
         channelBuffer.compact();
-        int read = channel.read(channelBuffer);
+        int read = channelBuffer.hasRemaining() ? channel.read(channelBuffer) : 0;
         if (read < 0 && channelBuffer.position() == 0) {
             // No more data available.
             throw new IOException("No more data is available");
         } else {
             channelBuffer.flip();
         }
+        return read;
     }
 
     public boolean skipPreamble() throws IOException {
@@ -291,12 +309,25 @@ public final class MIMEMultipartStream {
 		return headerMap;
     }
 
+    /**
+     * <p> Writes the body data as it is read, straight out of the stream's
+     * buffer, up to the next boundary.
+     *
+     * @param outputChannel channel to write the body data to
+     * @return number of bytes written
+     */
+    public long readBodyData(WritableByteChannel outputChannel) throws IOException {
+        return new ItemInputStream().transferTo(outputChannel);
+    }
+
     public void readBodyData(OutputStream outputStream) throws IOException {
-        IOUtils.copy(new ItemInputStream(), outputStream);
+        // a FileOutputStream is written through its FileChannel
+        readBodyData(Channels.newChannel(outputStream));
     }
 
     public void readBodyData(OutputStream outputStream, String contentTransferEncoding) throws IOException {
-        if (contentTransferEncoding == null || contentTransferEncoding.length() < 1) {
+        if (contentTransferEncoding == null || contentTransferEncoding.length() < 1
+                || IDENTITY_ENCODINGS.contains(contentTransferEncoding.trim())) {
             readBodyData(outputStream);
         } else {
             try {
@@ -346,60 +377,92 @@ public final class MIMEMultipartStream {
 		private boolean found;
 		private ByteBuffer streamBuffer;
 
+        /**
+         * Makes the next run of body data available in streamBuffer, reading
+         * until there is some.
+         *
+         * @return bytes available, 0 once the boundary is reached
+         */
         public int makeAvailable() throws IOException {
 
 			if (found) { return 0; }
 
 			fill();
-
-			streamBuffer = channelBuffer.duplicate();
-			boolean marked = false;
-			while (streamBuffer.hasRemaining() && !found) {
-				byte b = streamBuffer.get();
-				if (b == CR) {
-					streamBuffer.mark();
-					if (streamBuffer.hasRemaining()) {
-						b = streamBuffer.get();
-						if (b == LF) {
-							marked = boundaryCheck();
-						}
-					} else {
-						// CR was last char in buffer, mark as it may be part
-                        // of a boundary
-						marked = true;
-					}
-				} else if (b == LF) {
-					streamBuffer.mark();
-					marked = boundaryCheck();
+			int length = scan();
+			while (length == 0 && !found) {
+				// only a partial boundary is buffered, need more to decide
+				if (fill() < 0) {
+					throw new MalformedStreamException("Stream ended unexpectedly");
 				}
+				length = scan();
 			}
-            // rewind buffer to mark, if buffer was marked we've found a full
-            // boundary (and don't want to process it as part of this item) *or*
-            // we've found a partial boundary (and need to save it until we have
-            // enough bytes to determine if it's a full boundary).
-			if (marked) { streamBuffer.reset(); }
 
-            // indidcate number of channelBuffer bytes that will be consumed by
+			streamBuffer = channelBuffer.duplicate();
+			streamBuffer.limit(streamBuffer.position() + length);
+
+            // indicate number of channelBuffer bytes that will be consumed by
             // this streamBuffer pass.
-			channelBuffer.position(streamBuffer.position());
-			
-			streamBuffer.flip();
+			channelBuffer.position(streamBuffer.limit());
 
-			return streamBuffer.remaining();
+			return length;
 		}
 
-		private boolean boundaryCheck() {
-			boolean match = true;
-			ByteBuffer boundaryBuffer = ByteBuffer.wrap(ddboundary);
-			while (streamBuffer.hasRemaining() && boundaryBuffer.hasRemaining() && match) {
-				match = boundaryBuffer.get() == streamBuffer.get();
-			}
-			if (match && !boundaryBuffer.hasRemaining()) {
-				found = true;
+        /*
+         * Counts the buffered bytes before the delimiter, the line break and
+         * boundary, or before what may be the start of one.  The delimiter is
+         * left in the buffer for readBoundary.
+         */
+		private int scan() {
+			int start = channelBuffer.position();
+			int limit = channelBuffer.limit();
+			for (int i = start; i < limit; ++i) {
+				int j = i;
+				byte b = channelBuffer.get(j);
+				if (b == CR) {
+					if (++j == limit) { return i - start; }
+					b = channelBuffer.get(j);
+				}
+				if (b != LF) { continue; }
+				++j;
+				int k = 0;
+				while (k < ddboundary.length && j < limit && channelBuffer.get(j) == ddboundary[k]) {
+					++j;
+					++k;
+				}
+				if (k == ddboundary.length) {
+					found = true;
+					return i - start;
+				}
+				if (j == limit) {
+					// partial boundary, keep it until we have enough bytes
+                    // to determine if it's a full boundary
+					return i - start;
+				}
 			}
-			return match;
+			return limit - start;
 		}
 
+        /**
+         * Writes the rest of the item out of the stream's buffer, without
+         * copying it.
+         *
+         * @param outputChannel channel to write to
+         * @return number of bytes written
+         */
+        public long transferTo(WritableByteChannel outputChannel) throws IOException {
+            if (closed) {
+                throw new IOException("InputStream is closed.");
+            }
+            long transferred = 0;
+            while (available() > 0 || makeAvailable() > 0) {
+                while (streamBuffer.hasRemaining()) {
+                    transferred += outputChannel.write(streamBuffer);
+                }
+            }
+            closed = true;
+            return transferred;
+        }
+
         @Override
         public int available() throws IOException {
 			if (streamBuffer == null || !streamBuffer.hasRemaining()) {
@@ -492,7 +555,7 @@ public final class MIMEMultipartStream {
                 }
             }
             long result = Math.min(available, bytes);
-			streamBuffer.position(streamBuffer.limit());
+			streamBuffer.position(streamBuffer.position() + (int) result);
             return result;
         }
 
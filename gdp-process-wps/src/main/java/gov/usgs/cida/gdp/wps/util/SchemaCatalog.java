@@ -0,0 +1,143 @@
+package gov.usgs.cida.gdp.wps.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local copies of remote XML schemas, typically WFS DescribeFeatureType
+ * responses, so a schema is fetched once rather than every time a document
+ * referencing it is parsed.
+ *
+ * A copy is used until it is older than the time to live, after which it is
+ * fetched again.  Schemas that can't be fetched, or that include or import
+ * other schemas by relative location, are left at their remote location.
+ */
+public class SchemaCatalog {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SchemaCatalog.class);
+	private static final Pattern SCHEMA_LOCATION = Pattern.compile("schemaLocation\\s*=\\s*[\"']([^\"']*)[\"']");
+	private static final int TIMEOUT_MILLIS = 30000;
+
+	private final File directory;
+	private final long ttlMillis;
+	private final ConcurrentMap<String, FutureTask<Void>> fetches = new ConcurrentHashMap<String, FutureTask<Void>>();
+
+	/**
+	 * @param directory where schemas are stored
+	 * @param ttlMillis age after which a stored schema is fetched again
+	 */
+	public SchemaCatalog(File directory, long ttlMillis) {
+		this.directory = directory;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * @param schemaLocation schema location as given in the document
+	 * @return location of the local copy, or the given location if there is
+	 * none
+	 */
+	public String resolve(final String schemaLocation) {
+		if (!schemaLocation.startsWith("http:") && !schemaLocation.startsWith("https:")) {
+			return schemaLocation;
+		}
+		final File file = getFile(schemaLocation);
+		if (!file.exists() || System.currentTimeMillis() - file.lastModified() > ttlMillis) {
+			// one fetch per location, callers for other locations are not held up
+			FutureTask<Void> fetch = new FutureTask<Void>(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					fetch(schemaLocation, file);
+					return null;
+				}
+			});
+			FutureTask<Void> running = fetches.putIfAbsent(schemaLocation, fetch);
+			if (running == null) {
+				running = fetch;
+				try {
+					fetch.run();
+				} finally {
+					fetches.remove(schemaLocation, fetch);
+				}
+			}
+			try {
+				running.get();
+			} catch (ExecutionException e) {
+				LOGGER.warn("Unable to store schema {}: {}", schemaLocation, e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (!file.exists()) {
+				return schemaLocation;
+			}
+		}
+		return file.toURI().toString();
+	}
+
+	File getFile(String schemaLocation) {
+		return new File(directory, digest(schemaLocation) + ".xsd");
+	}
+
+	private void fetch(String schemaLocation, File file) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(schemaLocation).openConnection();
+		connection.setConnectTimeout(TIMEOUT_MILLIS);
+		connection.setReadTimeout(TIMEOUT_MILLIS);
+		byte[] schema;
+		InputStream in = null;
+		try {
+			in = connection.getInputStream();
+			schema = IOUtils.toByteArray(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+			connection.disconnect();
+		}
+		Matcher matcher = SCHEMA_LOCATION.matcher(new String(schema, StandardCharsets.UTF_8));
+		while (matcher.find()) {
+			String location = matcher.group(1);
+			if (!location.startsWith("http:") && !location.startsWith("https:")) {
+				throw new IOException("relative schema location " + location);
+			}
+		}
+
+		FileUtils.forceMkdir(directory);
+		File temp = File.createTempFile("schema", ".tmp", directory);
+		try {
+			FileUtils.writeByteArrayToFile(temp, schema);
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			FileUtils.deleteQuietly(temp);
+		}
+	}
+
+	private static String digest(String schemaLocation) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(schemaLocation.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash) {
+				name.append(String.format("%02x", b));
+			}
+			return name.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,510 @@
+package gov.usgs.cida.gdp.wps.util;
+
+import gov.usgs.cida.gdp.constants.AppConstant;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk cache of WCS responses, DescribeCoverage documents and the GeoTIFFs
+ * of GetCoverage responses, so jobs repeating a request do not fetch it
+ * again.
+ *
+ * Responses are keyed by a digest of the canonical request: scheme and host
+ * in lower case, default port dropped, and the query parameters sorted with
+ * their (case insensitive) names in lower case.  A response is used as is
+ * until it is older than the time to live, then revalidated with a
+ * conditional request on its ETag or Last-Modified; if the service can not be
+ * reached the stale copy is used, an error response is not.  Responses are kept up to a byte budget and
+ * evicted least recently used.  Concurrent requests for one response share a
+ * single fetch, requests for other responses do not wait for it.
+ *
+ * Callers get their own link to (or copy of) the cached file, which stays
+ * readable after the response is evicted or replaced.
+ */
+public class WCSResponseCache {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(WCSResponseCache.class);
+
+    private final static String DATA_SUFFIX = ".data";
+    private final static String METADATA_SUFFIX = ".properties";
+    private final static String URI_PROPERTY = "uri";
+    private final static String ETAG_PROPERTY = "etag";
+    private final static String LAST_MODIFIED_PROPERTY = "lastModified";
+    private final static String VALIDATED_PROPERTY = "validated";
+
+    private static WCSResponseCache instance;
+    private static boolean configured = false;
+
+    private final File directory;
+    private final long diskBytes;
+    private final long ttlMillis;
+    // fetch or revalidation in progress for each response
+    private final ConcurrentMap<String, FutureTask<Void>> fetches = new ConcurrentHashMap<String, FutureTask<Void>>();
+
+    // access ordered, iteration starts at the least recently used response
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private final Map<String, Integer> pinned = new HashMap<String, Integer>();
+    private long total = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Keeps what is needed of a successful response.
+     */
+    public interface ResponseReader {
+
+        /**
+         * @param connection connection with a 200 response
+         * @param file file to write the kept part of the response to
+         */
+        void read(HttpURLConnection connection, File file) throws IOException;
+    }
+
+    /**
+     * Keeps the whole body.
+     */
+    public final static ResponseReader BODY_READER = new ResponseReader() {
+        @Override
+        public void read(HttpURLConnection connection, File file) throws IOException {
+            InputStream in = null;
+            OutputStream out = null;
+            try {
+                in = connection.getInputStream();
+                out = new FileOutputStream(file);
+                IOUtils.copyLarge(in, out);
+            } finally {
+                IOUtils.closeQuietly(in);
+                IOUtils.closeQuietly(out);
+            }
+        }
+    };
+
+    /**
+     * @param directory where responses are stored, existing responses are
+     * reused
+     * @param diskBytes byte budget for responses
+     * @param ttlMillis age after which a response is revalidated
+     */
+    public WCSResponseCache(File directory, long diskBytes, long ttlMillis) throws IOException {
+        this.directory = directory;
+        this.diskBytes = diskBytes;
+        this.ttlMillis = ttlMillis;
+        FileUtils.forceMkdir(directory);
+        loadIndex();
+    }
+
+    /**
+     * @return the cache configured by gdp.wcs.cache.bytes in the wcs
+     * directory under gdp.path.cache, null if disabled
+     */
+    public static synchronized WCSResponseCache getInstance() {
+        if (!configured) {
+            configured = true;
+            long bytes = Long.parseLong(AppConstant.WCS_CACHE_BYTES.getValue());
+            if (bytes > 0) {
+                try {
+                    instance = new WCSResponseCache(new File(AppConstant.CACHE_LOCATION.getValue(), "wcs"),
+                            bytes, Long.parseLong(AppConstant.CACHE_TTL_MILLIS.getValue()));
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to create WCS response cache, fetching directly", e);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param uri WCS request
+     * @param reader keeps the response when it is fetched
+     * @param targetDirectory directory to create the caller's file in
+     * @param suffix suffix of the caller's file
+     * @return new file in targetDirectory holding the response, for the
+     * caller to delete
+     */
+    public File get(final String uri, final ResponseReader reader, File targetDirectory, String suffix) throws IOException {
+        final String name = digest(canonicalize(uri));
+        pin(name);
+        try {
+            FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    refresh(uri, name, reader);
+                    return null;
+                }
+            });
+            FutureTask<Void> inFlight = fetches.putIfAbsent(name, task);
+            if (inFlight == null) {
+                inFlight = task;
+                try {
+                    task.run();
+                } finally {
+                    fetches.remove(name, task);
+                }
+            } else {
+                // the response being fetched is as fresh as it gets
+                hits.incrementAndGet();
+            }
+            try {
+                inFlight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + uri);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+            return link(name, targetDirectory, suffix);
+        } finally {
+            unpin(name);
+        }
+    }
+
+    /**
+     * @return responses used without contacting the service
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return stale responses checked with the service
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     * @return responses not in the cache
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return bytes of responses stored
+     */
+    public synchronized long getSize() {
+        return total;
+    }
+
+    /*
+     * Fetches the response unless a fresh one is stored.
+     */
+    private void refresh(String uri, String name, ResponseReader reader) throws IOException {
+        Properties metadata = null;
+        boolean indexed;
+        synchronized (this) {
+            indexed = index.get(name) != null;
+        }
+        if (indexed) {
+            metadata = readMetadata(name);
+        }
+        if (metadata == null) {
+            misses.incrementAndGet();
+            fetch(uri, name, null, reader);
+        } else if (System.currentTimeMillis() - Long.parseLong(metadata.getProperty(VALIDATED_PROPERTY, "0")) > ttlMillis) {
+            revalidations.incrementAndGet();
+            fetch(uri, name, metadata, reader);
+        } else {
+            hits.incrementAndGet();
+        }
+    }
+
+    /*
+     * Fetches the response, conditionally if there is a stored one.  A stored
+     * response is kept when the service says it is not modified or can not be
+     * reached, an error response from the service is passed on.
+     */
+    private void fetch(String uri, String name, Properties metadata, ResponseReader reader) throws IOException {
+        File data = getDataFile(name);
+        HttpURLConnection connection = null;
+        int responseCode = -1;
+        try {
+            connection = WCSUtil.openConnection(uri);
+            if (metadata != null) {
+                String etag = metadata.getProperty(ETAG_PROPERTY);
+                if (etag != null) {
+                    connection.setRequestProperty("If-None-Match", etag);
+                }
+                String lastModified = metadata.getProperty(LAST_MODIFIED_PROPERTY);
+                if (lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+            responseCode = connection.getResponseCode();
+            if (metadata != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                metadata.setProperty(VALIDATED_PROPERTY, Long.toString(System.currentTimeMillis()));
+                writeMetadata(name, metadata);
+                return;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response code " + responseCode + " to " + uri);
+            }
+            File temp = File.createTempFile("wcs", ".tmp", directory);
+            try {
+                reader.read(connection, temp);
+                Files.move(temp.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                FileUtils.deleteQuietly(temp);
+            }
+            Properties fetched = new Properties();
+            fetched.setProperty(URI_PROPERTY, uri);
+            fetched.setProperty(VALIDATED_PROPERTY, Long.toString(System.currentTimeMillis()));
+            String etag = connection.getHeaderField("ETag");
+            if (etag != null) {
+                fetched.setProperty(ETAG_PROPERTY, etag);
+            }
+            String lastModified = connection.getHeaderField("Last-Modified");
+            if (lastModified != null) {
+                fetched.setProperty(LAST_MODIFIED_PROPERTY, lastModified);
+            }
+            writeMetadata(name, fetched);
+            store(name, data.length());
+        } catch (IOException e) {
+            // no response, or the connection failed reading it
+            if ((responseCode == -1 || responseCode == HttpURLConnection.HTTP_OK) && metadata != null && data.exists()) {
+                LOGGER.warn("Unable to revalidate {}, using stored response: {}", uri, e.getMessage());
+                return;
+            }
+            throw e;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private File link(String name, File targetDirectory, String suffix) throws IOException {
+        File data = getDataFile(name);
+        data.setLastModified(System.currentTimeMillis());
+        File target = File.createTempFile("gdp", suffix, targetDirectory);
+        Files.delete(target.toPath());
+        try {
+            Files.createLink(target.toPath(), data.toPath());
+        } catch (IOException e) {
+            // other file system, copy instead
+            Files.copy(data.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (UnsupportedOperationException e) {
+            Files.copy(data.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+
+    private synchronized void pin(String name) {
+        Integer count = pinned.get(name);
+        pinned.put(name, count == null ? 1 : count + 1);
+    }
+
+    private synchronized void unpin(String name) {
+        Integer count = pinned.get(name);
+        if (count == null || count <= 1) {
+            pinned.remove(name);
+        } else {
+            pinned.put(name, count - 1);
+        }
+    }
+
+    private void store(String name, long size) {
+        List<String> evicted = new ArrayList<String>();
+        synchronized (this) {
+            Long previous = index.put(name, size);
+            total += size - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+            while (total > diskBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (pinned.containsKey(eldest.getKey())) {
+                    // in use, leave it to the next store
+                    continue;
+                }
+                iterator.remove();
+                total -= eldest.getValue();
+                evicted.add(eldest.getKey());
+            }
+        }
+        for (String evict : evicted) {
+            FileUtils.deleteQuietly(getMetadataFile(evict));
+            FileUtils.deleteQuietly(getDataFile(evict));
+        }
+    }
+
+    private Properties readMetadata(String name) {
+        File file = getMetadataFile(name);
+        if (!file.exists() || !getDataFile(name).exists()) {
+            return null;
+        }
+        Properties metadata = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            metadata.load(in);
+            return metadata;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read WCS response metadata {}: {}", file, e.getMessage());
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void writeMetadata(String name, Properties metadata) throws IOException {
+        File temp = File.createTempFile("wcs", ".tmp", directory);
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                metadata.store(out, null);
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), getMetadataFile(name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    private void loadIndex() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> responses = new ArrayList<File>();
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(DATA_SUFFIX)) {
+                String name = fileName.substring(0, fileName.length() - DATA_SUFFIX.length());
+                if (getMetadataFile(name).exists()) {
+                    responses.add(file);
+                } else {
+                    FileUtils.deleteQuietly(file);
+                }
+            } else if (fileName.endsWith(".tmp")) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+        Collections.sort(responses, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+        synchronized (this) {
+            for (File response : responses) {
+                String fileName = response.getName();
+                index.put(fileName.substring(0, fileName.length() - DATA_SUFFIX.length()), response.length());
+                total += response.length();
+            }
+        }
+    }
+
+    private File getDataFile(String name) {
+        return new File(directory, name + DATA_SUFFIX);
+    }
+
+    private File getMetadataFile(String name) {
+        return new File(directory, name + METADATA_SUFFIX);
+    }
+
+    /**
+     * @return the request with scheme and host in lower case, no default
+     * port, and its query parameters sorted with lower case names
+     */
+    static String canonicalize(String uri) {
+        URI parsed = URI.create(uri);
+        String scheme = parsed.getScheme() == null ? "" : parsed.getScheme().toLowerCase(Locale.US);
+        int port = parsed.getPort();
+        if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) {
+            port = -1;
+        }
+        StringBuilder canonical = new StringBuilder();
+        canonical.append(scheme).append("://");
+        if (parsed.getRawAuthority() != null && parsed.getHost() == null) {
+            canonical.append(parsed.getRawAuthority().toLowerCase(Locale.US));
+        } else if (parsed.getHost() != null) {
+            canonical.append(parsed.getHost().toLowerCase(Locale.US));
+            if (port != -1) {
+                canonical.append(':').append(port);
+            }
+        }
+        String path = parsed.getRawPath();
+        canonical.append(path == null || path.isEmpty() ? "/" : path);
+        String query = parsed.getRawQuery();
+        if (query != null) {
+            List<String> parameters = new ArrayList<String>();
+            for (String parameter : query.split("&")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+                int equals = parameter.indexOf('=');
+                parameters.add(equals < 0
+                        ? parameter.toLowerCase(Locale.US)
+                        : parameter.substring(0, equals).toLowerCase(Locale.US) + parameter.substring(equals));
+            }
+            Collections.sort(parameters);
+            char separator = '?';
+            for (String parameter : parameters) {
+                canonical.append(separator).append(parameter);
+                separator = '&';
+            }
+        }
+        return canonical.toString();
+    }
+
+    /*
+     * File names are a digest of the request, the request itself holds a URL.
+     */
+    private static String digest(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,7 +2,7 @@ package gov.usgs.cida.gdp.wps.util;
 
 import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.dataaccess.CoverageMetaData;
-import java.io.BufferedOutputStream;
+import gov.usgs.cida.gdp.utilities.GeoTiffMosaic;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -12,12 +12,22 @@ import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
@@ -40,7 +50,15 @@ public class WCSUtil {
     
     public final static Logger LOGGER = LoggerFactory.getLogger(WCSUtil.class);
 
-    private static final int MAX_COVERAGE_SIZE = 64 << 20; // 64 MB
+    // coverages larger than this are fetched in tiles of about this size
+    private static final int MAX_TILE_SIZE = 16 << 20; // 16 MB
+    private static final int MIN_TILE_CELLS = 256;
+    // tiles fetched at once by one job
+    private static final int TILE_FETCH_THREADS = 4;
+    // larger coverages can not be joined, they are requested at a coarser resolution
+    private static final long MAX_COVERAGE_SIZE = GeoTiffMosaic.CLASSIC_TIFF_MAX;
+    private static final int CONNECT_TIMEOUT = 15 * 1000; // 15 seconds
+    private static final int READ_TIMEOUT = 5 * 60 * 1000; // 5 minutes
 
     private final static String REGEX_OGC_URN = "urn:(?:x-)?ogc(?:-x)?:def:crs:([^:]*):[^:]*:([^:]*)";
     private final static Pattern PATTERN_OGC_URN = Pattern.compile(REGEX_OGC_URN);
@@ -57,6 +75,21 @@ public class WCSUtil {
     }
     
     public static File generateTIFFFile(URI wcsURI, String wcsIdentifier, ReferencedEnvelope featureBounds, boolean requireFullCoverage, String outputFileDir) {
+        return generateTIFFFile(wcsURI, wcsIdentifier, featureBounds, requireFullCoverage, Double.NaN, outputFileDir);
+    }
+
+    /**
+     * Coverages of more than {@link #MAX_TILE_SIZE} are requested as a grid of
+     * tiles, fetched concurrently, and joined into one GeoTIFF.  A coverage
+     * too large to join, more than {@link #MAX_COVERAGE_SIZE}, is requested
+     * at a coarser resolution.  Requests go through the
+     * {@link WCSResponseCache} when it is enabled.
+     *
+     * @param targetResolution cell size, in units of the coverage's grid CRS,
+     * to have the service resample the coverage to; only used where coarser
+     * than the coverage, NaN for the coverage's own cell size
+     */
+    public static File generateTIFFFile(URI wcsURI, String wcsIdentifier, ReferencedEnvelope featureBounds, boolean requireFullCoverage, double targetResolution, String outputFileDir) {
         File tiffFile = null;
         try {
             URI wcsBaseURI = extractWCSBaseURI(wcsURI);
@@ -66,18 +99,17 @@ public class WCSUtil {
                         "?service=WCS&version=1.1.1&request=DescribeCoverage&Identifiers=" +
                         wcsIdentifier;
             
-            InputStream wcsCapabilitiesInputStream = null;
+            File wcsCapabilitiesFile = null;
             LOGGER.debug("DescribeCoverage Request : {}", wcsGetCapabilitiesURIString);
             try {
-                URL wcsCapabilitiesURL = new URL(wcsGetCapabilitiesURIString);
-                wcsCapabilitiesInputStream = wcsCapabilitiesURL.openStream();
-                document = DocumentUtil.createDocument(wcsCapabilitiesInputStream);
+                wcsCapabilitiesFile = fetch(wcsGetCapabilitiesURIString, WCSResponseCache.BODY_READER, outputFileDir, ".xml");
+                document = DocumentUtil.createDocument(wcsCapabilitiesFile);
             } catch (IOException e) {
                 throw new RuntimeException("Error obtaining WCS DescribeCoverage document from " +  wcsGetCapabilitiesURIString, e);
             } catch (SAXException e) {
                 throw new RuntimeException("Error parsing WCS DescribeCoverage document from " +  wcsGetCapabilitiesURIString, e);
             } finally {
-                IOUtils.closeQuietly(wcsCapabilitiesInputStream);
+                FileUtils.deleteQuietly(wcsCapabilitiesFile);
             }
 
             WCSDescribeCoverageInspector_1_1_X inspector = new WCSDescribeCoverageInspector_1_1_X(document, wcsIdentifier);
@@ -213,16 +245,46 @@ public class WCSUtil {
                 }
             }
 
-            double requestSizeBytes =
-                    (requestBounds.getWidth() / (gridBaseCRSRequiresSwapXY ? gridYOffset : gridXOffset))
-                    * (requestBounds.getHeight() / (gridBaseCRSRequiresSwapXY ? gridXOffset : gridYOffset))
-                    * gridDataType.getSizeBytes();
-
-            if (requestSizeBytes < 0) { requestSizeBytes = -requestSizeBytes; }
+            // widened to the grid's cell edges, so tiles cut on the request's
+            // cells are cut on the grid's cell edges and the server returns
+            // neighbouring tiles without overlap or gaps between them
+            double gridAxis0Offset = gridBaseCRSRequiresSwapXY ? gridYOffset : gridXOffset;
+            double gridAxis1Offset = gridBaseCRSRequiresSwapXY ? gridXOffset : gridYOffset;
+            double requestAxis0Min = getCellEdge(requestBounds.getMinX(), gridBounds.getMinX(), gridAxis0Offset, true);
+            double requestAxis0Max = getCellEdge(requestBounds.getMaxX(), gridBounds.getMinX(), gridAxis0Offset, false);
+            double requestAxis1Min = getCellEdge(requestBounds.getMinY(), gridBounds.getMinY(), gridAxis1Offset, true);
+            double requestAxis1Max = getCellEdge(requestBounds.getMaxY(), gridBounds.getMinY(), gridAxis1Offset, false);
+
+            double requestGridXOffset = gridXOffset;
+            double requestGridYOffset = gridYOffset;
+            if (targetResolution > Math.abs(gridXOffset)) {
+                requestGridXOffset = Math.copySign(targetResolution, gridXOffset);
+            }
+            if (targetResolution > Math.abs(gridYOffset)) {
+                requestGridYOffset = Math.copySign(targetResolution, gridYOffset);
+            }
 
-            double requestSamplingFactor = (requestSizeBytes > MAX_COVERAGE_SIZE)
-                    ? Math.ceil(Math.sqrt((double) requestSizeBytes / MAX_COVERAGE_SIZE))
-                    : 1;
+            // offsets are X,Y, request bounds are in CRS axis order
+            double requestAxis0Offset = gridBaseCRSRequiresSwapXY ? requestGridYOffset : requestGridXOffset;
+            double requestAxis1Offset = gridBaseCRSRequiresSwapXY ? requestGridXOffset : requestGridYOffset;
+            int axis0Cells = getCellCount(requestAxis0Min, requestAxis0Max, requestAxis0Offset);
+            int axis1Cells = getCellCount(requestAxis1Min, requestAxis1Max, requestAxis1Offset);
+            double requestSizeBytes = (double) axis0Cells * axis1Cells * gridDataType.getSizeBytes();
+            if (requestSizeBytes > MAX_COVERAGE_SIZE) {
+                int requestSamplingFactor = (int) Math.ceil(Math.sqrt(requestSizeBytes / MAX_COVERAGE_SIZE));
+                while ((double) getCellCount(requestAxis0Min, requestAxis0Max, requestAxis0Offset * requestSamplingFactor)
+                        * getCellCount(requestAxis1Min, requestAxis1Max, requestAxis1Offset * requestSamplingFactor)
+                        * gridDataType.getSizeBytes() > MAX_COVERAGE_SIZE) {
+                    ++requestSamplingFactor;
+                }
+                LOGGER.info("WCS coverage of {}x{} cells is too large, requesting every {} cells", new Object[] { axis0Cells, axis1Cells, requestSamplingFactor });
+                requestGridXOffset *= requestSamplingFactor;
+                requestGridYOffset *= requestSamplingFactor;
+                requestAxis0Offset *= requestSamplingFactor;
+                requestAxis1Offset *= requestSamplingFactor;
+                axis0Cells = getCellCount(requestAxis0Min, requestAxis0Max, requestAxis0Offset);
+                axis1Cells = getCellCount(requestAxis1Min, requestAxis1Max, requestAxis1Offset);
+            }
 
             String requestBaseCRSString = gridBaseCRSString;
             boolean requestBaseCRSCovertedToNonOGC = false;
@@ -239,55 +301,122 @@ public class WCSUtil {
                     gridBaseCRSRequiresSwapXY &&
                     (requestBaseCRSCovertedToNonOGC || !serviceRespectsCRSOrder);
 
-            StringBuilder requestBoundingBoxBuilder = new StringBuilder();
-            if (swapXYForRequest) {
-                requestBoundingBoxBuilder.
-                        append(requestBounds.getMinY()).append(",").
-                        append(requestBounds.getMinX()).append(",").
-                        append(requestBounds.getMaxY()).append(",").
-                        append(requestBounds.getMaxX()).append(",");
-            } else {
-                requestBoundingBoxBuilder.
-                        append(requestBounds.getMinX()).append(",").
-                        append(requestBounds.getMinY()).append(",").
-                        append(requestBounds.getMaxX()).append(",").
-                        append(requestBounds.getMaxY()).append(",");
-            }
-            requestBoundingBoxBuilder.append(requestBaseCRSString);
-
-            double requestGridXOffset = requestSamplingFactor * gridXOffset;
-            double requestGridYOffset = requestSamplingFactor * gridYOffset;
-            StringBuilder requestGridOffsetsBuilder = new StringBuilder();
-            requestGridOffsetsBuilder.
-                    append(requestGridXOffset).
-                    append(",").
-                    append(requestGridYOffset);
-
             StringBuilder sb = new StringBuilder();
             sb.append(wcsBaseURI).
                     append("?service=WCS&version=1.1.1&request=GetCoverage").
                     append("&identifier=").append(wcsIdentifier).
-                    append("&boundingBox=").append(requestBoundingBoxBuilder).
                     append("&gridBaseCRS=").append(requestBaseCRSString).
-                    append("&gridOffsets=").append(requestGridOffsetsBuilder).
+                    append("&gridOffsets=").append(requestGridXOffset).append(",").append(requestGridYOffset).
                     append("&format=").append(requestGridFormat);
-            if (requestSamplingFactor > 1.0) {
+            if (requestGridXOffset != gridXOffset || requestGridYOffset != gridYOffset) {
                 sb.append("&interpolationType=").append("nearest");
             }
+            String wcsGetCoverageBaseURIString = sb.toString();
+
+            int columns = gridBaseCRSRequiresSwapXY ? axis1Cells : axis0Cells;
+            int rows = gridBaseCRSRequiresSwapXY ? axis0Cells : axis1Cells;
+            int tileSize = Math.max(MIN_TILE_CELLS, (int) Math.sqrt((double) MAX_TILE_SIZE / gridDataType.getSizeBytes()));
+
+            if (columns <= tileSize && rows <= tileSize) {
+                String wcsGetCoverageURIString = appendBoundingBox(new StringBuilder(wcsGetCoverageBaseURIString),
+                        requestAxis0Min, requestAxis1Min, requestAxis0Max, requestAxis1Max,
+                        swapXYForRequest, requestBaseCRSString).toString();
+                tiffFile = fetchCoverage(wcsGetCoverageURIString, outputFileDir);
+            } else {
+                int tileRows = (rows + tileSize - 1) / tileSize;
+                int tileColumns = (columns + tileSize - 1) / tileSize;
+                LOGGER.debug("Fetching {}x{} cells of WCS coverage as {}x{} tiles", new Object[] { columns, rows, tileColumns, tileRows });
+                String[][] wcsGetCoverageURIStrings = new String[tileRows][tileColumns];
+                for (int tileRow = 0; tileRow < tileRows; ++tileRow) {
+                    for (int tileColumn = 0; tileColumn < tileColumns; ++tileColumn) {
+                        int firstColumn = tileColumn * tileSize;
+                        int firstRow = tileRow * tileSize;
+                        int[] axis0Range = gridBaseCRSRequiresSwapXY
+                                ? new int[] { firstRow, Math.min(rows, firstRow + tileSize) }
+                                : new int[] { firstColumn, Math.min(columns, firstColumn + tileSize) };
+                        int[] axis1Range = gridBaseCRSRequiresSwapXY
+                                ? new int[] { firstColumn, Math.min(columns, firstColumn + tileSize) }
+                                : new int[] { firstRow, Math.min(rows, firstRow + tileSize) };
+                        double[] axis0 = getCellBounds(requestAxis0Min, requestAxis0Max, requestAxis0Offset, axis0Range[0], axis0Range[1], axis0Cells);
+                        double[] axis1 = getCellBounds(requestAxis1Min, requestAxis1Max, requestAxis1Offset, axis1Range[0], axis1Range[1], axis1Cells);
+                        wcsGetCoverageURIStrings[tileRow][tileColumn] = appendBoundingBox(new StringBuilder(wcsGetCoverageBaseURIString),
+                                axis0[0], axis1[0], axis0[1], axis1[1],
+                                swapXYForRequest, requestBaseCRSString).toString();
+                    }
+                }
+                tiffFile = fetchTiledCoverage(wcsGetCoverageURIStrings, tileSize, columns, rows, outputFileDir);
+            }
+
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        } catch (TransformException e) {
+            throw new RuntimeException(e);
+        } catch (NoSuchAuthorityCodeException e) {
+            throw new RuntimeException(e);
+        } catch (FactoryException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return tiffFile;
+    }
+
+    private static File fetchCoverage(String wcsGetCoverageURIString, String outputFileDir) throws IOException {
+        LOGGER.debug("GetCoverage Request : {}", wcsGetCoverageURIString);
+        return fetch(wcsGetCoverageURIString, COVERAGE_READER, outputFileDir, ".tiff");
+    }
+
+    /*
+     * Fetches the request through the WCS response cache, or directly when it
+     * is disabled.
+     */
+    private static File fetch(String uri, WCSResponseCache.ResponseReader reader, String outputFileDir, String suffix) throws IOException {
+        WCSResponseCache cache = WCSResponseCache.getInstance();
+        if (cache != null) {
+            return cache.get(uri, reader, new File(outputFileDir), suffix);
+        }
+        File file = File.createTempFile("gdp", suffix, new File(outputFileDir));
+        boolean complete = false;
+        HttpURLConnection connection = openConnection(uri);
+        try {
+            reader.read(connection, file);
+            complete = true;
+        } finally {
+            connection.disconnect();
+            if (!complete) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @return connection to a WCS that gives up on an unresponsive service
+     */
+    static HttpURLConnection openConnection(String uri) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return connection;
+    }
 
-            String wcsGetCoverageURIString = sb.toString();
-            LOGGER.debug("GetCoverage Request : {}", wcsGetCoverageURIString);
-            URL wcsCoverageURL = new URL(wcsGetCoverageURIString);
-            HttpURLConnection wcsCoverageConnection = (HttpURLConnection) wcsCoverageURL.openConnection();
+    /*
+     * Keeps the GeoTIFF part of a multipart GetCoverage response.
+     */
+    private static final WCSResponseCache.ResponseReader COVERAGE_READER = new WCSResponseCache.ResponseReader() {
+        @Override
+        public void read(HttpURLConnection wcsCoverageConnection, File tiffFile) throws IOException {
+            String wcsGetCoverageURIString = wcsCoverageConnection.getURL().toString();
+            boolean found = false;
             InputStream wcsCoverageInputStream = null;
             try {
-            
+
                 String wcsCoverageContentType = wcsCoverageConnection.getContentType();
                 String[] split = wcsCoverageContentType.split("\\s*;\\s*");
                 if (!("multipart/related".equals(split[0].trim()))) {
-                    throw new RuntimeException("Unexpected Content-Type, \"" + wcsCoverageContentType + "\", on WCS getCoverage response to " + sb.toString());
+                    throw new RuntimeException("Unexpected Content-Type, \"" + wcsCoverageContentType + "\", on WCS getCoverage response to " + wcsGetCoverageURIString);
                 }
-                Pattern keyValuePattern = Pattern.compile("([^=]+)=\"([^\"]+)\"");
+                Pattern keyValuePattern = Pattern.compile("([^=]+)=\"?([^\"]+)\"?");
                 String boundary = null;
                 for (int i = 1; i < split.length && boundary == null; ++i) {
                     Matcher keyValueMatcher = keyValuePattern.matcher(split[i]);
@@ -299,21 +428,30 @@ public class WCSUtil {
                     }
                 }
 
+                if (boundary == null) {
+                    throw new IOException("No boundary in Content-Type, \"" + wcsCoverageContentType + "\", on WCS getCoverage response to " + wcsGetCoverageURIString);
+                }
+
+                wcsCoverageInputStream = wcsCoverageConnection.getInputStream();
                 MIMEMultipartStream mimeMultipartStream = new MIMEMultipartStream(
-                        wcsCoverageConnection.getInputStream(),
+                        wcsCoverageInputStream,
                         boundary.getBytes());
                 mimeMultipartStream.skipPreamble();
                 boolean hasNext = true;
-                while (hasNext && tiffFile == null) {
+                while (hasNext && !found) {
                     Map<String, String> headerMap = mimeMultipartStream.readHeaders();
                     String contentType = headerMap.get("Content-Type");
                     if (GeoTIFFUtil.isAllowedMimeType(contentType)) {
                         String contentTransferEncoding = headerMap.get("Content-Transfer-Encoding");
                         if (contentTransferEncoding != null) {
-                            tiffFile = File.createTempFile("gdp", ".tiff", new File(outputFileDir));
-                            OutputStream tiffOutputStream = new BufferedOutputStream(new FileOutputStream(tiffFile));
-                            mimeMultipartStream.readBodyData(tiffOutputStream, contentTransferEncoding);
-                            tiffOutputStream.close();
+                            // unbuffered, body data is written as it arrives
+                            OutputStream tiffOutputStream = new FileOutputStream(tiffFile);
+                            try {
+                                mimeMultipartStream.readBodyData(tiffOutputStream, contentTransferEncoding);
+                            } finally {
+                                tiffOutputStream.close();
+                            }
+                            found = true;
                         }
                     } else {
                         mimeMultipartStream.discardBodyData();
@@ -323,21 +461,133 @@ public class WCSUtil {
             } finally {
                 IOUtils.closeQuietly(wcsCoverageInputStream);
             }
-
-        } catch (URISyntaxException e) {
-            throw new RuntimeException(e);
-        } catch (TransformException e) {
-            throw new RuntimeException(e);
-        } catch (NoSuchAuthorityCodeException e) {
-            throw new RuntimeException(e);
-        } catch (FactoryException e) {
-            throw new RuntimeException(e);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            if (!found) {
+                throw new IOException("No GeoTIFF in WCS getCoverage response to " + wcsGetCoverageURIString);
+            }
+        }
+    };
+
+    /**
+     * @param wcsGetCoverageURIStrings requests for the tiles, by row then
+     * column, the first at the coverage's grid origin
+     */
+    private static File fetchTiledCoverage(String[][] wcsGetCoverageURIStrings, int tileSize, int columns, int rows, final String outputFileDir) throws IOException {
+        // the job's own threads, jobs do not wait for each other's tiles
+        ExecutorService tileFetchPool = Executors.newFixedThreadPool(TILE_FETCH_THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "wcs-tile-fetch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // tiles are deleted once the mosaic is written or given up on, a tile
+        // fetched after that, which no one waits for, deletes its own file
+        final List<File> tileFiles = new ArrayList<File>();
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        List<Future<File>> futures = new ArrayList<Future<File>>();
+        for (String[] tileRow : wcsGetCoverageURIStrings) {
+            for (final String wcsGetCoverageURIString : tileRow) {
+                futures.add(tileFetchPool.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        File tileFile = fetchCoverage(wcsGetCoverageURIString, outputFileDir);
+                        synchronized (tileFiles) {
+                            if (abandoned.get()) {
+                                FileUtils.deleteQuietly(tileFile);
+                                throw new IOException("Tile fetched after the coverage was given up on");
+                            }
+                            tileFiles.add(tileFile);
+                        }
+                        return tileFile;
+                    }
+                }));
+            }
+        }
+        File tiffFile = null;
+        boolean complete = false;
+        try {
+            Path[][] tiles = new Path[wcsGetCoverageURIStrings.length][];
+            int index = 0;
+            for (int tileRow = 0; tileRow < tiles.length; ++tileRow) {
+                tiles[tileRow] = new Path[wcsGetCoverageURIStrings[tileRow].length];
+                for (int tileColumn = 0; tileColumn < tiles[tileRow].length; ++tileColumn) {
+                    tiles[tileRow][tileColumn] = futures.get(index++).get().toPath();
+                }
+            }
+            tiffFile = File.createTempFile("gdp", ".tiff", new File(outputFileDir));
+            GeoTiffMosaic.mosaic(tiles, tileSize, columns, rows, tiffFile.toPath());
+            complete = true;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error fetching WCS coverage tile", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted fetching WCS coverage tiles", e);
+        } finally {
+            // interrupts fetches still running
+            tileFetchPool.shutdownNow();
+            synchronized (tileFiles) {
+                abandoned.set(true);
+                for (File tileFile : tileFiles) {
+                    FileUtils.deleteQuietly(tileFile);
+                }
+            }
+            if (!complete) {
+                FileUtils.deleteQuietly(tiffFile);
+            }
         }
         return tiffFile;
     }
 
+    private static StringBuilder appendBoundingBox(StringBuilder sb, double minX, double minY, double maxX, double maxY, boolean swapXY, String crs) {
+        sb.append("&boundingBox=");
+        if (swapXY) {
+            sb.append(minY).append(",").
+                    append(minX).append(",").
+                    append(maxY).append(",").
+                    append(maxX).append(",");
+        } else {
+            sb.append(minX).append(",").
+                    append(minY).append(",").
+                    append(maxX).append(",").
+                    append(maxY).append(",");
+        }
+        return sb.append(crs);
+    }
+
+    /**
+     * @return cells of size offset needed to cover min to max
+     */
+    static int getCellCount(double min, double max, double offset) {
+        // tolerate rounding in bounds that are a whole number of cells
+        return Math.max(1, (int) Math.ceil((max - min) / Math.abs(offset) - 1e-6));
+    }
+
+    /**
+     * @return edge of the grid's cells nearest value on its lower side, or
+     * its upper side, counted in cells of size offset from gridEdge
+     */
+    static double getCellEdge(double value, double gridEdge, double offset, boolean lower) {
+        double cells = (value - gridEdge) / Math.abs(offset);
+        // tolerate rounding in values that are on an edge
+        double edgeCells = lower ? Math.floor(cells + 1e-6) : Math.ceil(cells - 1e-6);
+        return gridEdge + edgeCells * Math.abs(offset);
+    }
+
+    /**
+     * @return min and max of cells first (inclusive) to end (exclusive),
+     * counted from the edge of min to max that a grid with this offset starts
+     * at, the last cell ends at the far edge
+     */
+    static double[] getCellBounds(double min, double max, double offset, int first, int end, int cells) {
+        double start = offset > 0 ? min : max;
+        double from = start + first * offset;
+        double to = end == cells ? (offset > 0 ? max : min) : start + end * offset;
+        return new double[] { Math.min(from, to), Math.max(from, to) };
+    }
+
     public static boolean isOGC(String crs) {
         Matcher matcher = PATTERN_OGC_URN.matcher(crs);
         return matcher.matches();
@@ -26,19 +26,28 @@
  */
 package org.n52.wps.server;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.n52.wps.server.database.DatabaseFactory;
 import org.n52.wps.server.database.IDatabase;
+import org.n52.wps.server.database.StoredResponse;
 import org.n52.wps.commons.MIMEUtil;
 import org.n52.wps.commons.XMLUtil;
 import org.slf4j.Logger;
@@ -52,6 +61,9 @@ public class RetrieveResultServlet extends HttpServlet {
 	public final static String SERVLET_PATH = "RetrieveResultServlet";
 	// in future parameterize
 	private final boolean indentXML = false;
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	private static final String BYTES_UNIT = "bytes=";
+	static final long[] UNSATISFIABLE_RANGE = new long[0];
 
 	@Override
 	public void init(ServletConfig config) throws ServletException {
@@ -75,24 +87,23 @@ public class RetrieveResultServlet extends HttpServlet {
 		// return result as attachment (instructs browser to offer user "Save" dialog)
 		String attachment = request.getParameter("attachment");
 
-		InputStream inputStream = null;
+		StoredResponse storedResponse = null;
 		OutputStream outputStream = null;
-		String mimeType = null;
-		long contentLength = -1;
-		IDatabase db = DatabaseFactory.getDatabase();
 
 		if (StringUtils.isEmpty(id)) {
 			errorResponse("id parameter missing", response);
-		} else {
-			inputStream = db.lookupResponse(id);
-			mimeType = db.getMimeTypeForStoreResponse(id);
-			contentLength = db.getContentLengthForStoreResponse(id);
+			return;
 		}
-		
+
 		try {
-			if (inputStream == null) {
+			storedResponse = getDatabase().lookupStoredResponse(id);
+			if (storedResponse == null) {
 				errorResponse("id " + id + " is unknown to server", response);
+			} else if (storedResponse.getMimeType() == null) {
+				//TODO, can we get it from the actual output (updated with the algo's default)?
+				errorResponse("Unable to determine mime-type for id " + id, response);
 			} else {
+				String mimeType = storedResponse.getMimeType();
 				String suffix = MIMEUtil.getSuffixFromMIMEType(mimeType).toLowerCase();
 
 				// if attachment parameter unset, default to true TODO fix this
@@ -121,37 +132,112 @@ public class RetrieveResultServlet extends HttpServlet {
 					} catch (IOException e) {
 						throw new IOException("Error obtaining output stream for response", e);
 					}
-					copyResponseAsXML(inputStream, outputStream, useAttachment || indentXML, id);
+					copyResponseAsXML(storedResponse.openStream(), outputStream, useAttachment || indentXML, id);
 				} else {
-
-					if (contentLength > -1) {
-						// Can't use response.setContentLength(...) as it accepts an int (max of 2^31 - 1) ?!
-						// response.setContentLength(contentLength);
-						response.setHeader("Content-Length", Long.toString(contentLength));
-					} else {
-						LOGGER.warn("Content-Length unknown for response to id {}", id);
-					}
-
-					try {
-						outputStream = response.getOutputStream();
-					} catch (IOException e) {
-						throw new IOException("Error obtaining output stream for response", e);
-					}
-					copyResponseStream(inputStream, outputStream, id, contentLength);
-				}
-				if (mimeType == null) {
-					//TODO, can we get it from the actual output (updated with the algo's default)?
-					errorResponse("Unable to determine mime-type for id " + id, response);
+					outputStream = writeResponseContent(request, response, storedResponse);
 				}
 			}
 		} catch (Exception e) {
 			logException(e);
 		} finally {
-			IOUtils.closeQuietly(inputStream);
+			if (storedResponse != null) {
+				storedResponse.close();
+			}
 			IOUtils.closeQuietly(outputStream);
 		}
 	}
 
+	protected IDatabase getDatabase() {
+		return DatabaseFactory.getDatabase();
+	}
+
+	/**
+	 * Writes non-XML content honoring conditional (If-None-Match), encoding
+	 * (Accept-Encoding: gzip) and partial (Range) requests.
+	 *
+	 * Gzipped results are passed through untouched when the client accepts
+	 * gzip, otherwise they are inflated here.  Bytes stored on disk as-is are
+	 * sent with FileChannel.transferTo.  Byte ranges always apply to the
+	 * representation being sent, so a gzip encoded response is ranged over the
+	 * compressed bytes.
+	 *
+	 * @return output stream of the response if it was opened, null otherwise
+	 */
+	protected OutputStream writeResponseContent(
+			HttpServletRequest request,
+			HttpServletResponse response,
+			StoredResponse storedResponse) throws IOException {
+		String id = storedResponse.getId();
+		boolean passThrough = storedResponse.isFileBacked()
+				&& (!storedResponse.isGzipped() || acceptsGzip(request));
+		long representationLength = passThrough
+				? storedResponse.getStoredLength()
+				: storedResponse.getContentLength();
+		String etag = generateETag(storedResponse, passThrough);
+
+		if (storedResponse.isGzipped()) {
+			response.addHeader("Vary", "Accept-Encoding");
+		}
+		if (etag != null) {
+			response.setHeader("ETag", etag);
+			if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				LOGGER.debug("Response to id {} not modified", id);
+				return null;
+			}
+		}
+
+		long start = 0;
+		long count = representationLength;
+		if (representationLength > -1) {
+			response.setHeader("Accept-Ranges", "bytes");
+			String ifRange = request.getHeader("If-Range");
+			String range = request.getHeader("Range");
+			if (range != null && (ifRange == null || ifRange.equals(etag))) {
+				long[] byteRange = parseByteRange(range, representationLength);
+				if (byteRange == UNSATISFIABLE_RANGE) {
+					response.setHeader("Content-Range", "bytes */" + representationLength);
+					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+					return null;
+				} else if (byteRange != null) {
+					start = byteRange[0];
+					count = byteRange[1] - byteRange[0] + 1;
+					response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+					response.setHeader("Content-Range", String.format("bytes %d-%d/%d", byteRange[0], byteRange[1], representationLength));
+				}
+			}
+			// Can't use response.setContentLength(...) as it accepts an int (max of 2^31 - 1) ?!
+			response.setHeader("Content-Length", Long.toString(count));
+		} else {
+			LOGGER.warn("Content-Length unknown for response to id {}", id);
+		}
+
+		if (passThrough && storedResponse.isGzipped()) {
+			response.setHeader("Content-Encoding", "gzip");
+		}
+
+		OutputStream outputStream;
+		try {
+			outputStream = response.getOutputStream();
+		} catch (IOException e) {
+			throw new IOException("Error obtaining output stream for response", e);
+		}
+
+		if (passThrough) {
+			transferResponseFile(storedResponse.getFile(), outputStream, id, start, count);
+		} else {
+			InputStream inputStream = storedResponse.openStream();
+			if (start > 0) {
+				IOUtils.skipFully(inputStream, start);
+			}
+			if (count > -1 && count < representationLength) {
+				inputStream = new BoundedInputStream(inputStream, count);
+			}
+			copyResponseStream(inputStream, outputStream, id, count);
+		}
+		return outputStream;
+	}
+
 	protected void errorResponse(String error, HttpServletResponse response) throws IOException {
 		response.setContentType("text/html");
 		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -168,7 +254,7 @@ public class RetrieveResultServlet extends HttpServlet {
 			long contentLength) throws IOException {
 		long contentWritten = 0;
 		try {
-			byte[] buffer = new byte[8192];
+			byte[] buffer = new byte[COPY_BUFFER_SIZE];
 			int bufferRead;
 			while ((bufferRead = inputStream.read(buffer)) != -1) {
 				outputStream.write(buffer, 0, bufferRead);
@@ -183,6 +269,136 @@ public class RetrieveResultServlet extends HttpServlet {
 		LOGGER.info("{} bytes written in response to id {}", contentWritten, id);
 	}
 
+	protected void transferResponseFile(
+			File file,
+			OutputStream outputStream,
+			String id,
+			long position,
+			long count) throws IOException {
+		long contentWritten = 0;
+		try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			WritableByteChannel outputChannel = Channels.newChannel(outputStream);
+			while (contentWritten < count) {
+				long transferred = fileChannel.transferTo(position + contentWritten, count - contentWritten, outputChannel);
+				if (transferred <= 0) {
+					throw new EOFException("Unexpected end of file " + file.getPath());
+				}
+				contentWritten += transferred;
+			}
+		} catch (IOException e) {
+			throw new IOException(String.format("Error writing response to output stream for id %s, %d of %d bytes written", id, contentWritten, count), e);
+		}
+		LOGGER.info("{} bytes written in response to id {}", contentWritten, id);
+	}
+
+	/**
+	 * Strong validator for the stored bytes, distinct for the gzip encoded
+	 * and identity representations.  Results are written once, so modification
+	 * time and length identify the content.
+	 */
+	protected String generateETag(StoredResponse storedResponse, boolean passThrough) {
+		String etag = null;
+		if (storedResponse.isFileBacked()) {
+			StringBuilder builder = new StringBuilder("\"")
+					.append(Long.toHexString(storedResponse.getLastModified()))
+					.append('-')
+					.append(Long.toHexString(storedResponse.getStoredLength()));
+			if (storedResponse.isGzipped() && passThrough) {
+				builder.append("-gzip");
+			}
+			etag = builder.append('"').toString();
+		}
+		return etag;
+	}
+
+	private static boolean acceptsGzip(HttpServletRequest request) {
+		boolean accepts = false;
+		Enumeration<?> acceptEncodings = request.getHeaders("Accept-Encoding");
+		while (acceptEncodings != null && acceptEncodings.hasMoreElements()) {
+			for (String coding : ((String) acceptEncodings.nextElement()).split(",")) {
+				String[] parts = coding.trim().split(";");
+				if ("gzip".equalsIgnoreCase(parts[0].trim()) || "x-gzip".equalsIgnoreCase(parts[0].trim())) {
+					accepts = true;
+					for (int i = 1; i < parts.length; i++) {
+						String param = parts[i].replace(" ", "");
+						if (param.equals("q=0") || param.matches("q=0\\.0*")) {
+							accepts = false;
+						}
+					}
+				}
+			}
+		}
+		return accepts;
+	}
+
+	private static boolean matchesETag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch != null) {
+			for (String candidate : ifNoneMatch.split(",")) {
+				String tag = candidate.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if ("*".equals(tag) || etag.equals(tag)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses a single "bytes" range.  Multiple ranges and malformed headers
+	 * are ignored and the full content is served.
+	 *
+	 * @return inclusive [first, last] byte positions, null if the header
+	 * should be ignored, or UNSATISFIABLE_RANGE
+	 */
+	static long[] parseByteRange(String range, long length) {
+		String header = range.trim();
+		if (!header.startsWith(BYTES_UNIT) || header.contains(",")) {
+			return null;
+		}
+		String spec = header.substring(BYTES_UNIT.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		long first;
+		long last;
+		try {
+			String firstSpec = spec.substring(0, dash).trim();
+			String lastSpec = spec.substring(dash + 1).trim();
+			if (firstSpec.isEmpty()) {
+				// suffix range, last N bytes
+				long suffixLength = Long.parseLong(lastSpec);
+				if (suffixLength <= 0) {
+					return UNSATISFIABLE_RANGE;
+				}
+				first = Math.max(0, length - suffixLength);
+				last = length - 1;
+			} else {
+				first = Long.parseLong(firstSpec);
+				last = length - 1;
+				if (!lastSpec.isEmpty()) {
+					long requestedLast = Long.parseLong(lastSpec);
+					if (requestedLast < first) {
+						return null;
+					}
+					last = Math.min(requestedLast, last);
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (first < 0) {
+			return null;
+		}
+		if (first >= length) {
+			return UNSATISFIABLE_RANGE;
+		}
+		return new long[]{first, last};
+	}
+
 	protected void copyResponseAsXML(
 			InputStream inputStream,
 			OutputStream outputStream,
@@ -0,0 +1,76 @@
+package org.n52.wps.server.database;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helpers shared by the databases for writing complex values to disk.
+ */
+final class ComplexValueStorage {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ComplexValueStorage.class);
+
+	/**
+	 * Formats that are already compressed, gzipping them again costs CPU and
+	 * saves next to nothing.
+	 */
+	private static final Set<String> COMPRESSED_MIME_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"application/zip",
+			"application/x-zip-compressed",
+			"application/x-zipped-shp",
+			"application/gzip",
+			"application/x-gzip",
+			"image/geotiff",
+			"image/tiff",
+			"application/geotiff",
+			"application/x-geotiff",
+			"image/png",
+			"image/jpeg")));
+
+	private ComplexValueStorage() {
+	}
+
+	/**
+	 * @param mimeType mime-type of the complex value, parameters are ignored
+	 * @return false if the format is already compressed
+	 */
+	static boolean isCompressible(String mimeType) {
+		if (mimeType == null) {
+			return true;
+		}
+		String baseType = mimeType.split(";")[0].trim().toLowerCase(Locale.US);
+		return !COMPRESSED_MIME_TYPES.contains(baseType);
+	}
+
+	/**
+	 * Makes source available at target without copying if possible.  A hard
+	 * link is used so the algorithm may still dispose of its own file; when
+	 * linking is not possible (e.g. source is on another file system) the file
+	 * is copied.
+	 *
+	 * @param source file to hand off
+	 * @param target location in the result store, replaced if it exists
+	 * @return size of the stored file
+	 * @throws IOException
+	 */
+	static long linkOrCopy(Path source, Path target) throws IOException {
+		Files.deleteIfExists(target);
+		try {
+			Files.createLink(target, source);
+		} catch (FileSystemException | UnsupportedOperationException e) {
+			LOGGER.debug("Unable to link {} to {}, copying: {}", new Object[]{source, target, e.getMessage()});
+			Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return Files.size(target);
+	}
+}
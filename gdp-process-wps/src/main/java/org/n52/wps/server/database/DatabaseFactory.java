@@ -184,6 +184,11 @@ public class DatabaseFactory implements IDatabase
     public synchronized String storeComplexValue(String requestId, String outputId, InputStream stream, String type, String mimeType) {
 		return DatabaseFactory.database.storeComplexValue(requestId, outputId, stream, type, mimeType);
 	}
+
+	@Override
+    public synchronized String storeComplexValue(String requestId, String outputId, File file, String type, String mimeType) {
+		return DatabaseFactory.database.storeComplexValue(requestId, outputId, file, type, mimeType);
+	}
 	
 	/**
 	 * The URL referencing the location from which the ExecuteResponse can be retrieved. 
@@ -235,5 +240,10 @@ public class DatabaseFactory implements IDatabase
 	public File lookupResponseAsFile(String requestId) {
 		return DatabaseFactory.database.lookupResponseAsFile(requestId);
 	}
+
+    @Override
+	public StoredResponse lookupStoredResponse(String id) {
+		return DatabaseFactory.database.lookupStoredResponse(id);
+	}
 	
 }
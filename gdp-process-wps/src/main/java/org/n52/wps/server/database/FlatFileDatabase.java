@@ -90,6 +90,8 @@ public final class FlatFileDatabase implements IDatabase {
     private final static String SUFFIX_GZIP = "gz";
     private final static String SUFFIX_PROPERTIES = "properties";
 
+    private final static int COPY_BUFFER_SIZE = 64 * 1024;
+
     // If the delimiter changes, examine Patterns below.
     private final static Joiner JOINER = Joiner.on(".");
 
@@ -246,6 +248,21 @@ public final class FlatFileDatabase implements IDatabase {
         return null;
     }
 
+    @Override
+    public StoredResponse lookupStoredResponse(String id) {
+        File responseFile = lookupResponseAsFile(id);
+        if (responseFile != null && responseFile.exists()) {
+            LOGGER.debug("Response file for {} is {}", id, responseFile.getPath());
+            return new StoredResponse(id,
+                    getMimeTypeForStoreResponse(id),
+                    getContentLengthForStoreResponse(id),
+                    responseFile,
+                    responseFile.getName().endsWith(SUFFIX_GZIP));
+        }
+        LOGGER.warn("Response not found for id {}", id);
+        return null;
+    }
+
     @Override
     public File lookupRequestAsFile(String id) {
         File requestAsFile = null;
@@ -304,9 +321,8 @@ public final class FlatFileDatabase implements IDatabase {
     	String id = request_Id + "" + output_id;
         String resultId = JOINER.join(id, UUID.randomUUID().toString());
         try {
-            File resultFile = generateComplexDataFile(resultId, mimeType, gzipComplexValues);
-            File mimeTypeFile = generateComplexDataMimeTypeFile(resultId);
-            File contentLengthFile = generateComplexDataContentLengthFile(resultId);
+            boolean gzip = gzipComplexValues && ComplexValueStorage.isCompressible(mimeType);
+            File resultFile = generateComplexDataFile(resultId, mimeType, gzip);
 
             LOGGER.debug("initiating storage of complex value for {} as {}", id, resultFile.getPath());
 
@@ -314,8 +330,8 @@ public final class FlatFileDatabase implements IDatabase {
 
             OutputStream resultOutputStream = null;
             try {
-                resultOutputStream = gzipComplexValues ? new GZIPOutputStream(new FileOutputStream(resultFile))
-                                                      : new BufferedOutputStream(new FileOutputStream(resultFile));
+                resultOutputStream = gzip ? new GZIPOutputStream(new FileOutputStream(resultFile), COPY_BUFFER_SIZE)
+                                          : new BufferedOutputStream(new FileOutputStream(resultFile), COPY_BUFFER_SIZE);
                 contentLength = IOUtils.copyLarge(resultInputStream, resultOutputStream);
             }
             finally {
@@ -323,26 +339,35 @@ public final class FlatFileDatabase implements IDatabase {
                 IOUtils.closeQuietly(resultOutputStream);
             }
 
-            OutputStream mimeTypeOutputStream = null;
-            try {
-                mimeTypeOutputStream = new BufferedOutputStream(new FileOutputStream(mimeTypeFile));
-                IOUtils.write(mimeType, mimeTypeOutputStream);
-            }
-            finally {
-                IOUtils.closeQuietly(mimeTypeOutputStream);
-            }
+            storeComplexValueMetadata(resultId, mimeType, contentLength);
+
+            LOGGER.debug("completed storage of complex value for {} as {}", id, resultFile.getPath());
+
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error storing complex value for " + resultId, e);
+        }
+        return generateRetrieveResultURL(resultId);
+    }
 
-            OutputStream contentLengthOutputStream = null;
+    @Override
+    public String storeComplexValue(String request_Id, String output_id, File file, String type, String mimeType) {
+        if (gzipComplexValues && ComplexValueStorage.isCompressible(mimeType)) {
+            // compressing needs every byte anyway, do it in a single pass
             try {
-                contentLengthOutputStream = new BufferedOutputStream(new FileOutputStream(contentLengthFile));
-                IOUtils.write(Long.toString(contentLength), contentLengthOutputStream);
+                return storeComplexValue(request_Id, output_id, new FileInputStream(file), type, mimeType);
             }
-            finally {
-                IOUtils.closeQuietly(contentLengthOutputStream);
+            catch (FileNotFoundException e) {
+                throw new RuntimeException("Error storing complex value from " + file.getPath(), e);
             }
-
-            LOGGER.debug("completed storage of complex value for {} as {}", id, resultFile.getPath());
-
+        }
+    	String id = request_Id + "" + output_id;
+        String resultId = JOINER.join(id, UUID.randomUUID().toString());
+        try {
+            File resultFile = generateComplexDataFile(resultId, mimeType, false);
+            LOGGER.debug("linking complex value for {} from {} as {}", new Object[] {id, file.getPath(), resultFile.getPath()});
+            long contentLength = ComplexValueStorage.linkOrCopy(file.toPath(), resultFile.toPath());
+            storeComplexValueMetadata(resultId, mimeType, contentLength);
         }
         catch (IOException e) {
             throw new RuntimeException("Error storing complex value for " + resultId, e);
@@ -350,6 +375,29 @@ public final class FlatFileDatabase implements IDatabase {
         return generateRetrieveResultURL(resultId);
     }
 
+    private void storeComplexValueMetadata(String resultId, String mimeType, long contentLength) throws IOException {
+        File mimeTypeFile = generateComplexDataMimeTypeFile(resultId);
+        File contentLengthFile = generateComplexDataContentLengthFile(resultId);
+
+        OutputStream mimeTypeOutputStream = null;
+        try {
+            mimeTypeOutputStream = new BufferedOutputStream(new FileOutputStream(mimeTypeFile));
+            IOUtils.write(mimeType, mimeTypeOutputStream);
+        }
+        finally {
+            IOUtils.closeQuietly(mimeTypeOutputStream);
+        }
+
+        OutputStream contentLengthOutputStream = null;
+        try {
+            contentLengthOutputStream = new BufferedOutputStream(new FileOutputStream(contentLengthFile));
+            IOUtils.write(Long.toString(contentLength), contentLengthOutputStream);
+        }
+        finally {
+            IOUtils.closeQuietly(contentLengthOutputStream);
+        }
+    }
+
     @Override
     public String storeResponse(String id, InputStream inputStream) {
 
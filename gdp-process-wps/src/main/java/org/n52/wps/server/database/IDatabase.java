@@ -29,6 +29,8 @@
 package org.n52.wps.server.database;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -67,6 +69,17 @@ public interface IDatabase {
 	public InputStream lookupResponse(String id);
 	
 	public String storeComplexValue(String requestId, String outputId, InputStream stream, String type, String mimeType);
+
+	// Store a complex value that the generator already wrote to disk.  The
+	// file remains owned by the caller; implementations may link it into
+	// storage rather than copying it.
+	public default String storeComplexValue(String requestId, String outputId, File file, String type, String mimeType) {
+		try (InputStream stream = new FileInputStream(file)) {
+			return storeComplexValue(requestId, outputId, stream, type, mimeType);
+		} catch (IOException e) {
+			throw new RuntimeException("Error storing complex value from " + file.getPath(), e);
+		}
+	}
 	
 	// The URL referencing the location from which the ExecuteResponse can be retrieved. 
 	// If "status" is "true" in the Execute request, the ExecuteResponse should also be 
@@ -91,5 +104,16 @@ public interface IDatabase {
     public File lookupRequestAsFile(String id);
 
 	public File lookupResponseAsFile(String id);
+
+	// Retrieve the Response together with its mime-type and content length in a
+	// single lookup, null if the identifier is unknown.  Implementations that
+	// keep responses on disk should override this to expose the backing file.
+	public default StoredResponse lookupStoredResponse(String id) {
+		InputStream stream = lookupResponse(id);
+		if (stream == null) {
+			return null;
+		}
+		return new StoredResponse(id, getMimeTypeForStoreResponse(id), getContentLengthForStoreResponse(id), stream);
+	}
 	
 }
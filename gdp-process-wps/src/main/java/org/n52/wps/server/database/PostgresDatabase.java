@@ -90,8 +90,12 @@ public class PostgresDatabase extends AbstractDatabase {
 	private static final long DEFAULT_DATABASE_WIPE_PERIOD = 1000 * 60 * 60; // default to running once an hour
 	private static final long DEFAULT_DATABASE_WIPE_THRESHOLD = 1000 * 60 * 60 * 24 * 7; // default to wipe things over a week old
 
+	private static final String KEY_DATABASE_COMPLEX_GZIP = "complex.gzip";
+	private static final boolean DEFAULT_DATABASE_COMPLEX_GZIP = true;
+
 	private static final String FILE_URI_PREFIX = "file://";
 	private static final String SUFFIX_GZIP = "gz";
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
 	private static final String DEFAULT_BASE_DIRECTORY
 		= Joiner.on(File.separator).join(System.getProperty("java.io.tmpdir", "."), "Database", "Results");
 	private static final ServerDocument.Server server = WPSConfig.getInstance().getWPSConfig().getServer();
@@ -107,6 +111,7 @@ public class PostgresDatabase extends AbstractDatabase {
 
 	private static Timer wipeTimer;
 	private final String DATABASE_NAME;
+	private final boolean gzipComplexValues;
 
 	// SQL DATABASE CREATION
 	private static final String REQUEST_TABLE_NAME = "request";
@@ -139,6 +144,7 @@ public class PostgresDatabase extends AbstractDatabase {
 		String baseDirectoryPath = propertyUtil.extractString(KEY_DATABASE_PATH, DEFAULT_BASE_DIRECTORY);
 		String dbName = getDatabaseProperties(PROPERTY_NAME_DATABASE_NAME);
 		DATABASE_NAME = (StringUtils.isBlank(dbName)) ? "wps" : dbName;
+		gzipComplexValues = propertyUtil.extractBoolean(KEY_DATABASE_COMPLEX_GZIP, DEFAULT_DATABASE_COMPLEX_GZIP);
 		try {
 			Class.forName("org.postgresql.Driver");
 			initializeBaseDirectory(baseDirectoryPath);
@@ -376,21 +382,54 @@ public class PostgresDatabase extends AbstractDatabase {
 		} else{
 			try {
 				// The result contents won't be saved to the database, only a pointer to the file system. I am therefore
-				// going to GZip the data to save space
-				FileReferenceInfo info = writeInputStreamToDisk(requestid, stream, true);
+				// going to GZip the data to save space unless it is already compressed
+				FileReferenceInfo info = writeInputStreamToDisk(outputId, stream, shouldCompress(mimeType));
 				output.setLocation(info.getFileLocation());
 				output.setResponseLength(info.getFileSize());
 			} catch (IOException ex) {
 				LOGGER.error("Failed to write output data to disk", ex);
 			}
 		}
+		persistOutput(output);
+		return generateRetrieveResultURL(outputId);
+	}
+
+	@Override
+	public synchronized String storeComplexValue(String requestid, String outputIdentifier, File file, String type, String mimeType) {
+		if (SAVE_RESULTS_TO_DB || shouldCompress(mimeType)) {
+			// compression (or the database) needs the bytes anyway, stream them once
+			try (InputStream stream = new FileInputStream(file)) {
+				return storeComplexValue(requestid, outputIdentifier, stream, type, mimeType);
+			} catch (IOException ex) {
+				throw new RuntimeException("issue reading output from " + file.getPath(), ex);
+			}
+		}
+		String wpsResponseId = readWpsResponseFromDB(requestid).getId();
+		String outputId = requestid + outputIdentifier;
+		WpsOutput output = new WpsOutput(wpsResponseId, outputId, mimeType);
+		try {
+			Path filePath = BASE_DIRECTORY.resolve(outputId);
+			long fileSize = ComplexValueStorage.linkOrCopy(file.toPath(), filePath);
+			output.setLocation(toLocation(filePath));
+			output.setResponseLength(fileSize);
+		} catch (IOException ex) {
+			LOGGER.error("Failed to write output data to disk", ex);
+		}
+		persistOutput(output);
+		return generateRetrieveResultURL(outputId);
+	}
+
+	private boolean shouldCompress(String mimeType) {
+		return gzipComplexValues && ComplexValueStorage.isCompressible(mimeType);
+	}
+
+	private void persistOutput(WpsOutput output) {
 		try (Connection connection = getConnection();
 				PreparedStatement statement = connection.prepareStatement(INSERT_OUTPUT_STATEMENT)) {
 			persistOutput(output, statement);
 		} catch (Exception e) {
 			throw new RuntimeException("issue writing output", e);
 		}
-		return generateRetrieveResultURL(outputId);
 	}
 	
 	/**
@@ -403,22 +442,26 @@ public class PostgresDatabase extends AbstractDatabase {
 	 */
 	private FileReferenceInfo writeInputStreamToDisk(String filename, InputStream data, boolean compress) throws IOException {
 		FileReferenceInfo info = null;
-		Path filePath = BASE_DIRECTORY.resolve(Joiner.on(".").join(filename, SUFFIX_GZIP));
+		Path filePath = compress ? BASE_DIRECTORY.resolve(Joiner.on(".").join(filename, SUFFIX_GZIP)) : BASE_DIRECTORY.resolve(filename);
 		Files.deleteIfExists(filePath);
 		Path createdFilePath = Files.createFile(filePath);
 
 		OutputStream os = new FileOutputStream(createdFilePath.toFile());
 
 		if (compress) {
-			os = new GZIPOutputStream(os);
+			os = new GZIPOutputStream(os, COPY_BUFFER_SIZE);
 		}
 
 		long bytesCopied = IOUtils.copyLarge(data, os);
 		IOUtils.closeQuietly(os);
-		info = new FileReferenceInfo(createdFilePath.toUri().toString().replaceFirst(FILE_URI_PREFIX, ""), bytesCopied);
+		info = new FileReferenceInfo(toLocation(createdFilePath), bytesCopied);
 		
 		return info;
 	}
+
+	private String toLocation(Path filePath) {
+		return filePath.toUri().toString().replaceFirst(FILE_URI_PREFIX, "");
+	}
 	
 	private WpsRequest readWpsRequestFromDB(String requestId) {
 		WpsRequest ret = null;
@@ -707,7 +750,9 @@ public class PostgresDatabase extends AbstractDatabase {
 						LOGGER.debug("ID {} is output and saved to disk instead of database. Path = " + location);
 						if (Files.exists(Paths.get(location))) {
 							try {
-								result = new GZIPInputStream(new FileInputStream(location));
+								result = location.endsWith("." + SUFFIX_GZIP)
+										? new GZIPInputStream(new FileInputStream(location))
+										: new FileInputStream(location);
 							} catch (IOException e) {
 								String msg = "Problem reading file";
 								LOGGER.warn(msg + " at " + location);
@@ -729,6 +774,44 @@ public class PostgresDatabase extends AbstractDatabase {
 		return result;
 	}
 	
+	@Override
+	public StoredResponse lookupStoredResponse(String id) {
+		StoredResponse result = null;
+		synchronized (storeResponseLock) {
+			if (StringUtils.isNotBlank(id)) {
+				WpsResponse responseFromDb = readWpsResponseFromDB(id);
+				if (responseFromDb != null) {
+					result = new StoredResponse(id, "text/xml", -1, buildExecuteResponse(id));
+				} else {
+					WpsOutput outputFromDb = readOutputFromDB(id);
+					if (outputFromDb != null) {
+						String inDbContent = outputFromDb.getContent();
+						String location = outputFromDb.getLocation();
+						if (inDbContent != null) {
+							byte[] content = inDbContent.getBytes();
+							result = new StoredResponse(id, outputFromDb.getMimeType(), content.length, new ByteArrayInputStream(content));
+						} else if (location != null) {
+							File file = new File(location);
+							if (file.exists()) {
+								result = new StoredResponse(id, outputFromDb.getMimeType(), outputFromDb.getResponseLength(),
+										file, location.endsWith("." + SUFFIX_GZIP));
+							} else {
+								String msg = "Response not found on disk for id " + id;
+								LOGGER.warn(msg + " at " + location);
+								throw new RuntimeException(msg);
+							}
+						} else {
+							throw new RuntimeException("No content to return");
+						}
+					}
+				}
+			} else {
+				LOGGER.warn("tried to look up response for null id, returned null");
+			}
+		}
+		return result;
+	}
+	
 	@Override
 	public String getMimeTypeForStoreResponse(String id) {
 		String mimeType = null;
@@ -0,0 +1,139 @@
+package org.n52.wps.server.database;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Result of a single lookup of a stored response: mime-type, content length
+ * and either the file backing the response or a stream over its content.
+ *
+ * File backed responses may be stored gzipped, in which case
+ * {@link #openStream()} inflates the content and {@link #getFile()} can be
+ * used to hand the compressed bytes to a client that accepts them as-is.
+ */
+public class StoredResponse implements Closeable {
+
+	private final String id;
+	private final String mimeType;
+	private final long contentLength;
+	private final File file;
+	private final boolean gzipped;
+	private InputStream stream;
+	private boolean consumed;
+
+	/**
+	 * @param id identifier of the response
+	 * @param mimeType mime-type of the response
+	 * @param contentLength uncompressed length of the content, -1 if unknown
+	 * @param file file the response is stored in
+	 * @param gzipped true if the file is stored gzipped
+	 */
+	public StoredResponse(String id, String mimeType, long contentLength, File file, boolean gzipped) {
+		this.id = id;
+		this.mimeType = mimeType;
+		this.contentLength = contentLength;
+		this.file = file;
+		this.gzipped = gzipped;
+		this.stream = null;
+		this.consumed = false;
+	}
+
+	/**
+	 * @param id identifier of the response
+	 * @param mimeType mime-type of the response
+	 * @param contentLength length of the content, -1 if unknown
+	 * @param stream stream over the (uncompressed) content
+	 */
+	public StoredResponse(String id, String mimeType, long contentLength, InputStream stream) {
+		this.id = id;
+		this.mimeType = mimeType;
+		this.contentLength = contentLength;
+		this.file = null;
+		this.gzipped = false;
+		this.stream = stream;
+		this.consumed = false;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * @return length of the uncompressed content, -1 if unknown
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * @return file backing this response, null if response is only available
+	 * as a stream
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	public boolean isFileBacked() {
+		return file != null;
+	}
+
+	/**
+	 * @return true if the backing file is stored gzipped
+	 */
+	public boolean isGzipped() {
+		return gzipped;
+	}
+
+	/**
+	 * @return length of the backing file as stored on disk, -1 if not file backed
+	 */
+	public long getStoredLength() {
+		return file == null ? -1 : file.length();
+	}
+
+	/**
+	 * @return last modified time of the backing file, -1 if not file backed
+	 */
+	public long getLastModified() {
+		return file == null ? -1 : file.lastModified();
+	}
+
+	/**
+	 * Opens a stream over the uncompressed content of this response.  For
+	 * stream backed responses this may only be called once.
+	 *
+	 * @return stream over the content
+	 * @throws IOException
+	 */
+	public InputStream openStream() throws IOException {
+		if (file != null) {
+			IOUtils.closeQuietly(stream);
+			InputStream fileStream = new FileInputStream(file);
+			try {
+				stream = gzipped ? new GZIPInputStream(fileStream) : fileStream;
+			} catch (IOException e) {
+				IOUtils.closeQuietly(fileStream);
+				throw e;
+			}
+		} else if (consumed || stream == null) {
+			throw new IOException("Content of response " + id + " is not available");
+		}
+		consumed = true;
+		return stream;
+	}
+
+	@Override
+	public void close() {
+		IOUtils.closeQuietly(stream);
+		stream = null;
+	}
+}
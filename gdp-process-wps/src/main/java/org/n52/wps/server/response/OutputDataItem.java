@@ -28,6 +28,8 @@
  */
 package org.n52.wps.server.response;
 
+import gov.usgs.cida.gdp.wps.generator.FileGenerator;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
@@ -209,8 +211,18 @@ public class OutputDataItem extends ResponseData {
 		IDatabase db = DatabaseFactory.getDatabase();
 
 		try {
+			String storeReference = null;
 			if (encoding == null || encoding.equals("") || encoding.equalsIgnoreCase(IOHandler.DEFAULT_ENCODING)){
-				stream = generator.generateStream(super.obj, mimeType, schema);
+				// hand off outputs that already sit on disk instead of copying them
+				File file = null;
+				if (generator instanceof FileGenerator) {
+					file = ((FileGenerator) generator).generateFile(super.obj, mimeType, schema);
+				}
+				if (file != null && file.isFile()) {
+					storeReference = db.storeComplexValue(reqID, id, file, COMPLEX_DATA_TYPE, mimeType);
+				} else {
+					stream = generator.generateStream(super.obj, mimeType, schema);
+				}
 			}
 
 			// in case encoding is base64
@@ -220,8 +232,10 @@ public class OutputDataItem extends ResponseData {
 
 			else {
 				throw new ExceptionReport("Unable to generate encoding " + encoding, ExceptionReport.NO_APPLICABLE_CODE);
-			}			
-			String storeReference = db.storeComplexValue(reqID, id, stream, COMPLEX_DATA_TYPE, mimeType);
+			}
+			if (storeReference == null) {
+				storeReference = db.storeComplexValue(reqID, id, stream, COMPLEX_DATA_TYPE, mimeType);
+			}
 			storeReference = storeReference.replace("#", "%23");
 			outReference.setHref(storeReference);
 		}
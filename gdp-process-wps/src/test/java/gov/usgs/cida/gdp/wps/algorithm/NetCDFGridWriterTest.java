@@ -0,0 +1,157 @@
+package gov.usgs.cida.gdp.wps.algorithm;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Locale;
+
+import org.geotools.data.FileDataStoreFinder;
+import org.geotools.feature.FeatureCollection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.MAMath;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dt.grid.GridDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+
+/**
+ * Chunking and block layout checks, plus a benchmark of the NetCDF-3 and
+ * NetCDF-4 writers over the PRISM test set.
+ */
+public class NetCDFGridWriterTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NetCDFGridWriterTest.class);
+
+	private static GridDataset prismGridDataset;
+	private static FeatureCollection<?, ?> coloradoFeatureCollection;
+
+	@BeforeClass
+	public static void setUpAll() throws Exception {
+		prismGridDataset = (GridDataset) FeatureDatasetFactoryManager.open(FeatureType.GRID,
+				NetCDFGridWriterTest.class.getClassLoader().getResource("nc/prism.nc").toString(),
+				null, new Formatter(System.err));
+		coloradoFeatureCollection = FileDataStoreFinder.getDataStore(
+				NetCDFGridWriterTest.class.getClassLoader().getResource("shp/colorado/CONUS_States.shp"))
+				.getFeatureSource().getFeatures();
+	}
+
+	@AfterClass
+	public static void tearDownAll() {
+		try {
+			if (prismGridDataset != null) {
+				prismGridDataset.close();
+			}
+		} catch (IOException ignore) {
+		}
+	}
+
+	@Test
+	public void timeSeriesChunkingTest() {
+		Variable grid = createVariable(DataType.FLOAT, 5000, 400, 600);
+		long[] chunk = new GridChunking().computeChunking(grid);
+		assertThat(chunk[0], is(1024L));
+		assertThat(chunk[1], is(16L));
+		assertThat(chunk[2], is(16L));
+
+		Variable shortSeries = createVariable(DataType.FLOAT, 12, 400, 600);
+		chunk = new GridChunking().computeChunking(shortSeries);
+		assertThat(chunk[0], is(12L));
+		assertThat(chunk[1] * chunk[2] * 12 * 4 <= GridChunking.DEFAULT_CHUNK_BYTES, is(true));
+		assertThat(chunk[1] > 16, is(true));
+	}
+
+	@Test
+	public void fixedChunkShapeTest() {
+		GridChunking chunking = new GridChunking(1, false, GridChunking.DEFAULT_CHUNK_BYTES, GridChunking.parseChunkShape("365, 32, 32"));
+		long[] chunk = chunking.computeChunking(createVariable(DataType.FLOAT, 100, 400, 20));
+		assertThat(chunk[0], is(100L));
+		assertThat(chunk[1], is(32L));
+		assertThat(chunk[2], is(20L));
+	}
+
+	@Test
+	public void blockShapeTest() {
+		// fits in one block
+		assertArrayEquals(new int[] {10, 100, 100}, NetCDFGridWriter.blockShape(new int[] {10, 100, 100}, 4, null));
+		// 64 MB of time steps, aligned to the time chunk
+		int[] block = NetCDFGridWriter.blockShape(new int[] {5000, 1000, 1000}, 4, new long[] {10, 100, 100});
+		assertArrayEquals(new int[] {10, 1000, 1000}, block);
+		// a single time step is too large, rows are split on chunk edges
+		block = NetCDFGridWriter.blockShape(new int[] {5000, 10000, 10000}, 4, new long[] {10, 100, 100});
+		assertThat(block[0], is(10));
+		assertThat(block[1] % 100, is(0));
+		assertThat(block[2], is(10000));
+	}
+
+	@Test
+	public void writeBenchmarkTest() throws Exception {
+		List<String> gridVariableList = Arrays.asList("ppt");
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
+		Date startDate = format.parse("2000-02-01");
+		Date endDate = format.parse("2013-02-01");
+
+		File netcdf3 = File.createTempFile("NetCDFGridWriterTest", ".nc");
+		File netcdf4 = File.createTempFile("NetCDFGridWriterTest", ".nc");
+		try {
+			long start = System.nanoTime();
+			NetCDFGridWriter.makeFile(netcdf3.getAbsolutePath(), prismGridDataset, gridVariableList,
+					coloradoFeatureCollection, startDate, endDate, true, "NetCDF-3 benchmark");
+			long netcdf3Millis = (System.nanoTime() - start) / 1000000;
+
+			start = System.nanoTime();
+			NetcdfFileWriter.Version written = NetCDFGridWriter.makeFile(netcdf4.getAbsolutePath(), prismGridDataset,
+					gridVariableList, coloradoFeatureCollection, startDate, endDate, true, "NetCDF-4 benchmark",
+					NetcdfFileWriter.Version.netcdf4, null);
+			long netcdf4Millis = (System.nanoTime() - start) / 1000000;
+
+			LOGGER.info("NetCDF-3: {} bytes in {} ms", netcdf3.length(), netcdf3Millis);
+			LOGGER.info("{}: {} bytes in {} ms", new Object[] {written, netcdf4.length(), netcdf4Millis});
+
+			NetcdfFile expected = NetcdfFile.open(netcdf3.getAbsolutePath());
+			NetcdfFile actual = NetcdfFile.open(netcdf4.getAbsolutePath());
+			try {
+				Array expectedData = expected.findVariable("ppt").read();
+				Array actualData = actual.findVariable("ppt").read();
+				assertThat(MAMath.equals(expectedData, actualData), is(true));
+			} finally {
+				expected.close();
+				actual.close();
+			}
+		} finally {
+			netcdf3.delete();
+			netcdf4.delete();
+		}
+	}
+
+	private static Variable createVariable(DataType dataType, int... shape) {
+		NetcdfFile ncfile = new NetcdfFile() {
+		};
+		List<Dimension> dimensions = new ArrayList<Dimension>();
+		for (int i = 0; i < shape.length; i++) {
+			dimensions.add(new Dimension("d" + i, shape[i]));
+		}
+		Variable variable = new Variable(ncfile, null, null, "grid");
+		variable.setDataType(dataType);
+		variable.setDimensions(dimensions);
+		return variable;
+	}
+}
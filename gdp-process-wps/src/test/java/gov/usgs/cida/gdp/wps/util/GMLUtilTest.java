@@ -8,6 +8,8 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import org.apache.commons.io.FileUtils;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.gml3.ApplicationSchemaConfiguration;
+import org.geotools.xml.Configuration;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -80,4 +82,13 @@ public class GMLUtilTest {
 		CoordinateReferenceSystem result = GMLUtil.determineCollectionCRS(file);
 		assertNull(result);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testGMLConfigurationReusedForSameSchema() {
+		System.out.println("testGMLConfigurationReusedForSameSchema");
+		Configuration first = GMLUtil.generateGMLConfiguration(conusStates);
+		Configuration second = GMLUtil.generateGMLConfiguration(conusStates);
+		assertThat(first, instanceOf(ApplicationSchemaConfiguration.class));
+		assertSame(first, second);
+	}
+}
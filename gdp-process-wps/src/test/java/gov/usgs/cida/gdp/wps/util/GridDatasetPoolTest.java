@@ -0,0 +1,168 @@
+package gov.usgs.cida.gdp.wps.util;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.nc2.dt.GridDataset;
+
+public class GridDatasetPoolTest {
+
+	private static final URI FIRST = URI.create("dods://example.gov/thredds/dodsC/first");
+	private static final URI SECOND = URI.create("dods://example.gov/thredds/dodsC/second");
+
+	private CountingSource source;
+
+	@Before
+	public void setUp() {
+		source = new CountingSource();
+	}
+
+	@Test
+	public void exclusiveDatasetTest() throws IOException {
+		GridDatasetPool pool = new GridDatasetPool(source, 4, 60000, 60000);
+		GridDatasetPool.Handle first = pool.acquire(FIRST);
+		GridDatasetPool.Handle second = pool.acquire(FIRST);
+		// datasets are not thread safe, concurrent jobs get their own
+		assertThat(second.getGridDataset(), is(not(sameInstance(first.getGridDataset()))));
+		assertThat(source.opened.size(), is(2));
+
+		first.close();
+		GridDatasetPool.Handle third = pool.acquire(FIRST);
+		assertThat(third.getGridDataset(), is(sameInstance(first.getGridDataset())));
+		assertThat(pool.getOpenCount(), is(2L));
+		assertThat(pool.getReuseCount(), is(1L));
+
+		second.close();
+		third.close();
+		// closing twice must not release twice
+		third.close();
+		verify(source.opened.get(0), never()).close();
+		verify(source.opened.get(1), never()).close();
+		assertThat(pool.size(), is(2));
+		assertThat(pool.acquire(FIRST).getGridDataset(), is(sameInstance(third.getGridDataset())));
+		assertThat(pool.acquire(FIRST).getGridDataset(), is(sameInstance(second.getGridDataset())));
+	}
+
+	@Test
+	public void idleEvictionTest() throws IOException {
+		GridDatasetPool pool = new GridDatasetPool(source, 4, 0, 60000);
+		GridDatasetPool.Handle handle = pool.acquire(FIRST);
+		pool.evictIdle();
+		// still referenced
+		assertThat(pool.size(), is(1));
+
+		handle.close();
+		sleep();
+		pool.evictIdle();
+		assertThat(pool.size(), is(0));
+		verify(source.opened.get(0)).close();
+	}
+
+	@Test
+	public void leastRecentlyUsedEvictionTest() throws IOException {
+		GridDatasetPool pool = new GridDatasetPool(source, 1, 60000, 60000);
+		pool.acquire(FIRST).close();
+		pool.acquire(SECOND).close();
+		assertThat(pool.size(), is(1));
+		verify(source.opened.get(0)).close();
+		verify(source.opened.get(1), never()).close();
+	}
+
+	@Test
+	public void overflowTest() throws IOException {
+		GridDatasetPool pool = new GridDatasetPool(source, 1, 60000, 60000);
+		GridDatasetPool.Handle pooled = pool.acquire(FIRST);
+		GridDatasetPool.Handle unpooled = pool.acquire(SECOND);
+		GridDatasetPool.Handle busy = pool.acquire(FIRST);
+		assertThat(pool.size(), is(1));
+		assertThat(busy.getGridDataset(), is(not(sameInstance(pooled.getGridDataset()))));
+
+		unpooled.close();
+		verify(unpooled.getGridDataset()).close();
+		busy.close();
+		verify(busy.getGridDataset()).close();
+		pooled.close();
+		verify(pooled.getGridDataset(), never()).close();
+	}
+
+	@Test
+	public void healthCheckTest() throws IOException {
+		GridDatasetPool pool = new GridDatasetPool(source, 4, 60000, 0);
+		pool.acquire(FIRST).close();
+		source.healthy = false;
+		sleep();
+		GridDatasetPool.Handle handle = pool.acquire(FIRST);
+		assertThat(source.opened.size(), is(2));
+		verify(source.opened.get(0)).close();
+		assertThat(handle.getGridDataset(), is(sameInstance(source.opened.get(1))));
+		handle.close();
+	}
+
+	@Test
+	public void invalidateTest() throws IOException {
+		GridDatasetPool pool = new GridDatasetPool(source, 4, 60000, 60000);
+		GridDatasetPool.Handle first = pool.acquire(FIRST);
+		first.invalidate();
+		first.close();
+		verify(first.getGridDataset()).close();
+		assertThat(pool.size(), is(0));
+
+		GridDatasetPool.Handle second = pool.acquire(FIRST);
+		assertThat(second.getGridDataset(), is(not(sameInstance(first.getGridDataset()))));
+		second.close();
+		verify(second.getGridDataset(), never()).close();
+	}
+
+	@Test
+	public void clearTest() throws IOException {
+		GridDatasetPool pool = new GridDatasetPool(source, 4, 60000, 60000);
+		pool.acquire(FIRST).close();
+		GridDatasetPool.Handle inUse = pool.acquire(SECOND);
+		pool.clear();
+		assertThat(pool.size(), is(0));
+		verify(source.opened.get(0)).close();
+		verify(inUse.getGridDataset(), never()).close();
+		inUse.close();
+		verify(inUse.getGridDataset()).close();
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(5);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class CountingSource implements GridDatasetPool.GridDatasetSource {
+
+		private final List<GridDataset> opened = new ArrayList<>();
+		private boolean healthy = true;
+
+		@Override
+		public GridDataset open(URI datasetURI) throws IOException {
+			GridDataset gridDataset = mock(GridDataset.class);
+			opened.add(gridDataset);
+			return gridDataset;
+		}
+
+		@Override
+		public boolean isHealthy(GridDataset gridDataset) {
+			return healthy;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package gov.usgs.cida.gdp.wps.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MIMEMultipartStreamTest {
+
+    private static final String BOUNDARY = "wcs";
+    private static final int SMALL_BUFFER = BOUNDARY.length() + 5;
+
+    // body data with line breaks and a near miss of the boundary
+    private static final byte[] TIFF = "II*\u0000\r\n--wc\r\n-\n--w\rdata\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    @Test
+    public void testCoveragePartExtracted() throws IOException {
+        for (String newLine : new String[] { "\r\n", "\n" }) {
+            for (int bufferSize : new int[] { SMALL_BUFFER, SMALL_BUFFER + 3, MIMEMultipartStream.DEFAULT_BUFFERSIZE }) {
+                MIMEMultipartStream stream = new MIMEMultipartStream(
+                        trickle(response(newLine, "binary", TIFF)), BOUNDARY.getBytes(), bufferSize);
+                assertArrayEquals("buffer " + bufferSize, TIFF, extract(stream));
+            }
+        }
+    }
+
+    @Test
+    public void testBodyWrittenToChannel() throws IOException {
+        MIMEMultipartStream stream = new MIMEMultipartStream(
+                new ByteArrayInputStream(response("\r\n", "binary", TIFF)), BOUNDARY.getBytes(), SMALL_BUFFER);
+        assertTrue(stream.skipPreamble());
+        stream.discardBodyData();
+        assertTrue(stream.readBoundary());
+        assertEquals("image/tiff", stream.readHeaders().get("Content-Type"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(TIFF.length, stream.readBodyData(Channels.newChannel(out)));
+        assertArrayEquals(TIFF, out.toByteArray());
+        assertFalse(stream.readBoundary());
+    }
+
+    @Test
+    public void testEncodedPartDecoded() throws IOException {
+        byte[] encoded = Base64.getMimeEncoder().encode(TIFF);
+        MIMEMultipartStream stream = new MIMEMultipartStream(
+                new ByteArrayInputStream(response("\r\n", "base64", encoded)), BOUNDARY.getBytes());
+        assertArrayEquals(TIFF, extract(stream));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedPartFails() throws IOException {
+        byte[] response = response("\r\n", "binary", TIFF);
+        MIMEMultipartStream stream = new MIMEMultipartStream(
+                new ByteArrayInputStream(response, 0, response.length - 12), BOUNDARY.getBytes(), SMALL_BUFFER);
+        extract(stream);
+    }
+
+    private static byte[] extract(MIMEMultipartStream stream) throws IOException {
+        ByteArrayOutputStream tiff = null;
+        boolean hasNext = stream.skipPreamble();
+        while (hasNext) {
+            Map<String, String> headers = stream.readHeaders();
+            if (GeoTIFFUtil.isAllowedMimeType(headers.get("Content-Type"))) {
+                tiff = new ByteArrayOutputStream();
+                stream.readBodyData(tiff, headers.get("Content-Transfer-Encoding"));
+            } else {
+                stream.discardBodyData();
+            }
+            hasNext = stream.readBoundary();
+        }
+        return tiff == null ? null : tiff.toByteArray();
+    }
+
+    private static byte[] response(String newLine, String encoding, byte[] tiff) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        write(response, "--" + BOUNDARY + newLine
+                + "Content-Type: text/xml" + newLine
+                + newLine
+                + "<Coverages/>" + newLine
+                + "--" + BOUNDARY + newLine
+                + "Content-Type: image/tiff" + newLine
+                + "Content-Transfer-Encoding: " + encoding + newLine
+                + newLine);
+        response.write(tiff);
+        write(response, newLine + "--" + BOUNDARY + "--" + newLine);
+        return response.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /*
+     * Returns one byte per read, as a slow connection may.
+     */
+    private static InputStream trickle(byte[] bytes) {
+        return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+}
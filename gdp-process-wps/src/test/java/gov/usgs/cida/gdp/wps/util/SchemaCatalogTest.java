@@ -0,0 +1,167 @@
+package gov.usgs.cida.gdp.wps.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SchemaCatalogTest {
+
+	private static final String SCHEMA = "<xsd:schema xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+			+ "targetNamespace=\"http://test\">"
+			+ "<xsd:import namespace=\"http://www.opengis.net/gml\" "
+			+ "schemaLocation=\"http://schemas.opengis.net/gml/3.1.1/base/gml.xsd\"/>"
+			+ "</xsd:schema>";
+	private static final String RELATIVE_SCHEMA = "<xsd:schema xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\">"
+			+ "<xsd:include schemaLocation=\"other.xsd\"/>"
+			+ "</xsd:schema>";
+
+	private File directory;
+	private HttpServer server;
+	private final Map<String, String> schemas = new ConcurrentHashMap<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile CountDownLatch slow;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("SchemaCatalogTest").toFile();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				if (slow != null && "/slow".equals(exchange.getRequestURI().getPath())) {
+					try {
+						slow.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				String schema = schemas.get(exchange.getRequestURI().getPath());
+				if (schema == null) {
+					exchange.sendResponseHeaders(404, -1);
+				} else {
+					byte[] bytes = schema.getBytes(StandardCharsets.UTF_8);
+					exchange.sendResponseHeaders(200, bytes.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(bytes);
+					out.close();
+				}
+				exchange.close();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void testSchemaStoredLocally() throws IOException {
+		schemas.put("/wfs", SCHEMA);
+		SchemaCatalog catalog = new SchemaCatalog(directory, 60000);
+		String location = getUrl("/wfs?request=DescribeFeatureType&typename=test:states");
+
+		String first = catalog.resolve(location);
+		String second = catalog.resolve(location);
+		assertEquals(first, second);
+		assertTrue(first.startsWith("file:"));
+		assertEquals(SCHEMA, FileUtils.readFileToString(new File(URI.create(first)), "UTF-8"));
+		assertEquals(1, requests.get());
+	}
+
+	@Test
+	public void testExpiredSchemaFetchedAgain() throws Exception {
+		schemas.put("/wfs", SCHEMA);
+		SchemaCatalog catalog = new SchemaCatalog(directory, 0);
+		String location = getUrl("/wfs");
+		catalog.resolve(location);
+		Thread.sleep(10);
+		catalog.resolve(location);
+		assertEquals(2, requests.get());
+	}
+
+	@Test
+	public void testStaleSchemaUsedWhenServerFails() throws Exception {
+		schemas.put("/wfs", SCHEMA);
+		SchemaCatalog catalog = new SchemaCatalog(directory, 0);
+		String location = getUrl("/wfs");
+		String first = catalog.resolve(location);
+		schemas.clear();
+		Thread.sleep(10);
+		assertEquals(first, catalog.resolve(location));
+	}
+
+	@Test
+	public void testSlowFetchHoldsUpOnlyItsSchema() throws Exception {
+		schemas.put("/slow", SCHEMA);
+		schemas.put("/wfs", SCHEMA);
+		slow = new CountDownLatch(1);
+		final SchemaCatalog catalog = new SchemaCatalog(directory, 60000);
+		final String slowLocation = getUrl("/slow");
+		Callable<String> resolveSlow = new Callable<String>() {
+			@Override
+			public String call() {
+				return catalog.resolve(slowLocation);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<String> first = executor.submit(resolveSlow);
+			Future<String> second = executor.submit(resolveSlow);
+			while (requests.get() < 1) {
+				Thread.sleep(5);
+			}
+			assertTrue(catalog.resolve(getUrl("/wfs")).startsWith("file:"));
+			slow.countDown();
+			assertEquals(first.get(), second.get());
+			assertTrue(first.get().startsWith("file:"));
+			// the slow schema was fetched once
+			assertEquals(2, requests.get());
+		} finally {
+			slow.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRemoteLocationKeptForRelativeIncludes() {
+		schemas.put("/relative", RELATIVE_SCHEMA);
+		String location = getUrl("/relative");
+		assertEquals(location, new SchemaCatalog(directory, 60000).resolve(location));
+	}
+
+	@Test
+	public void testLocalLocationUnchanged() {
+		assertEquals("src/test/resources/gml/conus-states-sample.xsd",
+				new SchemaCatalog(directory, 60000).resolve("src/test/resources/gml/conus-states-sample.xsd"));
+		assertEquals(0, requests.get());
+	}
+
+	private String getUrl(String path) {
+		return "http://localhost:" + server.getAddress().getPort() + path;
+	}
+}
@@ -0,0 +1,230 @@
+package gov.usgs.cida.gdp.wps.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WCSResponseCacheTest {
+
+    private static final String ETAG = "\"coverage-1\"";
+
+    private File directory;
+    private File target;
+    private HttpServer server;
+    private volatile String body = "coverage";
+    private volatile int status = HttpURLConnection.HTTP_OK;
+    private final CountDownLatch slow = new CountDownLatch(1);
+    private ExecutorService executor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("WCSResponseCacheTest").toFile();
+        target = Files.createTempDirectory("WCSResponseCacheTarget").toFile();
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                if (exchange.getRequestURI().getQuery().contains("slow")) {
+                    try {
+                        slow.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    exchange.sendResponseHeaders(status, -1);
+                } else if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    byte[] bytes = (body + " " + exchange.getRequestURI().getQuery()).getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("ETag", ETAG);
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(bytes);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        slow.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+        FileUtils.deleteQuietly(directory);
+        FileUtils.deleteQuietly(target);
+    }
+
+    @Test
+    public void testResponseReused() throws IOException {
+        WCSResponseCache cache = new WCSResponseCache(directory, 1 << 20, 60000);
+        String uri = getUrl("/wcs?service=WCS&request=GetCoverage&identifier=a");
+
+        File first = cache.get(uri, WCSResponseCache.BODY_READER, target, ".tiff");
+        File second = cache.get(uri, WCSResponseCache.BODY_READER, target, ".tiff");
+        assertFalse(first.equals(second));
+        assertEquals(read(first), read(second));
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        // the caller's copy outlives the cache
+        FileUtils.deleteDirectory(directory);
+        assertTrue(read(first).startsWith("coverage"));
+    }
+
+    @Test
+    public void testEquivalentRequestsShareResponse() throws IOException {
+        WCSResponseCache cache = new WCSResponseCache(directory, 1 << 20, 60000);
+        cache.get(getUrl("/wcs?service=WCS&request=GetCoverage&identifier=a"), WCSResponseCache.BODY_READER, target, ".tiff");
+        cache.get(getUrl("/wcs?IDENTIFIER=a&Request=GetCoverage&service=WCS").replace("localhost", "LOCALHOST"),
+                WCSResponseCache.BODY_READER, target, ".tiff");
+        assertEquals(1, requests.get());
+        cache.get(getUrl("/wcs?service=WCS&request=GetCoverage&identifier=b"), WCSResponseCache.BODY_READER, target, ".tiff");
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testStaleResponseRevalidated() throws IOException {
+        WCSResponseCache cache = new WCSResponseCache(directory, 1 << 20, -1);
+        String uri = getUrl("/wcs?service=WCS&request=DescribeCoverage&identifiers=a");
+
+        File first = cache.get(uri, WCSResponseCache.BODY_READER, target, ".xml");
+        body = "changed";
+        File second = cache.get(uri, WCSResponseCache.BODY_READER, target, ".xml");
+        assertEquals(read(first), read(second));
+        assertEquals(2, requests.get());
+        assertEquals(1, notModified.get());
+        assertEquals(1, cache.getRevalidationCount());
+    }
+
+    @Test
+    public void testStaleResponseUsedWhenServiceDown() throws IOException {
+        WCSResponseCache cache = new WCSResponseCache(directory, 1 << 20, -1);
+        String uri = getUrl("/wcs?service=WCS&request=DescribeCoverage&identifiers=a");
+
+        File first = cache.get(uri, WCSResponseCache.BODY_READER, target, ".xml");
+        server.stop(0);
+        File second = cache.get(uri, WCSResponseCache.BODY_READER, target, ".xml");
+        assertEquals(read(first), read(second));
+    }
+
+    @Test
+    public void testErrorResponseNotHiddenByStale() throws IOException {
+        WCSResponseCache cache = new WCSResponseCache(directory, 1 << 20, -1);
+        String uri = getUrl("/wcs?service=WCS&request=DescribeCoverage&identifiers=a");
+
+        cache.get(uri, WCSResponseCache.BODY_READER, target, ".xml");
+        status = HttpURLConnection.HTTP_NOT_FOUND;
+        try {
+            cache.get(uri, WCSResponseCache.BODY_READER, target, ".xml");
+            fail("Error response expected");
+        } catch (IOException expected) {
+            // the service answered, the stored response is not used
+        }
+    }
+
+    @Test
+    public void testSlowFetchHoldsUpOnlyItsResponse() throws Exception {
+        final WCSResponseCache cache = new WCSResponseCache(directory, 1 << 20, 60000);
+        final String slowUri = getUrl("/wcs?identifier=slow");
+        Callable<File> slowGet = new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                return cache.get(slowUri, WCSResponseCache.BODY_READER, target, ".tiff");
+            }
+        };
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<File> first = callers.submit(slowGet);
+            Future<File> second = callers.submit(slowGet);
+            // other responses are fetched meanwhile
+            for (char identifier = 'a'; identifier < 'e'; ++identifier) {
+                assertTrue(read(cache.get(getUrl("/wcs?identifier=" + identifier), WCSResponseCache.BODY_READER, target, ".tiff"))
+                        .startsWith("coverage"));
+            }
+            assertFalse(first.isDone());
+            slow.countDown();
+            assertEquals(read(first.get(10, TimeUnit.SECONDS)), read(second.get(10, TimeUnit.SECONDS)));
+            // the two requests shared one fetch
+            assertEquals(5, requests.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws IOException {
+        // room for two responses
+        WCSResponseCache cache = new WCSResponseCache(directory, 60, 60000);
+        String a = getUrl("/wcs?identifier=a");
+        String b = getUrl("/wcs?identifier=b");
+        String c = getUrl("/wcs?identifier=c");
+
+        cache.get(a, WCSResponseCache.BODY_READER, target, ".tiff");
+        cache.get(b, WCSResponseCache.BODY_READER, target, ".tiff");
+        cache.get(a, WCSResponseCache.BODY_READER, target, ".tiff");
+        cache.get(c, WCSResponseCache.BODY_READER, target, ".tiff");
+        assertTrue(cache.getSize() <= 60);
+        assertEquals(3, requests.get());
+
+        cache.get(a, WCSResponseCache.BODY_READER, target, ".tiff");
+        assertEquals(3, requests.get());
+        cache.get(b, WCSResponseCache.BODY_READER, target, ".tiff");
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    public void testIndexReloaded() throws IOException {
+        String uri = getUrl("/wcs?identifier=a");
+        new WCSResponseCache(directory, 1 << 20, 60000).get(uri, WCSResponseCache.BODY_READER, target, ".tiff");
+        WCSResponseCache reloaded = new WCSResponseCache(directory, 1 << 20, 60000);
+        assertTrue(reloaded.getSize() > 0);
+        reloaded.get(uri, WCSResponseCache.BODY_READER, target, ".tiff");
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testCanonicalize() {
+        assertEquals("http://example.com/wcs?identifier=a&request=GetCoverage",
+                WCSResponseCache.canonicalize("HTTP://Example.COM:80/wcs?Request=GetCoverage&&IDENTIFIER=a"));
+        assertEquals("http://example.com:8080/",
+                WCSResponseCache.canonicalize("http://example.com:8080"));
+    }
+
+    private String getUrl(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
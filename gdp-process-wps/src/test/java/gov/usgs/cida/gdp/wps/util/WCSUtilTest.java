@@ -44,4 +44,36 @@ public class WCSUtilTest {
         assertEquals("EPSG:4326", WCSUtil.convertCRSToNonOGC("urn:ogc:def:crs:EPSG:6.9:4326"));
     }
 
+    @Test
+    public void testCellCount() {
+        assertEquals(10, WCSUtil.getCellCount(0, 5, 0.5));
+        assertEquals(10, WCSUtil.getCellCount(0, 5, -0.5));
+        assertEquals(10, WCSUtil.getCellCount(0.1, 0.1 + 10 * 0.1, 0.1));
+        assertEquals(11, WCSUtil.getCellCount(0, 5.1, 0.5));
+        assertEquals(1, WCSUtil.getCellCount(0, 0, 0.5));
+    }
+
+    @Test
+    public void testCellEdge() {
+        // grid cells of 0.5 from 0.25
+        assertEquals(1.25, WCSUtil.getCellEdge(1.4, 0.25, 0.5, true), 1e-9);
+        assertEquals(1.75, WCSUtil.getCellEdge(1.4, 0.25, 0.5, false), 1e-9);
+        assertEquals(1.25, WCSUtil.getCellEdge(1.4, 0.25, -0.5, true), 1e-9);
+        assertEquals(-0.25, WCSUtil.getCellEdge(-0.1, 0.25, 0.5, true), 1e-9);
+        // values on an edge stay there
+        assertEquals(1.75, WCSUtil.getCellEdge(1.75, 0.25, 0.5, true), 1e-9);
+        assertEquals(1.75, WCSUtil.getCellEdge(1.75 - 1e-12, 0.25, 0.5, true), 1e-9);
+        assertEquals(1.75, WCSUtil.getCellEdge(1.75 + 1e-12, 0.25, 0.5, false), 1e-9);
+    }
+
+    @Test
+    public void testCellBounds() {
+        // positive offsets count from min
+        assertArrayEquals(new double[] { 0, 2 }, WCSUtil.getCellBounds(0, 5.1, 0.5, 0, 4, 11), 1e-9);
+        assertArrayEquals(new double[] { 4, 5.1 }, WCSUtil.getCellBounds(0, 5.1, 0.5, 8, 11, 11), 1e-9);
+        // negative offsets count from max
+        assertArrayEquals(new double[] { 3.1, 5.1 }, WCSUtil.getCellBounds(0, 5.1, -0.5, 0, 4, 11), 1e-9);
+        assertArrayEquals(new double[] { 0, 1.1 }, WCSUtil.getCellBounds(0, 5.1, -0.5, 8, 11, 11), 1e-9);
+    }
+
 }
@@ -0,0 +1,276 @@
+package org.n52.wps.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.wps.server.database.IDatabase;
+import org.n52.wps.server.database.StoredResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Local harness for RetrieveResultServlet, serves results from temp files
+ * through mocked request/response objects.
+ */
+public class RetrieveResultServletTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RetrieveResultServletTest.class);
+	private static final String ID = "test-output";
+	private static final String MIME_TYPE = "text/csv";
+
+	private File plainFile;
+	private File gzipFile;
+	private byte[] content;
+	private IDatabase database;
+	private RetrieveResultServlet servlet;
+
+	@Before
+	public void setUp() throws IOException {
+		content = new byte[100 * 1024];
+		new Random(42).nextBytes(content);
+
+		plainFile = File.createTempFile("retrieve", ".csv");
+		FileUtils.writeByteArrayToFile(plainFile, content);
+
+		gzipFile = File.createTempFile("retrieve", ".csv.gz");
+		OutputStream gzip = new GZIPOutputStream(new FileOutputStream(gzipFile));
+		try {
+			gzip.write(content);
+		} finally {
+			IOUtils.closeQuietly(gzip);
+		}
+
+		database = mock(IDatabase.class);
+		servlet = new RetrieveResultServlet() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected IDatabase getDatabase() {
+				return database;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(plainFile);
+		FileUtils.deleteQuietly(gzipFile);
+	}
+
+	@Test
+	public void testFullResponseFromPlainFile() throws Exception {
+		storeFile(plainFile, false);
+		HttpServletRequest request = mockRequest(null, null, null);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse response = mockResponse(body);
+
+		servlet.doGet(request, response);
+
+		verify(response).setHeader("Content-Length", Long.toString(content.length));
+		verify(response).setHeader("Accept-Ranges", "bytes");
+		verify(response).setHeader(eq("ETag"), anyString());
+		verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+		assertThat(Arrays.equals(content, body.toByteArray()), is(true));
+	}
+
+	@Test
+	public void testRangeFromPlainFile() throws Exception {
+		storeFile(plainFile, false);
+		HttpServletRequest request = mockRequest("bytes=100-199", null, null);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse response = mockResponse(body);
+
+		servlet.doGet(request, response);
+
+		verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		verify(response).setHeader("Content-Range", "bytes 100-199/" + content.length);
+		verify(response).setHeader("Content-Length", "100");
+		assertThat(Arrays.equals(Arrays.copyOfRange(content, 100, 200), body.toByteArray()), is(true));
+	}
+
+	@Test
+	public void testSuffixRangeFromGzipFileWithoutAcceptEncoding() throws Exception {
+		storeFile(gzipFile, true);
+		HttpServletRequest request = mockRequest("bytes=-50", null, null);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse response = mockResponse(body);
+
+		servlet.doGet(request, response);
+
+		verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+		assertThat(Arrays.equals(Arrays.copyOfRange(content, content.length - 50, content.length), body.toByteArray()), is(true));
+	}
+
+	@Test
+	public void testGzipPassThrough() throws Exception {
+		storeFile(gzipFile, true);
+		HttpServletRequest request = mockRequest(null, null, "gzip, deflate");
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse response = mockResponse(body);
+
+		servlet.doGet(request, response);
+
+		verify(response).setHeader("Content-Encoding", "gzip");
+		verify(response).setHeader("Content-Length", Long.toString(gzipFile.length()));
+		assertThat(Arrays.equals(FileUtils.readFileToByteArray(gzipFile), body.toByteArray()), is(true));
+	}
+
+	@Test
+	public void testGzipRefusedByQuality() throws Exception {
+		storeFile(gzipFile, true);
+		HttpServletRequest request = mockRequest(null, null, "gzip;q=0, identity");
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse response = mockResponse(body);
+
+		servlet.doGet(request, response);
+
+		verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+		assertThat(Arrays.equals(content, body.toByteArray()), is(true));
+	}
+
+	@Test
+	public void testIfNoneMatch() throws Exception {
+		StoredResponse stored = storeFile(plainFile, false);
+		String etag = servlet.generateETag(stored, true);
+		HttpServletRequest request = mockRequest(null, etag, null);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse response = mockResponse(body);
+
+		servlet.doGet(request, response);
+
+		verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		verify(response, never()).getOutputStream();
+	}
+
+	@Test
+	public void testETagDiffersByEncoding() throws Exception {
+		StoredResponse stored = new StoredResponse(ID, MIME_TYPE, content.length, gzipFile, true);
+		assertThat(servlet.generateETag(stored, true), is(not(equalTo(servlet.generateETag(stored, false)))));
+	}
+
+	@Test
+	public void testUnsatisfiableRange() throws Exception {
+		storeFile(plainFile, false);
+		HttpServletRequest request = mockRequest("bytes=" + content.length + "-", null, null);
+		HttpServletResponse response = mockResponse(new ByteArrayOutputStream());
+
+		servlet.doGet(request, response);
+
+		verify(response).setHeader("Content-Range", "bytes */" + content.length);
+		verify(response).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+	}
+
+	@Test
+	public void testParseByteRange() {
+		assertThat(RetrieveResultServlet.parseByteRange("bytes=0-0", 10)[1], is(0L));
+		assertThat(RetrieveResultServlet.parseByteRange("bytes=5-100", 10)[1], is(9L));
+		assertThat(RetrieveResultServlet.parseByteRange("bytes=-3", 10)[0], is(7L));
+		assertThat(RetrieveResultServlet.parseByteRange("bytes=0-1,4-5", 10), is(nullValue()));
+		assertThat(RetrieveResultServlet.parseByteRange("bytes=5-1", 10), is(nullValue()));
+		assertThat(RetrieveResultServlet.parseByteRange("lines=1-2", 10), is(nullValue()));
+		assertThat(RetrieveResultServlet.parseByteRange("bytes=10-", 10), is(sameInstance(RetrieveResultServlet.UNSATISFIABLE_RANGE)));
+	}
+
+	@Test
+	public void testThroughput() throws Exception {
+		File largeFile = File.createTempFile("retrieve-throughput", ".csv");
+		try {
+			int chunks = 64;
+			OutputStream out = new FileOutputStream(largeFile);
+			try {
+				for (int i = 0; i < chunks; i++) {
+					out.write(content);
+				}
+			} finally {
+				IOUtils.closeQuietly(out);
+			}
+			long expected = (long) chunks * content.length;
+			storeFile(largeFile, false);
+
+			CountingServletOutputStream counter = new CountingServletOutputStream();
+			HttpServletRequest request = mockRequest(null, null, null);
+			HttpServletResponse response = mock(HttpServletResponse.class);
+			when(response.getOutputStream()).thenReturn(counter);
+
+			long start = System.nanoTime();
+			servlet.doGet(request, response);
+			long elapsed = System.nanoTime() - start;
+
+			assertThat(counter.count, is(expected));
+			LOGGER.info("Served {} bytes in {} ms ({} MB/s)", new Object[]{
+				expected, elapsed / 1000000, (expected / 1048576.0) / (elapsed / 1e9)});
+		} finally {
+			FileUtils.deleteQuietly(largeFile);
+		}
+	}
+
+	private StoredResponse storeFile(File file, boolean gzipped) {
+		StoredResponse stored = new StoredResponse(ID, MIME_TYPE, file == gzipFile ? content.length : file.length(), file, gzipped);
+		when(database.lookupStoredResponse(ID)).thenReturn(stored);
+		return stored;
+	}
+
+	private HttpServletRequest mockRequest(String range, String ifNoneMatch, String acceptEncoding) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getParameter("id")).thenReturn(ID);
+		when(request.getHeader("Range")).thenReturn(range);
+		when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+		Vector<String> encodings = new Vector<String>();
+		if (acceptEncoding != null) {
+			encodings.add(acceptEncoding);
+		}
+		when(request.getHeaders("Accept-Encoding")).thenReturn(encodings.elements());
+		return request;
+	}
+
+	private HttpServletResponse mockResponse(final ByteArrayOutputStream body) throws IOException {
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				body.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				body.write(b, off, len);
+			}
+		});
+		return response;
+	}
+
+	private static class CountingServletOutputStream extends ServletOutputStream {
+
+		private long count = 0;
+
+		@Override
+		public void write(int b) throws IOException {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			count += len;
+		}
+	}
+}
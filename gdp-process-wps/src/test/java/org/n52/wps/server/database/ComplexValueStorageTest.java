@@ -0,0 +1,58 @@
+package org.n52.wps.server.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class ComplexValueStorageTest {
+
+	private Path tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("complex-value-storage");
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(tempDir.toFile());
+	}
+
+	@Test
+	public void testCompressedFormatsAreNotCompressible() {
+		assertThat(ComplexValueStorage.isCompressible("application/zip"), is(false));
+		assertThat(ComplexValueStorage.isCompressible("image/geotiff"), is(false));
+		assertThat(ComplexValueStorage.isCompressible("image/GeoTIFF; subtype=tiled"), is(false));
+	}
+
+	@Test
+	public void testTextFormatsAreCompressible() {
+		assertThat(ComplexValueStorage.isCompressible("text/csv"), is(true));
+		assertThat(ComplexValueStorage.isCompressible("application/netcdf"), is(true));
+		assertThat(ComplexValueStorage.isCompressible(null), is(true));
+	}
+
+	@Test
+	public void testLinkOrCopyLeavesSourceInPlace() throws IOException {
+		File source = tempDir.resolve("source.csv").toFile();
+		FileUtils.writeStringToFile(source, "a,b,c\n1,2,3\n");
+		Path target = tempDir.resolve("target");
+		Files.write(target, new byte[]{1, 2, 3});
+
+		long size = ComplexValueStorage.linkOrCopy(source.toPath(), target);
+
+		assertThat(size, is(equalTo(source.length())));
+		assertThat(FileUtils.readFileToString(target.toFile()), is(equalTo("a,b,c\n1,2,3\n")));
+
+		FileUtils.deleteQuietly(source);
+		assertThat("stored value survives algorithm cleanup", Files.exists(target), is(true));
+	}
+}
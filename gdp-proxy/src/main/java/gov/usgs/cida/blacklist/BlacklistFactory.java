@@ -9,7 +9,8 @@ public class BlacklistFactory {
     public enum BlacklistType {
         DEFAULT,
         DELAY_ONLY,
-        EXPONENTIAL
+        EXPONENTIAL,
+        TIME_WHEEL
     }
     private static BlacklistInterface activeBlacklist = null;
 
@@ -28,6 +29,9 @@ public class BlacklistFactory {
             case EXPONENTIAL:
                 activeBlacklist = ExponentialDelayBlacklist.getInstance();
                 break;
+            case TIME_WHEEL:
+                activeBlacklist = TimeWheelBlacklist.getInstance();
+                break;
             default:
                 activeBlacklist = DelayOnlyBlacklist.getInstance();
                 break;
@@ -14,8 +14,6 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class BlacklistServlet extends HttpServlet {
 
-	private BlacklistInterface singleton = BlacklistFactory.getActiveBlacklist();
-   
     /** 
      * Processes requests for both HTTP <code>GET</code> and <code>POST</code> methods.
      * @param request servlet request
@@ -25,9 +23,12 @@ public class BlacklistServlet extends HttpServlet {
      */
     protected void processRequest(HttpServletRequest request, HttpServletResponse response)
     throws ServletException, IOException {
+		// the proxy sets the active blacklist when it starts, which may be
+		// after this servlet
+		BlacklistInterface singleton = BlacklistFactory.getActiveBlacklist();
 		String command = request.getParameter("command");
 		if ("getblacklist".equalsIgnoreCase(command)) {
-			printBlacklist(response);
+			printBlacklist(singleton, response);
 			return;
 		}
 		else if("remove".equalsIgnoreCase(command)) {
@@ -37,17 +38,18 @@ public class BlacklistServlet extends HttpServlet {
 					singleton.remove(str);
 				}
 			}
-			printBlacklist(response);
+			printBlacklist(singleton, response);
 			return;
 		}
     }
 
 	/**
 	 * Used for management page, need to allow removal from blacklist
+	 * @param singleton blacklist to print
 	 * @param response response object from calling servlet
 	 * @throws IOException
 	 */
-	private void printBlacklist(HttpServletResponse response) throws IOException {
+	private void printBlacklist(BlacklistInterface singleton, HttpServletResponse response) throws IOException {
 		Properties outputBlacklist = singleton.outputBlacklist();
 		response.setContentType("text/xml");
 		outputBlacklist.storeToXML(response.getOutputStream(), null);
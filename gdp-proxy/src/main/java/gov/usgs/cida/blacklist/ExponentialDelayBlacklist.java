@@ -21,7 +21,7 @@ public class ExponentialDelayBlacklist implements BlacklistInterface {
 	private Map<String, Date> ipBlacklist = null;
 	private Map<String, Pair<Date, Integer>> requestDelayMap = null;
 
-	private ExponentialDelayBlacklist() {
+	ExponentialDelayBlacklist() {
 		ipBlacklist = Collections.synchronizedMap(new HashMap<String, Date>());
 		requestDelayMap = Collections.synchronizedMap(new HashMap<String, Pair<Date, Integer>>());
 	}
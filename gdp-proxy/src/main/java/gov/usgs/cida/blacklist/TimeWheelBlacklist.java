@@ -0,0 +1,296 @@
+package gov.usgs.cida.blacklist;
+
+import com.google.common.net.InetAddresses;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blacklist without locks: bad requests are rate limited by token buckets per
+ * client address and per subnet, a client or subnet that empties its bucket is
+ * blacklisted.  Delays double with each token taken, as with
+ * {@link ExponentialDelayBlacklist}.
+ * <p>
+ * Buckets are kept as the time they are full again (the generic cell rate
+ * algorithm), so taking a token is a compare and set of one long.  Clients are
+ * dropped once their bucket is full and any blacklisting is over, by a two
+ * level timing wheel advanced by the requests themselves, so the maps do not
+ * grow with every address ever seen.
+ */
+public class TimeWheelBlacklist implements BlacklistInterface {
+
+	public static final long BLACKLIST_EXPIRY_TIME = ExponentialDelayBlacklist.BLACKLIST_EXPIRY_TIME;
+	public static final long INITIAL_SLEEP = ExponentialDelayBlacklist.INITIAL_SLEEP;
+	// as before, the fifth bad request within an hour blacklists a client
+	public static final int CLIENT_TOKENS = ExponentialDelayBlacklist.MAX_REQUESTS;
+	public static final long CLIENT_REFILL_TIME = ExponentialDelayBlacklist.REQUEST_EXPIRY_TIME / CLIENT_TOKENS;
+	// a subnet takes a few busy clients to blacklist
+	public static final int SUBNET_TOKENS = 4 * CLIENT_TOKENS;
+	public static final long SUBNET_REFILL_TIME = CLIENT_REFILL_TIME / 4;
+
+	private static final long TICK = 1000 * 60; // one minute
+	private static final int WHEEL_BITS = 6;
+	private static final int WHEEL_SLOTS = 1 << WHEEL_BITS;
+	private static final int WHEEL_MASK = WHEEL_SLOTS - 1;
+
+	private static TimeWheelBlacklist singleton = null;
+
+	private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+	// level 0 slots are one tick, level 1 slots are one turn of level 0
+	private final Queue<Bucket>[] ticks;
+	private final Queue<Bucket>[] turns;
+	// tick the wheel is at, set by the first lookup
+	private final AtomicLong wheelTick = new AtomicLong(-1);
+
+	@SuppressWarnings("unchecked")
+	protected TimeWheelBlacklist() {
+		ticks = new Queue[WHEEL_SLOTS];
+		turns = new Queue[WHEEL_SLOTS];
+		for (int slot = 0; slot < WHEEL_SLOTS; ++slot) {
+			ticks[slot] = new ConcurrentLinkedQueue<Bucket>();
+			turns[slot] = new ConcurrentLinkedQueue<Bucket>();
+		}
+	}
+
+	public synchronized static TimeWheelBlacklist getInstance() {
+		if (singleton == null) {
+			singleton = new TimeWheelBlacklist();
+		}
+		return singleton;
+	}
+
+	/**
+	 * Used for management interface (removing blacklisted ip's), subnets are
+	 * listed by their prefix
+	 * @return properties object representing blacklist
+	 */
+	@Override
+	public Properties outputBlacklist() {
+		long now = currentTimeMillis();
+		Properties props = new Properties();
+		for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+			long blacklisted = entry.getValue().blacklisted;
+			if (isBlacklisted(blacklisted, now)) {
+				props.put(entry.getKey(), new Date(blacklisted).toString());
+			}
+		}
+		return props;
+	}
+
+	/**
+	 * Gives management interface a way to remove items from blacklist
+	 * @param key Internet Address of client, or a subnet prefix
+	 */
+	@Override
+	public void remove(String key) {
+		buckets.remove(key);
+		String subnet = getSubnet(key);
+		if (subnet != null) {
+			buckets.remove(subnet);
+		}
+	}
+
+	/**
+	 * Used by proxy to determine whether to attempt a lookup for a client
+	 * @param key Internet Address of client
+	 * @return true if client or its subnet is blacklisted
+	 */
+	@Override
+	public boolean isBlacklisted(String key) {
+		long now = currentTimeMillis();
+		advance(now);
+		Bucket client = buckets.get(key);
+		if (client != null && isBlacklisted(client.blacklisted, now)) {
+			return true;
+		}
+		String subnet = getSubnet(key);
+		if (subnet != null) {
+			Bucket subnetBucket = buckets.get(subnet);
+			return subnetBucket != null && isBlacklisted(subnetBucket.blacklisted, now);
+		}
+		return false;
+	}
+
+	/**
+	 * Bad requests end up getting delayed, this determines how long.  Takes a
+	 * token from the client's and the subnet's buckets, blacklisting whichever
+	 * is empty.
+	 * @param key Internet Address of client
+	 * @return milliseconds to sleep for requested client
+	 */
+	@Override
+	public long determineSleepTime(String key) {
+		long now = currentTimeMillis();
+		advance(now);
+		int taken = take(key, CLIENT_TOKENS, CLIENT_REFILL_TIME, now);
+		String subnet = getSubnet(key);
+		if (subnet != null) {
+			take(subnet, SUBNET_TOKENS, SUBNET_REFILL_TIME, now);
+		}
+		return INITIAL_SLEEP << Math.min(taken - 1, CLIENT_TOKENS - 1);
+	}
+
+	/**
+	 * @return tokens taken from the bucket, including this one
+	 */
+	private int take(String key, int tokens, long refillTime, long now) {
+		Bucket bucket = getBucket(key);
+		long burst = tokens * refillTime;
+		while (true) {
+			long full = bucket.full.get();
+			long next = Math.max(full, now) + refillTime;
+			if (next - now >= burst) {
+				// last token, or already empty
+				next = Math.min(next, now + burst);
+				if (bucket.full.compareAndSet(full, next)) {
+					bucket.blacklisted = now;
+					schedule(bucket);
+					return tokens;
+				}
+			} else if (bucket.full.compareAndSet(full, next)) {
+				schedule(bucket);
+				return (int) ((next - now + refillTime - 1) / refillTime);
+			}
+		}
+	}
+
+	private Bucket getBucket(String key) {
+		Bucket bucket = buckets.get(key);
+		if (bucket == null) {
+			Bucket created = new Bucket(key);
+			bucket = buckets.putIfAbsent(key, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * Puts a bucket on the wheel at the tick it can be dropped, unless it is
+	 * already on it.  A bucket taken from since is put back when it comes up.
+	 */
+	private void schedule(Bucket bucket) {
+		if (bucket.scheduled.compareAndSet(false, true)) {
+			insert(bucket, wheelTick.get());
+		}
+	}
+
+	private void insert(Bucket bucket, long currentTick) {
+		long delta = Math.max(1, bucket.expires() / TICK + 1 - currentTick);
+		if (delta < WHEEL_SLOTS) {
+			ticks[(int) ((currentTick + delta) & WHEEL_MASK)].add(bucket);
+		} else {
+			// beyond the second level the bucket waits in its last slot
+			long turn = Math.min((currentTick + delta) >> WHEEL_BITS, (currentTick >> WHEEL_BITS) + WHEEL_MASK);
+			turns[(int) (turn & WHEEL_MASK)].add(bucket);
+		}
+	}
+
+	/**
+	 * Advances the wheel to now, on whichever thread claims each tick.  A
+	 * bucket put on a slot while it is being emptied waits one more turn, only
+	 * its memory is kept longer as lookups check times themselves.
+	 */
+	private void advance(long now) {
+		long nowTick = now / TICK;
+		wheelTick.compareAndSet(-1, nowTick);
+		long tick;
+		while ((tick = wheelTick.get()) < nowTick) {
+			if (!wheelTick.compareAndSet(tick, tick + 1)) {
+				continue;
+			}
+			long claimed = tick + 1;
+			if ((claimed & WHEEL_MASK) == 0) {
+				cascade(turns[(int) ((claimed >> WHEEL_BITS) & WHEEL_MASK)], claimed);
+			}
+			expire(ticks[(int) (claimed & WHEEL_MASK)], claimed, now);
+		}
+	}
+
+	private void cascade(Queue<Bucket> slot, long currentTick) {
+		Bucket bucket;
+		while ((bucket = slot.poll()) != null) {
+			insert(bucket, currentTick);
+		}
+	}
+
+	private void expire(Queue<Bucket> slot, long currentTick, long now) {
+		Bucket bucket;
+		while ((bucket = slot.poll()) != null) {
+			if (bucket.expires() <= now) {
+				bucket.scheduled.set(false);
+				// a token taken right now from the dropped bucket is lost, it was
+				// as good as a new bucket anyway
+				buckets.remove(bucket.key, bucket);
+			} else {
+				insert(bucket, currentTick);
+			}
+		}
+	}
+
+	/**
+	 * @return clients and subnets with a bucket, for tests
+	 */
+	int getBucketCount() {
+		return buckets.size();
+	}
+
+	private static boolean isBlacklisted(long blacklisted, long now) {
+		return blacklisted != 0 && blacklisted + BLACKLIST_EXPIRY_TIME > now;
+	}
+
+	/**
+	 * @return the /24 prefix of an IPv4 address or the /64 prefix of an IPv6
+	 * address, null if key is not an address literal and so is a client of
+	 * its own
+	 */
+	static String getSubnet(String key) {
+		// parsed, never looked up, the key may come from a client's header
+		if (key == null || !InetAddresses.isInetAddress(key)) {
+			return null;
+		}
+		byte[] address = InetAddresses.forString(key).getAddress();
+		if (address.length == 4) {
+			return (address[0] & 0xff) + "." + (address[1] & 0xff) + "." + (address[2] & 0xff) + ".0/24";
+		}
+		StringBuilder prefix = new StringBuilder();
+		for (int index = 0; index < 8; index += 2) {
+			prefix.append(Integer.toHexString(((address[index] & 0xff) << 8) | (address[index + 1] & 0xff)));
+			prefix.append(':');
+		}
+		return prefix.append(":/64").toString();
+	}
+
+	/**
+	 * Time source, for tests
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private static class Bucket {
+
+		private final String key;
+		// time the bucket is full again
+		private final AtomicLong full = new AtomicLong();
+		// time the bucket was last emptied, 0 if never
+		private volatile long blacklisted;
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		private Bucket(String key) {
+			this.key = key;
+		}
+
+		private long expires() {
+			long blacklistedUntil = blacklisted == 0 ? 0 : blacklisted + BLACKLIST_EXPIRY_TIME;
+			return Math.max(full.get(), blacklistedUntil);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package gov.usgs.service;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+/**
+ * Decides whether the proxy may forward to an endpoint by fetching its
+ * capabilities, once: the same document verifies the endpoint and lists the
+ * operation endpoints that are verified along with it.  Requests for an
+ * endpoint being verified wait for that verification rather than starting
+ * another, endpoints are the same when they differ only in their query
+ * string.  Results are kept, failures for a shorter time than successes so a
+ * server that was down is tried again soon.
+ */
+public class EndpointVerifier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EndpointVerifier.class);
+
+    // expired results are only dropped when looked up, sweep past this many
+    private static final int SWEEP_RESULTS = 10000;
+
+    private final long verifiedMillis;
+    private final long rejectedMillis;
+    private final ConcurrentMap<Endpoint, Verification> results = new ConcurrentHashMap<Endpoint, Verification>();
+    private final ConcurrentMap<Endpoint, FutureTask<Boolean>> pending = new ConcurrentHashMap<Endpoint, FutureTask<Boolean>>();
+
+    /**
+     * @param verifiedMillis time a verified endpoint is trusted
+     * @param rejectedMillis time a rejected endpoint is not tried again
+     */
+    public EndpointVerifier(long verifiedMillis, long rejectedMillis) {
+        this.verifiedMillis = verifiedMillis;
+        this.rejectedMillis = rejectedMillis;
+    }
+
+    /**
+     * Trusts an endpoint without fetching its capabilities, for endpoints
+     * known to be used.  Trust does not expire.
+     */
+    public void addTrusted(Endpoint endpoint) {
+        results.put(endpoint, new Verification(true, Long.MAX_VALUE));
+    }
+
+    /**
+     * @return the endpoint's current result, null if it has to be verified
+     */
+    public Boolean getResult(Endpoint endpoint) {
+        Verification verification = results.get(endpoint);
+        if (verification == null) {
+            return null;
+        }
+        if (verification.expires < System.currentTimeMillis()) {
+            results.remove(endpoint, verification);
+            return null;
+        }
+        return verification.verified;
+    }
+
+    /**
+     * Verifies the endpoint on the calling thread, or waits for the
+     * verification already running.
+     *
+     * @return true if the endpoint may be proxied
+     */
+    public boolean isVerified(Endpoint endpoint) {
+        Boolean result = getResult(endpoint);
+        if (result != null) {
+            LOGGER.debug("Endpoint {} in cache, verified = {}", endpoint.getComparisonString(), result);
+            return result;
+        }
+        FutureTask<Boolean> task = new VerificationTask(endpoint);
+        FutureTask<Boolean> running = pending.putIfAbsent(endpoint, task);
+        if (running == null) {
+            running = task;
+            task.run();
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            LOGGER.warn("Error verifying endpoint " + endpoint.getURL(), e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Fetches the capabilities of each endpoint in the background, trusted
+     * endpoints stay trusted but their operation endpoints are added.
+     */
+    public void prewarm(Collection<Endpoint> endpoints, Executor executor) {
+        for (Endpoint endpoint : endpoints) {
+            FutureTask<Boolean> task = new VerificationTask(endpoint);
+            if (pending.putIfAbsent(endpoint, task) == null) {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // verified on demand instead
+                    pending.remove(endpoint, task);
+                }
+            }
+        }
+    }
+
+    private boolean verify(Endpoint endpoint) {
+        boolean verified = false;
+        Document capabilitiesDocument = null;
+        if (endpoint.getType() != Endpoint.EndpointType.UNKNOWN) {
+            LOGGER.debug("Verifying endpoint {}", endpoint.getURL());
+            capabilitiesDocument = OGCCommons.getCapabilitiesDocument(endpoint);
+            verified = OGCCommons.isCapabilitiesDocument(capabilitiesDocument);
+        }
+        long now = System.currentTimeMillis();
+        if (verified) {
+            Verification verification = new Verification(true, now + verifiedMillis);
+            putResult(endpoint, verification);
+            for (Endpoint operationEndpoint : OGCCommons.getOperationEndpoints(capabilitiesDocument)) {
+                putResult(operationEndpoint, verification);
+            }
+        } else {
+            putResult(endpoint, new Verification(false, now + rejectedMillis));
+        }
+        sweep(now);
+        return verified;
+    }
+
+    private void putResult(Endpoint endpoint, Verification verification) {
+        while (true) {
+            Verification previous = results.putIfAbsent(endpoint, verification);
+            if (previous == null) {
+                return;
+            }
+            if (previous.verified && previous.expires > verification.expires) {
+                // trusted, or verified for longer by another document
+                return;
+            }
+            if (results.replace(endpoint, previous, verification)) {
+                return;
+            }
+        }
+    }
+
+    private void sweep(long now) {
+        if (results.size() > SWEEP_RESULTS) {
+            Iterator<Map.Entry<Endpoint, Verification>> iterator = results.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getValue().expires < now) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private class VerificationTask extends FutureTask<Boolean> {
+
+        private final Endpoint endpoint;
+
+        private VerificationTask(final Endpoint endpoint) {
+            super(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return verify(endpoint);
+                }
+            });
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        protected void done() {
+            // the result is stored by now, later lookups find it there
+            pending.remove(endpoint, this);
+        }
+    }
+
+    private static class Verification {
+
+        private final boolean verified;
+        private final long expires;
+
+        private Verification(boolean verified, long expires) {
+            this.verified = verified;
+            this.expires = expires;
+        }
+    }
+}
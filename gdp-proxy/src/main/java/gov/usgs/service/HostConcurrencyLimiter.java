@@ -0,0 +1,216 @@
+package gov.usgs.service;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits concurrent server requests per host with an adaptive limit: the
+ * limit grows by about one for each limit's worth of responses arriving
+ * without errors and in normal time, and is cut by a fraction on an error or
+ * a response that takes much longer than the host's usual (additive increase,
+ * multiplicative decrease).  A slow host is held to few connections while a
+ * fast host may use up to the maximum.
+ * <p>
+ * Requests over a host's limit wait in a short queue, when the queue is full
+ * or the wait runs out they are refused so the client can be told at once.
+ */
+public class HostConcurrencyLimiter {
+
+    // decrease on congestion
+    private static final double BACKOFF = 0.9;
+    // a response taking this many times the host's average is congestion
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // weight of a response in the host's average
+    private static final double LATENCY_SMOOTHING = 0.05;
+
+    private final String name;
+    private final int initialLimit;
+    private final int maxLimit;
+    private final int queueMax;
+    private final long queueTimeoutMillis;
+    private final ConcurrentMap<String, HostLimit> hostLimits = new ConcurrentHashMap<String, HostLimit>();
+
+    /**
+     * @param name partition name, prefixes metrics
+     * @param initialLimit limit of a host not seen before
+     * @param maxLimit most concurrent requests to one host
+     * @param queueMax most requests waiting for one host
+     * @param queueTimeoutMillis time a request waits before it is refused
+     */
+    public HostConcurrencyLimiter(String name, int initialLimit, int maxLimit, int queueMax, long queueTimeoutMillis) {
+        this.name = name;
+        this.initialLimit = Math.min(initialLimit, maxLimit);
+        this.maxLimit = maxLimit;
+        this.queueMax = queueMax;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @param host scheme, host and port of the server
+     * @return permit to send a request, to be released when its response has
+     * been read, null if the host is saturated
+     */
+    public Permit acquire(String host) throws InterruptedException {
+        HostLimit hostLimit = hostLimits.get(host);
+        if (hostLimit == null) {
+            HostLimit created = new HostLimit();
+            hostLimit = hostLimits.putIfAbsent(host, created);
+            if (hostLimit == null) {
+                hostLimit = created;
+            }
+        }
+        return hostLimit.acquire() ? new Permit(hostLimit) : null;
+    }
+
+    /**
+     * @return current limit of a host, the initial limit for hosts not seen
+     */
+    public int getLimit(String host) {
+        HostLimit hostLimit = hostLimits.get(host);
+        if (hostLimit == null) {
+            return initialLimit;
+        }
+        synchronized (hostLimit) {
+            return hostLimit.getLimit();
+        }
+    }
+
+    /**
+     * Metrics of each host, keyed [name].[host].[metric]
+     */
+    public Properties outputMetrics() {
+        Properties props = new Properties();
+        for (Map.Entry<String, HostLimit> entry : hostLimits.entrySet()) {
+            String prefix = name + "." + entry.getKey() + ".";
+            HostLimit hostLimit = entry.getValue();
+            synchronized (hostLimit) {
+                props.setProperty(prefix + "limit", Integer.toString(hostLimit.getLimit()));
+                props.setProperty(prefix + "inFlight", Integer.toString(hostLimit.inFlight));
+                props.setProperty(prefix + "queued", Integer.toString(hostLimit.queued));
+                props.setProperty(prefix + "completed", Long.toString(hostLimit.completed));
+                props.setProperty(prefix + "errors", Long.toString(hostLimit.errors));
+                props.setProperty(prefix + "slow", Long.toString(hostLimit.slow));
+                props.setProperty(prefix + "refused", Long.toString(hostLimit.refused));
+                props.setProperty(prefix + "averageLatencyMillis", Long.toString(TimeUnit.NANOSECONDS.toMillis((long) hostLimit.averageLatencyNanos)));
+            }
+        }
+        return props;
+    }
+
+    private class HostLimit {
+
+        private double limit = initialLimit;
+        private int inFlight;
+        private int queued;
+        private double averageLatencyNanos;
+        private long completed;
+        private long errors;
+        private long slow;
+        private long refused;
+
+        private int getLimit() {
+            return Math.max(1, (int) limit);
+        }
+
+        private synchronized boolean acquire() throws InterruptedException {
+            if (inFlight < getLimit()) {
+                ++inFlight;
+                return true;
+            }
+            if (queued >= queueMax) {
+                ++refused;
+                return false;
+            }
+            ++queued;
+            try {
+                long deadline = System.currentTimeMillis() + queueTimeoutMillis;
+                long remaining = queueTimeoutMillis;
+                while (remaining > 0) {
+                    wait(remaining);
+                    if (inFlight < getLimit()) {
+                        ++inFlight;
+                        return true;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } finally {
+                --queued;
+            }
+            ++refused;
+            return false;
+        }
+
+        private synchronized void release(boolean sampled, long latencyNanos, boolean error) {
+            int concurrent = inFlight;
+            --inFlight;
+            ++completed;
+            if (sampled) {
+                boolean congested;
+                if (error) {
+                    ++errors;
+                    congested = true;
+                } else if (averageLatencyNanos == 0) {
+                    averageLatencyNanos = latencyNanos;
+                    congested = false;
+                } else {
+                    congested = latencyNanos > LATENCY_TOLERANCE * averageLatencyNanos;
+                    if (congested) {
+                        ++slow;
+                    }
+                    averageLatencyNanos += LATENCY_SMOOTHING * (latencyNanos - averageLatencyNanos);
+                }
+                if (congested) {
+                    limit = Math.max(1, limit * BACKOFF);
+                } else if (2 * concurrent >= getLimit()) {
+                    // only grow a limit that is being used
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Permission for one server request.
+     */
+    public static class Permit {
+
+        private final HostLimit hostLimit;
+        private boolean sampled;
+        private long latencyNanos;
+        private boolean error;
+        private boolean released;
+
+        private Permit(HostLimit hostLimit) {
+            this.hostLimit = hostLimit;
+        }
+
+        /**
+         * Records how the host answered, not called for responses the host
+         * did not serve (i.e. cache hits).
+         *
+         * @param latencyNanos time to the response, or the failure
+         * @param error true if the request failed or the host reported itself
+         * unavailable
+         */
+        public void sample(long latencyNanos, boolean error) {
+            this.sampled = true;
+            this.latencyNanos = latencyNanos;
+            this.error = error;
+        }
+
+        public void release() {
+            if (!released) {
+                released = true;
+                hostLimit.release(sampled, latencyNanos, error);
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package gov.usgs.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Takes a {@link HostConcurrencyLimiter} permit for each request sent to a
+ * server.  It wraps the client that talks to the servers, beneath the caching
+ * client, so responses served from the cache neither wait for a permit nor
+ * count in the host's latency.  The permit is held until the response body
+ * is read or closed, as is the connection, and the latency sampled is the
+ * time to the server's response headers.
+ */
+public class HostLimitedHttpClient implements HttpClient {
+
+    private final HttpClient backend;
+    private final Map<Endpoint.EndpointType, HostConcurrencyLimiter> hostLimiters;
+
+    /**
+     * @param backend client that sends requests to the servers
+     * @param hostLimiters limiters by the type of endpoint requested
+     */
+    public HostLimitedHttpClient(HttpClient backend, Map<Endpoint.EndpointType, HostConcurrencyLimiter> hostLimiters) {
+        this.backend = backend;
+        this.hostLimiters = hostLimiters;
+    }
+
+    @Override
+    public HttpParams getParams() {
+        return backend.getParams();
+    }
+
+    @Override
+    public ClientConnectionManager getConnectionManager() {
+        return backend.getConnectionManager();
+    }
+
+    @Override
+    public HttpResponse execute(HttpUriRequest request) throws IOException, ClientProtocolException {
+        return execute(request, (HttpContext) null);
+    }
+
+    @Override
+    public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException, ClientProtocolException {
+        return execute(URIUtils.extractHost(request.getURI()), request, context);
+    }
+
+    @Override
+    public HttpResponse execute(HttpHost target, HttpRequest request) throws IOException, ClientProtocolException {
+        return execute(target, request, (HttpContext) null);
+    }
+
+    @Override
+    public HttpResponse execute(HttpHost target, HttpRequest request, HttpContext context) throws IOException, ClientProtocolException {
+        HostConcurrencyLimiter.Permit permit = acquireHostPermit(target, request);
+        long requestStart = System.nanoTime();
+        HttpResponse response;
+        try {
+            response = backend.execute(target, request, context);
+        } catch (IOException e) {
+            permit.sample(System.nanoTime() - requestStart, true);
+            permit.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+        int statusCode = response.getStatusLine().getStatusCode();
+        permit.sample(System.nanoTime() - requestStart,
+                statusCode == HttpStatus.SC_BAD_GATEWAY
+                || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT);
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            permit.release();
+        } else {
+            response.setEntity(new PermitEntity(entity, permit));
+        }
+        return response;
+    }
+
+    @Override
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler) throws IOException, ClientProtocolException {
+        return execute(request, responseHandler, null);
+    }
+
+    @Override
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler, HttpContext context) throws IOException, ClientProtocolException {
+        return execute(URIUtils.extractHost(request.getURI()), request, responseHandler, context);
+    }
+
+    @Override
+    public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler) throws IOException, ClientProtocolException {
+        return execute(target, request, responseHandler, null);
+    }
+
+    @Override
+    public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler, HttpContext context) throws IOException, ClientProtocolException {
+        HttpResponse response = execute(target, request, context);
+        try {
+            return responseHandler.handleResponse(response);
+        } finally {
+            EntityUtils.consume(response.getEntity());
+        }
+    }
+
+    /**
+     * Waits for a permit to request from the server's host, requests are
+     * limited per host separately for each type of endpoint.
+     *
+     * @throws HostSaturatedException if too many requests wait for the host
+     */
+    private HostConcurrencyLimiter.Permit acquireHostPermit(HttpHost target, HttpRequest request) throws IOException {
+        int port = target.getPort();
+        if (port == -1) {
+            port = "https".equalsIgnoreCase(target.getSchemeName()) ? 443 : 80;
+        }
+        String host = target.getSchemeName() + "://" + target.getHostName() + ":" + port;
+        Endpoint.EndpointType type;
+        try {
+            URI uri = request instanceof HttpUriRequest
+                    ? ((HttpUriRequest) request).getURI()
+                    : URI.create(request.getRequestLine().getUri());
+            type = new Endpoint(uri.toString()).getType();
+        } catch (RuntimeException e) {
+            type = Endpoint.EndpointType.UNKNOWN;
+        }
+        HostConcurrencyLimiter.Permit permit;
+        try {
+            permit = hostLimiters.get(type).acquire(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for server " + host);
+        }
+        if (permit == null) {
+            throw new HostSaturatedException("Too many requests waiting for " + type + " server " + host);
+        }
+        return permit;
+    }
+
+    /**
+     * The server's host has too many requests waiting, the client is told
+     * to retry rather than wait.
+     */
+    public static class HostSaturatedException extends IOException {
+
+        public HostSaturatedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Releases the permit once the body is read to its end or closed.
+     */
+    private static class PermitEntity extends HttpEntityWrapper {
+
+        private final HostConcurrencyLimiter.Permit permit;
+
+        private PermitEntity(HttpEntity entity, HostConcurrencyLimiter.Permit permit) {
+            super(entity);
+            this.permit = permit;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            InputStream content;
+            try {
+                content = super.getContent();
+            } catch (IOException e) {
+                permit.release();
+                throw e;
+            }
+            return new FilterInputStream(content) {
+                @Override
+                public int read() throws IOException {
+                    return released(super.read());
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return released(super.read(b, off, len));
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        permit.release();
+                    }
+                }
+
+                private int released(int read) {
+                    if (read == -1) {
+                        permit.release();
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try {
+                super.writeTo(out);
+            } finally {
+                permit.release();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void consumeContent() throws IOException {
+            try {
+                super.consumeContent();
+            } finally {
+                permit.release();
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package gov.usgs.service;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -31,6 +32,10 @@ public class OGCCommons {
 
     protected static Logger log = LoggerFactory.getLogger(OGCCommons.class);
 
+    private static final int CONNECT_TIMEOUT = 15 * 1000;   // 15 seconds, default is infinite
+    private static final int READ_TIMEOUT = 60 * 1000;      // 1 minute, default is infinite
+    private static final Pattern CAPABILITIES_PATTERN = Pattern.compile("(?:\\w+:)?(?:\\w{3}_)?Capabilities");
+
     /**
      * This extracts the Operational endpoints from a getCapabilities document Tested to support: - WPS 1.0.0 - CSW 2.0.2 - WCS 2.0.0 - WCS
      * 1.1 - WFS 2.0.0 - Others may work
@@ -67,31 +72,41 @@ public class OGCCommons {
      */
     public static boolean isOWSEndpoint(Endpoint owsEndpoint) {
         if (owsEndpoint.getType() != Endpoint.EndpointType.UNKNOWN) {
-            Document doc = getCapabilitiesDocument(owsEndpoint);
-
-            if (doc == null) {
-                return false;
-            }
-            Node node = doc.getFirstChild();
-            while (node != null && node.getNodeType() == Document.COMMENT_NODE) {
-                node = node.getNextSibling();
-            }
-            if (node == null) {
-                return false;
-            }
+            return isCapabilitiesDocument(getCapabilitiesDocument(owsEndpoint));
+        }
+        log.debug("Does not look like an OWS endpoint");
+        return false;
+    }
 
-            String nodeName = node.getNodeName();
-            if (nodeName == null) {
-                return false;
-            }
+    /**
+     * Tests a fetched document to decide whether it is an OWS capabilities
+     * document, so one fetch can both verify an endpoint and list its
+     * operation endpoints
+     *
+     * @param doc get capabilities response, may be null
+     * @return true if the root element is a capabilities element
+     */
+    public static boolean isCapabilitiesDocument(Document doc) {
+        if (doc == null) {
+            return false;
+        }
+        Node node = doc.getFirstChild();
+        while (node != null && node.getNodeType() == Document.COMMENT_NODE) {
+            node = node.getNextSibling();
+        }
+        if (node == null) {
+            return false;
+        }
 
-            Pattern pattern = Pattern.compile("(?:\\w+:)?(?:\\w{3}_)?Capabilities");
-            Matcher matcher = pattern.matcher(nodeName);
-            if (matcher.matches()) {
-                log.debug("Response contained capabilities element, adding to cache and proxying");
-                return true;
-            }
+        String nodeName = node.getNodeName();
+        if (nodeName == null) {
+            return false;
+        }
 
+        Matcher matcher = CAPABILITIES_PATTERN.matcher(nodeName);
+        if (matcher.matches()) {
+            log.debug("Response contained capabilities element, adding to cache and proxying");
+            return true;
         }
         log.debug("Does not look like an OWS endpoint");
         return false;
@@ -111,7 +126,10 @@ public class OGCCommons {
             log.debug("Sending getCapabilities to: " + getCapsUrl.toString());
             DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
             DocumentBuilder db = dbf.newDocumentBuilder();
-            inputStream = getCapsUrl.openStream();
+            URLConnection connection = getCapsUrl.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            inputStream = connection.getInputStream();
             doc = db.parse(inputStream);
         } catch (SAXException se) {
             log.debug("SAX threw an exception", se);
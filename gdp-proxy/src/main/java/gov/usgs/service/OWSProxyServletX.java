@@ -1,8 +1,9 @@
 package gov.usgs.service;
 
 import gov.usgs.cida.blacklist.BlacklistFactory;
-import static gov.usgs.cida.blacklist.BlacklistFactory.BlacklistType.DELAY_ONLY;
+import static gov.usgs.cida.blacklist.BlacklistFactory.BlacklistType.TIME_WHEEL;
 import gov.usgs.cida.blacklist.BlacklistInterface;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -13,15 +14,27 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -34,9 +47,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.cache.CacheResponseStatus;
-import org.apache.http.client.cache.HttpCacheEntry;
-import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.ResourceFactory;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
@@ -47,26 +58,37 @@ import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.cache.BasicHttpCacheStorage;
 import org.apache.http.impl.client.cache.CacheConfig;
 import org.apache.http.impl.client.cache.CachingHttpClient;
+import org.apache.http.impl.client.cache.HeapResourceFactory;
 import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.message.BasicHeader;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpContext;
-import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 
 /**
  *
  * As of 2012/03/28 the behavior has changed so that the proxy will proxy to the encoded url in [servletPath]?[url]
+ *
+ * Requests are handled asynchronously (Servlet 3.0) when the servlet is
+ * mapped with async-supported, the container thread is returned as soon as the
+ * request is handed to the proxy's own worker threads.  Rejections of
+ * unverified endpoints are delayed on a timer rather than by sleeping, so a
+ * client requesting bad endpoints can not tie up the container's threads.
+ * <p>
+ * A request only supports async when every filter it passes through does
+ * too, so deployers must declare
+ * <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code> on each
+ * filter mapped in front of the proxy as well as on the servlet.
+ * Without async support requests are proxied on the container thread, and
+ * rejections are sent right away with a Retry-After header for the delay
+ * instead of holding the container thread.
  */
 public class OWSProxyServletX extends HttpServlet {
 
@@ -74,31 +96,82 @@ public class OWSProxyServletX extends HttpServlet {
 
     // Cache setup
     private final static boolean CACHING_ENABLED = true;
-    private final static int CACHING_MAX_ENTRIES = 2048;
-    private final static int CACHING_MAX_RESPONSE_SIZE = 32767;
+    private final static int CACHING_MAX_ENTRIES = 2048;               // memory tier
+    private final static int CACHING_MAX_RESPONSE_SIZE = 32767;         // memory tier, larger responses go to disk
+    // the caching client reads a whole response before the client gets its
+    // first byte, so this bounds that wait, larger responses are not cached
+    private final static long CACHING_MAX_DISK_RESPONSE_SIZE = 1024L * 1024;        // 1 MB
+    private final static long CACHING_DISK_BUDGET = 1024L * 1024 * 1024;            // 1 GB
+    private final static String CACHING_DIRECTORY = "proxy-cache";
     private final static boolean CACHING_HEURISTIC_ENABLED = true; // behaves per RFC 2616
     private final static long CACHIN_HEURITIC_DEFAULT_LIFETIME_SECONDS = 300;  // 5 minutes
 
+    // Compression of text responses the server sent uncompressed
+    private final static boolean COMPRESSION_ENABLED = true;
+
+    // Coalescing of concurrent identical requests
+    private final static boolean COALESCING_ENABLED = true;
+    private final static int COALESCING_MAX_FOLLOWERS = 64;
+    private final static long COALESCING_WAIT_MILLIS = 30 * 1000;        // 30 seconds, then request independently
+    private final static long COALESCING_BUFFER_MAX = 4L * 1024 * 1024;  // 4 MB, larger bodies are not shared
+    private final static String[] COALESCING_KEY_HEADERS = {"Accept", "Accept-Encoding", "Accept-Language"};
+
     // Connection pool setup
     private final static int CONNECTION_TTL = 15 * 60 * 1000;       // 15 minutes, default is infinte
     private final static int CONNECTIONS_MAX_TOTAL = 256;
     private final static int CONNECTIONS_MAX_ROUTE = 32;
 
+    // Adaptive limits of concurrent requests per host, kept separately for
+    // each type of endpoint so slow coverage requests do not hold up map
+    // requests to the same host.  The connection pool's route limit is
+    // their sum
+    private final static int HOST_LIMIT_INITIAL = 8;
+    private final static int HOST_QUEUE_MAX = 32;
+    private final static long HOST_QUEUE_TIMEOUT_MILLIS = 10 * 1000;   // 10 seconds, then 503
+    public static final String HOST_LIMITERS_ATTRIBUTE = OWSProxyServletX.class.getName() + ".hostLimiters";
+
     // Connection timeouts
     private final static int CLIENT_SOCKET_TIMEOUT = 5 * 60 * 1000; // 5 minutes, default is infinite
     private final static int CLIENT_CONNECTION_TIMEOUT = 15 * 1000; // 15 seconds, default is infinte
 
+    // Async setup, a worker holds at most one server connection so there is
+    // no use in more workers than connections
+    private final static int PROXY_THREADS_CORE = 16;
+    private final static int PROXY_THREADS_MAX = CONNECTIONS_MAX_TOTAL;
+    private final static long PROXY_THREADS_KEEPALIVE_SECONDS = 60;
+    private final static long ASYNC_TIMEOUT = 0; // none, server requests are bounded by the client timeouts above
+    private final static long VALID_REQUEST = -1;
+    // some containers reset the request's paths once the container thread
+    // returns, the server URI is worked out before that
+    private final static String SERVER_REQUEST_URI_ATTRIBUTE = OWSProxyServletX.class.getName() + ".serverRequestURI";
+
+    // Endpoint verification, a failed verification is retried sooner in case
+    // the server was only down
+    private final static long ENDPOINT_VERIFIED_MILLIS = 24 * 60 * 60 * 1000;  // 1 day
+    private final static long ENDPOINT_REJECTED_MILLIS = 5 * 60 * 1000;        // 5 minutes
+    private final static int ENDPOINT_PREWARM_THREADS = 4;
+    public static final String ENDPOINT_PREWARM_PARAM = "prewarm-endpoints";
+    public static final String CACHE_MAX_RESPONSE_SIZE_PARAM = "cache-max-response-size";
+
     public static final String INVALID_ENDPOINT
             = "Service you are requesting is not a valid OWS service."
             + "  If this is incorrect, register this url by submitting a GetCapabilities request.";
     public static final String ENDPOINT_CONFIG = "endpoints.xml";
 
-    private Set<Endpoint> verifiedEndpointCache = Collections.synchronizedSet(new HashSet<Endpoint>());
-    private BlacklistInterface blacklist = BlacklistFactory.setActiveBlacklist(DELAY_ONLY);
+    private EndpointVerifier endpointVerifier = new EndpointVerifier(ENDPOINT_VERIFIED_MILLIS, ENDPOINT_REJECTED_MILLIS);
+    private BlacklistInterface blacklist;
 
     private ThreadSafeClientConnManager clientConnectionManager;
 
-    private HttpCacheStorage cacheStorage;
+    private Map<Endpoint.EndpointType, HostConcurrencyLimiter> hostLimiters;
+    private RequestCoalescer requestCoalescer = new RequestCoalescer(
+            COALESCING_MAX_FOLLOWERS, COALESCING_WAIT_MILLIS, COALESCING_BUFFER_MAX, COALESCING_KEY_HEADERS);
+
+    private ThreadPoolExecutor proxyExecutor;
+    private ScheduledExecutorService rejectTimer;
+
+    private TieredHttpCacheStorage cacheStorage;
+    private ResourceFactory cacheResourceFactory;
     private CacheConfig cacheConfig;
 
     private Set<String> ignoredClientRequestHeaderSet;
@@ -111,11 +184,22 @@ public class OWSProxyServletX extends HttpServlet {
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
 
+        blacklist = createBlacklist();
+
         // Initialize connection manager, this is thread-safe.  if we use this
         // with any HttpClient instance it becomes thread-safe.
         clientConnectionManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault(), CONNECTION_TTL, TimeUnit.MILLISECONDS);
+        hostLimiters = new EnumMap<Endpoint.EndpointType, HostConcurrencyLimiter>(Endpoint.EndpointType.class);
+        int hostLimitTotal = 0;
+        for (Endpoint.EndpointType type : Endpoint.EndpointType.values()) {
+            HostConcurrencyLimiter hostLimiter = new HostConcurrencyLimiter(
+                    type.name(), HOST_LIMIT_INITIAL, getHostLimitMax(type), HOST_QUEUE_MAX, HOST_QUEUE_TIMEOUT_MILLIS);
+            hostLimiters.put(type, hostLimiter);
+            hostLimitTotal += hostLimiter.getMaxLimit();
+        }
+        config.getServletContext().setAttribute(HOST_LIMITERS_ATTRIBUTE, Collections.unmodifiableMap(hostLimiters));
         clientConnectionManager.setMaxTotal(CONNECTIONS_MAX_TOTAL);
-        clientConnectionManager.setDefaultMaxPerRoute(CONNECTIONS_MAX_ROUTE);
+        clientConnectionManager.setDefaultMaxPerRoute(Math.min(hostLimitTotal, CONNECTIONS_MAX_TOTAL));
         LOGGER.info("Created HTTP client connection manager: maximum connections total = {}, maximum connections per route = {}",
                 clientConnectionManager.getMaxTotal(), clientConnectionManager.getDefaultMaxPerRoute());
 
@@ -135,28 +219,59 @@ public class OWSProxyServletX extends HttpServlet {
         ignoredServerResponseHeaderSet.add("authorization");    // parameterize (authorization passthru?)
 //		ignoredServerResponseHeaderSet.add("content-length");   // allow for now, NOTE: are you doing response body content rewrite?\
 
-        // Endpoints we know we are going to be used can just be fed into the verified endpoint cache
+        // Endpoints we know we are going to be used can just be fed into the
+        // verifier as trusted, if asked their capabilities are fetched in the
+        // background so their operation endpoints are trusted too
         InputStream configStream = OWSProxyServletX.class.getClassLoader().getResourceAsStream(ENDPOINT_CONFIG);
         if (null != configStream) {
-            readValidEndpointsFromConfig(configStream);
+            List<Endpoint> configEndpoints = readValidEndpointsFromConfig(configStream);
+            if (Boolean.parseBoolean(config.getInitParameter(ENDPOINT_PREWARM_PARAM)) && !configEndpoints.isEmpty()) {
+                ExecutorService prewarmExecutor = Executors.newFixedThreadPool(ENDPOINT_PREWARM_THREADS, new ProxyThreadFactory("proxy-prewarm-"));
+                endpointVerifier.prewarm(configEndpoints, prewarmExecutor);
+                // runs the submitted verifications, then its threads end
+                prewarmExecutor.shutdown();
+                LOGGER.info("Verifying {} configured endpoints in the background", configEndpoints.size());
+            }
         }
 
-        // If enabled setup a memory/heap cache for server responses.  If we
-        // want we could setup a layered L1/L2/... cache scheme by wrapping
-        // CachingHttpClient instances with appropriate storage (i.e. small cache
-        // in heap storage, larger with file storage, etc..)
+        // If enabled setup a two tier cache for server responses, small
+        // responses are kept in heap storage, larger ones (i.e. capabilities
+        // documents) in file storage under the container's temporary
+        // directory.  Responses over the maximum response size, which
+        // includes most WCS coverages and WFS features, are not cached.
         if (CACHING_ENABLED) {
+            File cacheDirectory = getCacheDirectory();
+            long diskBudget = CACHING_DISK_BUDGET;
+            long maxDiskResponseSize = CACHING_MAX_DISK_RESPONSE_SIZE;
+            String maxResponseSizeParam = config.getInitParameter(CACHE_MAX_RESPONSE_SIZE_PARAM);
+            if (maxResponseSizeParam != null) {
+                try {
+                    maxDiskResponseSize = Long.parseLong(maxResponseSizeParam.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Ignoring " + CACHE_MAX_RESPONSE_SIZE_PARAM + " " + maxResponseSizeParam + ", not a number of bytes");
+                }
+            }
+            try {
+                cacheResourceFactory = new TieredResourceFactory(cacheDirectory, CACHING_MAX_RESPONSE_SIZE);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to use " + cacheDirectory + " for cached responses, caching small responses only", e);
+                cacheResourceFactory = new HeapResourceFactory();
+                diskBudget = 0;
+            }
             cacheConfig = new CacheConfig();
             cacheConfig.setMaxCacheEntries(CACHING_MAX_ENTRIES);
-            cacheConfig.setMaxObjectSizeBytes(CACHING_MAX_RESPONSE_SIZE);
+            cacheConfig.setMaxObjectSize(diskBudget > 0 ? Math.min(maxDiskResponseSize, diskBudget) : CACHING_MAX_RESPONSE_SIZE);
             cacheConfig.setHeuristicCachingEnabled(CACHING_HEURISTIC_ENABLED);
             cacheConfig.setHeuristicDefaultLifetime(CACHIN_HEURITIC_DEFAULT_LIFETIME_SECONDS);
             cacheConfig.setSharedCache(true);  // won't cache authorized responses
-            cacheStorage = new ProxyCacheStorage(cacheConfig);
-            LOGGER.info("HTTP Response caching enabled: maximum cache entries = {}, maximum response size = {} bytes, heuristic caching enabled = {}, heuristic default lifetime = {} s",
+            cacheStorage = new TieredHttpCacheStorage(CACHING_MAX_ENTRIES, CACHING_MAX_RESPONSE_SIZE, diskBudget);
+            LOGGER.info("HTTP Response caching enabled: maximum memory cache entries = {}, maximum memory response size = {} bytes, maximum cached response size = {} bytes, disk cache size = {} bytes in {}, heuristic caching enabled = {}, heuristic default lifetime = {} s",
                     new Object[]{
                         cacheConfig.getMaxCacheEntries(),
-                        cacheConfig.getMaxObjectSizeBytes(),
+                        CACHING_MAX_RESPONSE_SIZE,
+                        cacheConfig.getMaxObjectSize(),
+                        diskBudget,
+                        cacheDirectory,
                         cacheConfig.isHeuristicCachingEnabled(),
                         cacheConfig.getHeuristicDefaultLifetime(),});
         } else {
@@ -166,42 +281,200 @@ public class OWSProxyServletX extends HttpServlet {
         HttpParams httpParams = new BasicHttpParams();
         HttpConnectionParams.setSoTimeout(httpParams, CLIENT_SOCKET_TIMEOUT);
         HttpConnectionParams.setConnectionTimeout(httpParams, CLIENT_CONNECTION_TIMEOUT);
-        DefaultHttpClient defaultClient = new DefaultHttpClient(clientConnectionManager, httpParams);
-        this.proxyHttpClient = CACHING_ENABLED ? new CachingHttpClient(defaultClient, cacheStorage, cacheConfig) : defaultClient;
+        // only requests that reach a server, not those answered from the
+        // cache, are limited per host
+        HttpClient serverClient = new HostLimitedHttpClient(new DefaultHttpClient(clientConnectionManager, httpParams), hostLimiters);
+        this.proxyHttpClient = CACHING_ENABLED ? new CachingHttpClient(serverClient, cacheResourceFactory, cacheStorage, cacheConfig) : serverClient;
+
+        proxyExecutor = createProxyExecutor();
+        rejectTimer = Executors.newSingleThreadScheduledExecutor(new ProxyThreadFactory("proxy-reject-timer-"));
+        LOGGER.info("Created proxy workers: maximum workers = {}", proxyExecutor.getMaximumPoolSize());
+    }
+
+    /**
+     * @return blacklist deciding how long rejections of a client are delayed,
+     * a client that keeps making bad requests is rejected at once
+     */
+    protected BlacklistInterface createBlacklist() {
+        return BlacklistFactory.setActiveBlacklist(TIME_WHEEL);
+    }
+
+    /**
+     * @return workers of asynchronous requests, requests it rejects are
+     * answered with 503
+     */
+    protected ThreadPoolExecutor createProxyExecutor() {
+        return new ThreadPoolExecutor(
+                PROXY_THREADS_CORE, PROXY_THREADS_MAX,
+                PROXY_THREADS_KEEPALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ProxyThreadFactory("proxy-worker-"));
     }
 
     @Override
     public void destroy() {
+        getServletContext().removeAttribute(HOST_LIMITERS_ATTRIBUTE);
+        rejectTimer.shutdownNow();
+        proxyExecutor.shutdownNow();
         clientConnectionManager.shutdown();
+        if (cacheStorage != null) {
+            cacheStorage.clear();
+        }
+    }
+
+    /**
+     * Map tiles are small and many, coverages and processes are few and
+     * long running
+     */
+    private static int getHostLimitMax(Endpoint.EndpointType type) {
+        switch (type) {
+            case WMS:
+                return CONNECTIONS_MAX_ROUTE;
+            case WFS:
+            case WPS:
+                return CONNECTIONS_MAX_ROUTE / 2;
+            default:
+                return CONNECTIONS_MAX_ROUTE / 4;
+        }
+    }
+
+    private File getCacheDirectory() {
+        File tempDirectory = (File) getServletContext().getAttribute(ServletContext.TEMPDIR);
+        if (tempDirectory == null) {
+            tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+        }
+        return new File(tempDirectory, CACHING_DIRECTORY);
     }
 
     @Override
     protected void service(HttpServletRequest clientRequest, HttpServletResponse clientResponse) throws ServletException, IOException {
+        if (clientRequest.isAsyncSupported()) {
+            serviceAsync(clientRequest, clientResponse);
+            return;
+        }
         try {
-            if (isValidRequest(clientRequest)) {
+            long rejectDelay = validateRequest(clientRequest);
+            if (rejectDelay == VALID_REQUEST) {
                 proxyRequest(clientRequest, clientResponse);
             } else {
+                if (rejectDelay > 0) {
+                    // the container thread is not held for the delay, the
+                    // client is asked to wait it out instead
+                    clientResponse.setHeader("Retry-After", Long.toString(
+                            TimeUnit.MILLISECONDS.toSeconds(rejectDelay + TimeUnit.SECONDS.toMillis(1) - 1)));
+                }
                 proxyReject(clientRequest, clientResponse);
             }
         } catch (Exception e) {
-            // Important!  With Apache Tomcat 6 container uncaught exceptions will result in
-            // container returning HTTP status code 200 (OK) w/ empty response body.
-            proxyError(clientRequest, clientResponse, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString());
-            // log a little more information to help with debugging as this is a bas state...
-            StringBuilder logMessageBuilder = new StringBuilder();
-            logMessageBuilder.append("Uncaught exception handling proxy request from ").
-                    append(getClientRequestURIAsString(clientRequest)).append(" to ").
-                    append(getServerRequestURIAsString(clientRequest));
-            LOGGER.error(logMessageBuilder.toString(), e);
+            proxyUncaught(clientRequest, clientResponse, e);
         } finally {
             clientResponse.flushBuffer();
         }
     }
 
+    /**
+     * Hands the request to a proxy worker and returns the container thread.
+     */
+    protected void serviceAsync(HttpServletRequest clientRequest, HttpServletResponse clientResponse) {
+        clientRequest.setAttribute(SERVER_REQUEST_URI_ATTRIBUTE, getServerRequestURIAsString(clientRequest));
+        final AsyncContext asyncContext = clientRequest.startAsync(clientRequest, clientResponse);
+        asyncContext.setTimeout(ASYNC_TIMEOUT);
+        try {
+            proxyExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleAsync(asyncContext);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            proxyError(clientRequest, clientResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Proxy is handling too many requests, try again later.");
+            complete(asyncContext);
+        }
+    }
+
+    private void handleAsync(AsyncContext asyncContext) {
+        HttpServletRequest clientRequest = (HttpServletRequest) asyncContext.getRequest();
+        HttpServletResponse clientResponse = (HttpServletResponse) asyncContext.getResponse();
+        boolean completed = true;
+        try {
+            long rejectDelay = validateRequest(clientRequest);
+            if (rejectDelay == VALID_REQUEST) {
+                proxyRequest(clientRequest, clientResponse);
+            } else if (rejectDelay > 0) {
+                completed = !scheduleReject(asyncContext, rejectDelay);
+            } else {
+                proxyReject(clientRequest, clientResponse);
+            }
+        } catch (Exception e) {
+            proxyUncaught(clientRequest, clientResponse, e);
+        } finally {
+            if (completed) {
+                complete(asyncContext);
+            }
+        }
+    }
+
+    /**
+     * @return false if the timer is shut down and the request was rejected
+     * right away
+     */
+    private boolean scheduleReject(final AsyncContext asyncContext, long delay) {
+        final HttpServletRequest clientRequest = (HttpServletRequest) asyncContext.getRequest();
+        final HttpServletResponse clientResponse = (HttpServletResponse) asyncContext.getResponse();
+        try {
+            rejectTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        proxyReject(clientRequest, clientResponse);
+                    } catch (RuntimeException e) {
+                        // client gave up waiting and the container completed the request
+                        LOGGER.debug("Unable to send delayed rejection", e);
+                    } finally {
+                        complete(asyncContext);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            proxyReject(clientRequest, clientResponse);
+            return false;
+        }
+    }
+
+    private void complete(AsyncContext asyncContext) {
+        try {
+            asyncContext.getResponse().flushBuffer();
+        } catch (IOException e) {
+            LOGGER.debug("Error flushing client response", e);
+        }
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            LOGGER.debug("Request already completed", e);
+        }
+    }
+
+    protected void proxyUncaught(HttpServletRequest clientRequest, HttpServletResponse clientResponse, Exception e) {
+        // Important!  With Apache Tomcat 6 container uncaught exceptions will result in
+        // container returning HTTP status code 200 (OK) w/ empty response body.
+        proxyError(clientRequest, clientResponse, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString());
+        // log a little more information to help with debugging as this is a bas state...
+        StringBuilder logMessageBuilder = new StringBuilder();
+        logMessageBuilder.append("Uncaught exception handling proxy request from ").
+                append(getClientRequestURIAsString(clientRequest)).append(" to ").
+                append(getServerRequestURIAsString(clientRequest));
+        LOGGER.error(logMessageBuilder.toString(), e);
+    }
+
     protected void proxyRequest(HttpServletRequest clientRequest, HttpServletResponse clientResponse) {
         try {
             HttpUriRequest serverRequest = generateServerRequest(clientRequest);
             handleServerRequest(clientRequest, clientResponse, serverRequest);
+        } catch (ProxySaturatedException e) {
+            clientResponse.setHeader("Retry-After", Long.toString(TimeUnit.MILLISECONDS.toSeconds(HOST_QUEUE_TIMEOUT_MILLIS)));
+            proxyError(clientRequest, clientResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
         } catch (ProxyException e) {
             proxyError(clientRequest, clientResponse, e);
         }
@@ -330,11 +603,24 @@ public class OWSProxyServletX extends HttpServlet {
     }
 
     protected void generateClientResponseHeaders(HttpServletResponse clientResponse, HttpResponse serverResponse) {
+        generateClientResponseHeaders(clientResponse, serverResponse, false);
+    }
+
+    /**
+     * @param compressed true if the body is compressed by the proxy, the
+     * server's Content-Length no longer applies and its ETag is weakened
+     */
+    protected void generateClientResponseHeaders(HttpServletResponse clientResponse, HttpResponse serverResponse, boolean compressed) {
         Header[] proxyResponseHeaders = serverResponse.getAllHeaders();
         for (Header header : proxyResponseHeaders) {
             String responseHeaderName = header.getName();
             String responseHeaderValue = header.getValue();
-            if (!ignoredServerResponseHeaderSet.contains(responseHeaderName)) {
+            if (compressed && "content-length".equalsIgnoreCase(responseHeaderName)) {
+                LOGGER.debug("Ignored server response header \"{}: {}\" for compressed response", responseHeaderName, responseHeaderValue);
+            } else if (compressed && "etag".equalsIgnoreCase(responseHeaderName)) {
+                clientResponse.addHeader(responseHeaderName, ResponseCompression.weakenETag(responseHeaderValue));
+                LOGGER.debug("Weakened server response header \"{}: {}\" for compressed response", responseHeaderName, responseHeaderValue);
+            } else if (!ignoredServerResponseHeaderSet.contains(responseHeaderName)) {
                 clientResponse.addHeader(responseHeaderName, responseHeaderValue);
                 LOGGER.debug("Mapped server response header \"{}: {}\"", responseHeaderName, responseHeaderValue);
             } else {
@@ -344,19 +630,56 @@ public class OWSProxyServletX extends HttpServlet {
     }
 
     protected void handleServerRequest(HttpServletRequest clientRequest, HttpServletResponse clientResponse, HttpUriRequest serverRequest) throws ProxyException {
+        // Concurrent identical requests share one fetch, the first leads and
+        // the others read its response as it arrives
+        RequestCoalescer.Flight flight = null;
+        String coalescingKey = getCoalescingKey(serverRequest);
+        if (coalescingKey != null) {
+            flight = requestCoalescer.lead(coalescingKey);
+            if (flight == null) {
+                RequestCoalescer.Follower follower = requestCoalescer.follow(coalescingKey);
+                if (follower != null) {
+                    HttpResponse sharedResponse;
+                    try {
+                        sharedResponse = follower.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ProxyException("Interrupted waiting for shared server response", e);
+                    }
+                    if (sharedResponse != null) {
+                        LOGGER.debug("Shared server response for request to {}", serverRequest.getURI());
+                        handleServerResponse(clientRequest, clientResponse, sharedResponse);
+                        return;
+                    }
+                    LOGGER.debug("No shared server response for request to {}, requesting", serverRequest.getURI());
+                }
+            }
+        }
+        try {
+            handleServerRequest(clientRequest, clientResponse, serverRequest, flight);
+        } finally {
+            if (flight != null) {
+                flight.close();
+            }
+        }
+    }
+
+    private void handleServerRequest(HttpServletRequest clientRequest, HttpServletResponse clientResponse, HttpUriRequest serverRequest, RequestCoalescer.Flight flight) throws ProxyException {
         HttpClient serverClient = getHttpClient(clientRequest);
         try {
             HttpContext localContext = new BasicHttpContext();
             HttpResponse methodReponse = serverClient.execute(serverRequest, localContext);
+            if (flight != null) {
+                methodReponse = flight.publish(methodReponse);
+            }
             if (CACHING_ENABLED && LOGGER.isDebugEnabled()) {
-                CacheResponseStatus responseStatus = (CacheResponseStatus) localContext.getAttribute(CachingHttpClient.CACHE_RESPONSE_STATUS);
-                if (responseStatus != null) {
-                    LOGGER.debug("CacheResponseStatus={} for request to {}",
-                            responseStatus.toString(),
-                            serverRequest.getURI().toString());
-                }
+                LOGGER.debug("CacheResponseStatus={} for request to {}",
+                        localContext.getAttribute(CachingHttpClient.CACHE_RESPONSE_STATUS),
+                        serverRequest.getURI().toString());
             }
             handleServerResponse(clientRequest, clientResponse, methodReponse);
+        } catch (HostLimitedHttpClient.HostSaturatedException e) {
+            throw new ProxySaturatedException(e.getMessage());
         } catch (ClientProtocolException e) {
             throw new ProxyException("Client protocol error", e);
         } catch (IOException e) {
@@ -379,8 +702,17 @@ public class OWSProxyServletX extends HttpServlet {
         clientResponse.setStatus(statusCode);
         LOGGER.debug("Mapped server status code {}", statusCode);
 
-        // 2) Map server response headers to client response
-        generateClientResponseHeaders(clientResponse, serverResponse);
+        // 2) Map server response headers to client response, text bodies
+        // the server did not compress are compressed for clients accepting it
+        boolean compressible = COMPRESSION_ENABLED && ResponseCompression.isCompressible(clientRequest.getMethod(), serverResponse);
+        boolean compress = compressible && ResponseCompression.acceptsGzip(clientRequest.getHeader("Accept-Encoding"));
+        generateClientResponseHeaders(clientResponse, serverResponse, compress);
+        if (compressible) {
+            clientResponse.addHeader("Vary", "Accept-Encoding");
+        }
+        if (compress) {
+            clientResponse.setHeader("Content-Encoding", ResponseCompression.GZIP);
+        }
 
         // 3) Copy server response body to client response
         HttpEntity methodEntity = serverResponse.getEntity();
@@ -394,23 +726,34 @@ public class OWSProxyServletX extends HttpServlet {
             try {
 
                 // !!! Are you here to edit this to enable response body content rewrite?
-                //     You may want to remove or edit the "Content-Length" header !!!
+                //     You may want to remove or edit the "Content-Length" header,
+                //     as is done for compressed responses !!!
                 try {
                     is = methodEntity.getContent();
                 } catch (IOException e) {
                     throw new ProxyException("Error obtaining input stream for server response", e);
                 }
 
-                try {
-                    os = clientResponse.getOutputStream();
-                } catch (IOException e) {
-                    throw new ProxyException("Error obtaining output stream for client response", e);
-                }
+                if (compress) {
+                    try {
+                        // sets Content-Length when the compressed body is small
+                        responseBytes = ResponseCompression.gzip(is, clientResponse);
+                        os = clientResponse.getOutputStream();
+                    } catch (IOException e) {
+                        throw new ProxyException("Error compressing server response to client", e);
+                    }
+                } else {
+                    try {
+                        os = clientResponse.getOutputStream();
+                    } catch (IOException e) {
+                        throw new ProxyException("Error obtaining output stream for client response", e);
+                    }
 
-                try {
-                    responseBytes = IOUtils.copyLarge(is, os);
-                } catch (IOException e) {
-                    throw new ProxyException("Error copying server response to client", e);
+                    try {
+                        responseBytes = ResponseCompression.copy(is, os);
+                    } catch (IOException e) {
+                        throw new ProxyException("Error copying server response to client", e);
+                    }
                 }
 
             } finally {
@@ -436,6 +779,33 @@ public class OWSProxyServletX extends HttpServlet {
         }
     }
 
+    /**
+     * Requests are shared when they are GETs for the same URI with the same
+     * content negotiation, and not conditional or partial as their responses
+     * depend on what the client has.
+     *
+     * @return key of requests that can share a fetch, null if this one can
+     * not
+     */
+    protected String getCoalescingKey(HttpUriRequest serverRequest) {
+        if (!COALESCING_ENABLED || !"GET".equals(serverRequest.getMethod())) {
+            return null;
+        }
+        StringBuilder keyBuilder = new StringBuilder(serverRequest.getURI().toString());
+        for (Header header : serverRequest.getAllHeaders()) {
+            String headerName = header.getName();
+            if ("range".equalsIgnoreCase(headerName) || headerName.regionMatches(true, 0, "if-", 0, 3)) {
+                return null;
+            }
+        }
+        for (String headerName : COALESCING_KEY_HEADERS) {
+            for (Header header : serverRequest.getHeaders(headerName)) {
+                keyBuilder.append('\n').append(headerName).append(": ").append(header.getValue());
+            }
+        }
+        return keyBuilder.toString();
+    }
+
     protected HttpClient getHttpClient(HttpServletRequest clientRequest) {
         // this could be extended to return client specific HttpClients in
         // this future.  An example use case is if authorization were enabled
@@ -451,6 +821,10 @@ public class OWSProxyServletX extends HttpServlet {
     }
 
     protected String getServerRequestURIAsString(HttpServletRequest clientrequest) {
+        Object serverRequestURI = clientrequest.getAttribute(SERVER_REQUEST_URI_ATTRIBUTE);
+        if (serverRequestURI != null) {
+            return (String) serverRequestURI;
+        }
         String proxyPath = new StringBuilder(clientrequest.getContextPath()).
                 append(clientrequest.getServletPath()).
                 append('/').
@@ -471,40 +845,31 @@ public class OWSProxyServletX extends HttpServlet {
         }
     }
 
-    private boolean isValidRequest(HttpServletRequest request) {
+    /**
+     * @return VALID_REQUEST if the request may be proxied, otherwise the time
+     * in milliseconds to wait before rejecting it
+     */
+    private long validateRequest(HttpServletRequest request) {
         String remoteAddr = request.getRemoteAddr();
         if (blacklist.isBlacklisted(remoteAddr)) {
-            // fall through to false
+            // rejected without a wait
+            return 0;
         } else {
             String serverURIAsString = getServerRequestURIAsString(request);
 
             LOGGER.debug("Looking up URI for endpoint validation: {}", serverURIAsString);
             Endpoint owsEndpoint = new Endpoint(serverURIAsString);
 
-            if (verifiedEndpointCache.contains(owsEndpoint)) {
-                LOGGER.debug("URI in cache, proxying");
-                return true;
-            }
-
-            if (OGCCommons.isOWSEndpoint(owsEndpoint)) {
-                verifiedEndpointCache.add(owsEndpoint);
-                Document capabilitiesDocument = OGCCommons.getCapabilitiesDocument(owsEndpoint);
-                verifiedEndpointCache.addAll(OGCCommons.getOperationEndpoints(capabilitiesDocument));
-                return true;
+            if (endpointVerifier.isVerified(owsEndpoint)) {
+                return VALID_REQUEST;
             } else {
-                long timeToSleep = blacklist.determineSleepTime(remoteAddr);
-
-                try {
-                    Thread.sleep(timeToSleep);
-                } catch (InterruptedException ex) {
-                    LOGGER.debug("Sleep interrupted for 403 error wait", ex);
-                }
+                return blacklist.determineSleepTime(remoteAddr);
             }
         }
-        return false;
     }
 
-    private void readValidEndpointsFromConfig(InputStream in) {
+    private List<Endpoint> readValidEndpointsFromConfig(InputStream in) {
+        List<Endpoint> endpoints = new ArrayList<Endpoint>();
         Properties props = null;
         try {
             props = new Properties();
@@ -519,14 +884,33 @@ public class OWSProxyServletX extends HttpServlet {
             Endpoint endpt = new Endpoint(value);
             if (endpt.getType() != Endpoint.EndpointType.UNKNOWN) {
                 LOGGER.debug("Adding " + value + " to verifiedCache");
-                verifiedEndpointCache.add(endpt);
+                endpointVerifier.addTrusted(endpt);
+                endpoints.add(endpt);
             } else {
                 LOGGER.debug("Unable to determine endpoint type");
             }
         }
+        return endpoints;
 
     }
 
+    private static class ProxyThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private ProxyThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     public static class ProxyException extends Exception {
 
         public ProxyException(String message) {
@@ -546,39 +930,14 @@ public class OWSProxyServletX extends HttpServlet {
         }
     }
 
-    public static class ProxyCacheStorage extends BasicHttpCacheStorage {
-
-        public ProxyCacheStorage(CacheConfig cacheConfig) {
-            super(cacheConfig);
-        }
+    /**
+     * The server's host has too many requests waiting, the client is told
+     * to retry rather than wait.
+     */
+    public static class ProxySaturatedException extends ProxyException {
 
-        @Override
-        public synchronized void putEntry(String url, HttpCacheEntry entry) throws IOException {
-            super.putEntry(url, checkEntry(entry));
-        }
-
-        @Override
-        public synchronized HttpCacheEntry getEntry(String url) throws IOException {
-            return checkEntry(super.getEntry(url));
-        }
-
-        private HttpCacheEntry checkEntry(HttpCacheEntry entry) {
-            if (entry != null && entry.getFirstHeader(HTTP.CONTENT_LEN) == null) {
-                Header[] originalHeaders = entry.getAllHeaders();
-                int originalHeaderCount = originalHeaders.length;
-                Header[] fixedHeaders = Arrays.copyOf(originalHeaders, originalHeaderCount + 1);
-                fixedHeaders[originalHeaderCount] = new BasicHeader(HTTP.CONTENT_LEN, Long.toString(entry.getResource().length()));
-                return new HttpCacheEntry(
-                        entry.getRequestDate(),
-                        entry.getResponseDate(),
-                        entry.getStatusLine(),
-                        fixedHeaders,
-                        entry.getResource(),
-                        entry.getVariantMap());
-            } else {
-                return entry;
-            }
+        public ProxySaturatedException(String message) {
+            super(message);
         }
-
     }
 }
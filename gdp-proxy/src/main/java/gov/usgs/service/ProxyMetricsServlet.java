@@ -0,0 +1,37 @@
+package gov.usgs.service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Lists the proxy's per host request limits and their counts, for the
+ * management interface.  The proxy servlet has to be loaded in the same
+ * webapp.
+ */
+public class ProxyMetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Properties metrics = new Properties();
+        @SuppressWarnings("unchecked")
+        Map<Endpoint.EndpointType, HostConcurrencyLimiter> hostLimiters = (Map<Endpoint.EndpointType, HostConcurrencyLimiter>) getServletContext().getAttribute(OWSProxyServletX.HOST_LIMITERS_ATTRIBUTE);
+        if (hostLimiters != null) {
+            for (HostConcurrencyLimiter hostLimiter : hostLimiters.values()) {
+                metrics.putAll(hostLimiter.outputMetrics());
+            }
+        }
+        response.setContentType("text/xml");
+        metrics.storeToXML(response.getOutputStream(), null);
+        response.flushBuffer();
+    }
+
+    @Override
+    public String getServletInfo() {
+        return "Lists proxy request limits per host";
+    }
+}
@@ -0,0 +1,433 @@
+package gov.usgs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * Lets concurrent identical server requests share one fetch.  The first
+ * request for a key leads, later requests follow: they wait for the leader's
+ * response and read its body as the leader reads it from the server.
+ * <p>
+ * Only a response a shared cache could store, with a Content-Length that fits
+ * the buffer, is shared.  Its whole body is held until the flight ends, so
+ * followers read at their own pace from a shared list of chunks, can not fall
+ * too far behind and the leader never waits for them.  A follower that waits
+ * too long for the response, or finds the leader failed before it had one or
+ * had one that can not be shared, fetches on its own.
+ */
+public class RequestCoalescer {
+
+    // cacheable unless the response says otherwise, RFC 2616 13.4
+    private static final int[] CACHEABLE_STATUS_CODES = {200, 203, 300, 301, 410};
+
+    private final int maxFollowers;
+    private final long waitMillis;
+    private final long bufferMax;
+    private final Set<String> keyHeaders = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    /**
+     * @param maxFollowers most requests that share one fetch, besides its
+     * leader
+     * @param waitMillis time a follower waits for the leader's response
+     * before fetching on its own
+     * @param bufferMax largest body shared with followers
+     * @param keyHeaders request headers that are part of the key, a response
+     * varying with any other header is not shared
+     */
+    public RequestCoalescer(int maxFollowers, long waitMillis, long bufferMax, String... keyHeaders) {
+        this.maxFollowers = maxFollowers;
+        this.waitMillis = waitMillis;
+        this.bufferMax = bufferMax;
+        for (String keyHeader : keyHeaders) {
+            this.keyHeaders.add(keyHeader);
+        }
+    }
+
+    /**
+     * @return a flight the caller leads and must close, null if there is one
+     * in progress
+     */
+    public Flight lead(String key) {
+        Flight flight = new Flight(key);
+        return flights.putIfAbsent(key, flight) == null ? flight : null;
+    }
+
+    /**
+     * @return a follower of the flight in progress, null if there is none or
+     * it takes no more followers
+     */
+    public Follower follow(String key) {
+        Flight flight = flights.get(key);
+        return flight == null ? null : flight.follow();
+    }
+
+    /**
+     * @return true if every request of the key may be given the response,
+     * as a shared cache could, and its whole body fits the buffer
+     */
+    boolean isShareable(HttpResponse serverResponse) {
+        boolean cacheableStatus = false;
+        for (int statusCode : CACHEABLE_STATUS_CODES) {
+            cacheableStatus |= serverResponse.getStatusLine().getStatusCode() == statusCode;
+        }
+        if (!cacheableStatus) {
+            return false;
+        }
+        for (Header cacheControl : serverResponse.getHeaders("Cache-Control")) {
+            String value = cacheControl.getValue().toLowerCase();
+            if (value.contains("no-store") || value.contains("private") || value.contains("no-cache")) {
+                return false;
+            }
+        }
+        for (Header pragma : serverResponse.getHeaders("Pragma")) {
+            if (pragma.getValue().toLowerCase().contains("no-cache")) {
+                return false;
+            }
+        }
+        if (serverResponse.containsHeader("Set-Cookie")) {
+            return false;
+        }
+        for (Header vary : serverResponse.getHeaders("Vary")) {
+            for (String headerName : vary.getValue().split(",")) {
+                if (!headerName.trim().isEmpty() && !keyHeaders.contains(headerName.trim())) {
+                    return false;
+                }
+            }
+        }
+        HttpEntity entity = serverResponse.getEntity();
+        return entity == null || (entity.getContentLength() >= 0 && entity.getContentLength() <= bufferMax);
+    }
+
+    /**
+     * @return flights taking followers, for tests
+     */
+    int getFlightCount() {
+        return flights.size();
+    }
+
+    private static class Chunk {
+
+        private final byte[] data;
+        private Chunk next;
+
+        private Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * The leader's side of a shared fetch.
+     */
+    public class Flight {
+
+        private final String key;
+        // start of the body, dropped when no more followers can join
+        private Chunk head = new Chunk(new byte[0]);
+        private Chunk tail = head;
+        private final Set<Follower> followers = new HashSet<Follower>();
+        private boolean joinable = true;
+        private StatusLine statusLine;
+        private Header[] headers;
+        private boolean hasEntity;
+        private long contentLength;
+        // the leader has no response to share
+        private boolean failed;
+        private boolean complete;
+        private IOException error;
+        private TeeInputStream tee;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Shares the server's response, the body is shared as the returned
+         * response's entity is read.  Closing the returned entity's content
+         * reads the rest of the body for the followers.  A response that can
+         * not be shared is returned as is, followers fetch on their own.
+         */
+        public HttpResponse publish(HttpResponse serverResponse) {
+            if (!isShareable(serverResponse)) {
+                synchronized (this) {
+                    failed = true;
+                    stopJoining();
+                    notifyAll();
+                }
+                return serverResponse;
+            }
+            HttpResponse published = new BasicHttpResponse(serverResponse.getStatusLine());
+            published.setHeaders(serverResponse.getAllHeaders());
+            HttpEntity entity = serverResponse.getEntity();
+            synchronized (this) {
+                statusLine = serverResponse.getStatusLine();
+                headers = serverResponse.getAllHeaders();
+                hasEntity = entity != null;
+                contentLength = entity == null ? -1 : entity.getContentLength();
+                if (entity == null) {
+                    complete = true;
+                    stopJoining();
+                }
+                notifyAll();
+            }
+            if (entity != null) {
+                tee = new TeeInputStream(this, entity);
+                published.setEntity(new InputStreamEntity(tee, contentLength));
+            }
+            return published;
+        }
+
+        /**
+         * Ends the flight, followers still waiting for a response fetch on
+         * their own.  Reads the rest of a published body for followers that
+         * are reading it.
+         */
+        public void close() {
+            if (tee != null) {
+                try {
+                    tee.close();
+                } catch (IOException e) {
+                    // followers were told
+                }
+            }
+            synchronized (this) {
+                if (statusLine == null) {
+                    failed = true;
+                } else if (!complete && error == null) {
+                    error = new IOException("Shared fetch ended before its body");
+                }
+                stopJoining();
+                notifyAll();
+            }
+        }
+
+        private synchronized Follower follow() {
+            if (!joinable || followers.size() >= maxFollowers) {
+                return null;
+            }
+            Follower follower = new Follower(this, head);
+            followers.add(follower);
+            return follower;
+        }
+
+        // called holding the flight's lock
+        private void stopJoining() {
+            if (joinable) {
+                joinable = false;
+                head = null;
+                flights.remove(key, this);
+            }
+        }
+
+        /*
+         * Never waits, the body is no larger than the buffer.
+         */
+        private synchronized void publish(byte[] b, int off, int len) {
+            if (!joinable && followers.isEmpty()) {
+                return;
+            }
+            byte[] data = new byte[len];
+            System.arraycopy(b, off, data, 0, len);
+            tail.next = new Chunk(data);
+            tail = tail.next;
+            notifyAll();
+        }
+
+        private synchronized void complete(IOException e) {
+            if (e == null) {
+                complete = true;
+            } else if (!complete && error == null) {
+                error = e;
+            }
+            stopJoining();
+            notifyAll();
+        }
+    }
+
+    /**
+     * A request sharing a flight's response.
+     */
+    public class Follower {
+
+        private final Flight flight;
+        private Chunk chunk;
+        private int offset;
+
+        private Follower(Flight flight, Chunk head) {
+            this.flight = flight;
+            this.chunk = head;
+        }
+
+        /**
+         * Waits for the leader's response.
+         *
+         * @return the shared response, its entity reads the shared body, null
+         * if the caller has to fetch on its own
+         */
+        public HttpResponse await() throws InterruptedException {
+            synchronized (flight) {
+                long deadline = System.currentTimeMillis() + waitMillis;
+                long remaining = waitMillis;
+                while (flight.statusLine == null && !flight.failed && remaining > 0) {
+                    flight.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (flight.statusLine == null) {
+                    cancel();
+                    return null;
+                }
+                HttpResponse response = new BasicHttpResponse(flight.statusLine);
+                response.setHeaders(flight.headers);
+                if (flight.hasEntity) {
+                    response.setEntity(new InputStreamEntity(new FollowerInputStream(this), flight.contentLength));
+                }
+                return response;
+            }
+        }
+
+        // called holding the flight's lock
+        private void cancel() {
+            flight.followers.remove(this);
+            flight.notifyAll();
+        }
+
+        // called holding the flight's lock
+        private int read(byte[] b, int off, int len) throws IOException, InterruptedException {
+            while (true) {
+                if (offset < chunk.data.length) {
+                    int read = Math.min(len, chunk.data.length - offset);
+                    System.arraycopy(chunk.data, offset, b, off, read);
+                    offset += read;
+                    return read;
+                }
+                if (chunk.next != null) {
+                    chunk = chunk.next;
+                    offset = 0;
+                } else if (flight.error != null) {
+                    throw new IOException("Shared fetch failed", flight.error);
+                } else if (flight.complete) {
+                    return -1;
+                } else {
+                    flight.wait();
+                }
+            }
+        }
+    }
+
+    /**
+     * Leader's view of the server's body, publishes what it reads.
+     */
+    private static class TeeInputStream extends InputStream {
+
+        private final Flight flight;
+        private final HttpEntity entity;
+        private InputStream in;
+        private boolean closed;
+
+        private TeeInputStream(Flight flight, HttpEntity entity) {
+            this.flight = flight;
+            this.entity = entity;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (in == null) {
+                try {
+                    in = entity.getContent();
+                } catch (IOException e) {
+                    flight.complete(e);
+                    throw e;
+                }
+            }
+            int read;
+            try {
+                read = in.read(b, off, len);
+            } catch (IOException e) {
+                flight.complete(e);
+                throw e;
+            }
+            if (read == -1) {
+                flight.complete(null);
+            } else if (read > 0) {
+                flight.publish(b, off, read);
+            }
+            return read;
+        }
+
+        /**
+         * Reads the rest of the body, for followers and so the server
+         * connection can be reused.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                byte[] buffer = new byte[8192];
+                while (read(buffer, 0, buffer.length) != -1) {
+                    // shared by read
+                }
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    private static class FollowerInputStream extends InputStream {
+
+        private final Follower follower;
+
+        private FollowerInputStream(Follower follower) {
+            this.follower = follower;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            synchronized (follower.flight) {
+                try {
+                    return follower.read(b, off, len);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted reading shared server response");
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (follower.flight) {
+                follower.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package gov.usgs.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+
+/**
+ * Copies server response bodies to the client, compressing text-like bodies
+ * (GML, capabilities, JSON) the server sent uncompressed.  Bodies are copied
+ * through a buffer kept per thread, the proxy's workers copy one body at a
+ * time.
+ */
+public class ResponseCompression {
+
+    public static final String GZIP = "gzip";
+
+    // smaller bodies do not gain enough to be worth the header
+    static final int MIN_COMPRESS_LENGTH = 1024;
+    // compressed bodies up to this size are sent with a Content-Length
+    static final int BUFFERED_MAX = 64 * 1024;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern COMPRESSIBLE_TYPE_PATTERN = Pattern.compile(
+            "(?i)\\s*(?:text/[^;]*|[^;]*[/+_.]xml|[^;]*[/+]json|application/javascript|application/x-javascript|[^;]*gml[^;]*)\\s*(?:;.*)?");
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private ResponseCompression() {
+    }
+
+    /**
+     * @param method client request method
+     * @param serverResponse response to be copied to the client
+     * @return true if the body could be compressed for a client that accepts
+     * it, the response then varies with Accept-Encoding
+     */
+    public static boolean isCompressible(String method, HttpResponse serverResponse) {
+        HttpEntity entity = serverResponse.getEntity();
+        if (entity == null || "HEAD".equalsIgnoreCase(method)) {
+            return false;
+        }
+        int statusCode = serverResponse.getStatusLine().getStatusCode();
+        if (statusCode < HttpStatus.SC_OK
+                || statusCode == HttpStatus.SC_NO_CONTENT
+                || statusCode == HttpStatus.SC_PARTIAL_CONTENT
+                || statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            return false;
+        }
+        Header contentEncoding = serverResponse.getFirstHeader("Content-Encoding");
+        if (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding.getValue().trim())) {
+            return false;
+        }
+        for (Header cacheControl : serverResponse.getHeaders("Cache-Control")) {
+            if (cacheControl.getValue().toLowerCase().contains("no-transform")) {
+                return false;
+            }
+        }
+        long contentLength = entity.getContentLength();
+        if (contentLength >= 0 && contentLength < MIN_COMPRESS_LENGTH) {
+            return false;
+        }
+        Header contentType = serverResponse.getFirstHeader("Content-Type");
+        return contentType != null && isCompressibleType(contentType.getValue());
+    }
+
+    public static boolean isCompressibleType(String contentType) {
+        return contentType != null && COMPRESSIBLE_TYPE_PATTERN.matcher(contentType).matches();
+    }
+
+    /**
+     * @param acceptEncoding client's Accept-Encoding header, may be null
+     * @return true if gzip, or any coding, is accepted
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean accepted = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            boolean gzip = GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name);
+            if (gzip || "*".equals(name)) {
+                boolean zeroQuality = false;
+                for (int index = 1; index < parameters.length; ++index) {
+                    String parameter = parameters[index].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            zeroQuality = Float.parseFloat(parameter.substring(2)) <= 0;
+                        } catch (NumberFormatException e) {
+                            zeroQuality = true;
+                        }
+                    }
+                }
+                if (gzip) {
+                    // named explicitly, overrides *
+                    return !zeroQuality;
+                }
+                accepted = !zeroQuality;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * The compressed body is not the server's representation byte for byte,
+     * so its entity tag can only be a weak one.  Clients then neither take it
+     * for the identity body's nor use it for ranges.
+     *
+     * @param etag server's ETag
+     * @return weak ETag for the compressed body
+     */
+    public static String weakenETag(String etag) {
+        String trimmed = etag.trim();
+        return trimmed.startsWith("W/") ? trimmed : "W/" + trimmed;
+    }
+
+    /**
+     * Copies a body as is.
+     *
+     * @return bytes copied
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = BUFFERS.get();
+        long count = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            count += read;
+        }
+        return count;
+    }
+
+    /**
+     * Compresses a body to the client.  A body that compresses to at most
+     * {@link #BUFFERED_MAX} bytes is sent with its compressed Content-Length,
+     * larger bodies are streamed as they are compressed.  The caller sets
+     * Content-Encoding and must not pass on the server's Content-Length.
+     *
+     * @return bytes read from the server
+     */
+    public static long gzip(InputStream in, HttpServletResponse clientResponse) throws IOException {
+        byte[] buffer = BUFFERS.get();
+        SpillOutputStream compressed = new SpillOutputStream(clientResponse);
+        GZIPOutputStream gzip = new FastGZIPOutputStream(compressed);
+        long count = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            gzip.write(buffer, 0, read);
+            count += read;
+        }
+        gzip.finish();
+        compressed.finish();
+        return count;
+    }
+
+    /**
+     * Compresses for speed over size, bodies are compressed as they are sent.
+     */
+    private static class FastGZIPOutputStream extends GZIPOutputStream {
+
+        private FastGZIPOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+
+    /**
+     * Holds compressed bytes until there are more than {@link #BUFFERED_MAX},
+     * then sends them and everything after to the client.
+     */
+    private static class SpillOutputStream extends OutputStream {
+
+        private final HttpServletResponse clientResponse;
+        private ByteArrayOutputStream buffered = new ByteArrayOutputStream(BUFFER_SIZE);
+        private OutputStream out;
+
+        private SpillOutputStream(HttpServletResponse clientResponse) {
+            this.clientResponse = clientResponse;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out != null) {
+                out.write(b, off, len);
+            } else {
+                buffered.write(b, off, len);
+                if (buffered.size() > BUFFERED_MAX) {
+                    out = clientResponse.getOutputStream();
+                    buffered.writeTo(out);
+                    buffered = null;
+                }
+            }
+        }
+
+        /**
+         * Sends a body that was held whole, with its length.
+         */
+        private void finish() throws IOException {
+            if (out == null) {
+                clientResponse.setContentLength(buffered.size());
+                buffered.writeTo(clientResponse.getOutputStream());
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package gov.usgs.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.http.Header;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.HttpCacheUpdateException;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * Cache storage with two tiers: entries with small bodies are kept in lock
+ * striped, least recently used maps limited by entry count, entries with large
+ * bodies in one least recently used map limited by the total size of their
+ * bodies, which are expected to be files from {@link TieredResourceFactory}.
+ * <p>
+ * Freshness and validation are left to the caching client, this only stores
+ * entries.  Bodies of evicted or replaced entries are disposed after a grace
+ * period so a request that has just looked one up can still open it.
+ */
+public class TieredHttpCacheStorage implements HttpCacheStorage {
+
+    private static final int STRIPES = 16;
+    private static final long DISPOSE_GRACE_MILLIS = 60 * 1000;
+
+    private final long memoryObjectMax;
+    private final long diskBudget;
+    private final Stripe[] stripes;
+    private final LinkedHashMap<String, HttpCacheEntry> diskEntries;
+    private final Deque<Retired> retired = new ArrayDeque<Retired>();
+    private long diskBytes;
+
+    /**
+     * @param memoryEntriesMax most entries kept in the memory tier
+     * @param memoryObjectMax largest body, in bytes, of an entry in the memory
+     * tier
+     * @param diskBudget most bytes of bodies kept in the disk tier
+     */
+    public TieredHttpCacheStorage(int memoryEntriesMax, long memoryObjectMax, long diskBudget) {
+        this.memoryObjectMax = memoryObjectMax;
+        this.diskBudget = diskBudget;
+        stripes = new Stripe[STRIPES];
+        int stripeEntriesMax = Math.max(1, memoryEntriesMax / STRIPES);
+        for (int index = 0; index < STRIPES; ++index) {
+            stripes[index] = new Stripe(stripeEntriesMax);
+        }
+        diskEntries = new LinkedHashMap<String, HttpCacheEntry>(16, 0.75f, true);
+    }
+
+    @Override
+    public HttpCacheEntry getEntry(String key) throws IOException {
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            HttpCacheEntry entry = stripe.get(key);
+            if (entry == null) {
+                synchronized (diskEntries) {
+                    entry = diskEntries.get(key);
+                }
+            }
+            return entry;
+        }
+    }
+
+    @Override
+    public void putEntry(String key, HttpCacheEntry entry) throws IOException {
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            put(stripe, key, checkEntry(entry));
+        }
+        disposeRetired();
+    }
+
+    @Override
+    public void removeEntry(String key) throws IOException {
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            remove(stripe, key, null);
+        }
+        disposeRetired();
+    }
+
+    @Override
+    public void updateEntry(String key, HttpCacheUpdateCallback callback) throws IOException, HttpCacheUpdateException {
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            HttpCacheEntry existing = stripe.get(key);
+            if (existing == null) {
+                synchronized (diskEntries) {
+                    existing = diskEntries.get(key);
+                }
+            }
+            HttpCacheEntry updated = callback.update(existing);
+            if (updated != null) {
+                put(stripe, key, checkEntry(updated));
+            } else {
+                remove(stripe, key, null);
+            }
+        }
+        disposeRetired();
+    }
+
+    /**
+     * @return bytes of bodies in the disk tier
+     */
+    public long getDiskBytes() {
+        synchronized (diskEntries) {
+            return diskBytes;
+        }
+    }
+
+    /**
+     * Disposes every body, for when the cache is discarded.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (HttpCacheEntry entry : stripe.values()) {
+                    dispose(entry.getResource());
+                }
+                stripe.clear();
+            }
+        }
+        synchronized (diskEntries) {
+            for (HttpCacheEntry entry : diskEntries.values()) {
+                dispose(entry.getResource());
+            }
+            diskEntries.clear();
+            diskBytes = 0;
+        }
+        synchronized (retired) {
+            for (Retired body : retired) {
+                dispose(body.resource);
+            }
+            retired.clear();
+        }
+    }
+
+    // called holding the stripe's lock
+    private void put(Stripe stripe, String key, HttpCacheEntry entry) {
+        Resource resource = entry.getResource();
+        remove(stripe, key, resource);
+        if (resource == null || resource.length() <= memoryObjectMax) {
+            stripe.put(key, entry);
+        } else {
+            synchronized (diskEntries) {
+                diskEntries.put(key, entry);
+                diskBytes += resource.length();
+                Iterator<HttpCacheEntry> eldest = diskEntries.values().iterator();
+                while (diskBytes > diskBudget && eldest.hasNext()) {
+                    HttpCacheEntry evicted = eldest.next();
+                    eldest.remove();
+                    diskBytes -= evicted.getResource().length();
+                    retire(evicted.getResource());
+                }
+            }
+        }
+    }
+
+    // called holding the stripe's lock, keeps the body if the replacement
+    // entry shares it as one updated after revalidation does
+    private void remove(Stripe stripe, String key, Resource keep) {
+        HttpCacheEntry removed = stripe.remove(key);
+        if (removed == null) {
+            synchronized (diskEntries) {
+                removed = diskEntries.remove(key);
+                if (removed != null) {
+                    diskBytes -= removed.getResource().length();
+                }
+            }
+        }
+        if (removed != null && removed.getResource() != keep) {
+            retire(removed.getResource());
+        }
+    }
+
+    private void retire(Resource resource) {
+        if (resource != null) {
+            synchronized (retired) {
+                retired.addLast(new Retired(resource, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    private void disposeRetired() {
+        long cutoff = System.currentTimeMillis() - DISPOSE_GRACE_MILLIS;
+        synchronized (retired) {
+            while (!retired.isEmpty() && retired.peekFirst().time < cutoff) {
+                dispose(retired.removeFirst().resource);
+            }
+        }
+    }
+
+    private static void dispose(Resource resource) {
+        if (resource != null) {
+            resource.dispose();
+        }
+    }
+
+    private Stripe getStripe(String key) {
+        return stripes[(key.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    /**
+     * Adds a Content-Length header to entries without one, cached responses
+     * are otherwise sent to the client without it.
+     */
+    static HttpCacheEntry checkEntry(HttpCacheEntry entry) {
+        if (entry != null && entry.getResource() != null && entry.getFirstHeader(HTTP.CONTENT_LEN) == null) {
+            Header[] originalHeaders = entry.getAllHeaders();
+            int originalHeaderCount = originalHeaders.length;
+            Header[] fixedHeaders = Arrays.copyOf(originalHeaders, originalHeaderCount + 1);
+            fixedHeaders[originalHeaderCount] = new BasicHeader(HTTP.CONTENT_LEN, Long.toString(entry.getResource().length()));
+            return new HttpCacheEntry(
+                    entry.getRequestDate(),
+                    entry.getResponseDate(),
+                    entry.getStatusLine(),
+                    fixedHeaders,
+                    entry.getResource(),
+                    entry.getVariantMap());
+        } else {
+            return entry;
+        }
+    }
+
+    private static class Stripe extends LinkedHashMap<String, HttpCacheEntry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int entriesMax;
+
+        private Stripe(int entriesMax) {
+            super(16, 0.75f, true);
+            this.entriesMax = entriesMax;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HttpCacheEntry> eldest) {
+            // small bodies are heap memory, nothing to dispose
+            return size() > entriesMax;
+        }
+    }
+
+    private static class Retired {
+
+        private final Resource resource;
+        private final long time;
+
+        private Retired(Resource resource, long time) {
+            this.resource = resource;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package gov.usgs.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.cache.InputLimit;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps cached response bodies up to a size in the heap and spills larger
+ * ones to files.  A body is written to its file as it is read from the
+ * server, so a large response is never held in memory.
+ */
+public class TieredResourceFactory implements ResourceFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TieredResourceFactory.class);
+
+    private static final String FILE_PREFIX = "proxy-";
+    private static final String FILE_SUFFIX = ".cache";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File cacheDirectory;
+    private final long memoryObjectMax;
+
+    /**
+     * @param cacheDirectory directory for bodies too large for the heap, files
+     * left in it by an earlier run are deleted
+     * @param memoryObjectMax largest body, in bytes, kept in the heap
+     */
+    public TieredResourceFactory(File cacheDirectory, long memoryObjectMax) throws IOException {
+        this.cacheDirectory = cacheDirectory;
+        this.memoryObjectMax = memoryObjectMax;
+        FileUtils.forceMkdir(cacheDirectory);
+        // the storage index does not outlive the webapp
+        File[] leftovers = cacheDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+            }
+        });
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                FileUtils.deleteQuietly(leftover);
+            }
+        }
+    }
+
+    @Override
+    public Resource generate(String requestId, InputStream instream, InputLimit limit) throws IOException {
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        OutputStream out = heap;
+        File file = null;
+        long total = 0;
+        boolean generated = false;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = instream.read(buffer)) != -1) {
+                total += read;
+                if (file == null && total > memoryObjectMax) {
+                    file = createFile();
+                    out = new FileOutputStream(file);
+                    heap.writeTo(out);
+                    heap = null;
+                }
+                out.write(buffer, 0, read);
+                if (limit != null && total > limit.getValue()) {
+                    limit.reached();
+                    break;
+                }
+            }
+            out.close();
+            generated = true;
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (!generated) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+        return file == null ? new HeapResource(heap.toByteArray()) : new FileCacheResource(file, total);
+    }
+
+    @Override
+    public Resource copy(String requestId, Resource resource) throws IOException {
+        if (resource instanceof FileCacheResource) {
+            File file = createFile();
+            try {
+                FileUtils.copyFile(((FileCacheResource) resource).getFile(), file);
+            } catch (IOException e) {
+                FileUtils.deleteQuietly(file);
+                throw e;
+            }
+            return new FileCacheResource(file, resource.length());
+        }
+        InputStream in = resource.getInputStream();
+        try {
+            return new HeapResource(IOUtils.toByteArray(in));
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private File createFile() throws IOException {
+        return File.createTempFile(FILE_PREFIX, FILE_SUFFIX, cacheDirectory);
+    }
+
+    /**
+     * Body kept in a file, deleted when disposed.  A stream opened before the
+     * body is disposed can still be read to the end.
+     */
+    public static class FileCacheResource implements Resource {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private final long length;
+        private volatile boolean disposed;
+
+        public FileCacheResource(File file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (disposed) {
+                throw new IOException("Cached body was evicted: " + file);
+            }
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void dispose() {
+            disposed = true;
+            if (!file.delete() && file.exists()) {
+                LOGGER.warn("Unable to delete cached body {}", file);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package gov.usgs.cida.blacklist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.junit.Assert.*;
+
+/**
+ * Contention benchmark against {@link ExponentialDelayBlacklist}, a burst of
+ * bad requests from a few clients on many threads.  Logs throughput, asserts
+ * nothing about it.  Runs with the benchmark profile only.
+ */
+public class TimeWheelBlacklistBenchmark {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TimeWheelBlacklistBenchmark.class);
+
+	private static final int BENCHMARK_THREADS = 8;
+	private static final int BENCHMARK_CLIENTS = 16;
+	private static final long BENCHMARK_MILLIS = 500;
+
+	@Test
+	public void testContention() throws Exception {
+		// instances of their own, the proxy's blacklists are left alone
+		long exponential = benchmark(new ExponentialDelayBlacklist());
+		long timeWheel = benchmark(new TimeWheelBlacklist());
+		LOGGER.info("Blacklist lookups in {} ms on {} threads: ExponentialDelayBlacklist {}, TimeWheelBlacklist {}",
+				new Object[]{BENCHMARK_MILLIS, BENCHMARK_THREADS, exponential, timeWheel});
+		assertTrue(exponential > 0);
+		assertTrue(timeWheel > 0);
+	}
+
+	private static long benchmark(final BlacklistInterface benchmarked) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final long end = System.currentTimeMillis() + BENCHMARK_MILLIS;
+		ExecutorService executor = Executors.newFixedThreadPool(BENCHMARK_THREADS);
+		try {
+			List<Future<Long>> counts = new ArrayList<Future<Long>>();
+			for (int thread = 0; thread < BENCHMARK_THREADS; ++thread) {
+				counts.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						start.await();
+						long count = 0;
+						while (System.currentTimeMillis() < end) {
+							String key = "10.1.0." + (count % BENCHMARK_CLIENTS);
+							if (!benchmarked.isBlacklisted(key)) {
+								benchmarked.determineSleepTime(key);
+							}
+							++count;
+						}
+						return count;
+					}
+				}));
+			}
+			start.countDown();
+			long total = 0;
+			for (Future<Long> count : counts) {
+				total += count.get();
+			}
+			return total;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
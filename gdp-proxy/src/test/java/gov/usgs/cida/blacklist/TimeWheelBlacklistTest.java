@@ -0,0 +1,125 @@
+package gov.usgs.cida.blacklist;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimeWheelBlacklistTest {
+
+	private TestBlacklist blacklist;
+
+	@Before
+	public void setUp() {
+		blacklist = new TestBlacklist();
+	}
+
+	@Test
+	public void testDelayDoubles() {
+		assertEquals(5000, blacklist.determineSleepTime("10.0.0.1"));
+		assertEquals(10000, blacklist.determineSleepTime("10.0.0.1"));
+		assertEquals(20000, blacklist.determineSleepTime("10.0.0.1"));
+		assertEquals(40000, blacklist.determineSleepTime("10.0.0.1"));
+		assertFalse(blacklist.isBlacklisted("10.0.0.1"));
+		assertEquals(80000, blacklist.determineSleepTime("10.0.0.1"));
+		assertTrue(blacklist.isBlacklisted("10.0.0.1"));
+		assertEquals(80000, blacklist.determineSleepTime("10.0.0.1"));
+		// other clients are not affected
+		assertFalse(blacklist.isBlacklisted("10.0.1.1"));
+		assertEquals(5000, blacklist.determineSleepTime("10.0.1.1"));
+	}
+
+	@Test
+	public void testTokensRefill() {
+		blacklist.determineSleepTime("10.0.0.1");
+		blacklist.determineSleepTime("10.0.0.1");
+		blacklist.now += TimeWheelBlacklist.CLIENT_REFILL_TIME;
+		assertEquals(10000, blacklist.determineSleepTime("10.0.0.1"));
+		blacklist.now += 2 * TimeWheelBlacklist.CLIENT_REFILL_TIME;
+		assertEquals(5000, blacklist.determineSleepTime("10.0.0.1"));
+	}
+
+	@Test
+	public void testBlacklistExpires() {
+		blacklistClient("10.0.0.1");
+		assertTrue(blacklist.isBlacklisted("10.0.0.1"));
+		assertTrue(blacklist.outputBlacklist().containsKey("10.0.0.1"));
+		blacklist.now += TimeWheelBlacklist.BLACKLIST_EXPIRY_TIME;
+		assertFalse(blacklist.isBlacklisted("10.0.0.1"));
+		assertTrue(blacklist.outputBlacklist().isEmpty());
+	}
+
+	@Test
+	public void testSubnetBlacklisted() {
+		int clients = TimeWheelBlacklist.SUBNET_TOKENS / TimeWheelBlacklist.CLIENT_TOKENS;
+		for (int client = 1; client < clients; ++client) {
+			blacklistClient("10.0.0." + client);
+		}
+		assertFalse(blacklist.isBlacklisted("10.0.0.100"));
+		blacklistClient("10.0.0." + clients);
+		assertTrue(blacklist.isBlacklisted("10.0.0.100"));
+		assertFalse(blacklist.isBlacklisted("10.0.1.100"));
+		assertTrue(blacklist.outputBlacklist().containsKey("10.0.0.0/24"));
+		blacklist.remove("10.0.0.0/24");
+		assertFalse(blacklist.isBlacklisted("10.0.0.100"));
+	}
+
+	@Test
+	public void testRemove() {
+		blacklistClient("10.0.0.1");
+		blacklist.remove("10.0.0.1");
+		assertFalse(blacklist.isBlacklisted("10.0.0.1"));
+		assertEquals(5000, blacklist.determineSleepTime("10.0.0.1"));
+	}
+
+	@Test
+	public void testGetSubnet() {
+		assertEquals("192.168.1.0/24", TimeWheelBlacklist.getSubnet("192.168.1.17"));
+		assertEquals("2001:db8:0:1::/64", TimeWheelBlacklist.getSubnet("2001:db8:0:1:2:3:4:5"));
+		assertEquals("0:0:0:0::/64", TimeWheelBlacklist.getSubnet("::1"));
+		assertNull(TimeWheelBlacklist.getSubnet("localhost"));
+		// forwarded header values that are not addresses are clients of their own
+		assertNull(TimeWheelBlacklist.getSubnet("proxy.example.com:8080"));
+		assertNull(TimeWheelBlacklist.getSubnet("192.168.1"));
+		assertNull(TimeWheelBlacklist.getSubnet("192.168.1.17, 10.0.0.1"));
+	}
+
+	@Test
+	public void testIdleClientsDropped() {
+		for (int client = 0; client < 100; ++client) {
+			blacklist.determineSleepTime("10.0." + client + ".1");
+		}
+		assertEquals(200, blacklist.getBucketCount());
+		// long enough for every bucket to be full again
+		blacklist.now += TimeWheelBlacklist.CLIENT_REFILL_TIME + 2 * 60 * 1000;
+		blacklist.isBlacklisted("10.0.0.1");
+		assertEquals(0, blacklist.getBucketCount());
+	}
+
+	@Test
+	public void testBlacklistedClientsDroppedAfterExpiry() {
+		blacklistClient("10.0.0.1");
+		// past the first level of the wheel
+		blacklist.now += TimeWheelBlacklist.BLACKLIST_EXPIRY_TIME / 2;
+		blacklist.isBlacklisted("10.0.0.1");
+		assertTrue(blacklist.getBucketCount() > 0);
+		blacklist.now += TimeWheelBlacklist.BLACKLIST_EXPIRY_TIME;
+		blacklist.isBlacklisted("10.0.0.1");
+		assertEquals(0, blacklist.getBucketCount());
+	}
+
+	private void blacklistClient(String key) {
+		for (int request = 0; request < TimeWheelBlacklist.CLIENT_TOKENS; ++request) {
+			blacklist.determineSleepTime(key);
+		}
+	}
+
+	private static class TestBlacklist extends TimeWheelBlacklist {
+
+		private long now = 1000L * 60 * 60 * 24 * 365 * 40;
+
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package gov.usgs.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EndpointVerifierTest {
+
+    private HttpServer server;
+    private String baseURL;
+    private AtomicInteger capabilitiesRequests;
+    private EndpointVerifier verifier;
+
+    @Before
+    public void setUp() throws IOException {
+        capabilitiesRequests = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        baseURL = "http://localhost:" + server.getAddress().getPort();
+        server.createContext("/ows/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                capabilitiesRequests.incrementAndGet();
+                try {
+                    // long enough for concurrent requests to find it running
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, "<wfs:WFS_Capabilities xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:ows=\"http://www.opengis.net/ows\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+                        + "<ows:OperationsMetadata><ows:Operation name=\"GetFeature\"><ows:DCP><ows:HTTP>"
+                        + "<ows:Get xlink:href=\"" + baseURL + "/operations/wfs?\"/>"
+                        + "</ows:HTTP></ows:DCP></ows:Operation></ows:OperationsMetadata>"
+                        + "</wfs:WFS_Capabilities>");
+            }
+        });
+        server.createContext("/bad/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                capabilitiesRequests.incrementAndGet();
+                respond(exchange, "<html><body>Not a service</body></html>");
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        verifier = new EndpointVerifier(60 * 1000, 60 * 1000);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConcurrentVerificationFetchesOnce() throws Exception {
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int thread = 0; thread < threads; ++thread) {
+                final String query = "?service=WFS&request=GetFeature&typeName=" + thread;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        start.await();
+                        return verifier.isVerified(new Endpoint(baseURL + "/ows/wfs" + query));
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, capabilitiesRequests.get());
+    }
+
+    @Test
+    public void testOperationEndpointsVerified() {
+        assertTrue(verifier.isVerified(new Endpoint(baseURL + "/ows/wfs?service=WFS")));
+        assertEquals(Boolean.TRUE, verifier.getResult(new Endpoint(baseURL + "/operations/wfs?service=WFS")));
+        assertTrue(verifier.isVerified(new Endpoint(baseURL + "/operations/wfs?service=WFS")));
+        assertEquals(1, capabilitiesRequests.get());
+    }
+
+    @Test
+    public void testRejectionCached() {
+        assertFalse(verifier.isVerified(new Endpoint(baseURL + "/bad/wfs?service=WFS")));
+        assertFalse(verifier.isVerified(new Endpoint(baseURL + "/bad/wfs?service=WFS&request=GetFeature")));
+        assertEquals(1, capabilitiesRequests.get());
+    }
+
+    @Test
+    public void testRejectionExpires() throws InterruptedException {
+        verifier = new EndpointVerifier(60 * 1000, 0);
+        Endpoint endpoint = new Endpoint(baseURL + "/bad/wfs?service=WFS");
+        assertFalse(verifier.isVerified(endpoint));
+        Thread.sleep(10);
+        assertNull(verifier.getResult(endpoint));
+        assertFalse(verifier.isVerified(endpoint));
+        assertEquals(2, capabilitiesRequests.get());
+    }
+
+    @Test
+    public void testTrustedNotFetched() {
+        Endpoint endpoint = new Endpoint(baseURL + "/bad/wfs?service=WFS");
+        verifier.addTrusted(endpoint);
+        assertTrue(verifier.isVerified(endpoint));
+        assertEquals(0, capabilitiesRequests.get());
+    }
+
+    @Test
+    public void testPrewarm() throws InterruptedException {
+        Endpoint endpoint = new Endpoint(baseURL + "/ows/wfs?service=WFS");
+        verifier.addTrusted(endpoint);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        verifier.prewarm(Arrays.asList(endpoint), executor);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        assertEquals(1, capabilitiesRequests.get());
+        assertEquals(Boolean.TRUE, verifier.getResult(new Endpoint(baseURL + "/operations/wfs?service=WFS")));
+        assertTrue(verifier.isVerified(endpoint));
+        assertEquals(1, capabilitiesRequests.get());
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package gov.usgs.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Answers GET requests other than GetCapabilities with a GML feature
+ * collection of a fixed length, as a WFS GetFeature would.
+ */
+public class GmlEchoServlet extends EchoServlet {
+
+	public static final int BODY_LENGTH = 16 * 1024 * 1024;
+
+	private byte[] body;
+
+	@Override
+	public void init() throws ServletException {
+		try {
+			body = gml(BODY_LENGTH);
+		} catch (IOException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String query = req.getQueryString();
+		if (query != null && query.contains("GetCapabilities")) {
+			super.doGet(req, resp);
+		}
+		else {
+			resp.setContentType("text/xml; subtype=gml/3.1.1");
+			// every request reaches the servlet, none are answered by the proxy's cache
+			resp.setHeader("Cache-Control", "no-store");
+			resp.setContentLength(body.length);
+			OutputStream out = resp.getOutputStream();
+			out.write(body);
+			out.flush();
+		}
+	}
+
+	/**
+	 * @param length least length of the features, in bytes
+	 * @return features with coordinates that do not repeat, so they compress
+	 * about as well as real ones
+	 * @throws IOException
+	 */
+	static byte[] gml(int length) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+		int feature = 0;
+		while (out.size() < length) {
+			out.write(("<gml:featureMember><sample:hru fid=\"hru." + feature + "\"><sample:the_geom>"
+					+ "<gml:MultiPolygon srsName=\"EPSG:4326\"><gml:polygonMember><gml:Polygon><gml:outerBoundaryIs><gml:LinearRing>"
+					+ "<gml:coordinates>-89." + (feature * 7919 % 100000) + ",46." + (feature * 104729 % 100000)
+					+ " -89." + (feature * 1299709 % 100000) + ",46." + (feature * 15485863 % 100000) + "</gml:coordinates>"
+					+ "</gml:LinearRing></gml:outerBoundaryIs></gml:Polygon></gml:polygonMember></gml:MultiPolygon>"
+					+ "</sample:the_geom><sample:GRIDCODE>" + (feature % 9) + "</sample:GRIDCODE></sample:hru></gml:featureMember>\n").getBytes("UTF-8"));
+			++feature;
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,137 @@
+package gov.usgs.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HostConcurrencyLimiterTest {
+
+    private static final String HOST = "http://cida.usgs.gov:80";
+    private static final long MILLISECOND = 1000 * 1000;
+
+    @Test
+    public void testLimitGrowsWhileUsed() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter("WMS", 4, 16, 0, 0);
+        for (int round = 0; round < 200; ++round) {
+            List<HostConcurrencyLimiter.Permit> permits = acquireAll(limiter);
+            for (HostConcurrencyLimiter.Permit permit : permits) {
+                permit.sample(10 * MILLISECOND, false);
+                permit.release();
+            }
+        }
+        assertEquals(16, limiter.getLimit(HOST));
+    }
+
+    @Test
+    public void testLimitDoesNotGrowUnused() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter("WMS", 4, 16, 0, 0);
+        for (int request = 0; request < 200; ++request) {
+            HostConcurrencyLimiter.Permit permit = limiter.acquire(HOST);
+            permit.sample(10 * MILLISECOND, false);
+            permit.release();
+        }
+        assertEquals(4, limiter.getLimit(HOST));
+    }
+
+    @Test
+    public void testErrorsCutLimit() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter("WCS", 8, 8, 0, 0);
+        for (int request = 0; request < 10; ++request) {
+            HostConcurrencyLimiter.Permit permit = limiter.acquire(HOST);
+            permit.sample(10 * MILLISECOND, true);
+            permit.release();
+        }
+        assertTrue(limiter.getLimit(HOST) < 8);
+        assertTrue(limiter.getLimit(HOST) >= 1);
+        // other hosts keep their own limits
+        assertEquals(8, limiter.getLimit("http://other:80"));
+    }
+
+    @Test
+    public void testSlowResponsesCutLimit() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter("WFS", 8, 8, 0, 0);
+        for (int request = 0; request < 10; ++request) {
+            HostConcurrencyLimiter.Permit permit = limiter.acquire(HOST);
+            permit.sample(10 * MILLISECOND, false);
+            permit.release();
+        }
+        assertEquals(8, limiter.getLimit(HOST));
+        HostConcurrencyLimiter.Permit permit = limiter.acquire(HOST);
+        permit.sample(1000 * MILLISECOND, false);
+        permit.release();
+        assertEquals(7, limiter.getLimit(HOST));
+    }
+
+    @Test
+    public void testCacheHitsNotSampled() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter("WMS", 4, 16, 0, 0);
+        for (int round = 0; round < 100; ++round) {
+            for (HostConcurrencyLimiter.Permit permit : acquireAll(limiter)) {
+                permit.release();
+            }
+        }
+        assertEquals(4, limiter.getLimit(HOST));
+    }
+
+    @Test
+    public void testSaturatedHostRefused() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter("WCS", 2, 2, 0, 0);
+        assertNotNull(limiter.acquire(HOST));
+        assertNotNull(limiter.acquire(HOST));
+        assertNull(limiter.acquire(HOST));
+        assertNotNull(limiter.acquire("http://other:80"));
+        Properties metrics = limiter.outputMetrics();
+        assertEquals("2", metrics.getProperty("WCS." + HOST + ".inFlight"));
+        assertEquals("1", metrics.getProperty("WCS." + HOST + ".refused"));
+    }
+
+    @Test
+    public void testQueuedRequestGetsReleasedPermit() throws Exception {
+        final HostConcurrencyLimiter limiter = new HostConcurrencyLimiter("WCS", 1, 1, 1, 10000);
+        HostConcurrencyLimiter.Permit held = limiter.acquire(HOST);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<HostConcurrencyLimiter.Permit> queued = executor.submit(acquire(limiter));
+            while (!"1".equals(limiter.outputMetrics().getProperty("WCS." + HOST + ".queued"))) {
+                Thread.sleep(10);
+            }
+            // queue is full
+            assertNull(limiter.acquire(HOST));
+            held.release();
+            assertNotNull(queued.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testQueueTimesOut() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter("WCS", 1, 1, 1, 50);
+        assertNotNull(limiter.acquire(HOST));
+        assertNull(limiter.acquire(HOST));
+    }
+
+    private static List<HostConcurrencyLimiter.Permit> acquireAll(HostConcurrencyLimiter limiter) throws InterruptedException {
+        List<HostConcurrencyLimiter.Permit> permits = new ArrayList<HostConcurrencyLimiter.Permit>();
+        HostConcurrencyLimiter.Permit permit;
+        while ((permit = limiter.acquire(HOST)) != null) {
+            permits.add(permit);
+        }
+        return permits;
+    }
+
+    private static Callable<HostConcurrencyLimiter.Permit> acquire(final HostConcurrencyLimiter limiter) {
+        return new Callable<HostConcurrencyLimiter.Permit>() {
+            @Override
+            public HostConcurrencyLimiter.Permit call() throws Exception {
+                return limiter.acquire(HOST);
+            }
+        };
+    }
+}
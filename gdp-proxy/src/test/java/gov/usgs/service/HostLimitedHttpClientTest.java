@@ -0,0 +1,100 @@
+package gov.usgs.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.CachingHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HostLimitedHttpClientTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private HostConcurrencyLimiter limiter;
+    private HttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                byte[] body = exchange.getRequestURI().getPath().getBytes("UTF-8");
+                if (exchange.getRequestURI().getPath().startsWith("/cached")) {
+                    exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+                } else {
+                    exchange.getResponseHeaders().set("Cache-Control", "no-store");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+                exchange.close();
+            }
+        });
+        server.start();
+        // one request at a time, none waiting
+        limiter = new HostConcurrencyLimiter("test", 1, 1, 0, 0);
+        Map<Endpoint.EndpointType, HostConcurrencyLimiter> limiters = new EnumMap<Endpoint.EndpointType, HostConcurrencyLimiter>(Endpoint.EndpointType.class);
+        for (Endpoint.EndpointType type : Endpoint.EndpointType.values()) {
+            limiters.put(type, limiter);
+        }
+        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
+        connectionManager.setDefaultMaxPerRoute(4);
+        client = new CachingHttpClient(new HostLimitedHttpClient(new DefaultHttpClient(connectionManager), limiters), new CacheConfig());
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionManager().shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testCacheHitTakesNoPermit() throws IOException {
+        assertEquals("/cached", EntityUtils.toString(client.execute(new HttpGet(getUrl("/cached"))).getEntity()));
+
+        // holds the host's only permit until its body is read
+        HttpResponse open = client.execute(new HttpGet(getUrl("/open")));
+        try {
+            client.execute(new HttpGet(getUrl("/refused")));
+            fail("Saturated host expected");
+        } catch (HostLimitedHttpClient.HostSaturatedException expected) {
+            // the server was not asked
+        }
+        assertEquals("/cached", EntityUtils.toString(client.execute(new HttpGet(getUrl("/cached"))).getEntity()));
+        assertEquals(2, requests.get());
+
+        assertEquals("/open", EntityUtils.toString(open.getEntity()));
+        assertEquals("/refused", EntityUtils.toString(client.execute(new HttpGet(getUrl("/refused"))).getEntity()));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testPermitReleasedOnClose() throws IOException {
+        HttpResponse open = client.execute(new HttpGet(getUrl("/open")));
+        open.getEntity().getContent().close();
+        assertEquals("/next", EntityUtils.toString(client.execute(new HttpGet(getUrl("/next"))).getEntity()));
+    }
+
+    private String getUrl(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+}
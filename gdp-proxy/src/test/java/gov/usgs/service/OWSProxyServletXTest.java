@@ -0,0 +1,178 @@
+package gov.usgs.service;
+
+import gov.usgs.cida.blacklist.BlacklistInterface;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.testing.ServletTester;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the proxy in a Servlet 3.0 container in front of {@link EchoServlet}.
+ */
+public class OWSProxyServletXTest {
+
+    private static final long REJECT_DELAY = 1000;
+
+    private static ServletTester tester;
+    private static String baseUrl;
+
+    // set by the filter when the container's call to the proxy returns
+    private static volatile boolean asyncStarted;
+    private static volatile long chainReturned;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        tester = new ServletTester();
+        tester.addServlet(EchoServlet.class, "/echo/*");
+        tester.addServlet(DelayedRejectProxyServlet.class, "/proxy/*").setAsyncSupported(true);
+        tester.addServlet(SaturatedProxyServlet.class, "/saturated/*").setAsyncSupported(true);
+        tester.addServlet(DelayedRejectProxyServlet.class, "/sync/*").setAsyncSupported(false);
+        for (String path : new String[]{"/proxy/*", "/saturated/*", "/sync/*"}) {
+            tester.addFilter(ChainReturnFilter.class, path, EnumSet.of(DispatcherType.REQUEST)).setAsyncSupported(true);
+        }
+        baseUrl = tester.createChannelConnector(true);
+        tester.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        tester.stop();
+    }
+
+    @Before
+    public void setUp() {
+        asyncStarted = false;
+        chainReturned = 0;
+    }
+
+    @Test
+    public void testAsyncProxy() throws IOException {
+        HttpURLConnection connection = open("/proxy/", baseUrl + "/echo/wms?service=WMS&request=GetMap");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("GET called with params: service=WMS&request=GetMap", read(connection.getInputStream()));
+        assertTrue("request was not handed to a proxy worker", asyncStarted);
+    }
+
+    @Test
+    public void testWorkersSaturated() throws IOException {
+        HttpURLConnection connection = open("/saturated/", baseUrl + "/echo/wms?service=WMS&request=GetMap");
+        assertEquals(503, connection.getResponseCode());
+        assertEquals("Proxy is handling too many requests, try again later.", read(connection.getErrorStream()).trim());
+    }
+
+    @Test
+    public void testRejectionDelayedOnTimer() throws IOException {
+        long start = System.currentTimeMillis();
+        HttpURLConnection connection = open("/proxy/", baseUrl + "/unverified/wms");
+        assertEquals(403, connection.getResponseCode());
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(OWSProxyServletX.INVALID_ENDPOINT, read(connection.getErrorStream()).trim());
+        assertTrue("rejected after " + elapsed + " ms", elapsed >= REJECT_DELAY);
+        assertTrue(asyncStarted);
+        // the container's thread was back before the rejection was sent
+        assertTrue(chainReturned - start < REJECT_DELAY);
+    }
+
+    @Test
+    public void testSyncRejectionNotHeld() throws IOException {
+        long start = System.currentTimeMillis();
+        HttpURLConnection connection = open("/sync/", baseUrl + "/unverified/wms");
+        assertEquals(403, connection.getResponseCode());
+        long elapsed = System.currentTimeMillis() - start;
+        assertFalse(asyncStarted);
+        assertTrue("rejected after " + elapsed + " ms", elapsed < REJECT_DELAY);
+        assertEquals("1", connection.getHeaderField("Retry-After"));
+    }
+
+    private static HttpURLConnection open(String proxyPath, String target) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + proxyPath + URLEncoder.encode(target, "UTF-8")).openConnection();
+        connection.setReadTimeout(30000);
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    public static class DelayedRejectProxyServlet extends OWSProxyServletX {
+
+        @Override
+        protected BlacklistInterface createBlacklist() {
+            return new BlacklistInterface() {
+                @Override
+                public long determineSleepTime(String key) {
+                    return REJECT_DELAY;
+                }
+
+                @Override
+                public boolean isBlacklisted(String key) {
+                    return false;
+                }
+
+                @Override
+                public Properties outputBlacklist() {
+                    return new Properties();
+                }
+
+                @Override
+                public void remove(String key) {
+                }
+            };
+        }
+    }
+
+    public static class SaturatedProxyServlet extends OWSProxyServletX {
+
+        @Override
+        protected ThreadPoolExecutor createProxyExecutor() {
+            // rejects every request
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+            executor.shutdown();
+            return executor;
+        }
+    }
+
+    public static class ChainReturnFilter implements Filter {
+
+        @Override
+        public void init(FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+            chain.doFilter(request, response);
+            if (request.isAsyncSupported()) {
+                asyncStarted = request.isAsyncStarted();
+            }
+            chainReturned = System.currentTimeMillis();
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
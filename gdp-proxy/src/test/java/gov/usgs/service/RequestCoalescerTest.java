@@ -0,0 +1,244 @@
+package gov.usgs.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RequestCoalescerTest {
+
+    private static final String KEY = "http://localhost/wfs?request=GetFeature";
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFollowersShareBody() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(8, 10000, 1024 * 1024);
+        byte[] body = body(100 * 1024);
+        RequestCoalescer.Flight flight = coalescer.lead(KEY);
+        assertNotNull(flight);
+        assertNull(coalescer.lead(KEY));
+
+        List<Future<byte[]>> followers = new ArrayList<Future<byte[]>>();
+        for (int follower = 0; follower < 4; ++follower) {
+            followers.add(executor.submit(follow(coalescer.follow(KEY))));
+        }
+        SlowInputStream upstream = new SlowInputStream(body);
+        HttpResponse published = flight.publish(response(upstream, body.length));
+        assertEquals("text/xml", published.getFirstHeader("Content-Type").getValue());
+        assertArrayEquals(body, EntityUtils.toByteArray(published.getEntity()));
+        flight.close();
+
+        for (Future<byte[]> follower : followers) {
+            assertArrayEquals(body, follower.get());
+        }
+        assertEquals(body.length, upstream.read);
+        assertEquals(0, coalescer.getFlightCount());
+        assertNotNull(coalescer.lead(KEY));
+    }
+
+    @Test
+    public void testLeaderClientGone() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(8, 10000, 1024 * 1024);
+        byte[] body = body(100 * 1024);
+        RequestCoalescer.Flight flight = coalescer.lead(KEY);
+        Future<byte[]> follower = executor.submit(follow(coalescer.follow(KEY)));
+        HttpResponse published = flight.publish(response(new SlowInputStream(body), body.length));
+        published.getEntity().getContent().read(new byte[100]);
+        // the leader stops reading, closing reads on for the follower
+        flight.close();
+        assertArrayEquals(body, follower.get());
+    }
+
+    @Test
+    public void testWaitTimesOut() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(8, 50, 1024 * 1024);
+        RequestCoalescer.Flight flight = coalescer.lead(KEY);
+        assertNull(coalescer.follow(KEY).await());
+        flight.close();
+    }
+
+    @Test
+    public void testLeaderFailsBeforeResponse() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(8, 10000, 1024 * 1024);
+        final RequestCoalescer.Flight flight = coalescer.lead(KEY);
+        RequestCoalescer.Follower follower = coalescer.follow(KEY);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                flight.close();
+            }
+        });
+        assertNull(follower.await());
+        assertEquals(0, coalescer.getFlightCount());
+    }
+
+    @Test
+    public void testLeaderFailsDuringBody() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(8, 10000, 1024 * 1024);
+        RequestCoalescer.Flight flight = coalescer.lead(KEY);
+        Future<byte[]> follower = executor.submit(follow(coalescer.follow(KEY)));
+        byte[] body = body(100 * 1024);
+        SlowInputStream upstream = new SlowInputStream(body);
+        upstream.failAt = 50 * 1024;
+        HttpResponse published = flight.publish(response(upstream, body.length));
+        try {
+            EntityUtils.toByteArray(published.getEntity());
+            fail("Upstream failure expected");
+        } catch (IOException expected) {
+            // leader sees it first
+        }
+        flight.close();
+        try {
+            follower.get();
+            fail("Shared failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testMaxFollowers() {
+        RequestCoalescer coalescer = new RequestCoalescer(2, 10000, 1024 * 1024);
+        RequestCoalescer.Flight flight = coalescer.lead(KEY);
+        assertNotNull(coalescer.follow(KEY));
+        assertNotNull(coalescer.follow(KEY));
+        assertNull(coalescer.follow(KEY));
+        flight.close();
+        assertNull(coalescer.follow(KEY));
+    }
+
+    @Test
+    public void testSlowFollowerDoesNotHoldUpLeader() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(8, 10000, 1024 * 1024);
+        byte[] body = body(100 * 1024);
+        RequestCoalescer.Flight flight = coalescer.lead(KEY);
+        RequestCoalescer.Follower slow = coalescer.follow(KEY);
+        HttpResponse published = flight.publish(response(new SlowInputStream(body), body.length));
+        HttpResponse slowResponse = slow.await();
+        // the leader reads the whole body before the follower reads any
+        assertArrayEquals(body, EntityUtils.toByteArray(published.getEntity()));
+        flight.close();
+        assertArrayEquals(body, EntityUtils.toByteArray(slowResponse.getEntity()));
+    }
+
+    @Test
+    public void testUnshareableResponsesNotShared() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(8, 10000, 8 * 1024, "Accept-Encoding");
+        byte[] body = body(4 * 1024);
+
+        assertTrue(coalescer.isShareable(response(new ByteArrayInputStream(body), body.length)));
+        HttpResponse varies = response(new ByteArrayInputStream(body), body.length);
+        varies.addHeader("Vary", "accept-encoding");
+        assertTrue(coalescer.isShareable(varies));
+
+        // too large, or of unknown length
+        assertFalse(coalescer.isShareable(response(new ByteArrayInputStream(body(16 * 1024)), 16 * 1024)));
+        assertFalse(coalescer.isShareable(response(new ByteArrayInputStream(body), -1)));
+        HttpResponse noStore = response(new ByteArrayInputStream(body), body.length);
+        noStore.addHeader("Cache-Control", "no-store");
+        assertFalse(coalescer.isShareable(noStore));
+        HttpResponse personal = response(new ByteArrayInputStream(body), body.length);
+        personal.addHeader("Cache-Control", "max-age=60, private");
+        assertFalse(coalescer.isShareable(personal));
+        HttpResponse cookie = response(new ByteArrayInputStream(body), body.length);
+        cookie.addHeader("Vary", "Accept-Encoding, Cookie");
+        assertFalse(coalescer.isShareable(cookie));
+        HttpResponse error = new BasicHttpResponse(HttpVersion.HTTP_1_1, 500, "Internal Server Error");
+        assertFalse(coalescer.isShareable(error));
+
+        RequestCoalescer.Flight flight = coalescer.lead(KEY);
+        RequestCoalescer.Follower follower = coalescer.follow(KEY);
+        assertSame(noStore, flight.publish(noStore));
+        assertNull(follower.await());
+        assertNull(coalescer.follow(KEY));
+        assertArrayEquals(body, EntityUtils.toByteArray(noStore.getEntity()));
+        flight.close();
+    }
+
+    private static Callable<byte[]> follow(final RequestCoalescer.Follower follower) {
+        assertNotNull(follower);
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                HttpResponse response = follower.await();
+                assertNotNull(response);
+                return EntityUtils.toByteArray(response.getEntity());
+            }
+        };
+    }
+
+    private static HttpResponse response(InputStream body, long length) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.addHeader("Content-Type", "text/xml");
+        response.setEntity(new InputStreamEntity(body, length));
+        return response;
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        for (int index = 0; index < length; ++index) {
+            body[index] = (byte) (index * 31);
+        }
+        return body;
+    }
+
+    /**
+     * Server body arriving in small pieces, counts what was read.
+     */
+    private static class SlowInputStream extends InputStream {
+
+        private final byte[] body;
+        private int read;
+        private int failAt = -1;
+
+        private SlowInputStream(byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (failAt >= 0 && read >= failAt) {
+                throw new IOException("Connection reset");
+            }
+            if (read == body.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(len, 1000), body.length - read);
+            System.arraycopy(body, read, b, off, count);
+            read += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package gov.usgs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import org.apache.commons.io.output.NullOutputStream;
+import org.eclipse.jetty.testing.ServletTester;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.junit.Assert.*;
+
+/**
+ * Throughput and CPU cost of pass-through against compression, for GML
+ * proxied from {@link GmlEchoServlet}.  Logs the figures, asserts nothing
+ * about them.  Runs with the benchmark profile only.
+ */
+public class ResponseCompressionBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCompressionBenchmark.class);
+
+    private static final int BENCHMARK_REQUESTS = 4;
+
+    private static ServletTester tester;
+    private static String proxyUrl;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        tester = new ServletTester();
+        tester.addServlet(GmlEchoServlet.class, "/gml/*");
+        tester.addServlet(OWSProxyServletX.class, "/proxy/*").setAsyncSupported(true);
+        String baseUrl = tester.createChannelConnector(true);
+        tester.start();
+        proxyUrl = baseUrl + "/proxy/" + URLEncoder.encode(baseUrl + "/gml/wfs?service=WFS&request=GetFeature", "UTF-8");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        tester.stop();
+    }
+
+    @Test
+    public void testThroughput() throws IOException {
+        // warm up both paths
+        proxy(false);
+        proxy(true);
+        Measurement copied = proxy(false);
+        Measurement compressed = proxy(true);
+        LOGGER.info("Pass-through: {} MB/s, {} ms CPU, {} bytes sent per request", new Object[]{
+            copied.megabytesPerSecond(), copied.cpuMillis(), copied.sent});
+        LOGGER.info("Compressed: {} MB/s, {} ms CPU, {} bytes sent per request", new Object[]{
+            compressed.megabytesPerSecond(), compressed.cpuMillis(), compressed.sent});
+        assertTrue(copied.sent >= GmlEchoServlet.BODY_LENGTH);
+        assertTrue(compressed.sent < copied.sent / 4);
+    }
+
+    private static Measurement proxy(boolean compress) throws IOException {
+        Measurement measurement = new Measurement();
+        long start = System.nanoTime();
+        long cpuStart = cpuNanos();
+        for (int request = 0; request < BENCHMARK_REQUESTS; ++request) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(proxyUrl).openConnection();
+            if (compress) {
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+            }
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(compress ? ResponseCompression.GZIP : null, connection.getContentEncoding());
+            InputStream in = connection.getInputStream();
+            try {
+                measurement.sent = ResponseCompression.copy(in, new NullOutputStream());
+            } finally {
+                in.close();
+            }
+        }
+        measurement.cpuNanos = cpuNanos() - cpuStart;
+        measurement.nanos = System.nanoTime() - start;
+        measurement.read = (long) BENCHMARK_REQUESTS * GmlEchoServlet.BODY_LENGTH;
+        return measurement;
+    }
+
+    /**
+     * @return CPU time of the threads alive now, the container's and the
+     * proxy's threads outlive the requests measured
+     */
+    private static long cpuNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long id : threads.getAllThreadIds()) {
+            long cpu = threads.getThreadCpuTime(id);
+            if (cpu > 0) {
+                total += cpu;
+            }
+        }
+        return total;
+    }
+
+    private static class Measurement {
+
+        private long read;
+        private long sent;
+        private long nanos;
+        private long cpuNanos;
+
+        private long megabytesPerSecond() {
+            return read * 1000000000L / (1024 * 1024) / Math.max(1, nanos);
+        }
+
+        private long cpuMillis() {
+            return cpuNanos / 1000000;
+        }
+    }
+}
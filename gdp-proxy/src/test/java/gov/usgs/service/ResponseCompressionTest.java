@@ -0,0 +1,155 @@
+package gov.usgs.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ResponseCompressionTest {
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(ResponseCompression.acceptsGzip("gzip"));
+        assertTrue(ResponseCompression.acceptsGzip("gzip, deflate"));
+        assertTrue(ResponseCompression.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(ResponseCompression.acceptsGzip("x-gzip"));
+        assertTrue(ResponseCompression.acceptsGzip("*"));
+        assertFalse(ResponseCompression.acceptsGzip(null));
+        assertFalse(ResponseCompression.acceptsGzip("identity"));
+        assertFalse(ResponseCompression.acceptsGzip("deflate"));
+        assertFalse(ResponseCompression.acceptsGzip("gzip;q=0"));
+        assertFalse(ResponseCompression.acceptsGzip("*, gzip;q=0.0"));
+        assertFalse(ResponseCompression.acceptsGzip("*;q=0"));
+    }
+
+    @Test
+    public void testWeakenETag() {
+        assertEquals("W/\"coverage-1\"", ResponseCompression.weakenETag("\"coverage-1\""));
+        assertEquals("W/\"coverage-1\"", ResponseCompression.weakenETag("W/\"coverage-1\""));
+    }
+
+    @Test
+    public void testIsCompressibleType() {
+        assertTrue(ResponseCompression.isCompressibleType("text/xml"));
+        assertTrue(ResponseCompression.isCompressibleType("text/xml; subtype=gml/3.1.1"));
+        assertTrue(ResponseCompression.isCompressibleType("application/xml"));
+        assertTrue(ResponseCompression.isCompressibleType("application/gml+xml; version=3.2"));
+        assertTrue(ResponseCompression.isCompressibleType("application/vnd.ogc.gml"));
+        assertTrue(ResponseCompression.isCompressibleType("application/vnd.ogc.wms_xml"));
+        assertTrue(ResponseCompression.isCompressibleType("application/json"));
+        assertTrue(ResponseCompression.isCompressibleType("text/csv"));
+        assertFalse(ResponseCompression.isCompressibleType("image/tiff"));
+        assertFalse(ResponseCompression.isCompressibleType("image/png"));
+        assertFalse(ResponseCompression.isCompressibleType("application/x-netcdf"));
+        assertFalse(ResponseCompression.isCompressibleType("application/zip"));
+        assertFalse(ResponseCompression.isCompressibleType(null));
+    }
+
+    @Test
+    public void testIsCompressible() {
+        assertTrue(ResponseCompression.isCompressible("GET", response(200, "text/xml", 2048)));
+        assertTrue(ResponseCompression.isCompressible("POST", response(500, "application/xml", 2048)));
+        assertFalse(ResponseCompression.isCompressible("HEAD", response(200, "text/xml", 2048)));
+        assertFalse(ResponseCompression.isCompressible("GET", response(200, "text/xml", 100)));
+        assertFalse(ResponseCompression.isCompressible("GET", response(200, "image/tiff", 2048)));
+        assertFalse(ResponseCompression.isCompressible("GET", response(206, "text/xml", 2048)));
+        assertFalse(ResponseCompression.isCompressible("GET", response(304, "text/xml", 2048)));
+
+        HttpResponse encoded = response(200, "text/xml", 2048);
+        encoded.addHeader("Content-Encoding", "gzip");
+        assertFalse(ResponseCompression.isCompressible("GET", encoded));
+        HttpResponse noTransform = response(200, "text/xml", 2048);
+        noTransform.addHeader("Cache-Control", "public, no-transform");
+        assertFalse(ResponseCompression.isCompressible("GET", noTransform));
+    }
+
+    @Test
+    public void testSmallBodyHasContentLength() throws IOException {
+        byte[] body = GmlEchoServlet.gml(10 * 1024);
+        StubResponse stub = new StubResponse();
+        assertEquals(body.length, ResponseCompression.gzip(new ByteArrayInputStream(body), stub.response));
+        assertEquals(stub.body.size(), stub.contentLength);
+        assertTrue(stub.body.size() < body.length);
+        assertArrayEquals(body, gunzip(stub.body.toByteArray()));
+    }
+
+    @Test
+    public void testLargeBodyStreamed() throws IOException {
+        byte[] body = random(ResponseCompression.BUFFERED_MAX * 4);
+        StubResponse stub = new StubResponse();
+        assertEquals(body.length, ResponseCompression.gzip(new ByteArrayInputStream(body), stub.response));
+        assertEquals(-1, stub.contentLength);
+        assertArrayEquals(body, gunzip(stub.body.toByteArray()));
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        byte[] body = random(ResponseCompression.BUFFER_SIZE * 3 + 17);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(body.length, ResponseCompression.copy(new ByteArrayInputStream(body), out));
+        assertArrayEquals(body, out.toByteArray());
+    }
+
+    private static HttpResponse response(int statusCode, String contentType, int length) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+        response.addHeader("Content-Type", contentType);
+        response.setEntity(new ByteArrayEntity(new byte[length]));
+        return response;
+    }
+
+    private static byte[] random(int length) {
+        byte[] body = new byte[length];
+        new Random(length).nextBytes(body);
+        return body;
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+    /**
+     * Collects what is written to a servlet response.
+     */
+    private static class StubResponse implements InvocationHandler {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                body.write(b, off, len);
+            }
+        };
+        private final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                HttpServletResponse.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class}, this);
+        private int contentLength = -1;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("getOutputStream".equals(method.getName())) {
+                return out;
+            }
+            if ("setContentLength".equals(method.getName())) {
+                contentLength = (Integer) args[0];
+            }
+            return null;
+        }
+    }
+}
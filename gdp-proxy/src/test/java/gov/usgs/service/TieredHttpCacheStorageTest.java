@@ -0,0 +1,129 @@
+package gov.usgs.service;
+
+import gov.usgs.service.TieredResourceFactory.FileCacheResource;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.InputLimit;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HTTP;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TieredHttpCacheStorageTest {
+
+    private static final int MEMORY_OBJECT_MAX = 1024;
+
+    private File cacheDirectory;
+    private TieredResourceFactory factory;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDirectory = File.createTempFile("proxy-cache-test", "");
+        FileUtils.deleteQuietly(cacheDirectory);
+        factory = new TieredResourceFactory(cacheDirectory, MEMORY_OBJECT_MAX);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(cacheDirectory);
+    }
+
+    @Test
+    public void testSmallBodyStaysInMemory() throws IOException {
+        TieredHttpCacheStorage storage = new TieredHttpCacheStorage(16, MEMORY_OBJECT_MAX, 10000);
+        Resource resource = generate(100);
+        assertFalse(resource instanceof FileCacheResource);
+
+        storage.putEntry("small", entry(resource));
+        HttpCacheEntry cached = storage.getEntry("small");
+        assertSame(resource, cached.getResource());
+        assertEquals("100", cached.getFirstHeader(HTTP.CONTENT_LEN).getValue());
+        assertEquals(0, storage.getDiskBytes());
+        assertEquals(0, cacheDirectory.list().length);
+    }
+
+    @Test
+    public void testLargeBodySpillsToDisk() throws IOException {
+        TieredHttpCacheStorage storage = new TieredHttpCacheStorage(16, MEMORY_OBJECT_MAX, 10000);
+        Resource resource = generate(3000);
+        assertTrue(resource instanceof FileCacheResource);
+        assertEquals(3000, ((FileCacheResource) resource).getFile().length());
+
+        storage.putEntry("large", entry(resource));
+        assertEquals(3000, storage.getDiskBytes());
+        byte[] body = IOUtils.toByteArray(storage.getEntry("large").getResource().getInputStream());
+        assertArrayEquals(body(3000), body);
+
+        storage.clear();
+        assertNull(storage.getEntry("large"));
+        assertEquals(0, cacheDirectory.list().length);
+    }
+
+    @Test
+    public void testDiskBudgetEvictsLeastRecentlyUsed() throws IOException {
+        TieredHttpCacheStorage storage = new TieredHttpCacheStorage(16, MEMORY_OBJECT_MAX, 7000);
+        storage.putEntry("first", entry(generate(3000)));
+        storage.putEntry("second", entry(generate(3000)));
+        assertNotNull(storage.getEntry("first"));
+        storage.putEntry("third", entry(generate(3000)));
+
+        assertNotNull(storage.getEntry("first"));
+        assertNull(storage.getEntry("second"));
+        assertNotNull(storage.getEntry("third"));
+        assertEquals(6000, storage.getDiskBytes());
+    }
+
+    @Test
+    public void testReplaceEntry() throws IOException {
+        TieredHttpCacheStorage storage = new TieredHttpCacheStorage(16, MEMORY_OBJECT_MAX, 0);
+        storage.putEntry("key", entry(generate(10)));
+        storage.putEntry("key", entry(generate(20)));
+        assertEquals(20, storage.getEntry("key").getResource().length());
+    }
+
+    @Test
+    public void testInputLimit() throws IOException {
+        InputLimit limit = new InputLimit(2000);
+        Resource resource = factory.generate("limited", new ByteArrayInputStream(body(5000)), limit);
+        assertTrue(limit.isReached());
+        assertTrue(resource.length() > 2000);
+        resource.dispose();
+        assertEquals(0, cacheDirectory.list().length);
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        Resource resource = generate(3000);
+        Resource copy = factory.copy("copy", resource);
+        resource.dispose();
+        assertArrayEquals(body(3000), IOUtils.toByteArray(copy.getInputStream()));
+        copy.dispose();
+    }
+
+    private Resource generate(int length) throws IOException {
+        return factory.generate("request", new ByteArrayInputStream(body(length)), new InputLimit(Long.MAX_VALUE));
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        for (int index = 0; index < length; ++index) {
+            body[index] = (byte) index;
+        }
+        return body;
+    }
+
+    private static HttpCacheEntry entry(Resource resource) {
+        return new HttpCacheEntry(new Date(), new Date(),
+                new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"), new Header[0], resource);
+    }
+}
@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import org.apache.commons.io.IOUtils;
@@ -22,6 +23,8 @@ import org.slf4j.LoggerFactory;
 public class ZippedGenericFileData extends GenericFileData {
 
     private static Logger LOGGER = LoggerFactory.getLogger(ZippedGenericFileData.class);
+    // large shapefiles are hundreds of megabytes, copy in large blocks
+    private static final int BUFFER_LENGTH = 64 << 10;
 
     public ZippedGenericFileData(InputStream stream, String mimeType) {
         super(stream, mimeType);
@@ -29,16 +32,28 @@ public class ZippedGenericFileData extends GenericFileData {
 
     @Override
     public String writeData(File workspaceDir) {
+        return writeData(workspaceDir, Long.toString(System.currentTimeMillis()));
+    }
+
+    /**
+     * Writes the data, or each file in the archive, as baseFileName with the
+     * file's own extension so nothing needs renaming afterwards.
+     *
+     * @param workspaceDir directory to write to
+     * @param baseFileName name of the written files without extension
+     * @return path of the file with this data's extension, null on failure
+     */
+    public String writeData(File workspaceDir, String baseFileName) {
         String fileName = null;
         if (GenericFileDataConstants.getIncludeFilesByMimeType(this.mimeType) != null) {
             try {
-                fileName = unzipData(this.dataStream, this.fileExtension, workspaceDir);
+                fileName = unzipData(this.dataStream, this.fileExtension, workspaceDir, baseFileName);
             } catch (IOException e) {
                 LOGGER.error("Could not unzip the archive to " + workspaceDir, e);
             }
         } else {
             try {
-                fileName = justWriteData(this.dataStream, this.fileExtension, workspaceDir);
+                fileName = justWriteData(this.dataStream, this.fileExtension, workspaceDir, baseFileName);
             } catch (IOException e) {
                 LOGGER.error("Could not write the input to " + workspaceDir, e);
             }
@@ -46,11 +61,9 @@ public class ZippedGenericFileData extends GenericFileData {
         return fileName;
     }
 
-    private String justWriteData(InputStream is, String extension, File writeDirectory) throws IOException {
-        int bufferLength = 2048;
-        byte buffer[] = new byte[bufferLength];
+    private String justWriteData(InputStream is, String extension, File writeDirectory, String baseFileName) throws IOException {
+        byte buffer[] = new byte[BUFFER_LENGTH];
         String fileName = null;
-        String baseFileName = Long.toString(System.currentTimeMillis());
 
         fileName = baseFileName + "." + extension;
         File currentFile = new File(writeDirectory, fileName);
@@ -61,12 +74,8 @@ public class ZippedGenericFileData extends GenericFileData {
         FileOutputStream fos = new FileOutputStream(currentFile);
         BufferedOutputStream bos = null;
         try {
-            bos = new BufferedOutputStream(fos, bufferLength);
-
-            int cnt;
-            while ((cnt = is.read(buffer, 0, bufferLength)) != -1) {
-                bos.write(buffer, 0, cnt);
-            }
+            bos = new BufferedOutputStream(fos, BUFFER_LENGTH);
+            copy(is, bos, buffer);
         } finally {
             if (bos != null) {
                 IOUtils.closeQuietly(bos);
@@ -75,13 +84,11 @@ public class ZippedGenericFileData extends GenericFileData {
         return fileName;
     }
 
-    private String unzipData(InputStream is, String extension, File writeDirectory) throws IOException {
-        int bufferLength = 2048;
-        byte buffer[] = new byte[bufferLength];
-        String baseFileName = Long.toString(System.currentTimeMillis());
+    private String unzipData(InputStream is, String extension, File writeDirectory, String baseFileName) throws IOException {
+        byte buffer[] = new byte[BUFFER_LENGTH];
 
         ZipInputStream zipInputStream = new ZipInputStream(
-                new BufferedInputStream(is));
+                new BufferedInputStream(is, BUFFER_LENGTH));
         ZipEntry entry;
 
         String returnFile = null;
@@ -102,11 +109,8 @@ public class ZippedGenericFileData extends GenericFileData {
                 FileOutputStream fos = new FileOutputStream(currentFile);
                 BufferedOutputStream bos = null;
                 try {
-                    bos = new BufferedOutputStream(fos, bufferLength);
-                    int cnt;
-                    while ((cnt = zipInputStream.read(buffer, 0, bufferLength)) != -1) {
-                        bos.write(buffer, 0, cnt);
-                    }
+                    bos = new BufferedOutputStream(fos, BUFFER_LENGTH);
+                    copy(zipInputStream, bos, buffer);
                 } finally {
                     if (bos != null) {
                         IOUtils.closeQuietly(bos);
@@ -120,4 +124,11 @@ public class ZippedGenericFileData extends GenericFileData {
         zipInputStream.close();
         return returnFile;
     }
+
+    private static void copy(InputStream is, OutputStream os, byte[] buffer) throws IOException {
+        int cnt;
+        while ((cnt = is.read(buffer, 0, buffer.length)) != -1) {
+            os.write(buffer, 0, cnt);
+        }
+    }
 }
@@ -4,8 +4,6 @@ import com.google.common.base.Preconditions;
 import gov.usgs.cida.gdp.dataaccess.helper.OpendapServerHelper;
 import gov.usgs.cida.gdp.dataaccess.bean.Response;
 import gov.usgs.cida.gdp.dataaccess.bean.Time;
-import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache;
-import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache.CacheIdentifier;
 import org.apache.commons.lang.StringUtils;
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.algorithm.annotation.ComplexDataOutput;
@@ -89,20 +87,11 @@ public class GetGridTimeRange extends AbstractAnnotatedAlgorithm {
 		Preconditions.checkArgument(StringUtils.isNotBlank(catalogURL), "Invalid " + PARAM_CATALOG_URL);
 		Preconditions.checkArgument(StringUtils.isNotBlank(grid), "Invalid " + PARAM_GRID);
 
-		CacheIdentifier cacheIdentifier = new CacheIdentifier(
-				catalogURL,
-				CacheIdentifier.CacheType.TIME_RANGE,
-				grid);
 		try {
-			if (useCache && ResponseCache.hasCachedResponse(cacheIdentifier)) {
-				this.response = Time.buildFromCache(cacheIdentifier);
-			} 
-			
-			if (this.response == null) {
+			if (useCache) {
+				this.response = OpendapServerHelper.getCachedTimeBean(catalogURL, grid);
+			} else {
 				this.response = OpendapServerHelper.getTimeBean(catalogURL, grid);
-				if (this.response != null && ((Time) this.response).getTime().length > 0 && useCache) {
-					this.response.writeToCache(cacheIdentifier);
-				}
 			}
 		} catch (Exception ex) {
 			LOGGER.error(ex.getMessage());
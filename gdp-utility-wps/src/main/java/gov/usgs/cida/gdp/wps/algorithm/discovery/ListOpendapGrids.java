@@ -4,10 +4,6 @@ import com.google.common.base.Preconditions;
 import gov.usgs.cida.gdp.dataaccess.bean.DataTypeCollection;
 import gov.usgs.cida.gdp.dataaccess.helper.OpendapServerHelper;
 import gov.usgs.cida.gdp.dataaccess.bean.Response;
-import gov.usgs.cida.gdp.dataaccess.cache.RawXmlResponse;
-import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache;
-import gov.usgs.cida.gdp.dataaccess.cache.ResponseCache.CacheIdentifier;
-import static gov.usgs.cida.gdp.dataaccess.cache.ResponseCache.CacheIdentifier.CacheType.*;
 import org.apache.commons.lang.StringUtils;
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.algorithm.annotation.ComplexDataOutput;
@@ -79,19 +75,11 @@ public class ListOpendapGrids extends AbstractAnnotatedAlgorithm {
 	public void process() {
 		Preconditions.checkArgument(StringUtils.isNotBlank(catalogURL), "Invalid " + PARAM_CATALOG_URL);
 
-		CacheIdentifier cacheIdentifier = new ResponseCache.CacheIdentifier(
-				catalogURL, DATA_TYPE, null);
-
 		try {
-			if (useCache && ResponseCache.hasCachedResponse(cacheIdentifier)) {
-				this.response = DataTypeCollection.buildFromCache(cacheIdentifier);
-			}
-
-			if (this.response == null) {
+			if (useCache) {
+				this.response = OpendapServerHelper.getCachedDataTypeCollection(catalogURL);
+			} else {
 				this.response = OpendapServerHelper.callDDSandDAS(catalogURL);
-				if (this.response != null && !((DataTypeCollection) this.response).getDataTypeCollection().isEmpty() && useCache) {
-					this.response.writeToCache(cacheIdentifier);
-				}
 			}
 		} catch (Exception ex) {
 			LOGGER.error(ex.getMessage());
@@ -4,14 +4,13 @@ import com.google.common.base.Preconditions;
 import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.dataaccess.GeoserverManager;
 import gov.usgs.cida.gdp.dataaccess.helper.ShapeFileEPSGHelper;
+import gov.usgs.cida.gdp.dataaccess.helper.ShapefileSummary;
 import gov.usgs.cida.gdp.io.data.ZippedGenericFileData;
 import gov.usgs.cida.gdp.io.data.ZippedGenericFileDataBinding;
 import gov.usgs.cida.gdp.utilities.FileHelper;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
 import java.util.UUID;
-import org.apache.commons.io.filefilter.RegexFileFilter;
 import org.apache.commons.lang.StringUtils;
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.algorithm.annotation.ComplexDataInput;
@@ -94,7 +93,8 @@ public class ReceiveFiles extends AbstractAnnotatedAlgorithm {
 
         fileName = fileName.replace(" ", "_");
 
-        String shapefilePath = file.writeData(temp);
+        // Files are written under their final names as they are extracted
+        String shapefilePath = file.writeData(temp, fileName);
         if (shapefilePath == null) { // Not sure if that is the only reason newFilename would be null
             String errorMessage = "Error while processing file: Malformed zip file or incomplete shapefile";
             LOGGER.error(errorMessage);
@@ -112,31 +112,15 @@ public class ReceiveFiles extends AbstractAnnotatedAlgorithm {
             throw new RuntimeException(errorMessage);
         }
 
-        String shapefileName = shapefileFile.getName();
-        String shapefileNamePrefix = shapefileName.substring(0, shapefileName.lastIndexOf("."));
-
-        // Find all files with filename with any extension
-        String pattern = shapefileNamePrefix + "\\..*";
-        FileFilter filter = new RegexFileFilter(pattern);
-
-        // Rename the files to the desired filenames
-        File[] files = shapefileDir.listFiles(filter);
-        for (File f : files) {
-            String name = f.getName();
-            String extension = name.substring(name.lastIndexOf("."));
-
-            f.renameTo(new File(shapefileDir.getPath() + File.separator + fileName + extension));
-        }
-
-        String renamedShpPath = shapefileDir.getPath() + File.separator + fileName + SUFFIX_SHP;
-        String renamedPrjPath = shapefileDir.getPath() + File.separator + fileName + SUFFIX_PRJ;
+        String shpPath = shapefileDir.getPath() + File.separator + fileName + SUFFIX_SHP;
+        String prjPath = shapefileDir.getPath() + File.separator + fileName + SUFFIX_PRJ;
 
         // Do EPSG processing
         String declaredCRS = null;
         String nativeCRS = null;
         String warning = "";
         try {
-            nativeCRS = new String(FileHelper.getByteArrayFromFile(new File(renamedPrjPath)));
+            nativeCRS = new String(FileHelper.getByteArrayFromFile(new File(prjPath)));
             if (nativeCRS == null || nativeCRS.isEmpty()) {
                 String errorMessage = "Error while getting Prj/WKT information from PRJ file. Function halted.";
                 LOGGER.error(errorMessage);
@@ -162,12 +146,22 @@ public class ReceiveFiles extends AbstractAnnotatedAlgorithm {
             throw new RuntimeException(errorMessage, ex);
         }
 
+        // One pass over the geometries, the summary is kept with the upload so
+        // its bounds and declared code are not looked up again
+        try {
+            ShapefileSummary summary = ShapefileSummary.scan(new File(shpPath));
+            summary.setDeclaredCRS(declaredCRS);
+            summary.write(new File(shpPath));
+        } catch (Exception ex) {
+            LOGGER.warn("Unable to summarize shapefile " + shpPath, ex);
+        }
+
         String workspace = UPLOAD_WORKSPACE;
         try {
             GeoserverManager mws = new GeoserverManager(wfsURL,
                     AppConstant.WFS_USER.getValue(), AppConstant.WFS_PASS.getValue());
 
-            mws.createDataStore(renamedShpPath, fileName, workspace, nativeCRS, declaredCRS);
+            mws.createDataStore(shpPath, fileName, workspace, nativeCRS, declaredCRS);
         } catch (IOException ex) {
             String errorMessage = "Error while communicating with WFS server. Please try again or contact system administrator.";
             LOGGER.error(errorMessage, ex);
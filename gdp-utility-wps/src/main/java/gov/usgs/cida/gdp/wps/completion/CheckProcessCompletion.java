@@ -17,9 +17,15 @@ import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
 import javax.xml.parsers.DocumentBuilder;
@@ -38,6 +44,14 @@ import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
 /**
+ * Sends the email for a process when it completes.
+ *
+ * Each status location is polled by one task however many listeners wait on
+ * it.  Polling starts at the recheck interval and backs off, up to the
+ * maximum interval, while the status doesn't change.  A process running in
+ * this application can report its status with
+ * {@link #statusChanged(String, Document)} so its listeners don't have to
+ * wait for the next poll.
  *
  * @author jwalker
  */
@@ -48,14 +62,48 @@ public class CheckProcessCompletion {
     private static final long serialVersionUID = 1L;
     
     final static String URLENCODE_CHARSET = "UTF-8";
+
+	private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+	private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<DocumentBuilder>();
+
+	static {
+		DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+	}
     
 	private static CheckProcessCompletion singleton = null;
-	private Timer timer;
-	private long recheckTime;
+	private final ScheduledThreadPoolExecutor executor;
+	private final ConcurrentMap<String, Checkpoint> checkpoints = new ConcurrentHashMap<String, Checkpoint>();
+	private final long recheckTime;
+	private final long maxRecheckTime;
 
 	private CheckProcessCompletion() {
-		timer = new Timer("ProcessEmailCheck", true);
-		recheckTime = Long.parseLong(AppConstant.CHECK_COMPLETE_MILLIS.getValue());
+		this(Long.parseLong(AppConstant.CHECK_COMPLETE_MILLIS.getValue()),
+				Long.parseLong(AppConstant.CHECK_COMPLETE_MAX_MILLIS.getValue()),
+				Integer.parseInt(AppConstant.CHECK_COMPLETE_THREADS.getValue()));
+	}
+
+	CheckProcessCompletion(long recheckTime, long maxRecheckTime, int threads) {
+		this(recheckTime, maxRecheckTime, new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ProcessEmailCheck-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+	}
+
+	/**
+	 * @param executor runs the polls, tests can see the delays they are
+	 * scheduled with
+	 */
+	CheckProcessCompletion(long recheckTime, long maxRecheckTime, ScheduledThreadPoolExecutor executor) {
+		this.recheckTime = recheckTime;
+		this.maxRecheckTime = Math.max(recheckTime, maxRecheckTime);
+		this.executor = executor;
+		executor.setRemoveOnCancelPolicy(true);
 	}
 
 	public synchronized static CheckProcessCompletion getInstance() {
@@ -66,29 +114,187 @@ public class CheckProcessCompletion {
 	}
 
 	public void addProcessToCheck(String wpsCheckPoint, String emailAddr, String filename, String callbackBaseURL, Boolean breakOnSyserr, Boolean emailOnSyserr, Integer checkProcErrLimit) {
-		timer.scheduleAtFixedRate(new EmailCheckTask(wpsCheckPoint, emailAddr, filename, callbackBaseURL, breakOnSyserr, emailOnSyserr, checkProcErrLimit), 0l, recheckTime);
-		cleanupTimer();
+		addCompletionListener(wpsCheckPoint, new EmailCheckTask(wpsCheckPoint, emailAddr, filename, callbackBaseURL, breakOnSyserr, emailOnSyserr, checkProcErrLimit));
+	}
+
+	/**
+	 * Starts polling the status location unless it is already polled.
+	 *
+	 * @param wpsCheckPoint status location of the process
+	 * @param listener called with each status until it is done
+	 */
+	public void addCompletionListener(String wpsCheckPoint, CompletionListener listener) {
+		while (true) {
+			Checkpoint checkpoint = checkpoints.get(wpsCheckPoint);
+			boolean created = false;
+			if (checkpoint == null) {
+				Checkpoint newCheckpoint = new Checkpoint(wpsCheckPoint);
+				checkpoint = checkpoints.putIfAbsent(wpsCheckPoint, newCheckpoint);
+				if (checkpoint == null) {
+					checkpoint = newCheckpoint;
+					created = true;
+				}
+			}
+			synchronized (checkpoint) {
+				if (!checkpoint.closed) {
+					checkpoint.listeners.add(listener);
+					if (created) {
+						checkpoint.future = executor.schedule(checkpoint, 0, TimeUnit.MILLISECONDS);
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hands a new status of a process to its listeners without waiting for
+	 * the next poll.
+	 *
+	 * @param wpsCheckPoint status location of the process
+	 * @param document current status document
+	 * @return false if nothing is listening for the process
+	 */
+	public boolean statusChanged(String wpsCheckPoint, Document document) {
+		Checkpoint checkpoint = checkpoints.get(wpsCheckPoint);
+		if (checkpoint == null) {
+			return false;
+		}
+		synchronized (checkpoint) {
+			checkpoint.update(document);
+			dispatch(checkpoint, document, null);
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of status locations being checked
+	 */
+	public int getCheckCount() {
+		return checkpoints.size();
 	}
 
 	public void cleanupTimer() {
-		int purged = timer.purge();
-		log.debug("Purged " + purged + " tasks from timer.");
+		executor.purge();
+		log.debug("Checking " + checkpoints.size() + " processes.");
 	}
 
 	public void destroy() {
-		timer.cancel();
+		executor.shutdownNow();
 	}
 
 	public static Document parseDocument(InputStream is) throws IOException, SAXException, ParserConfigurationException {
-		DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-		documentBuilderFactory.setNamespaceAware(true);
-		DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+		DocumentBuilder documentBuilder = DOCUMENT_BUILDER.get();
+		if (documentBuilder == null) {
+			synchronized (DOCUMENT_BUILDER_FACTORY) {
+				documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+			}
+			DOCUMENT_BUILDER.set(documentBuilder);
+		} else {
+			documentBuilder.reset();
+		}
 		return documentBuilder.parse(is);
 	}
 
+	/*
+	 * Called holding the checkpoint's lock, either the document or the cause
+	 * is null.
+	 */
+	private void dispatch(Checkpoint checkpoint, Document document, Exception cause) {
+		Iterator<CompletionListener> listeners = checkpoint.listeners.iterator();
+		while (listeners.hasNext()) {
+			CompletionListener listener = listeners.next();
+			boolean done;
+			if (document != null) {
+				try {
+					done = listener.statusChanged(checkpoint.wpsCheckPoint, document);
+				} catch (Exception ex) {
+					done = listener.statusFailed(checkpoint.wpsCheckPoint, ex);
+				}
+			} else {
+				done = listener.statusFailed(checkpoint.wpsCheckPoint, cause);
+			}
+			if (done) {
+				listeners.remove();
+			}
+		}
+		if (checkpoint.listeners.isEmpty()) {
+			checkpoint.closed = true;
+			checkpoints.remove(checkpoint.wpsCheckPoint, checkpoint);
+			if (checkpoint.future != null) {
+				checkpoint.future.cancel(false);
+			}
+		}
+	}
+
+	private class Checkpoint implements Runnable {
+
+		private final String wpsCheckPoint;
+		private final List<CompletionListener> listeners = new ArrayList<CompletionListener>();
+		private ScheduledFuture<?> future;
+		private boolean closed = false;
+		private long delay = recheckTime;
+		private String lastStatus;
+
+		private Checkpoint(String wpsCheckPoint) {
+			this.wpsCheckPoint = wpsCheckPoint;
+		}
+
+		@Override
+		public void run() {
+			Document document = null;
+			Exception cause = null;
+			InputStream is = null;
+			try {
+				is = HTTPUtils.sendPacket(new URL(wpsCheckPoint), "GET");
+				document = parseDocument(is);
+			} catch (Exception ex) {
+				log.error("Error in process checking: " + ex.getMessage());
+				cause = ex;
+			} finally {
+				IOUtils.closeQuietly(is);
+			}
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				if (document != null) {
+					update(document);
+				} else {
+					delay = Math.min(delay * 2, maxRecheckTime);
+				}
+				dispatch(this, document, cause);
+				if (!closed) {
+					future = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+
+		/*
+		 * Checks again soon while the status is changing and less often the
+		 * longer it stays the same.
+		 */
+		private void update(Document document) {
+			String status;
+			try {
+				ProcessStatus processStatus = new ProcessStatus(document);
+				status = (processStatus.isAccepted() ? "accepted " : "")
+						+ (processStatus.isPaused() ? "paused " : "")
+						+ processStatus.getPercentComplete();
+			} catch (XPathExpressionException ex) {
+				status = null;
+			}
+			if (status != null && status.equals(lastStatus)) {
+				delay = Math.min(delay * 2, maxRecheckTime);
+			} else {
+				delay = recheckTime;
+			}
+			lastStatus = status;
+		}
+	}
 }
 
-class EmailCheckTask extends TimerTask {
+class EmailCheckTask implements Runnable, CompletionListener {
 	static org.slf4j.Logger log = LoggerFactory.getLogger(EmailCheckTask.class);
     private static final long serialVersionUID = 1L;
 
@@ -117,40 +323,53 @@ class EmailCheckTask extends TimerTask {
 		this.taskStarted = sdf.format(new Date());
 	}
 
+	/**
+	 * Checks the status once.
+	 */
 	@Override
 	public void run() {
 		InputStream is = null;
 		try {
 			is = HTTPUtils.sendPacket(new URL(this.wpsCheckPoint), "GET");
 			Document document = CheckProcessCompletion.parseDocument(is);
-			checkAndSend(document);
-			this.errorCount = 0; // Reset the error counter
+			statusChanged(this.wpsCheckPoint, document);
 		} catch (Exception ex) {
-			String error = "Error in process checking/sending email: " + ex.getMessage();
-			log.error(error);
-
-			if (checkProcErrLimit != -1 && ++this.errorCount >= this.checkProcErrLimit) {
-				if (this.breakOnSyserr) {
-					if (this.emailOnSyserr) {
-						try {
-							sendFailedEmail("The status document failed to return. "
-									+ "Status checking has aborted. There has been "
-									+ "a network or server issue preventing the status "
-									+ "document from being retrieved. However, the request may "
-									+ "still be running. For more information, check the "
-									+ "status url " + this.wpsCheckPoint);
-						} catch (Exception ex2) {
-							log.error("Also, email was bad, cannot send " + ex2.getMessage());
-						}
+			statusFailed(this.wpsCheckPoint, ex);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	@Override
+	public boolean statusChanged(String wpsCheckPoint, Document document) throws Exception {
+		boolean done = checkAndSend(document);
+		this.errorCount = 0; // Reset the error counter
+		return done;
+	}
+
+	@Override
+	public boolean statusFailed(String wpsCheckPoint, Exception ex) {
+		String error = "Error in process checking/sending email: " + ex.getMessage();
+		log.error(error);
+
+		if (checkProcErrLimit != -1 && ++this.errorCount >= this.checkProcErrLimit) {
+			if (this.breakOnSyserr) {
+				if (this.emailOnSyserr) {
+					try {
+						sendFailedEmail("The status document failed to return. "
+								+ "Status checking has aborted. There has been "
+								+ "a network or server issue preventing the status "
+								+ "document from being retrieved. However, the request may "
+								+ "still be running. For more information, check the "
+								+ "status url " + this.wpsCheckPoint);
+					} catch (Exception ex2) {
+						log.error("Also, email was bad, cannot send " + ex2.getMessage());
 					}
-					this.cancel();
-					this.isCancelled = true;
 				}
+				this.isCancelled = true;
 			}
-
-		} finally {
-			IOUtils.closeQuietly(is);
 		}
+		return this.isCancelled;
 	}
 	
 	public Boolean isCancelled() {
@@ -161,7 +380,10 @@ class EmailCheckTask extends TimerTask {
 		return this.errorCount;
 	}
 
-	public void checkAndSend(Document document) throws URISyntaxException, XPathExpressionException, AddressException, MessagingException, IOException, TransformerConfigurationException, TransformerException {
+	/**
+	 * @return true once the process has finished and the email is sent
+	 */
+	public boolean checkAndSend(Document document) throws URISyntaxException, XPathExpressionException, AddressException, MessagingException, IOException, TransformerConfigurationException, TransformerException {
 
 		ProcessStatus procStat = new ProcessStatus(document);
 		if (procStat.isAccepted()) {
@@ -181,16 +403,17 @@ class EmailCheckTask extends TimerTask {
 			} else {
 				sendCompleteEmail(procStat.getOutputReference(), XMLUtils.createPrettyXML(document));
 			}
-			this.cancel();
+			return true;
 		}
 		else if (procStat.isFailed()) {
 			log.debug("Processing (started " + taskStarted + ") failed, sending email");
 			sendFailedEmail(procStat.getFailureMessage());
-			this.cancel();
+			return true;
 		}
 		else {
 			log.debug("Status not valid, something went wrong");
 		}
+		return false;
 	}
 
 	private void sendCompleteEmail(String fileLocation, String prettyXML) throws AddressException, MessagingException, TransformerConfigurationException, TransformerException, URISyntaxException {
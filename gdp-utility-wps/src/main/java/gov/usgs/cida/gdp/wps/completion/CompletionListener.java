@@ -0,0 +1,26 @@
+package gov.usgs.cida.gdp.wps.completion;
+
+import org.w3c.dom.Document;
+
+/**
+ * Receives the status of a WPS process from {@link CheckProcessCompletion},
+ * either when a process in this application reports a new status or when the
+ * status document is polled.
+ */
+public interface CompletionListener {
+
+	/**
+	 * @param wpsCheckPoint status location of the process
+	 * @param document current status document
+	 * @return true once the listener needs no further status
+	 * @throws Exception handed to {@link #statusFailed(String, Exception)}
+	 */
+	boolean statusChanged(String wpsCheckPoint, Document document) throws Exception;
+
+	/**
+	 * @param wpsCheckPoint status location of the process
+	 * @param cause why the status could not be retrieved or handled
+	 * @return true to give up on the process
+	 */
+	boolean statusFailed(String wpsCheckPoint, Exception cause);
+}
@@ -3,11 +3,14 @@ package gov.usgs.cida.gdp.wps.servlet;
 import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.dataaccess.GeoserverManager;
 import gov.usgs.cida.gdp.utilities.FileHelper;
+import gov.usgs.cida.gdp.utilities.FileLifecycleRegistry;
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.xml.xpath.XPathExpressionException;
@@ -21,7 +24,9 @@ public class FileWipeAutomationServlet implements ServletContextListener {
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(FileWipeAutomationServlet.class);
     private static final long serialVersionUID = 1L;
     private static final long WIPER_CHECK_RATE = Long.parseLong(AppConstant.FILE_WIPE_CHECK_RATE.getValue());
-    private static Timer task;
+    private static final long WIPER_SWEEP_RATE = Long.parseLong(AppConstant.FILE_WIPE_SWEEP_RATE.getValue());
+    private static ScheduledExecutorService task;
+    private static ScheduledExecutorService sweepTask;
 
     /**
      * @see HttpServlet#HttpServlet()
@@ -37,14 +42,18 @@ public class FileWipeAutomationServlet implements ServletContextListener {
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
-        FileWipeAutomationServlet.task.cancel();
-        FileWipeAutomationServlet.task.purge();
+        FileWipeAutomationServlet.task.shutdownNow();
+        FileWipeAutomationServlet.sweepTask.shutdownNow();
         LOG.info("File Wipe system stopped.");
     }
     
     /**
-     * Initializes a timer that will check the file system every hour and wipes any files
-     * over 48 hours long.
+     * Starts wiping expired work space files and outdated Geoserver data
+     * stores every hour, and sweeping the work space for unregistered files
+     * once a day.  Each task waits for its previous run to finish.  The
+     * Geoserver and expired file tasks run on separate threads, and the
+     * throttled sweep has a thread of its own so a long sweep does not hold
+     * up either of them.
      */
     private void initializeFilewipeTimer() {
         LOG.info("File Wipe system starting.");
@@ -59,19 +68,43 @@ public class FileWipeAutomationServlet implements ServletContextListener {
         FileHelper.createDir(userSpaceDir);
         FileHelper.createDir(workSpaceDir);
 
-        task = new Timer("File-Wipe-Timer",true);
-        task.scheduleAtFixedRate(new ScanFileTask(workSpaceDir, fileAgeLong), 0l, WIPER_CHECK_RATE);
+        task = Executors.newScheduledThreadPool(2, new WipeThreadFactory("File-Wipe-Timer-"));
+        sweepTask = Executors.newSingleThreadScheduledExecutor(new WipeThreadFactory("File-Sweep-Timer-"));
+        FileLifecycleRegistry registry = FileLifecycleRegistry.getInstance();
+        task.scheduleWithFixedDelay(new DataStoreWipeTask(fileAgeLong), 0l, WIPER_CHECK_RATE, TimeUnit.MILLISECONDS);
+        task.scheduleWithFixedDelay(new ExpiredFileTask(registry), 0l, WIPER_CHECK_RATE, TimeUnit.MILLISECONDS);
+        sweepTask.scheduleWithFixedDelay(new SweepFileTask(registry), WIPER_CHECK_RATE, WIPER_SWEEP_RATE, TimeUnit.MILLISECONDS);
         
         LOG.info("File Wipe system started.");
     }
 
-    private static class ScanFileTask extends TimerTask {
-        private long hoursToWipe;
-        private File workspaceDir;
+    private static class WipeThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WipeThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+
+    private static class DataStoreWipeTask implements Runnable {
+        private final long hoursToWipe;
+
+        DataStoreWipeTask(long hoursToWipe) {
+            this.hoursToWipe = hoursToWipe;
+        }
 
         @Override
         public void run() {
-            LOG.info("Running File Wipe Task... ");
+            LOG.info("Running Geoserver Wipe Task... ");
 
             try {
                 GeoserverManager gm = new GeoserverManager(AppConstant.WFS_ENDPOINT.getValue(),
@@ -82,54 +115,46 @@ public class FileWipeAutomationServlet implements ServletContextListener {
 				LOG.error("File Wipe Task Error. Error encountered: ", ex);
             } catch (XPathExpressionException ex) {
 				LOG.error("File Wipe Task Error. Error encountered: ", ex);
+            } catch (RuntimeException ex) {
+                // would cancel the schedule
+                LOG.error("File Wipe Task Error. Error encountered: ", ex);
             }
-            
-            if (getWorkspaceDir() != null && getWorkspaceDir().exists()) {
-                LOG.info("Checking work space directory " + getWorkspaceDir().getPath() + " for files older than " + Long.valueOf(this.hoursToWipe) + "ms");
-                Collection<File> filesDeleted = FileHelper.wipeOldFiles(getWorkspaceDir(), Long.valueOf(this.hoursToWipe), false);
-                if (!filesDeleted.isEmpty()) {
-                    LOG.info("Finished deleting workspace files. " + filesDeleted.size() + " deleted.");
-                }
-            }
-
         }
+    }
 
-        ScanFileTask(File workspaceDir, long hoursToWipe) {
-            this.workspaceDir = workspaceDir;
-            this.hoursToWipe = hoursToWipe;
-        }
+    private static class ExpiredFileTask implements Runnable {
+        private final FileLifecycleRegistry registry;
 
-        ScanFileTask() {
-            this.hoursToWipe = Long.getLong(AppConstant.FILE_WIPE_MILLIS.toString());
+        ExpiredFileTask(FileLifecycleRegistry registry) {
+            this.registry = registry;
         }
 
-        /**
-         * @return the hoursToWipe
-         */
-        public long getHoursToWipe() {
-            return this.hoursToWipe;
+        @Override
+        public void run() {
+            LOG.info("Running File Wipe Task... ");
+            try {
+                registry.deleteExpired();
+            } catch (RuntimeException ex) {
+                LOG.error("File Wipe Task Error. Error encountered: ", ex);
+            }
         }
+    }
 
-        /**
-         * @param hoursToWipe the hoursToWipe to set
-         */
-        public void setHoursToWipe(@SuppressWarnings("hiding") long hoursToWipe) {
-            this.hoursToWipe = hoursToWipe;
-        }
+    private static class SweepFileTask implements Runnable {
+        private final FileLifecycleRegistry registry;
 
-        /**
-         * @return the workspaceDir
-         */
-        public File getWorkspaceDir() {
-            return workspaceDir;
+        SweepFileTask(FileLifecycleRegistry registry) {
+            this.registry = registry;
         }
 
-        /**
-         * @param workspaceDir the workspaceDir to set
-         */
-        public void setWorkspaceDir(File workspaceDir) {
-            this.workspaceDir = workspaceDir;
+        @Override
+        public void run() {
+            LOG.info("Sweeping work space for unregistered files... ");
+            try {
+                registry.sweep();
+            } catch (RuntimeException ex) {
+                LOG.error("File Wipe Task Error. Error encountered: ", ex);
+            }
         }
-
     }
 }
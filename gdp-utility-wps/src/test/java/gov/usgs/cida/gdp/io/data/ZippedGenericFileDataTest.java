@@ -49,4 +49,15 @@ public class ZippedGenericFileDataTest {
         assertFalse(FileUtils.listFiles(tempArea, null, true).isEmpty());
         assertTrue(FileUtils.listFiles(tempArea, null, true).size() == 6);
     }
+
+    @Test
+    public void testZippedGenericFileDataWithName() {
+        ZippedGenericFileData test = new ZippedGenericFileData(fis, "application/x-zipped-shp");
+        String shapefile = test.writeData(tempArea, "lkm_renamed");
+        assertEquals(new File(tempArea, "lkm_renamed.shp").getAbsolutePath(), shapefile);
+        assertEquals(6582904, new File(shapefile).length());
+        for (File file : FileUtils.listFiles(tempArea, null, true)) {
+            assertTrue(file.getName().startsWith("lkm_renamed."));
+        }
+    }
 }
@@ -0,0 +1,169 @@
+package gov.usgs.cida.gdp.wps.completion;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.w3c.dom.Document;
+
+public class CheckProcessCompletionTest {
+
+	private static final int BACKOFF_POLLS = 7;
+
+	private Server server;
+	private CheckProcessCompletion completion;
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile String status;
+
+	@Before
+	public void setUp() throws Exception {
+		status = readResponse("WPS_Started.xml");
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+				requests.incrementAndGet();
+				baseRequest.setHandled(true);
+				response.setContentType("text/xml;charset=utf-8");
+				response.getWriter().print(status);
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (completion != null) {
+			completion.destroy();
+		}
+		server.stop();
+		server.join();
+	}
+
+	@Test
+	public void testOnePollPerCheckpoint() throws Exception {
+		completion = new CheckProcessCompletion(50, 50, 2);
+		RecordingListener first = new RecordingListener();
+		RecordingListener second = new RecordingListener();
+		completion.addCompletionListener(getCheckPoint(), first);
+		completion.addCompletionListener(getCheckPoint(), second);
+		assertEquals(1, completion.getCheckCount());
+
+		assertTrue(first.started.await(5, TimeUnit.SECONDS));
+		status = readResponse("WPS_Success.xml");
+		assertTrue(first.finished.await(5, TimeUnit.SECONDS));
+		assertTrue(second.finished.await(5, TimeUnit.SECONDS));
+		// the checkpoint is dropped once the last listener returns
+		for (int i = 0; i < 100 && completion.getCheckCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, completion.getCheckCount());
+		assertEquals(first.statuses.get(), second.statuses.get());
+		assertEquals(requests.get(), first.statuses.get());
+	}
+
+	@Test
+	public void testStatusChangedInProcess() throws Exception {
+		completion = new CheckProcessCompletion(60000, 60000, 1);
+		RecordingListener listener = new RecordingListener();
+		completion.addCompletionListener(getCheckPoint(), listener);
+		assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+
+		assertTrue(completion.statusChanged(getCheckPoint(), parseResponse("WPS_Success.xml")));
+		assertEquals(0, listener.finished.getCount());
+		assertEquals(0, completion.getCheckCount());
+		assertEquals(1, requests.get());
+		assertFalse(completion.statusChanged(getCheckPoint(), parseResponse("WPS_Success.xml")));
+	}
+
+	@Test
+	public void testUnchangedStatusBacksOff() throws Exception {
+		final List<Long> delays = Collections.synchronizedList(new ArrayList<Long>());
+		final CountDownLatch polled = new CountDownLatch(BACKOFF_POLLS);
+		completion = new CheckProcessCompletion(20, 200, new ScheduledThreadPoolExecutor(1) {
+			@Override
+			public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+				// records the delay and polls right away, up to the polls checked
+				synchronized (delays) {
+					if (delays.size() < BACKOFF_POLLS) {
+						delays.add(unit.toMillis(delay));
+						polled.countDown();
+						return super.schedule(command, 0, unit);
+					}
+				}
+				return super.schedule(command, 1, TimeUnit.DAYS);
+			}
+		});
+		completion.addCompletionListener(getCheckPoint(), new RecordingListener());
+		assertTrue(polled.await(5, TimeUnit.SECONDS));
+		// the first poll is right away, then the delay doubles up to the maximum
+		assertEquals(Arrays.asList(0L, 20L, 40L, 80L, 160L, 200L, 200L), delays);
+	}
+
+	private String getCheckPoint() {
+		return "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/status";
+	}
+
+	private static String readResponse(String name) throws IOException, URISyntaxException {
+		return FileUtils.readFileToString(getResponse(name), "UTF-8");
+	}
+
+	private static Document parseResponse(String name) throws Exception {
+		InputStream is = new FileInputStream(getResponse(name));
+		try {
+			return CheckProcessCompletion.parseDocument(is);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	private static File getResponse(String name) throws URISyntaxException {
+		return new File(CheckProcessCompletionTest.class.getClassLoader().getResource("Sample_Responses/" + name).toURI());
+	}
+
+	private static class RecordingListener implements CompletionListener {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private final AtomicInteger statuses = new AtomicInteger();
+
+		@Override
+		public boolean statusChanged(String wpsCheckPoint, Document document) throws Exception {
+			statuses.incrementAndGet();
+			ProcessStatus processStatus = new ProcessStatus(document);
+			if (processStatus.isSuccess()) {
+				finished.countDown();
+				return true;
+			}
+			started.countDown();
+			return false;
+		}
+
+		@Override
+		public boolean statusFailed(String wpsCheckPoint, Exception cause) {
+			return false;
+		}
+	}
+}